@@ -57,6 +57,10 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   private static final int INITIAL_Y_POSITION = 0;
   private static final int HEIGHT_PADDING = 15;
   private static final int MOUSE_WHEEL_SCROLL_FACTOR = 8;
+  /**
+   * Children of nodes narrower than this (in pixels) are not visited, as they can't be told apart at the current zoom level.
+   */
+  private static final float MIN_DESCEND_WIDTH = 1f;
 
   private final Orientation myOrientation;
 
@@ -78,11 +82,20 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @NotNull
   private final Range myYRange;
 
+  /**
+   * Nodes visited by the last traversal, in breadth-first order. Some of them may not be drawn, e.g. if they are above the viewport.
+   */
   @NotNull
-  private final List<Rectangle2D.Float> myRectangles;
+  private final List<N> myNodes;
 
+  /**
+   * Rectangles used by {@link #myDrawnRectangles}. To limit the number of object allocations, they are reused across frames.
+   */
   @NotNull
-  private final List<N> myNodes;
+  private final List<Rectangle2D.Float> myRectanglePool;
+
+  @NotNull
+  private final Rectangle2D.Float myClampedDrawingArea = new Rectangle2D.Float();
 
   private boolean myRootVisible;
 
@@ -122,8 +135,8 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     myRootVisible = builder.myRootVisible;
 
     myYRange = new Range(INITIAL_Y_POSITION, INITIAL_Y_POSITION);
-    myRectangles = new ArrayList<>();
     myNodes = new ArrayList<>();
+    myRectanglePool = new ArrayList<>();
     myDrawnNodes = new ArrayList<>();
     myDrawnRectangles = new ArrayList<>();
 
@@ -159,7 +172,7 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     long startTime = System.nanoTime();
     if (myDataUpdated) {
       // Nulling out the canvas will trigger a render pass, below
-      updateNodesAndClearCanvas();
+      myCanvas = null;
       myDataUpdated = false;
     }
     g.setFont(getFont());
@@ -198,25 +211,7 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     UISettings.setupAntialiasing(g);
     g.setFont(getFont());
 
-    myDrawnNodes.clear();
-    myDrawnNodes.addAll(myNodes);
-
-    myDrawnRectangles.clear();
-    // Transform
-    for (Rectangle2D.Float rect : myRectangles) {
-      Rectangle2D.Float newRect = new Rectangle2D.Float();
-      newRect.x = rect.x * (float)dim.getWidth();
-      newRect.y = rect.y;
-      newRect.width = Math.max(0, rect.width * (float)dim.getWidth() - PADDING);
-      newRect.height = rect.height;
-
-      if (myOrientation == HTreeChart.Orientation.BOTTOM_UP) {
-        newRect.y = (float)(dim.getHeight() - newRect.y - newRect.getHeight());
-      }
-
-      myDrawnRectangles.add(newRect);
-    }
-
+    updateDrawnNodes(dim);
     myReducer.reduce(myDrawnRectangles, myDrawnNodes);
 
     assert myDrawnRectangles.size() == myDrawnNodes.size();
@@ -224,65 +219,96 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     for (int i = 0; i < myDrawnNodes.size(); ++i) {
       N node = myDrawnNodes.get(i);
       Rectangle2D.Float drawingArea = myDrawnRectangles.get(i);
-      Rectangle2D.Float clampedDrawingArea = new Rectangle2D.Float(Math.max(0, drawingArea.x),
-                                                                   drawingArea.y,
-                                                                   Math.min(drawingArea.x + drawingArea.width, dim.width - PADDING) -
-                                                                   Math.max(0, drawingArea.x),
-                                                                   drawingArea.height);
-      myRenderer.render(g, node, drawingArea, clampedDrawingArea, node == myFocusedNode);
+      myClampedDrawingArea.setRect(Math.max(0, drawingArea.x),
+                                   drawingArea.y,
+                                   Math.min(drawingArea.x + drawingArea.width, dim.width - PADDING) - Math.max(0, drawingArea.x),
+                                   drawingArea.height);
+      myRenderer.render(g, node, drawingArea, myClampedDrawingArea, node == myFocusedNode);
     }
 
     g.dispose();
   }
 
-  private void updateNodesAndClearCanvas() {
+  /**
+   * Collects the nodes to draw, and their drawing areas, into {@link #myDrawnNodes} and {@link #myDrawnRectangles}.
+   *
+   * Only what can be seen at the current zoom level is visited: subtrees outside of the X range or below the viewport are skipped, and
+   * so are the children of nodes narrower than {@link #MIN_DESCEND_WIDTH}. Consecutive sub-pixel nodes at the same depth are merged into
+   * a single block on the fly, the same way {@link DefaultHTreeChartReducer} does, so they never pile up in the lists.
+   */
+  private void updateDrawnNodes(@NotNull Dimension dim) {
     myNodes.clear();
-    myRectangles.clear();
-    myCanvas = null;
-    if (myRoot == null) {
+    myDrawnNodes.clear();
+    myDrawnRectangles.clear();
+    if (myRoot == null || !inRange(myRoot)) {
       return;
     }
 
-    if (inRange(myRoot)) {
-      myNodes.add(myRoot);
-      myRectangles.add(createRectangle(myRoot));
-    }
+    float rowHeight = mDefaultFontMetrics.getHeight();
+    double xMin = myXRange.getMin();
+    double xLength = myXRange.getLength();
+    int pooledRectangles = 0;
 
+    myNodes.add(myRoot);
     int head = 0;
     while (head < myNodes.size()) {
-      N curNode = myNodes.get(head++);
+      N node = myNodes.get(head++);
+      float y = (float)((rowHeight + PADDING) * node.getDepth() - myYRange.getMin());
+      if (y > dim.height) {
+        // Below the viewport, and so are all of its descendants.
+        continue;
+      }
+      float left = (float)((node.getStart() - xMin) / xLength * dim.width);
+      float right = (float)((node.getEnd() - xMin) / xLength * dim.width);
+
+      if (y + rowHeight >= 0 && (node != myRoot || myRootVisible) && !mergeWithLastDrawnNode(node, left, right)) {
+        if (pooledRectangles == myRectanglePool.size()) {
+          myRectanglePool.add(new Rectangle2D.Float());
+        }
+        Rectangle2D.Float rect = myRectanglePool.get(pooledRectangles++);
+        rect.x = left;
+        rect.y = myOrientation == Orientation.BOTTOM_UP ? dim.height - y - rowHeight : y;
+        rect.width = Math.max(0, right - left - PADDING);
+        rect.height = rowHeight;
+        myDrawnNodes.add(node);
+        myDrawnRectangles.add(rect);
+      }
 
-      for (int i = 0; i < curNode.getChildCount(); ++i) {
-        N child = curNode.getChildAt(i);
+      if (right - left < MIN_DESCEND_WIDTH) {
+        continue;
+      }
+      for (int i = 0; i < node.getChildCount(); ++i) {
+        N child = node.getChildAt(i);
         if (inRange(child)) {
           myNodes.add(child);
-          myRectangles.add(createRectangle(child));
         }
       }
     }
-    if (!myRootVisible && !myNodes.isEmpty()) {
-      myNodes.remove(0);
-      myRectangles.remove(0);
+  }
+
+  /**
+   * If {@code node} and the last drawn node are at the same depth and both fit inside the same pixel, extends the drawing area of the
+   * last drawn node to cover {@code node} too and returns true.
+   */
+  private boolean mergeWithLastDrawnNode(@NotNull N node, float left, float right) {
+    int last = myDrawnNodes.size() - 1;
+    if (last < 0 || myDrawnNodes.get(last).getDepth() != node.getDepth()) {
+      return false;
     }
+    Rectangle2D.Float lastRect = myDrawnRectangles.get(last);
+    float maxX = Math.max(left, right - PADDING);
+    int pixel = (int)Math.floor(lastRect.getMaxX());
+    if (Math.floor(lastRect.getMinX()) != pixel || Math.floor(maxX) != pixel) {
+      return false;
+    }
+    lastRect.width = (float)(maxX - lastRect.getMinX());
+    return true;
   }
 
   private boolean inRange(@NotNull N node) {
     return node.getStart() <= myXRange.getMax() && node.getEnd() >= myXRange.getMin();
   }
 
-  @NotNull
-  private Rectangle2D.Float createRectangle(@NotNull N node) {
-    float left = (float)((node.getStart() - myXRange.getMin()) / myXRange.getLength());
-    float right = (float)((node.getEnd() - myXRange.getMin()) / myXRange.getLength());
-    Rectangle2D.Float rect = new Rectangle2D.Float();
-    rect.x = left;
-    rect.y = (float)((mDefaultFontMetrics.getHeight() + PADDING) * node.getDepth()
-                     - getYRange().getMin());
-    rect.width = right - left;
-    rect.height = mDefaultFontMetrics.getHeight();
-    return rect;
-  }
-
   private double positionToRange(double x) {
     return x / getWidth() * myXRange.getLength() + myXRange.getMin();
   }
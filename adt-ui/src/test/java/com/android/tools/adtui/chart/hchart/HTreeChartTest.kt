@@ -27,6 +27,7 @@ import java.awt.*
 import com.google.common.truth.Truth.assertThat
 import com.intellij.openapi.util.SystemInfo.isMac
 import java.awt.geom.Rectangle2D
+import java.awt.image.BufferedImage
 
 class HTreeChartTest {
   private lateinit var myUi: FakeUi
@@ -344,6 +345,51 @@ class HTreeChartTest {
     assertThat(myChart.yRange.max).isWithin(EPSILON).of(18.0)
   }
 
+  @Test
+  fun testSubPixelNodesAreMergedAndNotDescended() {
+    // With 10 units per pixel, A and B both fit in the first pixel and G isn't worth visiting.
+    val root = DefaultHNode("root", 0, 1000)
+    val a = DefaultHNode("A", 0, 5).apply { depth = 1 }
+    val b = DefaultHNode("B", 5, 9).apply { depth = 1 }
+    val c = DefaultHNode("C", 100, 1000).apply { depth = 1 }
+    val g = DefaultHNode("G", 0, 5).apply { depth = 2 }
+    val d = DefaultHNode("D", 100, 1000).apply { depth = 2 }
+    a.addChild(g)
+    c.addChild(d)
+    root.addChild(a)
+    root.addChild(b)
+    root.addChild(c)
+
+    val chart = HTreeChart.Builder(root, Range(0.0, 1000.0), FakeRenderer())
+      .setOrientation(HTreeChart.Orientation.TOP_DOWN)
+      .build()
+    chart.size = Dimension(100, 200)
+    paint(chart)
+
+    assertThat(chart.getNodeAt(Point(0, rowCenter(chart, 1)))).isSameAs(a)
+    assertThat(chart.getNodeAt(Point(50, rowCenter(chart, 1)))).isSameAs(c)
+    assertThat(chart.getNodeAt(Point(0, rowCenter(chart, 2)))).isNull()
+    assertThat(chart.getNodeAt(Point(50, rowCenter(chart, 2)))).isSameAs(d)
+
+    // Make the chart so short that depth 2 is below the viewport.
+    chart.size = Dimension(100, rowCenter(chart, 1))
+    paint(chart)
+    assertThat(chart.getNodeAt(Point(50, rowCenter(chart, 1)))).isSameAs(c)
+    assertThat(chart.getNodeAt(Point(50, rowCenter(chart, 2)))).isNull()
+  }
+
+  private fun paint(chart: HTreeChart<DefaultHNode<String>>) {
+    val image = BufferedImage(chart.width, chart.height, BufferedImage.TYPE_INT_ARGB)
+    val g = image.createGraphics()
+    chart.paint(g)
+    g.dispose()
+  }
+
+  private fun rowCenter(chart: HTreeChart<DefaultHNode<String>>, depth: Int): Int {
+    val rowHeight = chart.getFontMetrics(chart.font).height
+    return (rowHeight + 1) * depth + rowHeight / 2
+  }
+
   class FakeRenderer : DefaultHRenderer<String>() {
     override fun getFillColor(nodeData: String) = Color.white
 
@@ -142,6 +142,11 @@ public final class StudioFlags {
     "For Android O or newer, supports single-point selection which shows a snapshot of the heap at the specific time.",
     true);
 
+  public static final Flag<Boolean> PROFILER_LIVE_ALLOCATIONS_AGGREGATION = Flag.create(
+    PROFILER, "memory.livealloc.aggregation", "Enable Live Allocation Class Aggregation",
+    "Build the class list of live allocation selections from per-class counts and only load the instances of a class when it is selected.",
+    false);
+
   public static final Flag<Boolean> PROFILER_SAMPLE_LIVE_ALLOCATIONS = Flag.create(
     PROFILER, "memory.livealloc.sampled", "Enable Sampled Live Allocation Tracking",
     "For Android O or newer, allows users to configure the sampling mode of live allocation tracking",
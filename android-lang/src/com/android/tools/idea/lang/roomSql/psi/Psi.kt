@@ -21,6 +21,7 @@ import com.android.tools.idea.lang.roomSql.RoomAnnotations
 import com.android.tools.idea.lang.roomSql.RoomSqlLanguage
 import com.android.tools.idea.lang.roomSql.resolution.RoomSchemaManager
 import com.android.tools.idea.lang.roomSql.resolution.SqlTable
+import com.android.tools.idea.lang.roomSql.resolution.processSchemaTables
 import com.intellij.extapi.psi.PsiFileBase
 import com.intellij.lang.injection.InjectedLanguageManager
 import com.intellij.openapi.fileTypes.FileType
@@ -29,7 +30,6 @@ import com.intellij.psi.PsiElement
 import com.intellij.psi.tree.IElementType
 import com.intellij.psi.tree.IFileElementType
 import com.intellij.util.Processor
-import com.intellij.util.containers.ContainerUtil
 import org.jetbrains.uast.*
 import javax.swing.Icon
 
@@ -62,8 +62,8 @@ class RoomSqlFile(viewProvider: FileViewProvider) : PsiFileBase(viewProvider, Ro
   fun processTables(processor: Processor<SqlTable>): Boolean {
     if (queryAnnotation != null) {
       // We are inside a Room @Query annotation, let's use the Room schema.
-      val tables = RoomSchemaManager.getInstance(project)?.getSchema(this)?.entities ?: emptySet<SqlTable>()
-      return ContainerUtil.process(tables, processor)
+      val schema = RoomSchemaManager.getInstance(project)?.getSchema(this) ?: return true
+      return processSchemaTables(schema, processor)
     }
 
     return true
@@ -21,7 +21,7 @@ import com.intellij.util.Processor
 /**
  * [Processor] that finds a table/column with a given name.
  */
-class FindByNameProcessor<T : SqlDefinition>(private val nameToLookFor: String) : CommonProcessors.FindProcessor<T>() {
+class FindByNameProcessor<T : SqlDefinition>(val nameToLookFor: String) : CommonProcessors.FindProcessor<T>() {
   override fun accept(t: T): Boolean = nameToLookFor.equals(t.name, ignoreCase = true)
 }
 
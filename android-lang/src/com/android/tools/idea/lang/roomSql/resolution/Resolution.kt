@@ -19,8 +19,18 @@ import com.android.tools.idea.lang.roomSql.psi.*
 import com.intellij.psi.PsiElement
 import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.Processor
+import com.intellij.util.containers.ContainerUtil
 import com.intellij.util.containers.Stack
 
+/**
+ * Processes the tables of a [RoomSchema]. When looking for a table by name, only the tables with that name are processed, instead of
+ * walking the whole schema.
+ */
+fun processSchemaTables(schema: RoomSchema, processor: Processor<SqlTable>): Boolean {
+  val tables = if (processor is FindByNameProcessor<*>) schema.findEntities(processor.nameToLookFor) else schema.entities
+  return ContainerUtil.process(tables, processor)
+}
+
 /**
  * Processes all [SqlTable]s that are defined for a given [start] [PsiElement].
  *
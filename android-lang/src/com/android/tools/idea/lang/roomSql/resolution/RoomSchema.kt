@@ -21,6 +21,7 @@ import com.intellij.psi.PsiField
 import com.intellij.psi.SmartPsiElementPointer
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
+import java.util.Locale
 
 typealias PsiClassPointer = SmartPsiElementPointer<out PsiClass>
 typealias PsiFieldPointer = SmartPsiElementPointer<out PsiField>
@@ -50,7 +51,13 @@ data class Entity(
   /** Columns present in the table representing this entity. */
   val columns: Set<EntityColumn> = emptySet()
 ) : SqlTable {
-  override fun processColumns(processor: Processor<SqlColumn>) = ContainerUtil.process(columns, processor)
+  private val columnsByName: Map<String, List<EntityColumn>> by lazy { columns.groupBy { it.name.toSqlKey() } }
+
+  override fun processColumns(processor: Processor<SqlColumn>): Boolean {
+    val candidates = if (processor is FindByNameProcessor<*>) columnsByName[processor.nameToLookFor.toSqlKey()].orEmpty() else columns
+    return ContainerUtil.process(candidates, processor)
+  }
+
   override val definingElement: PsiElement get() = psiClass.element!!
   override val resolveTo: PsiElement get() = nameElement.element!!
   override val isView: Boolean get() = false
@@ -81,5 +88,13 @@ data class RoomSchema(
   val entities: Set<Entity>,
   val daos: Set<Dao>
 ) {
+  private val entitiesByName: Map<String, List<Entity>> by lazy { entities.groupBy { it.name.toSqlKey() } }
+
   fun findEntity(psiClass: PsiClass) = entities.find { it.psiClass.element == psiClass }
+
+  /** Returns the entities whose table name matches [name], ignoring case like SQL does. */
+  fun findEntities(name: String): List<Entity> = entitiesByName[name.toSqlKey()].orEmpty()
 }
+
+/** Key of SQL names in lookup maps, since they are case-insensitive. */
+private fun String.toSqlKey() = toLowerCase(Locale.US)
@@ -24,10 +24,13 @@ import com.intellij.psi.*
 import com.intellij.psi.impl.ResolveScopeManager
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.searches.AnnotatedElementsSearch.searchPsiClasses
+import com.intellij.psi.util.CachedValue
 import com.intellij.psi.util.CachedValueProvider
 import com.intellij.psi.util.CachedValuesManager
 import com.intellij.psi.util.PsiModificationTracker
 import com.intellij.psi.util.PsiUtil
+import com.intellij.util.containers.ContainerUtil
+import java.util.concurrent.ConcurrentMap
 
 private val LOG = Logger.getInstance(RoomSchemaManager::class.java)
 
@@ -40,31 +43,55 @@ class RoomSchemaManager(val project: Project) {
   /**
    * Returns the [RoomSchema] visible from the given [PsiFile] or null if Room is not used in the project.
    *
-   * The schema is cached in the file and recomputed after a change to java structure.
+   * The schema is shared by all the files with the same resolve scope, e.g. all the queries of a module, and recomputed after a change
+   * to java structure. Recomputing it only walks the annotation index: the entities and databases are cached in their classes and only
+   * built again for the classes whose files changed.
    *
    * @see PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT
    */
-  fun getSchema(psiFile: PsiFile): RoomSchema? = CachedValuesManager.getManager(project).getCachedValue(
-    psiFile, { CachedValueProvider.Result(buildSchema(psiFile), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT) })
+  fun getSchema(psiFile: PsiFile): RoomSchema? {
+    val scope = ResolveScopeManager.getInstance(project).getResolveScope(psiFile)
+    return schemas.getOrPut(scope) {
+      CachedValuesManager.getManager(project).createCachedValue(
+        { CachedValueProvider.Result(buildSchema(scope), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT) }, false)
+    }.value
+  }
 
+  private val schemas: ConcurrentMap<GlobalSearchScope, CachedValue<RoomSchema?>> = ContainerUtil.createConcurrentSoftKeySoftValueMap()
   private val constantEvaluationHelper = JavaPsiFacade.getInstance(project).constantEvaluationHelper
   private val pointerManager = SmartPointerManager.getInstance(project)
 
   /** Builds the schema using IJ indexes. */
-  private fun buildSchema(psiFile: PsiFile): RoomSchema? {
-    LOG.debug("Recalculating Room schema for file ", psiFile)
-    val scope = ResolveScopeManager.getInstance(project).getResolveScope(psiFile)
+  private fun buildSchema(scope: GlobalSearchScope): RoomSchema? {
+    LOG.debug("Recalculating Room schema for scope ", scope)
     val psiFacade = JavaPsiFacade.getInstance(project) ?: return null
 
     if (!isRoomPresent(psiFacade, scope)) return null
 
-    val entities = processAnnotatedClasses(psiFacade, scope, RoomAnnotations.ENTITY, this::createEntity)
-    val databases = processAnnotatedClasses(psiFacade, scope, RoomAnnotations.DATABASE) { this.createDatabase(it, pointerManager) }
+    val entities = processAnnotatedClasses(psiFacade, scope, RoomAnnotations.ENTITY, this::getEntity)
+    val databases = processAnnotatedClasses(psiFacade, scope, RoomAnnotations.DATABASE, this::getDatabase)
     val daos = processAnnotatedClasses(psiFacade, scope, RoomAnnotations.DAO) { Dao(pointerManager.createSmartPsiElementPointer(it)) }
 
     return RoomSchema(databases, entities, daos)
   }
 
+  /**
+   * Returns the [Entity] defined by [psiClass], recomputed when the file of the class, or of any class that declares its columns, changes.
+   */
+  private fun getEntity(psiClass: PsiClass): Entity? = CachedValuesManager.getCachedValue(psiClass) {
+    val dependencies = HashSet<Any>()
+    dependencies.add(psiClass.containingFile ?: PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT)
+    CachedValueProvider.Result(createEntity(psiClass, dependencies), *dependencies.toTypedArray())
+  }
+
+  /** Returns the [RoomDatabase] defined by [psiClass], recomputed when the file of the class changes. */
+  private fun getDatabase(psiClass: PsiClass): RoomDatabase? = CachedValuesManager.getCachedValue(psiClass) {
+    CachedValueProvider.Result(
+      createDatabase(psiClass, pointerManager),
+      psiClass.containingFile ?: PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT
+    )
+  }
+
   private fun isRoomPresent(psiFacade: JavaPsiFacade, scope: GlobalSearchScope): Boolean {
     RoomAnnotations.ENTITY.bothNames { name ->
       if (psiFacade.findClass(name, scope) != null) {
@@ -91,7 +118,7 @@ class RoomSchemaManager(val project: Project) {
     return result
   }
 
-  private fun createEntity(psiClass: PsiClass): Entity? {
+  private fun createEntity(psiClass: PsiClass, dependencies: MutableSet<Any>): Entity? {
     val (tableName, tableNameElement) = getNameAndNameElement(
       psiClass,
       annotationName = RoomAnnotations.ENTITY,
@@ -102,19 +129,20 @@ class RoomSchemaManager(val project: Project) {
       pointerManager.createSmartPsiElementPointer(psiClass),
       tableName,
       pointerManager.createSmartPsiElementPointer(tableNameElement),
-      findColumns(psiClass).toSet()
+      findColumns(psiClass, dependencies).toSet()
     )
   }
 
-  private fun findColumns(psiClass: PsiClass, namePrefix: String = ""): Sequence<EntityColumn> {
+  private fun findColumns(psiClass: PsiClass, dependencies: MutableSet<Any>, namePrefix: String = ""): Sequence<EntityColumn> {
     return psiClass.allFields
       .asSequence()
+      .onEach { psiField -> psiField.containingFile?.let(dependencies::add) }
       .filterNot { it.modifierList?.hasModifierProperty(PsiModifier.STATIC) == true }
       .filterNot { it.modifierList?.findAnnotation(RoomAnnotations.IGNORE) != null }
       .flatMap { psiField ->
         val embeddedAnnotation = psiField.modifierList?.findAnnotation(RoomAnnotations.EMBEDDED)
         if (embeddedAnnotation != null) {
-          findEmbeddedFields(psiField, embeddedAnnotation, namePrefix)
+          findEmbeddedFields(psiField, embeddedAnnotation, dependencies, namePrefix)
         } else {
           val thisField = getNameAndNameElement(
             psiField,
@@ -137,6 +165,7 @@ class RoomSchemaManager(val project: Project) {
   private fun findEmbeddedFields(
     embeddedField: PsiField,
     embeddedAnnotation: PsiAnnotation,
+    dependencies: MutableSet<Any>,
     currentPrefix: String
   ): Sequence<EntityColumn> {
     val newPrefix = embeddedAnnotation.findAttributeValue("prefix")
@@ -146,7 +175,7 @@ class RoomSchemaManager(val project: Project) {
 
     val embeddedClass = PsiUtil.resolveClassInClassTypeOnly(embeddedField.type) ?: return emptySequence()
 
-    return findColumns(embeddedClass, currentPrefix + newPrefix)
+    return findColumns(embeddedClass, dependencies, currentPrefix + newPrefix)
   }
 
   private fun createDatabase(psiClass: PsiClass, pointerManager: SmartPointerManager): RoomDatabase? {
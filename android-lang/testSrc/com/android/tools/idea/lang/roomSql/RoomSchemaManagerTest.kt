@@ -17,6 +17,7 @@ package com.android.tools.idea.lang.roomSql
 
 import com.android.tools.idea.lang.roomSql.resolution.*
 import com.google.common.truth.Truth.assertThat
+import com.intellij.ide.highlighter.JavaFileType
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.psi.PsiDocumentManager
 import com.intellij.psi.PsiElement
@@ -350,4 +351,42 @@ class RoomSchemaManagerTest : RoomLightTestCase() {
             databases = emptySet(),
             daos = emptySet()))
   }
+
+  fun testEntities_cachedAcrossChanges() {
+    val user = myFixture.addRoomEntity("com.example.User", "name" ofType "String")
+    val before = getSchema(user)
+    val userEntity = before.findEntities("user").single()
+
+    myFixture.addRoomEntity("com.example.Address", "street" ofType "String")
+    val after = getSchema(user)
+
+    assertThat(after).isNotSameAs(before)
+    assertThat(after.findEntities("USER").single()).isSameAs(userEntity)
+    assertThat(after.findEntities("address").single().columns.map { it.name }).containsExactly("street")
+  }
+
+  fun testEntities_manyEntities() {
+    val entityCount = 500
+    for (i in 0 until entityCount) {
+      myFixture.addRoomEntity("com.example.Entity$i", "id" ofType "int", "name" ofType "String", "value$i" ofType "long")
+    }
+    myFixture.configureByText(JavaFileType.INSTANCE, """
+        package com.example;
+
+        import androidx.room.Dao;
+        import androidx.room.Query;
+
+        @Dao
+        public interface EntityDao {
+          @Query("SELECT value${entityCount - 1} FROM Entity${entityCount - 1} WHERE <caret>") List<Long> getAll();
+        }
+    """.trimIndent())
+
+    val schema = getSchema(myFixture.file)
+    assertThat(schema.entities).hasSize(entityCount)
+    assertThat(schema.findEntities("entity${entityCount - 1}").single().columns).hasSize(3)
+
+    val lookupStrings = myFixture.completeBasic().map { it.lookupString }
+    assertThat(lookupStrings).containsAllOf("id", "name", "value${entityCount - 1}")
+  }
 }
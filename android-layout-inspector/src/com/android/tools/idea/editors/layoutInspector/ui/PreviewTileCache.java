@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.layoutInspector.ui;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Mip-mapped, tiled version of a device screenshot used by {@link ViewNodeActiveDisplay}.
+ *
+ * Each mip level is half the size of the previous one and is only built the first time a zoom factor needs it.
+ * When painting, the smallest level that is still at least as large as the destination is picked, and only the
+ * tiles intersecting the clip are drawn, so zooming and panning over a large (e.g. 4K) screenshot no longer
+ * rescales the whole image on every repaint.
+ */
+class PreviewTileCache {
+  @VisibleForTesting
+  static final int TILE_SIZE = 256;
+
+  @NotNull private final List<BufferedImage> myLevels = Lists.newArrayList();
+
+  PreviewTileCache(@NotNull BufferedImage source) {
+    myLevels.add(source);
+  }
+
+  @NotNull
+  BufferedImage getSource() {
+    return myLevels.get(0);
+  }
+
+  /**
+   * Paints the screenshot scaled to {@code destWidth} x {@code destHeight} at the origin of {@code g},
+   * drawing only the tiles which intersect the current clip.
+   */
+  void paint(@NotNull Graphics2D g, int destWidth, int destHeight) {
+    if (destWidth <= 0 || destHeight <= 0) {
+      return;
+    }
+    BufferedImage source = getSource();
+    BufferedImage level = getLevel(getLevelIndex((double)destWidth / source.getWidth()));
+    double scaleX = (double)destWidth / level.getWidth();
+    double scaleY = (double)destHeight / level.getHeight();
+
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(0, 0, destWidth, destHeight);
+    }
+    // Visible range of the level, in level pixels, aligned to the tile grid
+    int firstColumn = Math.max(0, (int)Math.floor(clip.x / scaleX) / TILE_SIZE);
+    int firstRow = Math.max(0, (int)Math.floor(clip.y / scaleY) / TILE_SIZE);
+    int lastColumn = Math.min((level.getWidth() - 1) / TILE_SIZE, (int)Math.ceil((clip.x + clip.width) / scaleX) / TILE_SIZE);
+    int lastRow = Math.min((level.getHeight() - 1) / TILE_SIZE, (int)Math.ceil((clip.y + clip.height) / scaleY) / TILE_SIZE);
+
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        int sx1 = column * TILE_SIZE;
+        int sy1 = row * TILE_SIZE;
+        int sx2 = Math.min(sx1 + TILE_SIZE, level.getWidth());
+        int sy2 = Math.min(sy1 + TILE_SIZE, level.getHeight());
+        // Round the destination edges the same way for neighbouring tiles so there are no gaps between them
+        g.drawImage(level,
+                    (int)Math.round(sx1 * scaleX), (int)Math.round(sy1 * scaleY),
+                    (int)Math.round(sx2 * scaleX), (int)Math.round(sy2 * scaleY),
+                    sx1, sy1, sx2, sy2, null);
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the smallest mip level that is not smaller than the source scaled by {@code scale}.
+   */
+  @VisibleForTesting
+  static int getLevelIndex(double scale) {
+    int index = 0;
+    while (scale <= 0.5) {
+      scale *= 2;
+      index++;
+    }
+    return index;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  BufferedImage getLevel(int index) {
+    while (myLevels.size() <= index) {
+      BufferedImage previous = myLevels.get(myLevels.size() - 1);
+      if (previous.getWidth() == 1 && previous.getHeight() == 1) {
+        return previous;
+      }
+      myLevels.add(halve(previous));
+    }
+    return myLevels.get(index);
+  }
+
+  @NotNull
+  private static BufferedImage halve(@NotNull BufferedImage image) {
+    int width = Math.max(1, image.getWidth() / 2);
+    int height = Math.max(1, image.getHeight() / 2);
+    BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = result.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      g.drawImage(image, 0, 0, width, height, null);
+    }
+    finally {
+      g.dispose();
+    }
+    return result;
+  }
+}
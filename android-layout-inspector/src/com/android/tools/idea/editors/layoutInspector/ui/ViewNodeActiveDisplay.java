@@ -56,6 +56,8 @@ public class ViewNodeActiveDisplay extends JComponent {
   private ViewNode mRoot;
   @Nullable
   private Image mPreview;
+  @Nullable
+  private PreviewTileCache mPreviewTiles;
 
   private final List<ViewNodeActiveDisplayListener> mListeners = Lists.newArrayList();
 
@@ -84,6 +86,7 @@ public class ViewNodeActiveDisplay extends JComponent {
   public ViewNodeActiveDisplay(@NotNull ViewNode root, @Nullable Image preview) {
     mRoot = root;
     mPreview = preview;
+    mPreviewTiles = createTileCache(preview);
 
     MyMouseAdapter adapter = new MyMouseAdapter();
     addMouseListener(adapter);
@@ -223,8 +226,13 @@ public class ViewNodeActiveDisplay extends JComponent {
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
       }
-      g.drawImage(mPreview, 0, 0, mRoot.getPreviewBox().width, mRoot.getPreviewBox().height,
-                  0, 0, mPreview.getWidth(null), mPreview.getHeight(null), null);
+      if (mPreviewTiles != null) {
+        mPreviewTiles.paint(g, mRoot.getPreviewBox().width, mRoot.getPreviewBox().height);
+      }
+      else {
+        g.drawImage(mPreview, 0, 0, mRoot.getPreviewBox().width, mRoot.getPreviewBox().height,
+                    0, 0, mPreview.getWidth(null), mPreview.getHeight(null), null);
+      }
 
       if (isGridVisible() && mZoomFactor >= SHOW_GRID_LEVEL) {
         paintGrid(g, mPreview);
@@ -239,7 +247,7 @@ public class ViewNodeActiveDisplay extends JComponent {
     g.setColor(DEFAULT_COLOR);
     g.setStroke(DEFAULT_STROKE);
 
-    paintNode(mRoot, g);
+    paintNode(mRoot, g, g.getClipBounds());
 
     g.setStroke(THICK_STROKE);
     if (mHoverNode != null && mSelectedNode != mHoverNode) {
@@ -269,15 +277,18 @@ public class ViewNodeActiveDisplay extends JComponent {
     g.setComposite(oldComposite);
   }
 
-  private void paintNode(ViewNode node, Graphics2D g) {
-    if (node != mHoverNode && node != mSelectedNode) {
+  private void paintNode(ViewNode node, Graphics2D g, @Nullable Rectangle clip) {
+    Rectangle box = node.getPreviewBox();
+    boolean visible = clip == null || clip.intersects(box.x, box.y, box.width + 1, box.height + 1);
+    if (visible && node != mHoverNode && node != mSelectedNode) {
       // Hover node & selected node are drawn last
-      paintBox(node.getPreviewBox(), g);
+      paintBox(box, g);
     }
-    if (!node.isLeaf()) {
+    // Children of a clipping parent can't be visible if the parent isn't, so skip the whole subtree
+    if (!node.isLeaf() && (visible || !node.getDisplayInfo().getClipChildren())) {
       for (ViewNode child : node.getChildren()) {
         if (child.isDrawn()) {
-          paintNode(child, g);
+          paintNode(child, g, clip);
         }
       }
     }
@@ -407,12 +418,20 @@ public class ViewNodeActiveDisplay extends JComponent {
   }
 
   public void setPreview(@NotNull BufferedImage preview, ViewNode root) {
+    if (mPreviewTiles == null || mPreviewTiles.getSource() != preview) {
+      mPreviewTiles = createTileCache(preview);
+    }
     mPreview = preview;
     mRoot = root;
     updateBounds = true;
     repaint();
   }
 
+  @Nullable
+  private static PreviewTileCache createTileCache(@Nullable Image preview) {
+    return preview instanceof BufferedImage ? new PreviewTileCache((BufferedImage)preview) : null;
+  }
+
   private class MyMouseAdapter extends MouseAdapter {
 
     @Override
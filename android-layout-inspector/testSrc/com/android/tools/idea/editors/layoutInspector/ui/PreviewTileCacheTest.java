@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.layoutInspector.ui;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PreviewTileCacheTest {
+  @Test
+  public void levelIndexMatchesScale() {
+    assertThat(PreviewTileCache.getLevelIndex(2.0)).isEqualTo(0);
+    assertThat(PreviewTileCache.getLevelIndex(1.0)).isEqualTo(0);
+    assertThat(PreviewTileCache.getLevelIndex(0.6)).isEqualTo(0);
+    assertThat(PreviewTileCache.getLevelIndex(0.5)).isEqualTo(1);
+    assertThat(PreviewTileCache.getLevelIndex(0.3)).isEqualTo(1);
+    assertThat(PreviewTileCache.getLevelIndex(0.1)).isEqualTo(3);
+  }
+
+  @Test
+  public void levelsAreHalvedAndCached() {
+    PreviewTileCache cache = new PreviewTileCache(new BufferedImage(1440, 2560, BufferedImage.TYPE_INT_ARGB));
+
+    BufferedImage level2 = cache.getLevel(2);
+    assertThat(level2.getWidth()).isEqualTo(360);
+    assertThat(level2.getHeight()).isEqualTo(640);
+    assertThat(cache.getLevel(2)).isSameAs(level2);
+    assertThat(cache.getLevel(1).getWidth()).isEqualTo(720);
+  }
+
+  @Test
+  public void paintOnlyTouchesVisibleTiles() {
+    BufferedImage source = new BufferedImage(PreviewTileCache.TILE_SIZE * 4, PreviewTileCache.TILE_SIZE * 4, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D sourceGraphics = source.createGraphics();
+    sourceGraphics.setColor(Color.RED);
+    sourceGraphics.fillRect(0, 0, source.getWidth(), source.getHeight());
+    sourceGraphics.dispose();
+    PreviewTileCache cache = new PreviewTileCache(source);
+
+    BufferedImage dest = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = dest.createGraphics();
+    g.clipRect(0, 0, PreviewTileCache.TILE_SIZE, PreviewTileCache.TILE_SIZE);
+    cache.paint(g, dest.getWidth(), dest.getHeight());
+    g.dispose();
+
+    assertThat(dest.getRGB(10, 10)).isEqualTo(Color.RED.getRGB());
+    assertThat(dest.getRGB(PreviewTileCache.TILE_SIZE * 2, PreviewTileCache.TILE_SIZE * 2)).isEqualTo(0);
+  }
+}
@@ -275,6 +275,18 @@ public class DeviceExplorerController {
     return myEdtExecutor.executeFuturesInSequence(iterator, taskFactory);
   }
 
+  /**
+   * Starts the transfers of all the files in {@code items} at once, leaving it to the device file system to limit how many
+   * run at the same time, then transfers the other items (i.e. directories) one after the other.
+   */
+  private <T> ListenableFuture<Void> executeFileTransfers(@NotNull List<T> items,
+                                                          @NotNull Predicate<T> isFile,
+                                                          @NotNull Function<T, ListenableFuture<Void>> taskFactory) {
+    List<ListenableFuture<Void>> futureFiles = items.stream().filter(isFile).map(taskFactory).collect(Collectors.toList());
+    return myEdtExecutor.transformAsync(Futures.successfulAsList(futureFiles), results ->
+      executeFuturesInSequence(items.stream().filter(isFile.negate()).iterator(), taskFactory));
+  }
+
   private void startNodeDownload(@NotNull DeviceFileEntryNode node) {
     startNodeTransfer(node, true);
   }
@@ -554,7 +566,7 @@ public class DeviceExplorerController {
 
       return wrapFileTransfer(
         tracker -> addDownloadOperationWork(tracker, treeNodes),
-        tracker -> executeFuturesInSequence(treeNodes.iterator(), treeNode -> {
+        tracker -> executeFileTransfers(treeNodes, treeNode -> !treeNode.getEntry().isDirectory(), treeNode -> {
           Path nodePath = localDirectory.resolve(treeNode.getEntry().getName());
           return downloadSingleNode(treeNode, nodePath, tracker);
         }));
@@ -718,10 +730,11 @@ public class DeviceExplorerController {
       myEdtExecutor.addCallback(futureLoadChildren, new FutureCallback<Void>() {
         @Override
         public void onSuccess(@Nullable Void result) {
-          ListenableFuture<Void> futureDownloadChildren = executeFuturesInSequence(treeNode.getChildEntryNodes().iterator(), node -> {
-            Path nodePath = localDirectoryPath.resolve(node.getEntry().getName());
-            return downloadSingleNode(node, nodePath, tracker);
-          });
+          ListenableFuture<Void> futureDownloadChildren =
+            executeFileTransfers(treeNode.getChildEntryNodes(), node -> !node.getEntry().isDirectory(), node -> {
+              Path nodePath = localDirectoryPath.resolve(node.getEntry().getName());
+              return downloadSingleNode(node, nodePath, tracker);
+            });
           myEdtExecutor.addConsumer(futureDownloadChildren, (aVoid, throwable) -> {
             if (throwable != null) {
               tracker.addProblem(throwable);
@@ -1032,7 +1045,7 @@ public class DeviceExplorerController {
                                                       @NotNull FileTransferOperationTracker tracker) {
       // Upload each file
       ListenableFuture<Void> futureUploadFiles =
-        executeFuturesInSequence(files.iterator(), file -> uploadVirtualFile(parentNode, file, tracker));
+        executeFileTransfers(files, file -> !file.isDirectory(), file -> uploadVirtualFile(parentNode, file, tracker));
 
       // Refresh children nodes
       return myEdtExecutor.transformAsync(futureUploadFiles, aVoid -> {
@@ -1162,9 +1175,9 @@ public class DeviceExplorerController {
             uploadState.loadChildrenFuture = null;
           }
 
-          // Start loading children
+          // Start loading children, unless the upload of a sibling file is already doing it
           if (currentBytes > 0) {
-            if (uploadState.loadChildrenFuture == null) {
+            if (uploadState.loadChildrenFuture == null && !myLoadingChildren.contains(parentNode)) {
               parentNode.setLoaded(false);
               uploadState.loadChildrenFuture = loadNodeChildren(parentNode);
             }
@@ -17,19 +17,25 @@ package com.android.tools.idea.explorer.adbimpl;
 
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import com.android.tools.idea.concurrent.FutureCallbackExecutor;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.concurrent.GuardedBy;
 import java.io.IOException;
-import java.util.List;
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -42,11 +48,37 @@ public class AdbFileListing {
   @NotNull public static final Logger LOGGER = Logger.getInstance(AdbFileListing.class);
   @NotNull private static final Pattern BACKSLASH = Pattern.compile("\\", Pattern.LITERAL);
 
+  /**
+   * How long the symbolic links found by listing a directory, and whether they point to directories, are remembered.
+   */
+  private static final long CACHE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+  /**
+   * Line separating the output of the commands resolving each symbolic link, when they are resolved with a single shell command.
+   */
+  @NotNull static final String LINK_SEPARATOR_MARKER = "LNK-LNK-LNK-LNK";
+  @NotNull private static final String LINK_SEPARATOR_COMMAND = "; echo " + LINK_SEPARATOR_MARKER + "; ";
+  /**
+   * Longest shell command used to resolve several symbolic links at once. Older versions of adbd reject requests over 4KB.
+   */
+  static final int MAX_COMMAND_LENGTH = 4000;
+
   @NotNull private final IDevice myDevice;
   @NotNull private AdbDeviceCapabilities myDeviceCapabilities;
   @NotNull private final FutureCallbackExecutor myExecutor;
   @NotNull private final AdbFileListingEntry myRoot;
 
+  /**
+   * Symbolic links found by the last listing of each directory, keyed by run-as package name and directory path.
+   */
+  @GuardedBy("myCacheLock")
+  @NotNull private final Map<Pair<String, String>, CachedLinks> myDirectoryLinks = new HashMap<>();
+  /**
+   * Whether each symbolic link points to a directory, or the resolution in progress, keyed by run-as package name and link path.
+   */
+  @GuardedBy("myCacheLock")
+  @NotNull private final Map<Pair<String, String>, CachedLinkResolution> myLinkResolutions = new HashMap<>();
+  @NotNull private final Object myCacheLock = new Object();
+
   public AdbFileListing(@NotNull IDevice device, @NotNull AdbDeviceCapabilities deviceCapabilities, @NotNull Executor taskExecutor) {
     myDevice = device;
     myDeviceCapabilities = deviceCapabilities;
@@ -82,6 +114,7 @@ public class AdbFileListing {
       if (entries.isEmpty() && commandResult.isError()) {
         commandResult.throwIfError();
       }
+      cacheDirectoryLinks(parentEntry, runAs, entries);
       return entries;
     });
   }
@@ -97,6 +130,10 @@ public class AdbFileListing {
     return isDirectoryLinkRunAs(entry, null);
   }
 
+  /**
+   * Same as {@link #isDirectoryLink(AdbFileListingEntry)}. The first time a link found by listing a directory is asked for, all the
+   * links of that directory which aren't resolved yet are resolved with a single shell command, instead of one command per link.
+   */
   @NotNull
   public ListenableFuture<Boolean> isDirectoryLinkRunAs(@NotNull AdbFileListingEntry entry,
                                                         @Nullable String runAs) {
@@ -104,30 +141,183 @@ public class AdbFileListing {
       return Futures.immediateFuture(false);
     }
 
-    return myExecutor.executeAsync(() -> {
-      // We simply need to determine whether the referent is a directory or not.
-      // We do this by running `ls -ld ${link}/`.  If the referent exists and is a
-      // directory, we'll see the normal directory listing.  Otherwise, we'll see an
-      // error of some sort.
-      String command = getCommand(runAs, "ls -l -d ").withDirectoryEscapedPath(entry.getFullPath()).build();
+    List<AdbFileListingEntry> links = new ArrayList<>();
+    List<CachedLinkResolution> resolutions = new ArrayList<>();
+    synchronized (myCacheLock) {
+      CachedLinkResolution cached = myLinkResolutions.get(Pair.create(runAs, entry.getFullPath()));
+      if (cached != null && !cached.isExpired()) {
+        return cached.myIsDirectory;
+      }
+
+      links.add(entry);
+      CachedLinks siblings = myDirectoryLinks.get(Pair.create(runAs, AdbPathUtil.getParentPath(entry.getFullPath())));
+      if (siblings != null && !siblings.isExpired()) {
+        for (AdbFileListingEntry sibling : siblings.myLinks) {
+          CachedLinkResolution siblingResolution = myLinkResolutions.get(Pair.create(runAs, sibling.getFullPath()));
+          if (!sibling.getFullPath().equals(entry.getFullPath()) && (siblingResolution == null || siblingResolution.isExpired())) {
+            links.add(sibling);
+          }
+        }
+      }
+      for (AdbFileListingEntry link : links) {
+        CachedLinkResolution resolution = new CachedLinkResolution();
+        myLinkResolutions.put(Pair.create(runAs, link.getFullPath()), resolution);
+        resolutions.add(resolution);
+      }
+    }
+
+    ListenableFuture<List<Boolean>> futureResults = myExecutor.executeAsync(() -> resolveDirectoryLinks(links, runAs));
+    myExecutor.addCallback(futureResults, new FutureCallback<List<Boolean>>() {
+      @Override
+      public void onSuccess(@Nullable List<Boolean> result) {
+        assert result != null;
+        for (int i = 0; i < resolutions.size(); i++) {
+          resolutions.get(i).myIsDirectory.set(result.get(i));
+        }
+      }
+
+      @Override
+      public void onFailure(@NotNull Throwable t) {
+        // Don't keep the failure around, the next request for these links should try again.
+        synchronized (myCacheLock) {
+          for (int i = 0; i < links.size(); i++) {
+            myLinkResolutions.remove(Pair.create(runAs, links.get(i).getFullPath()), resolutions.get(i));
+          }
+        }
+        resolutions.forEach(resolution -> resolution.myIsDirectory.setException(t));
+      }
+    });
+    return resolutions.get(0).myIsDirectory;
+  }
+
+  /**
+   * Remembers the symbolic links found by listing a directory, so that they can be resolved together, and forgets how they were
+   * resolved before since listing the directory again is how its entries are refreshed.
+   */
+  private void cacheDirectoryLinks(@NotNull AdbFileListingEntry parentEntry,
+                                   @Nullable String runAs,
+                                   @NotNull List<AdbFileListingEntry> entries) {
+    List<AdbFileListingEntry> links = entries.stream().filter(AdbFileListingEntry::isSymbolicLink).collect(Collectors.toList());
+    synchronized (myCacheLock) {
+      myDirectoryLinks.entrySet().removeIf(cached -> cached.getValue().isExpired());
+      myLinkResolutions.entrySet().removeIf(cached -> cached.getValue().isExpired());
+      for (AdbFileListingEntry link : links) {
+        myLinkResolutions.remove(Pair.create(runAs, link.getFullPath()));
+      }
+      if (links.isEmpty()) {
+        myDirectoryLinks.remove(Pair.create(runAs, parentEntry.getFullPath()));
+      }
+      else {
+        myDirectoryLinks.put(Pair.create(runAs, parentEntry.getFullPath()), new CachedLinks(links));
+      }
+    }
+  }
+
+  /**
+   * Determines whether each of the given symbolic links points to a directory.
+   */
+  @NotNull
+  private List<Boolean> resolveDirectoryLinks(@NotNull List<AdbFileListingEntry> links, @Nullable String runAs)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    // We simply need to determine whether the referent is a directory or not.
+    // We do this by running `ls -ld ${link}/`.  If the referent exists and is a
+    // directory, we'll see the normal directory listing.  Otherwise, we'll see an
+    // error of some sort.
+    List<String> commands = new ArrayList<>(links.size());
+    for (AdbFileListingEntry link : links) {
+      commands.add(getCommand(runAs, "ls -l -d ").withDirectoryEscapedPath(link.getFullPath()).build());
+    }
+
+    // Run the commands of as many links as fit in a single shell request at once, separated by a marker line.
+    List<Boolean> result = new ArrayList<>(links.size());
+    int start = 0;
+    while (start < commands.size()) {
+      int end = start + 1;
+      int length = getCommandLength(commands.get(start));
+      while (end < commands.size() && length + getCommandLength(LINK_SEPARATOR_COMMAND + commands.get(end)) <= MAX_COMMAND_LENGTH) {
+        length += getCommandLength(LINK_SEPARATOR_COMMAND + commands.get(end));
+        end++;
+      }
+      result.addAll(resolveDirectoryLinkBatch(commands.subList(start, end)));
+      start = end;
+    }
+    return result;
+  }
+
+  private static int getCommandLength(@NotNull String command) {
+    return command.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  /**
+   * Runs the given "ls -l -d" commands with a single shell request, or one by one if the device does not accept it.
+   */
+  @NotNull
+  private List<Boolean> resolveDirectoryLinkBatch(@NotNull List<String> commands)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    if (commands.size() > 1) {
+      try {
+        return executeDirectoryLinkCommands(commands);
+      }
+      catch (AdbCommandRejectedException | IOException e) {
+        LOGGER.info(String.format("Error resolving %d symbolic links at once, resolving them one by one", commands.size()), e);
+      }
+    }
+    List<Boolean> result = new ArrayList<>(commands.size());
+    for (String command : commands) {
       AdbShellCommandResult commandResult = AdbShellCommandsUtil.executeCommandNoErrorCheck(myDevice, command);
+      result.add(countDirectoryLines(commandResult.getOutput()) > 0);
+    }
+    return result;
+  }
+
+  @NotNull
+  private List<Boolean> executeDirectoryLinkCommands(@NotNull List<String> commands)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    int[] directoryLines = new int[commands.size()];
+    AdbShellCommandsUtil.executeRawCommand(myDevice, String.join(LINK_SEPARATOR_COMMAND, commands), new MultiLineReceiver() {
+      private int myLinkIndex;
 
-      // Look for at least one line matching the expected output
-      int lineCount = 0;
-      for (String line : commandResult.getOutput()) {
-        Matcher m = LS_LD_PATTERN.matcher(line);
-        if (m.matches()) {
-          if (lineCount > 0) {
-            // It is odd to have more than one line matching "ls -l -d"
-            LOGGER.warn(String.format("Unexpected additional output line matching result of ld -l -d: %s", line));
+      @Override
+      public void processNewLines(@NotNull String[] lines) {
+        for (String line : lines) {
+          if (line.trim().equals(LINK_SEPARATOR_MARKER)) {
+            myLinkIndex = Math.min(myLinkIndex + 1, commands.size() - 1);
+          }
+          else {
+            directoryLines[myLinkIndex] += countDirectoryLines(Collections.singletonList(line));
           }
-          lineCount++;
         }
       }
 
-      // All done
-      return lineCount > 0;
+      @Override
+      public boolean isCancelled() {
+        return false;
+      }
     });
+    List<Boolean> result = new ArrayList<>(commands.size());
+    for (int lineCount : directoryLines) {
+      result.add(lineCount > 0);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of lines matching the output of "ls -l -d" for a directory.
+   */
+  private static int countDirectoryLines(@NotNull List<String> output) {
+    // Look for at least one line matching the expected output
+    int lineCount = 0;
+    for (String line : output) {
+      Matcher m = LS_LD_PATTERN.matcher(line);
+      if (m.matches()) {
+        if (lineCount > 0) {
+          // It is odd to have more than one line matching "ls -l -d"
+          LOGGER.warn(String.format("Unexpected additional output line matching result of ld -l -d: %s", line));
+        }
+        lineCount++;
+      }
+    }
+    return lineCount;
   }
 
   @Nullable
@@ -229,4 +419,26 @@ public class AdbFileListing {
     }
     return command.withText(text);
   }
-}
\ No newline at end of file
+
+  private static class CachedLinks {
+    @NotNull private final List<AdbFileListingEntry> myLinks;
+    private final long myTimeNs = System.nanoTime();
+
+    private CachedLinks(@NotNull List<AdbFileListingEntry> links) {
+      myLinks = links;
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - myTimeNs > CACHE_TTL_NANOS;
+    }
+  }
+
+  private static class CachedLinkResolution {
+    @NotNull private final SettableFuture<Boolean> myIsDirectory = SettableFuture.create();
+    private final long myTimeNs = System.nanoTime();
+
+    private boolean isExpired() {
+      return System.nanoTime() - myTimeNs > CACHE_TTL_NANOS;
+    }
+  }
+}
@@ -24,32 +24,73 @@ import com.android.tools.idea.explorer.fs.FileTransferProgress;
 import com.android.tools.idea.explorer.fs.ThrottledProgress;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.concurrent.GuardedBy;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
 import static com.android.tools.idea.explorer.adbimpl.AdbPathUtil.DEVICE_TEMP_DIRECTORY;
 
+/**
+ * Pushes and pulls files to and from a device using the sync protocol.
+ *
+ * Every push or pull opens its own sync session. At most {@link #getMaxConcurrentTransfers()} sessions run at
+ * the same time, the other transfers wait in a queue, in the order they were requested. Running a few sessions
+ * side by side hides the per-file setup cost of the protocol when transferring many small files.
+ */
 public class AdbFileTransfer {
   @NotNull private static Logger LOGGER = Logger.getInstance(AdbFileTransfer.class);
 
+  public static final int DEFAULT_MAX_CONCURRENT_TRANSFERS = 4;
+
   @NotNull private final IDevice myDevice;
   @NotNull private final AdbFileOperations myFileOperations;
   @NotNull private final FutureCallbackExecutor myProgressExecutor;
   @NotNull private final FutureCallbackExecutor myTaskExecutor;
+  private final int myMaxConcurrentTransfers;
+
+  @GuardedBy("myPendingTransfers")
+  @NotNull private final Queue<PendingTransfer<?>> myPendingTransfers = new ArrayDeque<>();
+  @GuardedBy("myPendingTransfers")
+  private int myActiveTransferCount;
 
   public AdbFileTransfer(@NotNull IDevice device,
                          @NotNull AdbFileOperations fileOperations,
                          @NotNull Executor progressExecutor,
                          @NotNull Executor taskExecutor) {
+    this(device, fileOperations, progressExecutor, taskExecutor, DEFAULT_MAX_CONCURRENT_TRANSFERS);
+  }
+
+  public AdbFileTransfer(@NotNull IDevice device,
+                         @NotNull AdbFileOperations fileOperations,
+                         @NotNull Executor progressExecutor,
+                         @NotNull Executor taskExecutor,
+                         int maxConcurrentTransfers) {
+    if (maxConcurrentTransfers < 1) {
+      throw new IllegalArgumentException("There must be at least one concurrent transfer");
+    }
     myDevice = device;
     myFileOperations = fileOperations;
     myProgressExecutor = FutureCallbackExecutor.wrap(progressExecutor);
     myTaskExecutor = FutureCallbackExecutor.wrap(taskExecutor);
+    myMaxConcurrentTransfers = maxConcurrentTransfers;
+  }
+
+  public int getMaxConcurrentTransfers() {
+    return myMaxConcurrentTransfers;
   }
 
   @NotNull
@@ -122,16 +163,73 @@ public class AdbFileTransfer {
     });
   }
 
+  /**
+   * Pulls several files, keyed by their entry on the device, to the local paths they map to. The files are
+   * transferred concurrently and {@code progress} reports the bytes transferred over the whole batch.
+   *
+   * The returned future fails with the error of the first file which fails to transfer, once all the other
+   * transfers are done. Cancelling it, or {@code progress} reporting it is cancelled, cancels the transfers
+   * which have not completed yet.
+   */
+  @NotNull
+  public ListenableFuture<Void> downloadFiles(@NotNull Map<AdbFileListingEntry, Path> files, @NotNull FileTransferProgress progress) {
+    long totalBytes = files.keySet().stream().mapToLong(AdbFileListingEntry::getSize).sum();
+    BatchProgress batchProgress = new BatchProgress(progress, totalBytes);
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    files.forEach((remoteFileEntry, localPath) -> futures.add(downloadFile(remoteFileEntry, localPath, batchProgress.createFileProgress())));
+    return whenAllComplete(futures, batchProgress);
+  }
+
+  /**
+   * Pushes several local files to the remote paths they map to. The files are transferred concurrently and
+   * {@code progress} reports the bytes transferred over the whole batch.
+   *
+   * The returned future fails with the error of the first file which fails to transfer, once all the other
+   * transfers are done. Cancelling it, or {@code progress} reporting it is cancelled, cancels the transfers
+   * which have not completed yet.
+   */
+  @NotNull
+  public ListenableFuture<Void> uploadFiles(@NotNull Map<Path, String> files, @NotNull FileTransferProgress progress) {
+    long totalBytes = files.keySet().stream().mapToLong(localPath -> localPath.toFile().length()).sum();
+    BatchProgress batchProgress = new BatchProgress(progress, totalBytes);
+    List<ListenableFuture<Void>> futures = new ArrayList<>();
+    files.forEach((localPath, remotePath) -> futures.add(uploadFile(localPath, remotePath, batchProgress.createFileProgress())));
+    return whenAllComplete(futures, batchProgress);
+  }
+
+  @NotNull
+  private ListenableFuture<Void> whenAllComplete(@NotNull List<ListenableFuture<Void>> futures, @NotNull BatchProgress progress) {
+    // Note: Cancelling the batch cancels all the transfers, since both "transformAsync" and "successfulAsList" propagate cancellation
+    ListenableFuture<Void> futureBatch = myTaskExecutor.transformAsync(Futures.successfulAsList(futures), results -> {
+      for (ListenableFuture<Void> future : futures) {
+        try {
+          Futures.getDone(future);
+        }
+        catch (ExecutionException | CancellationException e) {
+          // Forward the error, or the cancellation, of the first transfer which did not succeed
+          return future;
+        }
+      }
+      return Futures.immediateFuture(null);
+    });
+
+    // Stop the transfers which are already running, which only check for cancellation through their progress
+    myTaskExecutor.addListener(futureBatch, () -> {
+      if (futureBatch.isCancelled()) {
+        progress.cancel();
+      }
+    });
+    return futureBatch;
+  }
+
   @NotNull
   private ListenableFuture<Void> downloadFileWorker(@NotNull String remotePath,
                                                     long remotePathSize,
                                                     @NotNull Path localPath,
                                                     @NotNull FileTransferProgress progress) {
 
-    ListenableFuture<SyncService> futureSyncService = getSyncService();
-
-    ListenableFuture<Void> futurePull = myTaskExecutor.transform(futureSyncService, syncService -> {
-      assert syncService != null;
+    ListenableFuture<Void> futurePull = enqueueTransfer(() -> {
+      SyncService syncService = getSyncService();
       try {
         long startTime = System.nanoTime();
         syncService.pullFile(remotePath,
@@ -163,10 +261,8 @@ public class AdbFileTransfer {
                                                   @NotNull String remotePath,
                                                   @NotNull FileTransferProgress progress) {
 
-    ListenableFuture<SyncService> futureSyncService = getSyncService();
-
-    ListenableFuture<Void> futurePush = myTaskExecutor.transform(futureSyncService, syncService -> {
-      assert syncService != null;
+    ListenableFuture<Void> futurePush = enqueueTransfer(() -> {
+      SyncService syncService = getSyncService();
       try {
         long fileLength = localPath.toFile().length();
         long startTime = System.nanoTime();
@@ -195,14 +291,138 @@ public class AdbFileTransfer {
   }
 
   @NotNull
-  private ListenableFuture<SyncService> getSyncService() {
-    return myTaskExecutor.executeAsync(() -> {
-      SyncService sync = myDevice.getSyncService();
-      if (sync == null) {
-        throw new IOException("Unable to open synchronization service to device");
+  private SyncService getSyncService() throws Exception {
+    SyncService sync = myDevice.getSyncService();
+    if (sync == null) {
+      throw new IOException("Unable to open synchronization service to device");
+    }
+    return sync;
+  }
+
+  /**
+   * Runs the given transfer on the task executor right away if fewer than {@link #myMaxConcurrentTransfers}
+   * are running, or once the transfers ahead of it in the queue have started otherwise.
+   */
+  @NotNull
+  private <V> ListenableFuture<V> enqueueTransfer(@NotNull Callable<V> transfer) {
+    PendingTransfer<V> pendingTransfer = new PendingTransfer<>(transfer);
+    synchronized (myPendingTransfers) {
+      if (myActiveTransferCount == myMaxConcurrentTransfers) {
+        myPendingTransfers.add(pendingTransfer);
+        return pendingTransfer.myResult;
       }
-      return sync;
-    });
+      myActiveTransferCount++;
+    }
+    startTransfer(pendingTransfer);
+    return pendingTransfer.myResult;
+  }
+
+  private void startTransfer(@NotNull PendingTransfer<?> pendingTransfer) {
+    // Transfers which were cancelled while in the queue are skipped, so loop until one actually starts
+    PendingTransfer<?> next = pendingTransfer;
+    while (!next.start(myTaskExecutor, this::onTransferDone)) {
+      synchronized (myPendingTransfers) {
+        next = myPendingTransfers.poll();
+        if (next == null) {
+          myActiveTransferCount--;
+          return;
+        }
+      }
+    }
+  }
+
+  private void onTransferDone() {
+    PendingTransfer<?> next;
+    synchronized (myPendingTransfers) {
+      next = myPendingTransfers.poll();
+      if (next == null) {
+        myActiveTransferCount--;
+        return;
+      }
+    }
+    startTransfer(next);
+  }
+
+  /**
+   * A transfer waiting for a sync session to be available.
+   */
+  private static class PendingTransfer<V> {
+    @NotNull private final Callable<V> myTransfer;
+    @NotNull private final SettableFuture<V> myResult = SettableFuture.create();
+
+    PendingTransfer(@NotNull Callable<V> transfer) {
+      myTransfer = transfer;
+    }
+
+    /**
+     * Runs the transfer on the given executor, unless it was cancelled, and returns whether it was started.
+     * {@code onDone} is invoked once the transfer has returned, i.e. once its sync session is closed, even when
+     * the result was cancelled before that.
+     */
+    boolean start(@NotNull FutureCallbackExecutor executor, @NotNull Runnable onDone) {
+      if (myResult.isDone()) {
+        return false;
+      }
+      // Note: Cancelling the result cancels the future of the task, since "setFuture" propagates cancellation
+      myResult.setFuture(executor.executeAsync(() -> {
+        try {
+          if (myResult.isCancelled()) {
+            throw new CancellationException();
+          }
+          return myTransfer.call();
+        }
+        finally {
+          onDone.run();
+        }
+      }));
+      return true;
+    }
+  }
+
+  /**
+   * Sums up the progress of the files of a batch, and forwards the cancellation of the batch to each of them.
+   * The callbacks of the files are invoked on the progress executor, the sum is reported on the same thread.
+   */
+  private static class BatchProgress {
+    @NotNull private final FileTransferProgress myProgress;
+    private final long myTotalBytes;
+    @GuardedBy("this")
+    private long myCurrentBytes;
+    private volatile boolean myCancelled;
+
+    BatchProgress(@NotNull FileTransferProgress progress, long totalBytes) {
+      myProgress = progress;
+      myTotalBytes = totalBytes;
+    }
+
+    void cancel() {
+      myCancelled = true;
+    }
+
+    @NotNull
+    FileTransferProgress createFileProgress() {
+      return new FileTransferProgress() {
+        private long myFileBytes;
+
+        @Override
+        public void progress(long currentBytes, long totalBytes) {
+          // Progress monitors may report a little more than the size of the file, do not count that
+          long fileBytes = totalBytes < 0 ? currentBytes : Math.min(currentBytes, totalBytes);
+          long batchBytes;
+          synchronized (BatchProgress.this) {
+            myCurrentBytes += fileBytes - myFileBytes;
+            myFileBytes = fileBytes;
+            batchBytes = myCurrentBytes;
+          }
+          myProgress.progress(batchBytes, myTotalBytes);
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return myCancelled || myProgress.isCancelled();
+        }
+      };
+    }
   }
 
   /**
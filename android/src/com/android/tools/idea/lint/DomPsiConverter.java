@@ -25,6 +25,8 @@ import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.xml.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -46,13 +48,19 @@ import java.util.Map;
  * converter only attempts to make the DOM correct as far as Lint cares (meaning that it
  * only worries about the details Lint cares about; currently this means it only wraps elements,
  * text and comment nodes.)
+ * <p>
+ * The DOM nodes are created lazily as lint walks the tree, and the resulting document is cached
+ * on the {@link XmlFile} until the file is modified, so repeated lint runs over an unchanged file
+ * (e.g. several inspection passes, or re-highlighting after edits in other files) reuse the nodes
+ * already wrapped instead of converting the file again.
  */
 class DomPsiConverter {
   private DomPsiConverter() {
   }
 
   /**
-   * Convert the given {@link XmlFile} to a DOM tree
+   * Convert the given {@link XmlFile} to a DOM tree, reusing the tree from a previous
+   * conversion if the file has not been modified since.
    *
    * @param xmlFile the file to be converted
    * @return a corresponding W3C DOM tree
@@ -60,12 +68,10 @@ class DomPsiConverter {
   @Nullable
   public static Document convert(@NotNull XmlFile xmlFile) {
     try {
-      XmlDocument xmlDocument = xmlFile.getDocument();
-      if (xmlDocument == null) {
-        return null;
-      }
-
-      return convert(xmlDocument);
+      return CachedValuesManager.getCachedValue(xmlFile, () -> {
+        XmlDocument xmlDocument = xmlFile.getDocument();
+        return CachedValueProvider.Result.create(xmlDocument != null ? convert(xmlDocument) : null, xmlFile);
+      });
     }
     catch (ProcessCanceledException e) {
       // Ignore: common occurrence, e.g. we're running lint as part of an editor background
@@ -399,7 +405,8 @@ class DomPsiConverter {
 
     @NotNull
     @Override
-    public DomNodeList getChildNodes() {
+    public synchronized DomNodeList getChildNodes() {
+      // Synchronized since cached documents may be walked by more than one lint run at a time
       if (myChildren == null) {
         PsiElement[] children = myElement.getChildren();
         if (children.length > 0) {
@@ -685,7 +692,7 @@ class DomPsiConverter {
 
     @NotNull
     @Override
-    public DomNodeList getChildNodes() {
+    public synchronized DomNodeList getChildNodes() {
       if (myChildren == null) {
         DomNodeList list = new DomNodeList();
         myChildren = list;
@@ -720,7 +727,7 @@ class DomPsiConverter {
 
     @Nullable
     @Override
-    public Element getDocumentElement() {
+    public synchronized Element getDocumentElement() {
       if (myRoot == null) {
         XmlTag rootTag = myPsiDocument.getRootTag();
         if (rootTag == null) {
@@ -943,16 +950,18 @@ class DomPsiConverter {
         return application.runReadAction((Computable<NamedNodeMap>)this::getAttributes);
       }
 
-      if (myAttributes == null) {
-        XmlAttribute[] attributes = myTag.getAttributes();
-        if (attributes.length == 0) {
-         myAttributes = EMPTY_ATTRIBUTES;
-        } else {
-          myAttributes = new DomNamedNodeMap(this, attributes);
+      synchronized (this) {
+        if (myAttributes == null) {
+          XmlAttribute[] attributes = myTag.getAttributes();
+          if (attributes.length == 0) {
+           myAttributes = EMPTY_ATTRIBUTES;
+          } else {
+            myAttributes = new DomNamedNodeMap(this, attributes);
+          }
         }
-      }
 
-      return myAttributes;
+        return myAttributes;
+      }
     }
 
     // From org.w3c.dom.Element:
@@ -17,7 +17,9 @@ package com.android.tools.idea.rendering;
 
 import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.rendering.api.RenderResources;
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -29,7 +31,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
-import java.util.Map;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+
+import static com.android.SdkConstants.DOT_XML;
 
 public class GutterIconCache {
   private static final Logger LOG = Logger.getInstance(GutterIconCache.class);
@@ -38,18 +47,35 @@ public class GutterIconCache {
   @VisibleForTesting static final int MAX_WIDTH = JBUIScale.scale(16);
   @VisibleForTesting static final int MAX_HEIGHT = JBUIScale.scale(16);
 
-  private static final GutterIconCache ourInstance = new GutterIconCache();
+  /**
+   * Maximum number of icons kept in memory. A thumbnail takes about 1KB, 4KB on Retina displays.
+   */
+  @VisibleForTesting static final int MAX_ENTRY_COUNT = 1000;
 
-  private Map<String, Icon> myThumbnailCache = Maps.newHashMap();
+  /**
+   * Matches attribute values which are resource or theme references, which make the rendering of an XML resource depend on
+   * the {@link RenderResources} used to resolve them.
+   */
+  private static final Pattern REFERENCE_PATTERN = Pattern.compile("=\\s*[\"'][@?]");
+
+  private static final GutterIconCache ourInstance = new GutterIconCache();
 
   /**
-   * Stores timestamps for the last modification time of image files using the
-   * path as a key.
+   * Icons keyed by the path of their image resource, the least recently used being evicted first.
    */
-  private Map<String, Long> myModificationStampCache = Maps.newHashMap();
-  private boolean myRetina;
+  @NotNull private final Cache<String, CachedIcon> myThumbnailCache;
+  @Nullable private final GutterIconDiskCache myDiskCache;
+  private volatile boolean myRetina;
 
   public GutterIconCache() {
+    this(new GutterIconDiskCache(), MAX_ENTRY_COUNT);
+  }
+
+  @VisibleForTesting
+  GutterIconCache(@Nullable GutterIconDiskCache diskCache, int maxEntryCount) {
+    // Icons are mostly requested while painting, so a single segment does not cause contention, and makes the eviction strictly LRU
+    myThumbnailCache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(maxEntryCount).recordStats().build();
+    myDiskCache = diskCache;
   }
 
   @NotNull
@@ -59,11 +85,15 @@ public class GutterIconCache {
 
   @VisibleForTesting
   boolean isIconUpToDate(@NotNull String path) {
-    if (myModificationStampCache.containsKey(path)) {
+    return isUpToDate(path, myThumbnailCache.getIfPresent(path));
+  }
+
+  private static boolean isUpToDate(@NotNull String path, @Nullable CachedIcon cachedIcon) {
+    if (cachedIcon != null) {
       // Entry is valid if image resource has not been modified since the entry was cached
       VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
       if (file != null) {
-        return myModificationStampCache.get(path) == file.getModificationStamp()
+        return cachedIcon.myModificationStamp == file.getModificationStamp()
                && !FileDocumentManager.getInstance().isFileModified(file);
       }
     }
@@ -76,26 +106,98 @@ public class GutterIconCache {
     boolean isRetina = UIUtil.isRetina();
     if (myRetina != isRetina) {
       myRetina = isRetina;
-      myThumbnailCache.clear();
+      myThumbnailCache.invalidateAll();
     }
-    Icon myIcon = myThumbnailCache.get(path);
-    if (myIcon == null || !isIconUpToDate(path)) {
-      myIcon = GutterIconFactory.createIcon(path, resolver, MAX_WIDTH, MAX_HEIGHT);
+    CachedIcon cachedIcon = myThumbnailCache.getIfPresent(path);
+    if (!isUpToDate(path, cachedIcon)) {
+      // Record timestamp of image resource at the time of caching
+      VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+      long modificationStamp = file != null ? file.getModificationStamp() : -1;
 
-      if (myIcon == null) {
-        myIcon = NONE;
-      }
+      Icon icon = createIcon(path, file, resolver, isRetina);
+      cachedIcon = new CachedIcon(icon != null ? icon : NONE, modificationStamp);
+      myThumbnailCache.put(path, cachedIcon);
+    }
 
-      myThumbnailCache.put(path, myIcon);
+    return cachedIcon.myIcon != NONE ? cachedIcon.myIcon : null;
+  }
 
-      // Record timestamp of image resource at the time of caching
-      VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
-      if (file != null) {
-        myModificationStampCache.put(path, file.getModificationStamp());
+  @VisibleForTesting
+  @NotNull
+  CacheStats getStats() {
+    return myThumbnailCache.stats();
+  }
+
+  @VisibleForTesting
+  long getSize() {
+    return myThumbnailCache.size();
+  }
+
+  /**
+   * Returns an estimate of the memory taken by the pixels of the thumbnails in the cache.
+   */
+  @VisibleForTesting
+  long getThumbnailBytes() {
+    long bytes = 0;
+    for (CachedIcon cachedIcon : myThumbnailCache.asMap().values()) {
+      BufferedImage thumbnail = cachedIcon.myIcon != NONE ? GutterIconFactory.getThumbnail(cachedIcon.myIcon) : null;
+      if (thumbnail != null) {
+        bytes += (long)thumbnail.getWidth() * thumbnail.getHeight() * 4;
       }
     }
+    return bytes;
+  }
+
+  @Nullable
+  private Icon createIcon(@NotNull String path, @Nullable VirtualFile file, @Nullable RenderResources resolver, boolean retina) {
+    String key = myDiskCache != null ? getDiskCacheKey(path, file, resolver, retina) : null;
+    if (key != null) {
+      Icon icon = myDiskCache.load(key);
+      if (icon != null) {
+        return icon;
+      }
+    }
+
+    Icon icon = GutterIconFactory.createIcon(path, resolver, MAX_WIDTH, MAX_HEIGHT);
+    if (icon != null && key != null) {
+      myDiskCache.save(key, icon);
+    }
+    return icon;
+  }
 
-    return myIcon != NONE ? myIcon : null;
+  /**
+   * Returns the key of the thumbnail of the given image resource in the disk cache, or null if it should not be stored there, because
+   * it has unsaved changes or because it contains references which another {@link RenderResources} could resolve differently.
+   */
+  @Nullable
+  private static String getDiskCacheKey(@NotNull String path, @Nullable VirtualFile file, @Nullable RenderResources resolver, boolean retina) {
+    if (file != null && FileDocumentManager.getInstance().isFileModified(file)) {
+      return null;
+    }
+    byte[] content;
+    try {
+      content = Files.readAllBytes(Paths.get(path));
+    }
+    catch (IOException e) {
+      LOG.debug("Could not read icon image " + path, e);
+      return null;
+    }
+    if (resolver != null && path.endsWith(DOT_XML) && REFERENCE_PATTERN.matcher(new String(content, StandardCharsets.UTF_8)).find()) {
+      return null;
+    }
+    return GutterIconDiskCache.getKey(content, MAX_WIDTH, MAX_HEIGHT, retina);
   }
 
+  private static final class CachedIcon {
+    @NotNull private final Icon myIcon;
+    /**
+     * Modification stamp of the image resource when the icon was created.
+     */
+    private final long myModificationStamp;
+
+    private CachedIcon(@NotNull Icon icon, long modificationStamp) {
+      myIcon = icon;
+      myModificationStamp = modificationStamp;
+    }
+  }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Stores the thumbnails of {@link GutterIconCache} as PNG files under the system directory, so that image resources do not have to be
+ * rendered again after a restart.
+ *
+ * A thumbnail is keyed by a hash of the content of its image resource and of the size and density it was rendered at. It never needs
+ * to be invalidated: once the resource changes, its old thumbnail is not looked up anymore, and is eventually evicted along with the
+ * other least recently used thumbnails once there are more than {@link #MAX_ENTRY_COUNT} of them.
+ */
+class GutterIconDiskCache {
+  private static final Logger LOG = Logger.getInstance(GutterIconDiskCache.class);
+
+  private static final String CACHE_DIRECTORY = "gutter_icon_cache";
+  private static final String EXTENSION = ".png";
+  private static final String RETINA_SUFFIX = "@2x";
+
+  @VisibleForTesting static final int MAX_ENTRY_COUNT = 5000;
+
+  @NotNull private final Path myCacheDir;
+  @NotNull private final Executor myWriteExecutor;
+  private final int myMaxEntryCount;
+
+  /**
+   * Number of thumbnails in {@link #myCacheDir}, or -1 if they haven't been counted yet.
+   */
+  @GuardedBy("this")
+  private int myEntryCount = -1;
+
+  @NotNull private final AtomicInteger myHitCount = new AtomicInteger();
+  @NotNull private final AtomicInteger myMissCount = new AtomicInteger();
+
+  GutterIconDiskCache() {
+    this(Paths.get(PathManager.getSystemPath(), CACHE_DIRECTORY), PooledThreadExecutor.INSTANCE, MAX_ENTRY_COUNT);
+  }
+
+  @VisibleForTesting
+  GutterIconDiskCache(@NotNull Path cacheDir, @NotNull Executor writeExecutor, int maxEntryCount) {
+    myCacheDir = cacheDir;
+    myWriteExecutor = writeExecutor;
+    myMaxEntryCount = maxEntryCount;
+  }
+
+  /**
+   * Returns the key of the thumbnail of an image resource with the given content, rendered to fit in the given size.
+   */
+  @NotNull
+  static String getKey(@NotNull byte[] content, int maxWidth, int maxHeight, boolean retina) {
+    return Hashing.sha256().newHasher()
+      .putBytes(content)
+      .putInt(maxWidth)
+      .putInt(maxHeight)
+      .putBoolean(retina)
+      .hash()
+      .toString();
+  }
+
+  /**
+   * Returns an Icon displaying the thumbnail stored with the given key, or null if there is none.
+   */
+  @Nullable
+  Icon load(@NotNull String key) {
+    for (boolean retina : new boolean[]{false, true}) {
+      Path file = getFile(key, retina);
+      if (!Files.isRegularFile(file)) {
+        continue;
+      }
+      try {
+        BufferedImage thumbnail = ImageIO.read(file.toFile());
+        if (thumbnail != null) {
+          // The modification time of the file tells how recently it was used, for eviction
+          Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+          myHitCount.incrementAndGet();
+          return GutterIconFactory.createIcon(thumbnail, retina);
+        }
+      }
+      catch (IOException e) {
+        LOG.debug("Could not read cached gutter icon " + file, e);
+      }
+    }
+    myMissCount.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores the thumbnail displayed by the given icon with the given key, in the background.
+   */
+  void save(@NotNull String key, @NotNull Icon icon) {
+    BufferedImage thumbnail = GutterIconFactory.getThumbnail(icon);
+    if (thumbnail == null) {
+      return;
+    }
+    Path file = getFile(key, GutterIconFactory.isRetinaIcon(icon));
+    myWriteExecutor.execute(() -> {
+      try {
+        Files.createDirectories(myCacheDir);
+        // Write to a temporary file first, so that a thumbnail being written is never read
+        Path tempFile = Files.createTempFile(myCacheDir, "thumbnail", ".tmp");
+        try {
+          ImageIO.write(thumbnail, "png", tempFile.toFile());
+          Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+          Files.deleteIfExists(tempFile);
+        }
+        onEntryAdded();
+      }
+      catch (IOException e) {
+        LOG.debug("Could not write cached gutter icon " + file, e);
+      }
+    });
+  }
+
+  @VisibleForTesting
+  int getHitCount() {
+    return myHitCount.get();
+  }
+
+  @VisibleForTesting
+  int getMissCount() {
+    return myMissCount.get();
+  }
+
+  @NotNull
+  private Path getFile(@NotNull String key, boolean retina) {
+    return myCacheDir.resolve(retina ? key + RETINA_SUFFIX + EXTENSION : key + EXTENSION);
+  }
+
+  private synchronized void onEntryAdded() throws IOException {
+    if (myEntryCount < 0) {
+      myEntryCount = listEntries().size();
+    }
+    else {
+      myEntryCount++;
+    }
+    if (myEntryCount > myMaxEntryCount) {
+      // Evict down to three quarters of the maximum, so that the directory isn't listed again on every new thumbnail
+      List<Path> entries = listEntries();
+      Map<Path, Long> lastModifiedTimes = new HashMap<>();
+      entries.forEach(entry -> lastModifiedTimes.put(entry, getLastModifiedTime(entry)));
+      entries.sort(Comparator.comparingLong(lastModifiedTimes::get));
+      int evictedCount = Math.max(0, entries.size() - myMaxEntryCount * 3 / 4);
+      for (Path entry : entries.subList(0, evictedCount)) {
+        Files.deleteIfExists(entry);
+      }
+      myEntryCount = entries.size() - evictedCount;
+    }
+  }
+
+  @NotNull
+  private List<Path> listEntries() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    try (Stream<Path> files = Files.list(myCacheDir)) {
+      files.filter(file -> file.getFileName().toString().endsWith(EXTENSION)).forEach(entries::add);
+    }
+    return entries;
+  }
+
+  private static long getLastModifiedTime(@NotNull Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    }
+    catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -75,6 +75,41 @@ public class GutterIconFactory {
     }
   }
 
+  /**
+   * Returns an Icon displaying a thumbnail returned by {@link #getThumbnail(Icon)}, for an icon for which
+   * {@link #isRetinaIcon(Icon)} returned {@code retina}.
+   */
+  @NotNull
+  static Icon createIcon(@NotNull BufferedImage thumbnail, boolean retina) {
+    if (retina) {
+      RetinaImageIcon retinaIcon = getRetinaIcon(thumbnail);
+      if (retinaIcon != null) {
+        return retinaIcon;
+      }
+    }
+    return new ImageIcon(thumbnail);
+  }
+
+  /**
+   * Returns the image displayed by an Icon returned by {@link #createIcon}, before its conversion to a Retina image if any,
+   * or null if the icon does not display a {@link BufferedImage}.
+   */
+  @Nullable
+  static BufferedImage getThumbnail(@NotNull Icon icon) {
+    if (icon instanceof RetinaImageIcon) {
+      return ((RetinaImageIcon)icon).mySourceImage;
+    }
+    if (icon instanceof ImageIcon) {
+      Image image = ((ImageIcon)icon).getImage();
+      return image instanceof BufferedImage ? (BufferedImage)image : null;
+    }
+    return null;
+  }
+
+  static boolean isRetinaIcon(@NotNull Icon icon) {
+    return icon instanceof RetinaImageIcon;
+  }
+
   /**
    * Read XML data from Document when possible (in case there are unsaved changes
    * for a file open in an editor).
@@ -245,15 +280,18 @@ public class GutterIconFactory {
     if (isRetinaEnabled()) {
       Image hdpiImage = ImageUtils.convertToRetina(image);
       if (hdpiImage != null) {
-        return new RetinaImageIcon(hdpiImage);
+        return new RetinaImageIcon(hdpiImage, image);
       }
     }
     return null;
   }
 
   private static class RetinaImageIcon extends ImageIcon {
-    private RetinaImageIcon(Image image) {
+    @NotNull private final BufferedImage mySourceImage;
+
+    private RetinaImageIcon(Image image, @NotNull BufferedImage sourceImage) {
       super(image, "");
+      mySourceImage = sourceImage;
     }
 
     @SuppressWarnings("ConstantConditions")
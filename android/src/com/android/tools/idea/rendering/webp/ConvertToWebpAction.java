@@ -25,6 +25,7 @@ import com.android.utils.SdkUtils;
 import com.android.utils.XmlUtils;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 import com.intellij.notification.NotificationDisplayType;
 import com.intellij.notification.NotificationGroup;
 import com.intellij.notification.NotificationType;
@@ -44,6 +45,7 @@ import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.util.AndroidResourceUtil;
 import org.jetbrains.annotations.Nls;
@@ -58,6 +60,11 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.android.SdkConstants.*;
 import static com.android.utils.SdkUtils.endsWithIgnoreCase;
@@ -157,11 +164,13 @@ public class ConvertToWebpAction extends DumbAwareAction {
                       boolean showBalloon,
                       @NotNull Collection<VirtualFile> files) {
     boolean isUnitTest = ApplicationManager.getApplication().isUnitTestMode();
+    if (isUnitTest) {
+      settings.previewConversion = false;
+    }
     WebpConversionTask task = new WebpConversionTask(project, settings, showBalloon && !isUnitTest, files);
     if (isUnitTest) {
       // Do it immediately
       task.run(new DumbProgressIndicator());
-      settings.previewConversion = false;
       task.onFinished();
     } else {
       ProgressManager.getInstance().run(task);
@@ -226,6 +235,16 @@ public class ConvertToWebpAction extends DumbAwareAction {
   }
 
   static class WebpConversionTask extends Task.Backgroundable {
+    /**
+     * Maximum number of images being encoded or waiting to be written at any time, so that converting a whole project doesn't hold all
+     * the encoded images in memory.
+     */
+    private static final int MAX_PENDING_IMAGES = 4 * Runtime.getRuntime().availableProcessors();
+    /** Number of encoded images written to disk by each write action. */
+    private static final int WRITE_BATCH_SIZE = 16;
+    /** Number of files which couldn't be converted listed by name in the notification. */
+    private static final int MAX_LISTED_FAILURES = 5;
+
     private final Project myProject;
     private final boolean myShowBalloon;
     private final Collection<VirtualFile> myFiles;
@@ -237,9 +256,16 @@ public class ConvertToWebpAction extends DumbAwareAction {
     private int myFileCount;
     private long mySaved;
     private int mySkipped;
+    /** Images which couldn't be encoded or written, and were left as they are. */
+    private final List<VirtualFile> myFailedFiles = new ArrayList<>();
+    /**
+     * Shared by the write commands of this conversion, which are run in batches, so that the whole conversion is undone at once.
+     */
+    private final String myCommandGroupId = "ConvertToWebp@" + System.identityHashCode(this);
 
     private List<VirtualFile> myParentFolders;
     private List<WebpConvertedFile> myConvertedFiles;
+    private boolean myPreviewPending;
 
     WebpConversionTask(Project project,
                               WebpConversionSettings settings,
@@ -254,21 +280,35 @@ public class ConvertToWebpAction extends DumbAwareAction {
 
     @Override
     public void onFinished() {
-      if (mySettings.previewConversion &&
-          // Doesn't apply in lossless mode - nothing to preview, all conversions are exact
-          !mySettings.lossless &&
-          !myConvertedFiles.isEmpty()) {
-        WebpPreviewDialog dialog = new WebpPreviewDialog(this, myProject, mySettings, myConvertedFiles);
-        if (!dialog.showAndGet()) {
-          return;
-        }
-        encode(myConvertedFiles, true);
-      } else {
-        encode(myConvertedFiles, false);
+      if (myConvertedFiles == null) {
+        // Cancelled while looking for images.
+        return;
+      }
+      if (!myPreviewPending) {
+        notifyConverted();
+        return;
       }
-      writeImages(this, myProject, myConvertedFiles);
 
-      if (myShowBalloon) {
+      WebpPreviewDialog dialog = new WebpPreviewDialog(this, myProject, mySettings, myConvertedFiles);
+      if (!dialog.showAndGet()) {
+        return;
+      }
+      ProgressManager.getInstance().run(new Task.Backgroundable(myProject, TITLE, true) {
+        @Override
+        public void run(@NotNull ProgressIndicator indicator) {
+          // The images looked at in the preview are already encoded with the final settings.
+          encodeAndWrite(myConvertedFiles, true, indicator);
+        }
+
+        @Override
+        public void onFinished() {
+          notifyConverted();
+        }
+      });
+    }
+
+    private void notifyConverted() {
+      if (myShowBalloon || !myFailedFiles.isEmpty()) {
         StringBuilder sb = new StringBuilder();
         if (myFiles.size() > 1 || myFileCount == 0) {
           sb.append(Integer.toString(myFileCount)).append(" files were converted");
@@ -288,9 +328,19 @@ public class ConvertToWebpAction extends DumbAwareAction {
         if (mySkipped > 0) {
           sb.append("<br>").append(Integer.toString(mySkipped)).append(" files were skipped because there was no net space savings");
         }
+        if (!myFailedFiles.isEmpty()) {
+          sb.append("<br>").append(Integer.toString(myFailedFiles.size())).append(" files could not be converted: ");
+          int listed = Math.min(myFailedFiles.size(), MAX_LISTED_FAILURES);
+          for (int i = 0; i < listed; i++) {
+            sb.append(i > 0 ? ", " : "").append(myFailedFiles.get(i).getName());
+          }
+          if (listed < myFailedFiles.size()) {
+            sb.append(", ...");
+          }
+        }
         String message = sb.toString();
         new NotificationGroup("Convert to WebP", NotificationDisplayType.BALLOON, true)
-          .createNotification(message, NotificationType.INFORMATION)
+          .createNotification(message, myFailedFiles.isEmpty() ? NotificationType.INFORMATION : NotificationType.WARNING)
           .notify(myProject);
       }
 
@@ -298,26 +348,30 @@ public class ConvertToWebpAction extends DumbAwareAction {
     }
 
     private void writeImages(Object requestor, Project project, List<WebpConvertedFile> files) {
-      WriteCommandAction.runWriteCommandAction(project, () -> {
-        for (WebpConvertedFile convertedFile : files) {
-          try {
-            if (convertedFile.encoded == null) {
-              myTransparentCount++;
-            } else {
-              if (mySettings.skipLargerImages && convertedFile.saved < 0) {
-                mySkipped++;
+      ApplicationManager.getApplication().invokeAndWait(
+        () -> WriteCommandAction.writeCommandAction(project).withName(TITLE).withGroupId(myCommandGroupId).run(() -> {
+          for (WebpConvertedFile convertedFile : files) {
+            try {
+              if (convertedFile.encoded == null) {
+                myTransparentCount++;
               } else {
-                mySaved += convertedFile.saved;
-                myFileCount++;
-                convertedFile.apply(requestor);
+                if (mySettings.skipLargerImages && convertedFile.saved < 0) {
+                  mySkipped++;
+                } else {
+                  convertedFile.apply(requestor);
+                  mySaved += convertedFile.saved;
+                  myFileCount++;
+                }
               }
             }
+            catch (IOException e) {
+              Logger.getInstance(ConvertToWebpAction.class).warn("Can't write " + convertedFile.sourceFile.getPath(), e);
+              myFailedFiles.add(convertedFile.sourceFile);
+            }
+            // The image is on disk now, or won't ever be.
+            convertedFile.encoded = null;
           }
-          catch (IOException e) {
-            Logger.getInstance(ConvertToWebpAction.class).warn(e);
-          }
-        }
-      });
+        }));
     }
 
     @Override
@@ -325,32 +379,94 @@ public class ConvertToWebpAction extends DumbAwareAction {
       LinkedList<VirtualFile> images = new LinkedList<>(myFiles);
       myConvertedFiles = findImages(progressIndicator, images);
       myParentFolders = computeParentFolders(myConvertedFiles);
+
+      // Doesn't apply in lossless mode - nothing to preview, all conversions are exact
+      myPreviewPending = mySettings.previewConversion && !mySettings.lossless && !myConvertedFiles.isEmpty();
+      if (!myPreviewPending) {
+        encodeAndWrite(myConvertedFiles, false, progressIndicator);
+      }
     }
 
-    void encode(@NotNull List<WebpConvertedFile> files, boolean skipAlreadyEncoded) {
+    /**
+     * Encodes the files on a pool of workers, and writes the encoded images in batches as they complete. Files with the same content
+     * are only encoded once.
+     */
+    void encodeAndWrite(@NotNull List<WebpConvertedFile> files, boolean skipAlreadyEncoded, @NotNull ProgressIndicator indicator) {
+      // Beware if the current thread is holding the write lock: writing the images needs it too.
+      assert !ApplicationManager.getApplication().isWriteAccessAllowed();
+
+      Map<HashCode, List<WebpConvertedFile>> filesByContent = new LinkedHashMap<>();
       for (WebpConvertedFile file : files) {
-        if (skipAlreadyEncoded && file.encoded != null) {
-          continue;
-        }
+        filesByContent.computeIfAbsent(file.contentHash, hash -> new ArrayList<>()).add(file);
+      }
 
-        if (mySettings.skipNinePatches && isNinePatchFile(file.sourceFile)) {
-          // Shouldn't have gotten here: isEligibleForConversion should have filtered it out
-          assert false : file;
-          continue;
-        }
+      indicator.setIndeterminate(false);
+      indicator.setText("Encoding images");
+      ExecutorService executor =
+        AppExecutorUtil.createBoundedApplicationPoolExecutor("WebP encoder", Runtime.getRuntime().availableProcessors());
+      CompletionService<List<WebpConvertedFile>> completionService = new ExecutorCompletionService<>(executor);
+      Iterator<List<WebpConvertedFile>> toEncode = filesByContent.values().iterator();
+      // The files being encoded, by the future of their encoding.
+      Map<Future<List<WebpConvertedFile>>, List<WebpConvertedFile>> pending = new HashMap<>();
+      List<WebpConvertedFile> toWrite = new ArrayList<>(WRITE_BATCH_SIZE);
+      int encodedCount = 0;
+      try {
+        while (!pending.isEmpty() || toEncode.hasNext()) {
+          while (pending.size() < MAX_PENDING_IMAGES && toEncode.hasNext()) {
+            List<WebpConvertedFile> sameContentFiles = toEncode.next();
+            pending.put(completionService.submit(() -> encode(sameContentFiles, skipAlreadyEncoded)), sameContentFiles);
+          }
 
-        if (!file.convert(mySettings)) {
-          // Shouldn't have gotten here: isEligibleForConversion should have filtered it out
-          assert false : file;
-        } else {
-          if (mySettings.skipLargerImages && file.saved < 0) {
-            mySkipped++;
-          } else {
-            mySaved += file.saved;
-            myFileCount++;
+          indicator.checkCanceled();
+          Future<List<WebpConvertedFile>> done = completionService.take();
+          List<WebpConvertedFile> encoded = pending.remove(done);
+          encodedCount++;
+          indicator.setFraction((double)encodedCount / filesByContent.size());
+          indicator.setText2(encoded.get(0).sourceFile.getPath());
+
+          try {
+            done.get();
+            toWrite.addAll(encoded);
+          }
+          catch (ExecutionException e) {
+            // Only these images are left out, the others are still converted.
+            Logger.getInstance(ConvertToWebpAction.class).warn("Can't convert " + encoded.get(0).sourceFile.getPath(), e.getCause());
+            for (WebpConvertedFile file : encoded) {
+              myFailedFiles.add(file.sourceFile);
+            }
+          }
+          if (toWrite.size() >= WRITE_BATCH_SIZE || !toWrite.isEmpty() && pending.isEmpty() && !toEncode.hasNext()) {
+            writeImages(this, myProject, toWrite);
+            toWrite.clear();
           }
         }
       }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+
+    /**
+     * Encodes the first of the given files, which all have the same content, and shares the result with the others.
+     */
+    @NotNull
+    private List<WebpConvertedFile> encode(@NotNull List<WebpConvertedFile> sameContentFiles, boolean skipAlreadyEncoded) {
+      WebpConvertedFile file = sameContentFiles.get(0);
+      if (mySettings.skipNinePatches && isNinePatchFile(file.sourceFile)) {
+        // Shouldn't have gotten here: isEligibleForConversion should have filtered it out
+        assert false : file;
+      }
+      else if (!(skipAlreadyEncoded && file.isEncodedWith(mySettings)) && !file.convert(mySettings)) {
+        // Shouldn't have gotten here: isEligibleForConversion should have filtered it out
+        assert false : file;
+      }
+      for (int i = 1; i < sameContentFiles.size(); i++) {
+        sameContentFiles.get(i).copyEncodingOf(file);
+      }
+      return sameContentFiles;
     }
 
     private Set<String> getLauncherIconNames(LinkedList<VirtualFile> roots) {
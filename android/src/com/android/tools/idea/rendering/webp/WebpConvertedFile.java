@@ -17,6 +17,8 @@ package com.android.tools.idea.rendering.webp;
 
 import com.android.tools.adtui.ImageUtils;
 import com.android.tools.adtui.webp.WebpImageWriterSpi;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
@@ -34,12 +36,17 @@ import static com.android.utils.SdkUtils.endsWithIgnoreCase;
 class WebpConvertedFile {
   public final VirtualFile sourceFile;
   public final long sourceFileSize;
+  /** Hash of the source file's content. Files with the same content encode to the same bytes. */
+  public final HashCode contentHash;
   public byte[] encoded;
   public long saved;
+  private boolean myEncodedLossless;
+  private int myEncodedQuality;
 
-  WebpConvertedFile(@NotNull VirtualFile sourceFile, long sourceFileSize) {
+  WebpConvertedFile(@NotNull VirtualFile sourceFile, long sourceFileSize, @NotNull HashCode contentHash) {
     this.sourceFile = sourceFile;
     this.sourceFileSize = sourceFileSize;
+    this.contentHash = contentHash;
   }
 
   public void apply(@Nullable Object requestor) throws IOException {
@@ -66,6 +73,7 @@ class WebpConvertedFile {
   }
 
   public boolean convert(@NotNull BufferedImage image, @NotNull WebpConversionSettings settings) {
+    encoded = null;
     try {
       // See if we find an alpha channel in this image and if so, return null
       if (settings.skipTransparentImages) {
@@ -87,6 +95,8 @@ class WebpConvertedFile {
       WebpImageWriterSpi.writeImage(image, byteArrayOutputStream, settings.lossless, settings.quality);
       encoded = byteArrayOutputStream.toByteArray();
       saved = sourceFileSize - encoded.length;
+      myEncodedLossless = settings.lossless;
+      myEncodedQuality = settings.quality;
       return true;
     } catch (IOException e) {
       Logger.getInstance(WebpConvertedFile.class).error("Can't convert " + sourceFile.getPath(), e);
@@ -94,13 +104,29 @@ class WebpConvertedFile {
     }
   }
 
+  /**
+   * Returns true if {@link #encoded} holds this file encoded with the given settings, e.g. because it was looked at in the preview.
+   */
+  public boolean isEncodedWith(@NotNull WebpConversionSettings settings) {
+    return encoded != null && myEncodedLossless == settings.lossless && myEncodedQuality == settings.quality;
+  }
+
+  /**
+   * Reuses the encoding of a file with the same {@link #contentHash}, instead of encoding this file again.
+   */
+  public void copyEncodingOf(@NotNull WebpConvertedFile other) {
+    assert contentHash.equals(other.contentHash) : sourceFile;
+    encoded = other.encoded;
+    saved = encoded != null ? sourceFileSize - encoded.length : 0;
+    myEncodedLossless = other.myEncodedLossless;
+    myEncodedQuality = other.myEncodedQuality;
+  }
+
   @Nullable
   public static WebpConvertedFile create(@NotNull VirtualFile pngFile, @NotNull WebpConversionSettings settings) {
     try {
-      InputStream stream = new BufferedInputStream(pngFile.getInputStream());
-      long size = pngFile.getLength();
-      BufferedImage image = ImageIO.read(stream);
-      stream.close();
+      byte[] bytes = pngFile.contentsToByteArray();
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
 
       if (image == null) {
         Logger.getInstance(WebpConvertedFile.class).warn("Can't read image: " + pngFile.getPath());
@@ -118,7 +144,7 @@ class WebpConvertedFile {
           return null;
         }
       }
-      return new WebpConvertedFile(pngFile, size);
+      return new WebpConvertedFile(pngFile, bytes.length, Hashing.sha256().hashBytes(bytes));
     } catch (IOException e) {
       Logger.getInstance(WebpConvertedFile.class).error("Can't convert " + pngFile.getPath(), e);
     }
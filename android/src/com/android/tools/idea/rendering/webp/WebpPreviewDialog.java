@@ -227,7 +227,7 @@ public class WebpPreviewDialog extends DialogWrapper implements ChangeListener,
 
     @Override
     protected void doAction(ActionEvent e) {
-      myTask.encode(myFiles, true);
+      // The remaining images are encoded in the background once the dialog is closed
       doOKAction();
     }
   }
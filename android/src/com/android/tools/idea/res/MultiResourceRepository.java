@@ -32,6 +32,8 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.concurrent.GuardedBy;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The  is a super class for several of the other repositories; it’s not really used on its own. Its only purpose is to be able to combine
@@ -39,13 +41,18 @@ import java.util.*;
  * same resource type+name combination will replace/hide any previous definitions of the same resource.
  *
  * <p>In the resource repository hierarchy, the MultiResourceRepository is an internal node, never a leaf.
+ *
+ * <p>The list of children, the namespace index and the merged per-type maps are published as immutable snapshots, so
+ * lookups that hit them (the common case for rendering, code completion and lint) don't need {@code ITEM_MAP_LOCK}.
+ * The lock is still held while any of them is rebuilt, which keeps writers serialized with each other.
  */
 @SuppressWarnings("InstanceGuardedByStatic") // TODO: The whole locking scheme for resource repositories needs to be reworked.
 public abstract class MultiResourceRepository extends LocalResourceRepository {
-  @GuardedBy("ITEM_MAP_LOCK")
-  private List<? extends LocalResourceRepository> myChildren;
-  @GuardedBy("ITEM_MAP_LOCK")
-  private final Multimap<ResourceNamespace, LocalResourceRepository> myRepositoriesByNamespace = HashMultimap.create();
+  /** Written only while holding ITEM_MAP_LOCK, read without it. */
+  private volatile ImmutableList<LocalResourceRepository> myChildren = ImmutableList.of();
+  /** Written only while holding ITEM_MAP_LOCK, read without it. */
+  private volatile ImmutableSetMultimap<ResourceNamespace, LocalResourceRepository> myRepositoriesByNamespace =
+    ImmutableSetMultimap.of();
 
   @GuardedBy("ITEM_MAP_LOCK")
   private long[] myModificationCounts;
@@ -53,8 +60,12 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @GuardedBy("ITEM_MAP_LOCK")
   private ResourceTable myFullTable;
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  private final ResourceTable myCachedMaps = new ResourceTable();
+  /**
+   * Merged maps by namespace and type. Entries are added and removed only while holding ITEM_MAP_LOCK, but can be looked
+   * up without it. A published map is never modified afterwards; invalidation replaces it instead.
+   */
+  private final ConcurrentMap<ResourceNamespace, ConcurrentMap<ResourceType, ListMultimap<String, ResourceItem>>> myCachedMaps =
+    new ConcurrentHashMap<>();
 
   @GuardedBy("ITEM_MAP_LOCK")
   private Map<String, DataBindingInfo> myDataBindingResourceFiles = new HashMap<>();
@@ -68,14 +79,12 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   protected void setChildren(@NotNull List<? extends LocalResourceRepository> children) {
     synchronized (ITEM_MAP_LOCK) {
-      if (myChildren != null) {
-        for (int i = myChildren.size(); --i >= 0;) {
-          LocalResourceRepository resources = myChildren.get(i);
-          resources.removeParent(this);
-        }
+      for (int i = myChildren.size(); --i >= 0;) {
+        LocalResourceRepository resources = myChildren.get(i);
+        resources.removeParent(this);
       }
       setModificationCount(ourModificationCounter.incrementAndGet());
-      myChildren = children;
+      myChildren = ImmutableList.copyOf(children);
       myModificationCounts = new long[children.size()];
       if (children.size() == 1) {
         // Make sure that the modification count of the child and the parent are same. This is
@@ -91,8 +100,9 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       myFullTable = null;
       myCachedMaps.clear();
 
-      myRepositoriesByNamespace.clear();
-      populateNamespaceMap(this, myRepositoriesByNamespace);
+      ImmutableSetMultimap.Builder<ResourceNamespace, LocalResourceRepository> repositoriesByNamespace = ImmutableSetMultimap.builder();
+      populateNamespaceMap(this, repositoriesByNamespace);
+      myRepositoriesByNamespace = repositoriesByNamespace.build();
     }
 
     invalidateParentCaches();
@@ -100,7 +110,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   @GuardedBy("ITEM_MAP_LOCK")
   private static void populateNamespaceMap(@NotNull LocalResourceRepository repository,
-                                           @NotNull Multimap<ResourceNamespace, LocalResourceRepository> result) {
+                                           @NotNull ImmutableSetMultimap.Builder<ResourceNamespace, LocalResourceRepository> result) {
     if (repository instanceof SingleNamespaceResourceRepository) {
       ResourceNamespace namespace = ((SingleNamespaceResourceRepository)repository).getNamespace();
       result.put(namespace, repository);
@@ -114,9 +124,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   @NotNull
   public final List<LocalResourceRepository> getChildren() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myChildren == null ? Collections.emptyList() : ImmutableList.copyOf(myChildren);
-    }
+    return myChildren;
   }
 
   /**
@@ -130,9 +138,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
    */
   @NotNull
   public final List<LocalResourceRepository> getRepositoriesForNamespace(@NotNull ResourceNamespace namespace) {
-    synchronized (ITEM_MAP_LOCK) {
-      return ImmutableList.copyOf(myRepositoriesByNamespace.get(namespace));
-    }
+    return myRepositoriesByNamespace.get(namespace).asList();
   }
 
   @Override
@@ -164,15 +170,13 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @Nullable
   @Override
   public DataBindingInfo getDataBindingInfoForLayout(String layoutName) {
-    synchronized (ITEM_MAP_LOCK) {
-      for (LocalResourceRepository child : myChildren) {
-        DataBindingInfo info = child.getDataBindingInfoForLayout(layoutName);
-        if (info != null) {
-          return info;
-        }
+    for (LocalResourceRepository child : myChildren) {
+      DataBindingInfo info = child.getDataBindingInfoForLayout(layoutName);
+      if (info != null) {
+        return info;
       }
-      return null;
     }
+    return null;
   }
 
   @Override
@@ -199,9 +203,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @Override
   @NotNull
   public Set<ResourceNamespace> getNamespaces() {
-    synchronized (ITEM_MAP_LOCK) {
-      return ImmutableSet.copyOf(myRepositoriesByNamespace.keySet());
-    }
+    return myRepositoriesByNamespace.keySet();
   }
 
   @NotNull
@@ -234,9 +236,15 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   protected ListMultimap<String, ResourceItem> getMap(@NotNull ResourceNamespace namespace,
                                                       @NotNull ResourceType type,
                                                       boolean create) {
+    // Fast path, doesn't need the lock since published maps are never modified.
+    ListMultimap<String, ResourceItem> map = getCachedMap(namespace, type);
+    if (map != null) {
+      return map;
+    }
+
     synchronized (ITEM_MAP_LOCK) {
       // Should I assert !create here? If we try to manipulate the cache it won't work right...
-      ListMultimap<String, ResourceItem> map = myCachedMaps.get(namespace, type);
+      map = getCachedMap(namespace, type);
       if (map != null) {
         return map;
       }
@@ -255,12 +263,40 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       // Merge all items of the given type.
       merge(visited, namespace, type, seenQualifiers, map);
 
-      myCachedMaps.put(namespace, type, map);
+      myCachedMaps.computeIfAbsent(namespace, ns -> new ConcurrentHashMap<>()).put(type, map);
 
       return map;
     }
   }
 
+  @Override
+  @NotNull
+  public List<ResourceItem> getResources(@NotNull ResourceNamespace namespace,
+                                         @NotNull ResourceType resourceType,
+                                         @NotNull String resourceName) {
+    ListMultimap<String, ResourceItem> map = getCachedMap(namespace, resourceType);
+    if (map != null) {
+      return ImmutableList.copyOf(map.get(resourceName));
+    }
+    return super.getResources(namespace, resourceType, resourceName);
+  }
+
+  @Override
+  @NotNull
+  public ListMultimap<String, ResourceItem> getResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    ListMultimap<String, ResourceItem> map = getCachedMap(namespace, resourceType);
+    if (map != null) {
+      return ImmutableListMultimap.copyOf(map);
+    }
+    return super.getResources(namespace, resourceType);
+  }
+
+  @Nullable
+  private ListMultimap<String, ResourceItem> getCachedMap(@NotNull ResourceNamespace namespace, @NotNull ResourceType type) {
+    Map<ResourceType, ListMultimap<String, ResourceItem>> maps = myCachedMaps.get(namespace);
+    return maps == null ? null : maps.get(type);
+  }
+
   @Override
   protected void doMerge(@NotNull Set<LocalResourceRepository> visited,
                          @NotNull ResourceNamespace namespace,
@@ -276,30 +312,29 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
 
   @Override
   public boolean hasResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType type) {
-    synchronized (ITEM_MAP_LOCK) {
-      if (myChildren.size() == 1) {
-        return myChildren.get(0).hasResources(namespace, type);
-      }
+    List<LocalResourceRepository> children = myChildren;
+    if (children.size() == 1) {
+      return children.get(0).hasResources(namespace, type);
+    }
 
-      if (this instanceof SingleNamespaceResourceRepository) {
-        if (namespace.equals(((SingleNamespaceResourceRepository)this).getNamespace())) {
-          for (LocalResourceRepository child : myChildren) {
-            if (child.hasResources(namespace, type)) {
-              return true;
-            }
+    if (this instanceof SingleNamespaceResourceRepository) {
+      if (namespace.equals(((SingleNamespaceResourceRepository)this).getNamespace())) {
+        for (LocalResourceRepository child : children) {
+          if (child.hasResources(namespace, type)) {
+            return true;
           }
         }
-        return false;
       }
+      return false;
+    }
 
-      Collection<LocalResourceRepository> repositories = myRepositoriesByNamespace.get(namespace);
-      for (LocalResourceRepository repository : repositories) {
-        if (repository.hasResources(namespace, type)) {
-          return true;
-        }
+    Collection<LocalResourceRepository> repositories = myRepositoriesByNamespace.get(namespace);
+    for (LocalResourceRepository repository : repositories) {
+      if (repository.hasResources(namespace, type)) {
+        return true;
       }
-      return false;
     }
+    return false;
   }
 
   @Override
@@ -337,8 +372,11 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
     synchronized (ITEM_MAP_LOCK) {
       assert myChildren.contains(repository) : repository;
 
-      for (ResourceType type : types) {
-        myCachedMaps.remove(namespace, type);
+      Map<ResourceType, ListMultimap<String, ResourceItem>> maps = myCachedMaps.get(namespace);
+      if (maps != null) {
+        for (ResourceType type : types) {
+          maps.remove(type);
+        }
       }
 
       myFullTable = null;
@@ -351,17 +389,16 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @Override
   @VisibleForTesting
   public boolean isScanPending(@NotNull PsiFile psiFile) {
-    synchronized (ITEM_MAP_LOCK) {
-      assert ApplicationManager.getApplication().isUnitTestMode();
-      for (int i = myChildren.size(); --i >= 0;) {
-        LocalResourceRepository resources = myChildren.get(i);
-        if (resources.isScanPending(psiFile)) {
-          return true;
-        }
+    assert ApplicationManager.getApplication().isUnitTestMode();
+    List<LocalResourceRepository> children = myChildren;
+    for (int i = children.size(); --i >= 0;) {
+      LocalResourceRepository resources = children.get(i);
+      if (resources.isScanPending(psiFile)) {
+        return true;
       }
-
-      return false;
     }
+
+    return false;
   }
 
   @Override
@@ -376,21 +413,17 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
   @Override
   @NotNull
   protected Set<VirtualFile> computeResourceDirs() {
-    synchronized (ITEM_MAP_LOCK) {
-      Set<VirtualFile> result = new HashSet<>();
-      for (LocalResourceRepository resourceRepository : myChildren) {
-        result.addAll(resourceRepository.computeResourceDirs());
-      }
-      return result;
+    Set<VirtualFile> result = new HashSet<>();
+    for (LocalResourceRepository resourceRepository : myChildren) {
+      result.addAll(resourceRepository.computeResourceDirs());
     }
+    return result;
   }
 
   @Override
   public void getLeafResourceRepositories(@NotNull Collection<SingleNamespaceResourceRepository> result) {
-    synchronized (ITEM_MAP_LOCK) {
-      for (ResourceRepository child : myChildren) {
-        child.getLeafResourceRepositories(result);
-      }
+    for (ResourceRepository child : myChildren) {
+      child.getLeafResourceRepositories(result);
     }
   }
 }
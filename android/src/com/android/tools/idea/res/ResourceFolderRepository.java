@@ -32,8 +32,10 @@ import com.android.tools.idea.databinding.DataBindingUtil;
 import com.android.tools.idea.log.LogWrapper;
 import com.android.tools.idea.model.MergedManifest;
 import com.android.utils.ILogger;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
@@ -42,6 +44,7 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
@@ -53,6 +56,7 @@ import com.intellij.psi.impl.PsiTreeChangeEventImpl;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.*;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.android.dom.manifest.AndroidManifestUtils;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -67,6 +71,8 @@ import javax.annotation.concurrent.GuardedBy;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.android.SdkConstants.*;
@@ -117,7 +123,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    *
    * <p>In production code the field is cleared after object construction is done; in tests it's kept for inspection.
    *
-   * <p>This is only used in the constructor, from the constructing thread, with no risk of unsynchronized access.
+   * <p>This is only used in the constructor. The folder scanning threads only touch its thread-safe parts, see
+   * {@link InitialScanState#acquireResourceSet()}; everything else is accessed from the constructing thread.
    */
   @SuppressWarnings("FieldAccessedSynchronizedAndUnsynchronized") // See above.
   @VisibleForTesting
@@ -126,6 +133,15 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
   @VisibleForTesting
   static int ourFullRescans;
 
+  /**
+   * Parses the res/ subfolders of repositories being created, see {@link #scanResFolder}. Shared by all repositories so that
+   * indexing many modules at once (see {@link ResourceFolderRegistry}) doesn't multiply the number of threads. Tests replace it to scan
+   * the folders one at a time.
+   */
+  @VisibleForTesting
+  static ExecutorService ourScanExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("ResourceFolderRepository scan", Runtime.getRuntime().availableProcessors());
+
   private ResourceFolderRepository(@NotNull AndroidFacet facet, @NotNull VirtualFile resourceDir, @NotNull ResourceNamespace namespace) {
     super(resourceDir.getName());
     myFacet = facet;
@@ -135,7 +151,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     myNamespace = namespace;
 
     ResourceMerger merger = loadPreviousStateIfExists();
-    myInitialScanState = new InitialScanState(merger, VfsUtilCore.virtualToIoFile(myResourceDir));
+    myInitialScanState = new InitialScanState(merger, VfsUtilCore.virtualToIoFile(myResourceDir), this::createFreshResourceSet);
     scanRemainingFiles();
     Application app = ApplicationManager.getApplication();
 
@@ -244,29 +260,31 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
     // This temp resourceFiles set is just to avoid calling VfsUtil.findFileByIoFile repeatedly.
     Set<ResourceFile> resourceFiles = new HashSet<>();
+    // The parallel initial scan parses into one resource set per scanning thread (see InitialScanState), so there may be several.
     List<ResourceSet> resourceSets = merger.getDataSets();
-    if (resourceSets.size() != 1) {
-      LOG.error("Expecting exactly one resource set, but found " + resourceSets.size());
-      return createFreshResourceMerger();
-    }
-    ResourceSet dataSet = resourceSets.get(0);
-    List<File> sourceFiles = dataSet.getSourceFiles();
-    if (sourceFiles.size() != 1) {
-      LOG.error("Expecting exactly source files (res/ directories), but found " + sourceFiles.size());
+    if (resourceSets.isEmpty()) {
+      LOG.error("Expecting at least one resource set, but found none");
       return createFreshResourceMerger();
     }
     File myResourceDirFile = VfsUtilCore.virtualToIoFile(myResourceDir);
-    // Check that the dataSet we're loading actually corresponds to this resource directory.
-    // This could happen if there's a hash collision in naming the cache directory.
-    if (!FileUtil.filesEqual(sourceFiles.get(0), myResourceDirFile)) {
-      LOG.warn(String.format("source file %1$s, does not match resource dir %2$s", sourceFiles.get(0), myResourceDirFile));
-      return createFreshResourceMerger();
+    for (ResourceSet dataSet : resourceSets) {
+      List<File> sourceFiles = dataSet.getSourceFiles();
+      if (sourceFiles.size() != 1) {
+        LOG.error("Expecting exactly source files (res/ directories), but found " + sourceFiles.size());
+        return createFreshResourceMerger();
+      }
+      // Check that the dataSet we're loading actually corresponds to this resource directory.
+      // This could happen if there's a hash collision in naming the cache directory.
+      if (!FileUtil.filesEqual(sourceFiles.get(0), myResourceDirFile)) {
+        LOG.warn(String.format("source file %1$s, does not match resource dir %2$s", sourceFiles.get(0), myResourceDirFile));
+        return createFreshResourceMerger();
+      }
     }
 
     // Items to be inserted into the repo, while holding ITEM_MAP_LOCK. The loop below does too much I/O to hold the lock the whole time.
     Map<ResourceType, ListMultimap<String, ResourceItem>> result = new HashMap<>();
 
-    for (ResourceMergerItem item: dataSet.getDataMap().values()) {
+    for (ResourceMergerItem item: Iterables.concat(Lists.transform(resourceSets, dataSet -> dataSet.getDataMap().values()))) {
       ResourceFile file = item.getSourceFile();
       if (file != null) {
         if (!resourceFiles.contains(file)) {
@@ -313,11 +331,16 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
   private ResourceMerger createFreshResourceMerger() {
     ResourceMerger merger = new ResourceMerger(0 /* minSdk */);
+    merger.addDataSet(createFreshResourceSet());
+    return merger;
+  }
+
+  @NotNull
+  private ResourceSet createFreshResourceSet() {
     ResourceSet myData = new ResourceSet(myResourceDir.getName(), myNamespace, getLibraryName(), false /* validateEnabled */);
     File resourceDir = VfsUtilCore.virtualToIoFile(myResourceDir);
     myData.addSource(resourceDir);
-    merger.addDataSet(myData);
-    return merger;
+    return myData;
   }
 
   /**
@@ -336,55 +359,117 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    *
    * This also tracks how fresh the repo file-cache is by tracking how many xml file were reparsed during scan.
    * The file cache omits non-XML single-file items, since those are easily derived from the file path.
+   *
+   * <p>Folders are scanned in parallel. {@link ResourceSet} is not thread safe, so each scanning thread borrows a resource set of its
+   * own from {@link #acquireResourceSet()}; all of them belong to the same merger, so the blob cache written from it covers every
+   * file parsed by the scan. The sets are reused, which keeps their number bounded by the number of scanning threads.
    */
   static class InitialScanState {
     int numXml; // Doesn't count files that are explicitly skipped
     int numXmlReparsed;
 
     final ResourceMerger myResourceMerger;
-    final ResourceSet myResourceSet;
     final ILogger myILogger;
     final File myResourceDir;
     final Collection<PsiFileResourceQueueEntry> myPsiFileResourceQueue = new ArrayList<>();
     final Collection<PsiValueResourceQueueEntry> myPsiValueResourceQueue = new ArrayList<>();
+    private final Supplier<ResourceSet> myResourceSetFactory;
+    private final Deque<ResourceSet> myIdleResourceSets = new ConcurrentLinkedDeque<>();
 
-    InitialScanState(ResourceMerger merger, File resourceDir) {
+    InitialScanState(ResourceMerger merger, File resourceDir, Supplier<ResourceSet> resourceSetFactory) {
       myResourceMerger = merger;
-      assert myResourceMerger.getDataSets().size() == 1;
-      myResourceSet = myResourceMerger.getDataSets().get(0);
-      myResourceSet.setShouldParseResourceIds(true);
-      myResourceSet.setDontNormalizeQualifiers(true);
-      myResourceSet.setTrackSourcePositions(false);
+      assert !myResourceMerger.getDataSets().isEmpty();
+      for (ResourceSet resourceSet : myResourceMerger.getDataSets()) {
+        configure(resourceSet);
+        myIdleResourceSets.add(resourceSet);
+      }
       myILogger = new LogWrapper(LOG).alwaysLogAsDebug(true).allowVerbose(false);
       myResourceDir = resourceDir;
+      myResourceSetFactory = resourceSetFactory;
     }
 
-    public void countCacheHit() {
-      ++numXml;
+    private static void configure(ResourceSet resourceSet) {
+      resourceSet.setShouldParseResourceIds(true);
+      resourceSet.setDontNormalizeQualifiers(true);
+      resourceSet.setTrackSourcePositions(false);
     }
 
-    public void countCacheMiss() {
-      ++numXml;
-      ++numXmlReparsed;
+    /**
+     * Returns a resource set of the merger for the exclusive use of the calling thread, until {@link #releaseResourceSet} is called.
+     */
+    @NotNull
+    ResourceSet acquireResourceSet() {
+      ResourceSet resourceSet = myIdleResourceSets.pollFirst();
+      if (resourceSet == null) {
+        resourceSet = myResourceSetFactory.get();
+        configure(resourceSet);
+        synchronized (myResourceMerger) {
+          myResourceMerger.addDataSet(resourceSet);
+        }
+      }
+      return resourceSet;
+    }
+
+    void releaseResourceSet(@NotNull ResourceSet resourceSet) {
+      myIdleResourceSets.addFirst(resourceSet);
     }
 
     /**
-     * Load a ResourceFile into the resource merger's resource set and return it.
+     * Load a ResourceFile into one of the resource merger's resource sets and return it.
      *
+     * @param resourceSet a resource set acquired by the calling thread
      * @param file a resource XML file to load and parse
      * @return the resulting ResourceFile, if there is no parse error.
      * @throws MergingException
      */
     @Nullable
-    ResourceFile loadFile(File file) throws MergingException {
-      return myResourceSet.loadFile(myResourceDir, file, myILogger);
+    ResourceFile loadFile(ResourceSet resourceSet, File file) throws MergingException {
+      return resourceSet.loadFile(myResourceDir, file, myILogger);
+    }
+
+    /**
+     * Adds the statistics and the PSI fallbacks of a scanned folder. Called from the constructing thread only.
+     */
+    void addFolderScan(FolderScan scan) {
+      numXml += scan.numXml;
+      numXmlReparsed += scan.numXmlReparsed;
+      myPsiFileResourceQueue.addAll(scan.myPsiFileResourceQueue);
+      myPsiValueResourceQueue.addAll(scan.myPsiValueResourceQueue);
+    }
+  }
+
+  /**
+   * Results of scanning a single res/ subfolder during the initial scan. Each folder is scanned into its own instance on one of the
+   * {@link #ourScanExecutor} threads, and the instances are merged in folder order, so the resulting item order is the same as the one
+   * of a sequential scan (see AppResourceRepositoryTest#testStringOrder).
+   */
+  private static class FolderScan {
+    final Map<ResourceType, ListMultimap<String, ResourceItem>> myResult = new HashMap<>();
+    final Map<VirtualFile, ResourceItemSource<? extends ResourceItem>> mySources = new HashMap<>();
+    final List<PsiFileResourceQueueEntry> myPsiFileResourceQueue = new ArrayList<>();
+    final List<PsiValueResourceQueueEntry> myPsiValueResourceQueue = new ArrayList<>();
+    final ResourceSet myResourceSet;
+    int numXml;
+    int numXmlReparsed;
+
+    FolderScan(ResourceSet resourceSet) {
+      myResourceSet = resourceSet;
+    }
+
+    void countCacheHit() {
+      ++numXml;
+    }
+
+    void countCacheMiss() {
+      ++numXml;
+      ++numXmlReparsed;
     }
 
-    public void queuePsiFileResourceScan(PsiFileResourceQueueEntry data) {
+    void queuePsiFileResourceScan(PsiFileResourceQueueEntry data) {
       myPsiFileResourceQueue.add(data);
     }
 
-    public void queuePsiValueResourceScan(PsiValueResourceQueueEntry data) {
+    void queuePsiValueResourceScan(PsiValueResourceQueueEntry data) {
       myPsiValueResourceQueue.add(data);
     }
   }
@@ -492,8 +577,12 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     return null;
   }
 
+  /**
+   * Scans the subfolders of {@code resDir} in parallel and merges the results, in folder order, into {@code result}.
+   */
   private void scanResFolder(@NotNull Map<ResourceType, ListMultimap<String, ResourceItem>> result,
                              @NotNull VirtualFile resDir) {
+    List<Callable<FolderScan>> folderJobs = new ArrayList<>();
     for (VirtualFile subDir : resDir.getChildren()) {
       if (subDir.isValid() && subDir.isDirectory()) {
         String name = subDir.getName();
@@ -504,15 +593,91 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
             continue;
           }
           String qualifiers = getQualifiers(name);
-          if (folderType == VALUES) {
-            scanValueResFolder(result, subDir, qualifiers, folderConfiguration);
-          }
-          else {
-            scanFileResourceFolder(result, subDir, folderType, qualifiers, folderConfiguration);
-          }
+          folderJobs.add(() -> scanFolder(subDir, folderType, qualifiers, folderConfiguration));
+        }
+      }
+    }
+
+    List<Future<FolderScan>> folderScans = new ArrayList<>(folderJobs.size());
+    if (folderJobs.size() > 1) {
+      for (Callable<FolderScan> job : folderJobs) {
+        folderScans.add(ourScanExecutor.submit(job));
+      }
+    }
+    else {
+      // Not worth a thread hop.
+      for (Callable<FolderScan> job : folderJobs) {
+        FutureTask<FolderScan> task = new FutureTask<>(job);
+        task.run();
+        folderScans.add(task);
+      }
+    }
+
+    // The scans look up sources while they run, so wait for all of them before merging anything into it.
+    List<FolderScan> scans = new ArrayList<>(folderScans.size());
+    try {
+      for (Future<FolderScan> future : folderScans) {
+        scans.add(getFolderScan(future));
+      }
+    }
+    finally {
+      if (scans.size() < folderScans.size()) {
+        // One of the scans failed, the others are of no use.
+        for (Future<FolderScan> future : folderScans) {
+          future.cancel(true);
         }
       }
     }
+
+    for (FolderScan scan : scans) {
+      for (Map.Entry<ResourceType, ListMultimap<String, ResourceItem>> entry : scan.myResult.entrySet()) {
+        result.computeIfAbsent(entry.getKey(), t -> LinkedListMultimap.create()).putAll(entry.getValue());
+      }
+      sources.putAll(scan.mySources);
+      myInitialScanState.addFolderScan(scan);
+    }
+  }
+
+  @NotNull
+  private FolderScan scanFolder(@NotNull VirtualFile directory,
+                                @NotNull ResourceFolderType folderType,
+                                String qualifiers,
+                                FolderConfiguration folderConfiguration) {
+    ResourceSet resourceSet = myInitialScanState.acquireResourceSet();
+    try {
+      FolderScan scan = new FolderScan(resourceSet);
+      if (folderType == VALUES) {
+        scanValueResFolder(scan, directory, qualifiers, folderConfiguration);
+      }
+      else {
+        scanFileResourceFolder(scan, directory, folderType, qualifiers, folderConfiguration);
+      }
+      return scan;
+    }
+    finally {
+      myInitialScanState.releaseResourceSet(resourceSet);
+    }
+  }
+
+  @NotNull
+  private static FolderScan getFolderScan(@NotNull Future<FolderScan> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new RuntimeException(cause);
+    }
   }
 
   private static String getQualifiers(String dirName) {
@@ -520,7 +685,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     return index != -1 ? dirName.substring(index + 1) : "";
   }
 
-  private void scanFileResourceFolder(@NotNull Map<ResourceType, ListMultimap<String, ResourceItem>> result,
+  private void scanFileResourceFolder(@NotNull FolderScan scan,
                                       @NotNull VirtualFile directory,
                                       ResourceFolderType folderType,
                                       String qualifiers,
@@ -536,7 +701,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
         FileType fileType = file.getFileType();
         boolean idGeneratingFile = idGeneratingFolder && fileType == StdFileTypes.XML;
         if (PsiProjectListener.isRelevantFileType(fileType) || folderType == RAW) {
-          scanFileResourceFile(result, qualifiers, folderType, folderConfiguration, type, idGeneratingFile, file);
+          scanFileResourceFile(scan, qualifiers, folderType, folderConfiguration, type, idGeneratingFile, file);
         } // TODO: Else warn about files that aren't expected to be found here?
       }
     }
@@ -567,7 +732,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
   }
 
-  private void scanFileResourceFile(Map<ResourceType, ListMultimap<String, ResourceItem>> result,
+  private void scanFileResourceFile(FolderScan scan,
                                     String qualifiers,
                                     ResourceFolderType folderType,
                                     FolderConfiguration folderConfiguration,
@@ -577,25 +742,25 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     ResourceFile resourceFile;
     if (idGenerating) {
       if (sources.containsKey(file)) {
-        myInitialScanState.countCacheHit();
+        scan.countCacheHit();
         return;
       }
       try {
-        resourceFile = myInitialScanState.loadFile(VfsUtilCore.virtualToIoFile(file));
+        resourceFile = myInitialScanState.loadFile(scan.myResourceSet, VfsUtilCore.virtualToIoFile(file));
         if (resourceFile == null) {
           // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
           // Don't count Psi items in myInitialScanState.numXml, because they are never cached.
-          myInitialScanState.queuePsiFileResourceScan(
+          scan.queuePsiFileResourceScan(
             new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
           return;
         }
         boolean isDensityBasedResource = folderType == DRAWABLE || folderType == MIPMAP;
         // We skip caching density-based resources, so don't count those against cache statistics.
         if (!isDensityBasedResource) {
-          myInitialScanState.countCacheMiss();
+          scan.countCacheMiss();
         }
         for (ResourceMergerItem item : resourceFile.getItems()) {
-          addToResult(result, item);
+          addToResult(scan.myResult, item);
           // It's not yet safe to serialize density-based resources items to blob files.
           // The ResourceValue should be an instance of DensityBasedResourceValue, but no flags are
           // serialized to the blob to indicate that.
@@ -606,7 +771,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       }
       catch (MergingException e) {
         // The file-based parser may not be able handle the file if it is a data-binding file.
-        myInitialScanState.queuePsiFileResourceScan(
+        scan.queuePsiFileResourceScan(
           new PsiFileResourceQueueEntry(file, qualifiers, folderType, folderConfiguration));
         return;
       }
@@ -616,11 +781,11 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       // No need to write these out to blob files, as the item is easily reconstructed from the filename.
       String name = ResourceHelper.getResourceName(file);
       ResourceMergerItem item = new ResourceMergerItem(name, myNamespace, type, null, getLibraryName());
-      addToResult(result, item);
+      addToResult(scan.myResult, item);
       resourceFile = new ResourceFile(VfsUtilCore.virtualToIoFile(file), item, folderConfiguration);
       item.setIgnoredFromDiskMerge(true);
     }
-    sources.put(file, new ResourceFileAdapter(resourceFile));
+    scan.mySources.put(file, new ResourceFileAdapter(resourceFile));
   }
 
   @Nullable
@@ -893,7 +1058,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
   }
 
-  private void scanValueResFolder(Map<ResourceType, ListMultimap<String, ResourceItem>> result,
+  private void scanValueResFolder(FolderScan scan,
                                   @NotNull VirtualFile directory,
                                   String qualifiers,
                                   FolderConfiguration folderConfiguration) {
@@ -902,7 +1067,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
     for (VirtualFile file : directory.getChildren()) {
       if (file.isValid() && !file.isDirectory()) {
-        scanValueFile(result, qualifiers, file, folderConfiguration);
+        scanValueFile(scan, qualifiers, file, folderConfiguration);
       }
     }
   }
@@ -966,33 +1131,33 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     return added;
   }
 
-  private void scanValueFile(Map<ResourceType, ListMultimap<String, ResourceItem>> result,
+  private void scanValueFile(FolderScan scan,
                              String qualifiers,
                              VirtualFile virtualFile,
                              FolderConfiguration folderConfiguration) {
     FileType fileType = virtualFile.getFileType();
     if (fileType == StdFileTypes.XML) {
       if (sources.containsKey(virtualFile)) {
-        myInitialScanState.countCacheHit();
+        scan.countCacheHit();
         return;
       }
       File file = VfsUtilCore.virtualToIoFile(virtualFile);
       try {
-        ResourceFile resourceFile = myInitialScanState.loadFile(file);
+        ResourceFile resourceFile = myInitialScanState.loadFile(scan.myResourceSet, file);
         if (resourceFile == null) {
           // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
-          myInitialScanState.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
+          scan.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
           return;
         }
         for (ResourceItem item : resourceFile.getItems()) {
-          addToResult(result, item);
+          addToResult(scan.myResult, item);
         }
-        myInitialScanState.countCacheMiss();
-        sources.put(virtualFile, new ResourceFileAdapter(resourceFile));
+        scan.countCacheMiss();
+        scan.mySources.put(virtualFile, new ResourceFileAdapter(resourceFile));
       }
       catch (MergingException e) {
         // The file-based parser failed for some reason. Fall back to Psi in case it is more lax.
-        myInitialScanState.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
+        scan.queuePsiValueResourceScan(new PsiValueResourceQueueEntry(virtualFile, qualifiers, folderConfiguration));
       }
     }
   }
@@ -32,6 +32,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static com.android.tools.idea.explorer.adbimpl.TestDevices.COMMAND_ERROR_CHECK_SUFFIX;
 import static com.google.common.truth.Truth.assertThat;
@@ -176,6 +177,87 @@ public class AdbFileListingTest {
     assertDirectoryLink(fileListing, rootEntries, "vendor", true);
   }
 
+  @Test
+  public void test_Nexus7Api23_IsDirectoryLinkResolvesSiblingsWithOneCommand() throws Exception {
+    // Prepare
+    TestShellCommands commands = new TestShellCommands();
+    TestDevices.addNexus7Api23Commands(commands);
+    IDevice device = commands.createMockDevice();
+    Executor taskExecutor = PooledThreadExecutor.INSTANCE;
+    AdbFileListing fileListing = new AdbFileListing(device, new AdbDeviceCapabilities(device), taskExecutor);
+    AdbFileListingEntry root = waitForFuture(fileListing.getRoot());
+    List<AdbFileListingEntry> rootEntries = waitForFuture(fileListing.getChildren(root));
+
+    // Act
+    assertDirectoryLink(fileListing, rootEntries, "charger", false);
+    assertDirectoryLink(fileListing, rootEntries, "d", true);
+    assertDirectoryLink(fileListing, rootEntries, "etc", true);
+    assertDirectoryLink(fileListing, rootEntries, "sdcard", true);
+    assertDirectoryLink(fileListing, rootEntries, "tombstones", false);
+    assertDirectoryLink(fileListing, rootEntries, "vendor", true);
+
+    // Assert: the links of the directory are resolved by a single round trip to the device
+    long linkCommands = commands.getExecutedCommands().stream().filter(command -> command.contains("ls -l -d")).count();
+    assertThat(linkCommands).isEqualTo(1);
+  }
+
+  @Test
+  public void test_Nexus7Api23_IsDirectoryLinkSplitsLongCommands() throws Exception {
+    // Prepare
+    TestShellCommands commands = new TestShellCommands();
+    TestDevices.addNexus7Api23Commands(commands);
+    StringBuilder binListing = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      binListing.append(String.format("lrwxrwxrwx root     shell             2016-08-26 12:00 tool%d -> toolbox\r\n", i));
+      commands.add(String.format("ls -l -d /system/bin/tool%d/", i), String.format("/system/bin/tool%d/: Not a directory\r\n", i));
+    }
+    commands.add("ls -l /system/bin/" + COMMAND_ERROR_CHECK_SUFFIX, binListing.toString());
+    commands.setMaxCommandLength(AdbFileListing.MAX_COMMAND_LENGTH);
+    IDevice device = commands.createMockDevice();
+    Executor taskExecutor = PooledThreadExecutor.INSTANCE;
+    AdbFileListing fileListing = new AdbFileListing(device, new AdbDeviceCapabilities(device), taskExecutor);
+    AdbFileListingEntry root = waitForFuture(fileListing.getRoot());
+    AdbFileListingEntry system = waitForFuture(fileListing.getChildren(root)).stream()
+      .filter(x -> "system".equals(x.getName())).findFirst().orElse(null);
+    assertThat(system).isNotNull();
+    AdbFileListingEntry bin = waitForFuture(fileListing.getChildren(system)).stream()
+      .filter(x -> "bin".equals(x.getName())).findFirst().orElse(null);
+    assertThat(bin).isNotNull();
+    List<AdbFileListingEntry> binEntries = waitForFuture(fileListing.getChildren(bin));
+
+    // Act
+    assertDirectoryLink(fileListing, binEntries, "tool0", false);
+    assertDirectoryLink(fileListing, binEntries, "tool499", false);
+
+    // Assert: the links are resolved by a few commands, each short enough for the device to accept
+    List<String> linkCommands =
+      commands.getExecutedCommands().stream().filter(command -> command.contains("ls -l -d")).collect(Collectors.toList());
+    assertThat(linkCommands.size()).isGreaterThan(1);
+    assertThat(linkCommands.size()).isLessThan(500);
+  }
+
+  @Test
+  public void test_Nexus7Api23_IsDirectoryLinkFallsBackToOneCommandPerLink() throws Exception {
+    // Prepare
+    TestShellCommands commands = new TestShellCommands();
+    TestDevices.addNexus7Api23Commands(commands);
+    IDevice device = commands.createMockDevice();
+    Executor taskExecutor = PooledThreadExecutor.INSTANCE;
+    AdbFileListing fileListing = new AdbFileListing(device, new AdbDeviceCapabilities(device), taskExecutor);
+    AdbFileListingEntry root = waitForFuture(fileListing.getRoot());
+    List<AdbFileListingEntry> rootEntries = waitForFuture(fileListing.getChildren(root));
+    // The device rejects the command resolving all the links at once
+    commands.setMaxCommandLength(100);
+
+    // Act/Assert
+    assertDirectoryLink(fileListing, rootEntries, "charger", false);
+    assertDirectoryLink(fileListing, rootEntries, "d", true);
+    assertDirectoryLink(fileListing, rootEntries, "etc", true);
+    assertDirectoryLink(fileListing, rootEntries, "sdcard", true);
+    assertDirectoryLink(fileListing, rootEntries, "tombstones", false);
+    assertDirectoryLink(fileListing, rootEntries, "vendor", true);
+  }
+
   @Test
   public void test_EmulatorApi25_GetRoot() throws Exception {
     // Prepare
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl;
+
+import com.android.ddmlib.SyncException;
+import com.android.tools.idea.explorer.fs.FileTransferProgress;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AdbFileTransferTest {
+  private static final long TIMEOUT_MILLISECONDS = 30_000;
+
+  @Nullable private Disposable myParentDisposable;
+  @Nullable private ExecutorService myCallbackExecutor;
+  @Nullable private MockDdmlibDevice myMockDevice;
+
+  @ClassRule
+  public static final TestRule ourLoggerFactoryRule = new DebugLoggerFactoryRule();
+
+  @Before
+  public void setUp() throws Exception {
+    myParentDisposable = Disposer.newDisposable();
+    myCallbackExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("EDT Simulation Thread",
+                                                                              PooledThreadExecutor.INSTANCE,
+                                                                              1,
+                                                                              myParentDisposable);
+    myMockDevice = new MockDdmlibDevice();
+    TestDevices.addNexus7Api23Commands(myMockDevice.getShellCommands());
+  }
+
+  @After
+  public void cleanUp() {
+    if (myParentDisposable != null) {
+      Disposer.dispose(myParentDisposable);
+    }
+  }
+
+  @Test
+  public void test_UploadFiles_RunsConcurrentTransfers() throws Exception {
+    // Prepare
+    assert myMockDevice != null;
+    myMockDevice.setTransferLatencyMillis(20);
+    AdbFileTransfer fileTransfer = createFileTransfer(4);
+    Map<Path, String> files = createLocalFiles(40, 1000);
+    RecordingProgress progress = new RecordingProgress();
+
+    // Act
+    waitForFuture(fileTransfer.uploadFiles(files, progress));
+    ensureProgressCallbacksExecuted();
+
+    // Assert
+    assertThat(myMockDevice.getTransferCount()).isEqualTo(40);
+    assertThat(myMockDevice.getMaxActiveTransferCount()).isAtMost(4);
+    assertThat(myMockDevice.getMaxActiveTransferCount()).isGreaterThan(1);
+    files.values().forEach(remotePath -> assertThat(myMockDevice.hasRemoteFile(remotePath)).isTrue());
+    assertThat(progress.myTotalBytes.get()).isEqualTo(40 * 1000);
+    assertThat(progress.myCurrentBytes.get()).isEqualTo(40 * 1000);
+  }
+
+  @Test
+  public void test_DownloadFiles_ReportsProgressOfTheWholeBatch() throws Exception {
+    // Prepare
+    assert myMockDevice != null;
+    AdbFileTransfer fileTransfer = createFileTransfer(4);
+    Map<AdbFileListingEntry, Path> files = new LinkedHashMap<>();
+    for (int i = 0; i < 10; i++) {
+      String remotePath = "/sdcard/file" + i;
+      myMockDevice.addRemoteFile(remotePath, 5000);
+      AdbFileListingEntry entry = new AdbFileListingEntryBuilder()
+        .setPath(remotePath)
+        .setKind(AdbFileListingEntry.EntryKind.FILE)
+        .setSize(5000)
+        .build();
+      files.put(entry, FileUtil.createTempFile("localFile", "tmp").toPath());
+    }
+    RecordingProgress progress = new RecordingProgress();
+
+    // Act
+    waitForFuture(fileTransfer.downloadFiles(files, progress));
+    ensureProgressCallbacksExecuted();
+
+    // Assert
+    files.values().forEach(localPath -> assertThat(localPath.toFile().length()).isEqualTo(5000));
+    assertThat(progress.myTotalBytes.get()).isEqualTo(10 * 5000);
+    assertThat(progress.myCurrentBytes.get()).isEqualTo(10 * 5000);
+  }
+
+  @Test
+  public void test_UploadFiles_ReturnsErrorOfFailedFile() throws Exception {
+    // Prepare
+    assert myMockDevice != null;
+    AdbFileTransfer fileTransfer = createFileTransfer(2);
+    Map<Path, String> files = createLocalFiles(5, 100);
+    String restrictedPath = files.values().iterator().next();
+    myMockDevice.addRemoteRestrictedAccessFile(restrictedPath, 100);
+
+    // Act
+    Throwable error = waitForFutureException(fileTransfer.uploadFiles(files, new RecordingProgress()));
+
+    // Assert
+    assertThat(error).isInstanceOf(SyncException.class);
+    files.values().stream()
+      .filter(remotePath -> !remotePath.equals(restrictedPath))
+      .forEach(remotePath -> assertThat(myMockDevice.hasRemoteFile(remotePath)).isTrue());
+  }
+
+  @Test
+  public void test_UploadFiles_CancelSkipsQueuedTransfers() throws Exception {
+    // Prepare
+    assert myMockDevice != null;
+    myMockDevice.setTransferLatencyMillis(100);
+    AdbFileTransfer fileTransfer = createFileTransfer(1);
+    Map<Path, String> files = createLocalFiles(10, 100);
+
+    // Act
+    ListenableFuture<Void> futureBatch = fileTransfer.uploadFiles(files, new RecordingProgress());
+    while (myMockDevice.getTransferCount() == 0) {
+      Thread.sleep(1);
+    }
+    futureBatch.cancel(true);
+    // The queue is FIFO, so once a transfer requested after the batch is done, the queued files have been skipped
+    Path localPath = FileUtil.createTempFile("localFile", "tmp").toPath();
+    waitForFuture(fileTransfer.uploadFile(localPath, "/sdcard/last", new RecordingProgress()));
+
+    // Assert
+    assertThat(futureBatch.isCancelled()).isTrue();
+    assertThat(myMockDevice.getTransferCount()).isEqualTo(2);
+    assertThat(myMockDevice.hasRemoteFile("/sdcard/last")).isTrue();
+  }
+
+  @NotNull
+  private AdbFileTransfer createFileTransfer(int maxConcurrentTransfers) {
+    assert myMockDevice != null;
+    assert myCallbackExecutor != null;
+    Executor taskExecutor = PooledThreadExecutor.INSTANCE;
+    AdbDeviceCapabilities capabilities = new AdbDeviceCapabilities(myMockDevice.getIDevice());
+    AdbFileOperations fileOperations = new AdbFileOperations(myMockDevice.getIDevice(), capabilities, taskExecutor);
+    return new AdbFileTransfer(myMockDevice.getIDevice(), fileOperations, myCallbackExecutor, taskExecutor, maxConcurrentTransfers);
+  }
+
+  @NotNull
+  private static Map<Path, String> createLocalFiles(int count, int size) throws Exception {
+    Map<Path, String> files = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      Path localPath = FileUtil.createTempFile("localFile", "tmp").toPath();
+      Files.write(localPath, new byte[size]);
+      files.put(localPath, "/sdcard/file" + i);
+    }
+    return files;
+  }
+
+  private void ensureProgressCallbacksExecuted() throws Exception {
+    assert myCallbackExecutor != null;
+    Future<?> future = myCallbackExecutor.submit(() -> { });
+    future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+  }
+
+  private static <V> V waitForFuture(@NotNull Future<V> future) throws Exception {
+    assert !java.awt.EventQueue.isDispatchThread();
+    return future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+  }
+
+  private static <V> Throwable waitForFutureException(@NotNull Future<V> future) throws Exception {
+    assert !java.awt.EventQueue.isDispatchThread();
+    try {
+      future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+      throw new AssertionError("Future should have failed with an exception");
+    }
+    catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  private static class RecordingProgress implements FileTransferProgress {
+    @NotNull private final AtomicLong myCurrentBytes = new AtomicLong();
+    @NotNull private final AtomicLong myTotalBytes = new AtomicLong();
+
+    @Override
+    public void progress(long currentBytes, long totalBytes) {
+      myCurrentBytes.set(currentBytes);
+      myTotalBytes.set(totalBytes);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  }
+}
@@ -25,8 +25,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -41,8 +42,12 @@ public class MockDdmlibDevice {
   @NotNull private String myName = "[GenericMockDevice]";
   @Nullable private IDevice.DeviceState myState = IDevice.DeviceState.ONLINE;
   @NotNull private TestShellCommands myShellCommands = new TestShellCommands();
-  @NotNull private Map<String, Long> myRemoteFiles = new HashMap<>();
-  @NotNull private Map<String, Long> myRemoteRestrictedAccessFiles = new HashMap<>();
+  @NotNull private Map<String, Long> myRemoteFiles = new ConcurrentHashMap<>();
+  @NotNull private Map<String, Long> myRemoteRestrictedAccessFiles = new ConcurrentHashMap<>();
+  @NotNull private final AtomicInteger myTransferCount = new AtomicInteger();
+  @NotNull private final AtomicInteger myActiveTransferCount = new AtomicInteger();
+  @NotNull private final AtomicInteger myMaxActiveTransferCount = new AtomicInteger();
+  private volatile long myTransferLatencyMillis;
 
   public MockDdmlibDevice() throws Exception {
     myMockSyncService = new MockSyncService();
@@ -113,6 +118,31 @@ public class MockDdmlibDevice {
     myRemoteRestrictedAccessFiles.put(path, size);
   }
 
+  boolean hasRemoteFile(@NotNull String path) {
+    return myRemoteFiles.containsKey(path);
+  }
+
+  /**
+   * Makes every push and pull take at least the given time, like the setup of a sync session on a real device.
+   */
+  void setTransferLatencyMillis(long transferLatencyMillis) {
+    myTransferLatencyMillis = transferLatencyMillis;
+  }
+
+  /**
+   * Returns the number of pushes and pulls started so far.
+   */
+  int getTransferCount() {
+    return myTransferCount.get();
+  }
+
+  /**
+   * Returns the largest number of pushes and pulls which ran at the same time so far.
+   */
+  int getMaxActiveTransferCount() {
+    return myMaxActiveTransferCount.get();
+  }
+
   public class MockSyncService {
     @NotNull private final SyncService mySyncService;
 
@@ -123,7 +153,13 @@ public class MockDdmlibDevice {
         String local = invocation.getArgument(0);
         String remote = invocation.getArgument(1);
         ISyncProgressMonitor monitor = invocation.getArgument(2);
-        pushFile(local, remote, monitor);
+        try {
+          startTransfer();
+          pushFile(local, remote, monitor);
+        }
+        finally {
+          myActiveTransferCount.decrementAndGet();
+        }
         return null;
       }).when(mySyncService).pushFile(anyString(), anyString(), any());
 
@@ -131,7 +167,13 @@ public class MockDdmlibDevice {
         String remote = invocation.getArgument(0);
         String local = invocation.getArgument(1);
         ISyncProgressMonitor monitor = invocation.getArgument(2);
-        pullFile(remote, local, monitor);
+        try {
+          startTransfer();
+          pullFile(remote, local, monitor);
+        }
+        finally {
+          myActiveTransferCount.decrementAndGet();
+        }
         return null;
       }).when(mySyncService).pullFile(anyString(), anyString(), any());
 
@@ -144,6 +186,14 @@ public class MockDdmlibDevice {
       }).when(mySyncService).pullFile(any(FileListingService.FileEntry.class), anyString(), any());
     }
 
+    private void startTransfer() throws InterruptedException {
+      myTransferCount.incrementAndGet();
+      myMaxActiveTransferCount.accumulateAndGet(myActiveTransferCount.incrementAndGet(), Math::max);
+      if (myTransferLatencyMillis > 0) {
+        Thread.sleep(myTransferLatencyMillis);
+      }
+    }
+
     private void pushFile(@NotNull String local, @NotNull String remote, @NotNull ISyncProgressMonitor monitor) throws SyncException {
       LOGGER.info(String.format("pushFile: \"%s\" -> \"%s\"", local, remote));
       // Pushing to system protected files is not allowed
@@ -19,16 +19,39 @@ import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.regex.Pattern;
 
 public class TestShellCommands {
   @NotNull private static final Logger LOGGER = Logger.getInstance(TestShellCommands.class);
 
+  @NotNull private static final String LINK_SEPARATOR_COMMAND = "; echo " + AdbFileListing.LINK_SEPARATOR_MARKER + "; ";
+
   @NotNull private final Map<String, TestShellCommandResult> myCommands = new HashMap<>();
+  @NotNull private final List<String> myExecutedCommands = Collections.synchronizedList(new ArrayList<>());
   @NotNull private String myDescription = "[MockDevice]";
+  private int myMaxCommandLength = Integer.MAX_VALUE;
+
+  /**
+   * Makes commands longer than the given number of bytes fail, as older versions of adbd do.
+   */
+  public void setMaxCommandLength(int maxCommandLength) {
+    myMaxCommandLength = maxCommandLength;
+  }
+
+  /**
+   * Returns the commands executed so far, in order.
+   */
+  @NotNull
+  public List<String> getExecutedCommands() {
+    synchronized (myExecutedCommands) {
+      return new ArrayList<>(myExecutedCommands);
+    }
+  }
 
   public void setDescription(@NotNull String description) {
     myDescription = description;
@@ -51,7 +74,14 @@ public class TestShellCommands {
   }
 
   public void executeShellCommand(String command, IShellOutputReceiver receiver) throws Exception {
+    myExecutedCommands.add(command);
+    if (command.getBytes(Charset.forName("UTF-8")).length > myMaxCommandLength) {
+      throw new IOException(String.format("Command \"%s\" is too long for mock device \"%s\"", command, myDescription));
+    }
     TestShellCommandResult commandResult = this.get(command);
+    if (commandResult == null && command.contains(LINK_SEPARATOR_COMMAND)) {
+      commandResult = getCompoundCommandResult(command);
+    }
     if (commandResult == null) {
       UnsupportedOperationException error = new UnsupportedOperationException(
         String.format("Command \"%s\" not found in mock device \"%s\". Test case is not correctly setup.", command, myDescription));
@@ -79,4 +109,26 @@ public class TestShellCommands {
     }
     receiver.flush();
   }
+
+  /**
+   * Builds the result of several commands run at once by {@link AdbFileListing}, from the results of each of them.
+   */
+  @Nullable
+  private TestShellCommandResult getCompoundCommandResult(@NotNull String command) {
+    StringBuilder output = new StringBuilder();
+    for (String subCommand : command.split(Pattern.quote(LINK_SEPARATOR_COMMAND))) {
+      TestShellCommandResult result = this.get(subCommand);
+      if (result == null || result.getOutput() == null) {
+        return result;
+      }
+      if (output.length() > 0) {
+        output.append(AdbFileListing.LINK_SEPARATOR_MARKER).append("\n");
+      }
+      output.append(result.getOutput());
+      if (!result.getOutput().endsWith("\n")) {
+        output.append("\n");
+      }
+    }
+    return new TestShellCommandResult(output.toString());
+  }
 }
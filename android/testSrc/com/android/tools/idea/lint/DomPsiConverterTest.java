@@ -18,12 +18,14 @@ package com.android.tools.idea.lint;
 import com.android.ide.common.xml.XmlPrettyPrinter;
 import com.android.utils.XmlUtils;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
 import org.jetbrains.android.AndroidTestCase;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
@@ -107,4 +109,26 @@ public class DomPsiConverterTest extends AndroidTestCase {
     assertEquals(1, elementsByTagName.getLength());
     assertEquals("@drawable/icon", elementsByTagName.item(0).getAttributes().getNamedItemNS(ANDROID_URI, "icon").getNodeValue());
   }
+
+  public void testDocumentCachedUntilModified() {
+    VirtualFile file = myFixture.copyFileToProject("AndroidManifest.xml", "AndroidManifest.xml");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertTrue(psiFile instanceof XmlFile);
+    XmlFile xmlFile = (XmlFile)psiFile;
+
+    Document domDocument = DomPsiConverter.convert(xmlFile);
+    assertNotNull(domDocument);
+    assertSame(domDocument, DomPsiConverter.convert(xmlFile));
+
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      XmlTag rootTag = xmlFile.getRootTag();
+      assertNotNull(rootTag);
+      rootTag.addSubTag(rootTag.createChildTag("uses-feature", "", null, false), false);
+    });
+
+    Document updated = DomPsiConverter.convert(xmlFile);
+    assertNotNull(updated);
+    assertNotSame(domDocument, updated);
+    assertEquals(1, updated.getElementsByTagName("uses-feature").getLength());
+  }
 }
@@ -16,9 +16,12 @@
 package com.android.tools.idea.rendering;
 
 import com.android.tools.idea.io.TestFileUtils;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.*;
 import org.jetbrains.android.AndroidTestCase;
 
@@ -26,6 +29,9 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -99,4 +105,94 @@ public class GutterIconCacheTest extends AndroidTestCase {
     // Modifying the image should have invalidated the cache entry.
     assertThat(GutterIconCache.getInstance().isIconUpToDate(mySampleSvgPath.toString())).isFalse();
   }
+
+  public void testGetIcon_inMemoryCacheIsBounded() throws Exception {
+    GutterIconCache cache = new GutterIconCache(null, 20);
+    List<String> paths = writeVectorDrawables(50);
+
+    // Show the first 10 icons on every "paint", and the others once each, like a file scrolled once with a few icons always visible
+    for (int paint = 0; paint < 40; paint++) {
+      for (String path : paths.subList(0, 10)) {
+        assertThat(cache.getIcon(path, null)).isNotNull();
+      }
+      assertThat(cache.getIcon(paths.get(10 + paint), null)).isNotNull();
+    }
+
+    CacheStats stats = cache.getStats();
+    assertThat(cache.getSize()).isAtMost(20L);
+    assertThat(stats.evictionCount()).isGreaterThan(0L);
+    // Only the first paint renders the 10 icons which are always visible
+    assertThat(stats.hitCount()).isEqualTo(39L * 10);
+    assertThat(cache.getThumbnailBytes()).isAtMost(20L * GutterIconCache.MAX_WIDTH * GutterIconCache.MAX_HEIGHT * 4 * 4);
+  }
+
+  public void testGetIcon_diskCacheIsReusedAcrossInstances() throws Exception {
+    Path cacheDir = FileUtil.createTempDirectory("gutterIconCache", null).toPath();
+    List<String> paths = writeVectorDrawables(5);
+
+    GutterIconDiskCache diskCache = new GutterIconDiskCache(cacheDir, MoreExecutors.directExecutor(), 100);
+    GutterIconCache cache = new GutterIconCache(diskCache, 100);
+    for (String path : paths) {
+      assertThat(cache.getIcon(path, null)).isNotNull();
+    }
+    assertThat(diskCache.getMissCount()).isEqualTo(5);
+    assertThat(countFiles(cacheDir)).isEqualTo(5);
+
+    // A new instance, as after a restart, reads the thumbnails from disk instead of rendering the resources again
+    GutterIconDiskCache restartedDiskCache = new GutterIconDiskCache(cacheDir, MoreExecutors.directExecutor(), 100);
+    GutterIconCache restartedCache = new GutterIconCache(restartedDiskCache, 100);
+    for (String path : paths) {
+      assertThat(restartedCache.getIcon(path, null)).isNotNull();
+    }
+    assertThat(restartedDiskCache.getHitCount()).isEqualTo(5);
+    assertThat(restartedDiskCache.getMissCount()).isEqualTo(0);
+  }
+
+  public void testGetIcon_diskCacheIsKeyedByContent() throws Exception {
+    Path cacheDir = FileUtil.createTempDirectory("gutterIconCache", null).toPath();
+    String path = writeVectorDrawables(1).get(0);
+    GutterIconDiskCache diskCache = new GutterIconDiskCache(cacheDir, MoreExecutors.directExecutor(), 100);
+    assertThat(new GutterIconCache(diskCache, 100).getIcon(path, null)).isNotNull();
+
+    // Changing the resource makes a new instance miss the thumbnail of its previous content
+    Path drawablePath = FileSystems.getDefault().getPath(path);
+    TestFileUtils.writeFileAndRefreshVfs(drawablePath, new String(Files.readAllBytes(drawablePath)).replace("#FF0000", "#00FF00"));
+    GutterIconDiskCache restartedDiskCache = new GutterIconDiskCache(cacheDir, MoreExecutors.directExecutor(), 100);
+    assertThat(new GutterIconCache(restartedDiskCache, 100).getIcon(path, null)).isNotNull();
+    assertThat(restartedDiskCache.getHitCount()).isEqualTo(0);
+    assertThat(countFiles(cacheDir)).isEqualTo(2);
+  }
+
+  public void testGetIcon_diskCacheEvictsLeastRecentlyUsed() throws Exception {
+    Path cacheDir = FileUtil.createTempDirectory("gutterIconCache", null).toPath();
+    GutterIconDiskCache diskCache = new GutterIconDiskCache(cacheDir, MoreExecutors.directExecutor(), 8);
+    GutterIconCache cache = new GutterIconCache(diskCache, 100);
+    for (String path : writeVectorDrawables(9)) {
+      assertThat(cache.getIcon(path, null)).isNotNull();
+    }
+
+    // Going over the maximum evicts down to three quarters of it
+    assertThat(countFiles(cacheDir)).isEqualTo(6);
+  }
+
+  private List<String> writeVectorDrawables(int count) throws Exception {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Path path = FileSystems.getDefault().getPath(myModule.getProject().getBasePath(),
+                                                   "app", "src", "main", "res", "drawable", "GutterIconCacheTest_vector" + i + ".xml");
+      String contents = "<vector xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                        "    android:width=\"24dp\" android:height=\"24dp\" android:viewportWidth=\"24\" android:viewportHeight=\"24\">\n" +
+                        "  <path android:fillColor=\"#FF0000\" android:pathData=\"M0,0h" + (i + 1) + "v24h-" + (i + 1) + "z\"/>\n" +
+                        "</vector>";
+      TestFileUtils.writeFileAndRefreshVfs(path, contents);
+      paths.add(path.toString());
+    }
+    return paths;
+  }
+
+  private static long countFiles(Path dir) throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(file -> file.toString().endsWith(".png")).count();
+    }
+  }
 }
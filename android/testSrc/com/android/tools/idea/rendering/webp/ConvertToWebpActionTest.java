@@ -16,10 +16,18 @@
 package com.android.tools.idea.rendering.webp;
 
 import com.android.tools.adtui.webp.WebpNativeLibHelper;
+import com.intellij.openapi.application.WriteAction;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.android.AndroidTestCase;
 
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -85,4 +93,51 @@ public class ConvertToWebpActionTest extends AndroidTestCase {
     assertThat(mdpiFolder.findChild("ic_arrow_back.webp")).isNotNull();
     assertThat(mdpiFolder.findChild("ic_arrow_back.png")).isNull();
   }
-}
\ No newline at end of file
+
+  public void testConvertImagesWithDuplicates() throws Exception {
+    if (!WebpNativeLibHelper.loadNativeLibraryIfNeeded()) {
+      System.out.println("Skipping " + getClass().getSimpleName() + " because the webp decoder is not available");
+      return;
+    }
+
+    WebpConversionSettings settings = new WebpConversionSettings();
+    settings.skipTransparentImages = false;
+    settings.skipLargerImages = false;
+    settings.quality = 75;
+
+    // Generate images in several densities, the last folder holding copies of the first one to check that duplicates are converted too.
+    String[] folders = {"drawable-mdpi", "drawable-hdpi", "drawable-xhdpi", "drawable-xxhdpi", "drawable-nodpi"};
+    int imagesPerFolder = 10;
+    Random random = new Random(42);
+    List<VirtualFile> files = new ArrayList<>();
+    for (int folder = 0; folder < folders.length; folder++) {
+      for (int i = 0; i < imagesPerFolder; i++) {
+        byte[] png = folder == folders.length - 1 ? files.get(i).contentsToByteArray() : createPng(random, 48 * (folder + 1));
+        VirtualFile file = myFixture.getTempDirFixture().createFile("res/" + folders[folder] + "/image" + i + ".png");
+        WriteAction.run(() -> file.setBinaryContent(png));
+        files.add(file);
+      }
+    }
+
+    new ConvertToWebpAction().convert(getProject(), settings, false, files);
+
+    for (VirtualFile file : files) {
+      VirtualFile folder = file.getParent();
+      assertThat(folder.findChild(file.getName())).isNull();
+      assertThat(folder.findChild(file.getNameWithoutExtension() + ".webp")).isNotNull();
+    }
+  }
+
+  private static byte[] createPng(Random random, int size) throws Exception {
+    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    for (int i = 0; i < 10; i++) {
+      graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+      graphics.fillOval(random.nextInt(size), random.nextInt(size), random.nextInt(size) + 1, random.nextInt(size) + 1);
+    }
+    graphics.dispose();
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ImageIO.write(image, "PNG", stream);
+    return stream.toByteArray();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import static com.android.ide.common.rendering.api.ResourceNamespace.RES_AUTO;
+
+import com.android.resources.ResourceType;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.android.AndroidTestCase;
+
+/**
+ * Stress test for lookups in a {@link MultiResourceRepository} while its children keep invalidating the merged caches,
+ * the way PSI-driven rescans do. Prints the lookup throughput so that changes to the locking scheme can be compared.
+ */
+public class MultiResourceRepositoryConcurrencyTest extends AndroidTestCase {
+  private static final String VALUES = "resourceRepository/values.xml";
+  private static final String VALUES_OVERLAY1 = "resourceRepository/valuesOverlay1.xml";
+
+  private static final int READER_THREADS = 4;
+  private static final long DURATION_MS = 2000;
+
+  public void testLookupThroughputDuringConcurrentInvalidation() throws Exception {
+    VirtualFile res1 = myFixture.copyFileToProject(VALUES, "res/values/values.xml").getParent().getParent();
+    VirtualFile res2 = myFixture.copyFileToProject(VALUES_OVERLAY1, "res2/values/values.xml").getParent().getParent();
+    ModuleResourceRepository repository = ModuleResourceRepository.createForTest(myFacet, Arrays.asList(res1, res2));
+    LocalResourceRepository child = repository.getChildren().get(0);
+    assertFalse(repository.getResources(RES_AUTO, ResourceType.STRING, "title_card_flip").isEmpty());
+
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong invalidations = new AtomicLong();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    CountDownLatch finished = new CountDownLatch(READER_THREADS + 1);
+    List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < READER_THREADS; i++) {
+      threads.add(new Thread(() -> {
+        try {
+          long count = 0;
+          while (!done.get()) {
+            if (repository.getResources(RES_AUTO, ResourceType.STRING, "title_card_flip").isEmpty()) {
+              throw new AssertionError("Lookup returned no items");
+            }
+            repository.hasResources(RES_AUTO, ResourceType.STRING);
+            count++;
+          }
+          lookups.addAndGet(count);
+        }
+        catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+        finally {
+          finished.countDown();
+        }
+      }, "Resource lookup " + i));
+    }
+    threads.add(new Thread(() -> {
+      try {
+        while (!done.get()) {
+          repository.invalidateCache(child, RES_AUTO, ResourceType.STRING);
+          invalidations.incrementAndGet();
+          Thread.sleep(1);
+        }
+      }
+      catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      }
+      finally {
+        finished.countDown();
+      }
+    }, "Resource rescan"));
+
+    threads.forEach(Thread::start);
+    Thread.sleep(DURATION_MS);
+    done.set(true);
+    assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertTrue(lookups.get() > 0);
+    assertTrue(invalidations.get() > 0);
+  }
+}
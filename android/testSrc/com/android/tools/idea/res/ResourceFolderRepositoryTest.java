@@ -16,13 +16,16 @@
 package com.android.tools.idea.res;
 
 import com.android.ide.common.rendering.api.*;
+import com.android.ide.common.resources.MergingException;
 import com.android.ide.common.resources.ResourceItem;
 import com.android.ide.common.resources.ResourceRepositoryUtil;
+import com.android.ide.common.resources.ResourceSet;
 import com.android.ide.common.resources.configuration.FolderConfiguration;
 import com.android.resources.Density;
 import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.google.common.collect.Collections2;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
@@ -52,8 +55,10 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -3548,6 +3553,84 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertTrue(fromBlob.equalFilesItems(resources));
   }
 
+  public void testParallelScanMatchesSequentialScan() {
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+    myFixture.copyFileToProject(LAYOUT1, "res/layout-xlarge-land/layout.xml");
+    myFixture.copyFileToProject(LAYOUT_ID_SCAN, "res/layout/layout_for_id_scan.xml");
+    myFixture.copyFileToProject(DRAWABLE, "res/drawable/logo.png");
+    myFixture.copyFileToProject(DRAWABLE, "res/drawable-hdpi/logo.png");
+    myFixture.copyFileToProject(DRAWABLE_ID_SCAN, "res/drawable-v21/drawable_for_id_scan.xml");
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+    myFixture.copyFileToProject(STRINGS, "res/values-fr/not_really_french_strings.xml");
+    myFixture.copyFileToProject(VALUES_WITH_DUPES, "res/values-en/values_with_duplicates.xml");
+
+    ExecutorService scanExecutor = ResourceFolderRepository.ourScanExecutor;
+    ResourceFolderRepository sequential;
+    try {
+      ResourceFolderRepository.ourScanExecutor = MoreExecutors.newDirectExecutorService();
+      sequential = createRepository();
+    }
+    finally {
+      ResourceFolderRepository.ourScanExecutor = scanExecutor;
+    }
+
+    myRegistry.reset();
+    ResourceFolderRepository parallel = createRepository();
+    assertNotSame(sequential, parallel);
+    assertEquals(sequential.myInitialScanState.numXml, parallel.myInitialScanState.numXml);
+    assertTrue(parallel.equalFilesItems(sequential));
+    // The folders are merged in order, so the items are in the same order as well.
+    for (ResourceType type : ResourceType.values()) {
+      assertEquals(getItemSources(sequential, type), getItemSources(parallel, type));
+    }
+  }
+
+  public void testSerializationOfSeveralResourceSets() {
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    ResourceFolderRepository resources = createRepository();
+    // Parse a file into a resource set of its own, as a second scanning thread would.
+    VirtualFile strings = myFixture.copyFileToProject(STRINGS, "res/values-fr/not_really_french_strings.xml");
+    ResourceFolderRepository.InitialScanState scanState = resources.myInitialScanState;
+    int resourceSetCount = scanState.myResourceMerger.getDataSets().size();
+    List<ResourceSet> resourceSets = new ArrayList<>();
+    for (int i = 0; i <= resourceSetCount; i++) {
+      resourceSets.add(scanState.acquireResourceSet());
+    }
+    try {
+      assertNotNull(scanState.loadFile(resourceSets.get(resourceSetCount), VfsUtilCore.virtualToIoFile(strings)));
+    }
+    catch (MergingException e) {
+      throw new AssertionError(e);
+    }
+    resourceSets.forEach(scanState::releaseResourceSet);
+    assertSize(resourceSetCount + 1, scanState.myResourceMerger.getDataSets());
+    resources.saveStateToFile();
+
+    myRegistry.reset();
+    ResourceFolderRepository fromBlob = createRepository();
+    assertTrue(fromBlob.hasFreshFileCache());
+    assertEquals(3, fromBlob.myInitialScanState.numXml);
+    assertEquals(0, fromBlob.myInitialScanState.numXmlReparsed);
+    assertTrue(fromBlob.hasResources(RES_AUTO, ResourceType.STRING, "hello_world"));
+
+    myRegistry.reset();
+    ResourceFolderRepositoryFileCacheService.get().invalidate();
+    ResourceFolderRepository rescanned = createRepository();
+    assertEquals(rescanned.myInitialScanState.numXml, rescanned.myInitialScanState.numXmlReparsed);
+    assertTrue(fromBlob.equalFilesItems(rescanned));
+  }
+
+  @NotNull
+  private static List<String> getItemSources(@NotNull ResourceFolderRepository repository, @NotNull ResourceType type) {
+    List<String> sources = new ArrayList<>();
+    for (Map.Entry<String, ResourceItem> entry : repository.getResources(RES_AUTO, type).entries()) {
+      sources.add(entry.getKey() + " " + entry.getValue().getSource());
+    }
+    return sources;
+  }
+
   public void testInvalidateCache() {
     myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
     myFixture.copyFileToProject(LAYOUT1, "res/layout-xlarge-land/layout.xml");
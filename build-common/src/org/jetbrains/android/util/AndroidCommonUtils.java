@@ -151,31 +151,15 @@ public class AndroidCommonUtils {
                                                 @NotNull String outputFilePath,
                                                 @NotNull Map<AndroidCompilerMessageKind, List<String>> messages, boolean multiDex) {
     BaseOSProcessHandler handler = new BaseOSProcessHandler(process, commandLine, null);
+    DexOutputParser parser = new DexOutputParser(messages);
     handler.addProcessListener(new ProcessAdapter() {
-      private AndroidCompilerMessageKind myCategory = null;
-
       @Override
       public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
-        String[] msgs = event.getText().split("\\n");
-        for (String msg : msgs) {
-          msg = msg.trim();
-          String msglc = StringUtil.toLowerCase(msg);
-          if (outputType == ProcessOutputTypes.STDERR) {
-            if (WARNING_PATTERN.matcher(msglc).matches()) {
-              myCategory = AndroidCompilerMessageKind.WARNING;
-            }
-            if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
-              myCategory = AndroidCompilerMessageKind.ERROR;
-            }
-            messages.get(myCategory).add(msg);
-          }
-          else if (outputType == ProcessOutputTypes.STDOUT) {
-            if (!msglc.startsWith("processing")) {
-              messages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
-            }
-          }
-
-          LOG.debug(msg);
+        if (outputType == ProcessOutputTypes.STDERR) {
+          parser.onStderr(event.getText());
+        }
+        else if (outputType == ProcessOutputTypes.STDOUT) {
+          parser.onStdout(event.getText());
         }
       }
     });
@@ -183,6 +167,33 @@ public class AndroidCommonUtils {
     handler.startNotify();
     handler.waitFor();
 
+    finishDexCompilation(outputFilePath, messages, multiDex);
+  }
+
+  /**
+   * Same as {@link #handleDexCompilationResult(Process, String, String, Map, boolean)}, but for a dex request
+   * whose exit code and output have already been captured, e.g. by a long-lived dex daemon. A non-zero exit code
+   * is reported as an error even if dx did not print one.
+   */
+  public static void handleDexCompilationResult(int exitCode,
+                                                @NotNull String stdout,
+                                                @NotNull String stderr,
+                                                @NotNull String outputFilePath,
+                                                @NotNull Map<AndroidCompilerMessageKind, List<String>> messages, boolean multiDex) {
+    DexOutputParser parser = new DexOutputParser(messages);
+    parser.onStderr(stderr);
+    parser.onStdout(stdout);
+    finishDexCompilation(outputFilePath, messages, multiDex);
+
+    List<String> errors = messages.get(AndroidCompilerMessageKind.ERROR);
+    if (exitCode != 0 && errors.isEmpty()) {
+      errors.add("Dex compilation failed with exit code " + exitCode);
+    }
+  }
+
+  private static void finishDexCompilation(@NotNull String outputFilePath,
+                                           @NotNull Map<AndroidCompilerMessageKind, List<String>> messages,
+                                           boolean multiDex) {
     List<String> errors = messages.get(AndroidCompilerMessageKind.ERROR);
 
     if (new File(outputFilePath).isFile()) {
@@ -195,6 +206,50 @@ public class AndroidCommonUtils {
     }
   }
 
+  private static class DexOutputParser {
+    private final Map<AndroidCompilerMessageKind, List<String>> myMessages;
+    private AndroidCompilerMessageKind myCategory = null;
+
+    private DexOutputParser(@NotNull Map<AndroidCompilerMessageKind, List<String>> messages) {
+      myMessages = messages;
+    }
+
+    void onStderr(@NotNull String text) {
+      for (String msg : splitMessages(text)) {
+        String msglc = StringUtil.toLowerCase(msg);
+        if (WARNING_PATTERN.matcher(msglc).matches()) {
+          myCategory = AndroidCompilerMessageKind.WARNING;
+        }
+        if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
+          myCategory = AndroidCompilerMessageKind.ERROR;
+        }
+        myMessages.get(myCategory).add(msg);
+        LOG.debug(msg);
+      }
+    }
+
+    void onStdout(@NotNull String text) {
+      for (String msg : splitMessages(text)) {
+        if (!StringUtil.toLowerCase(msg).startsWith("processing")) {
+          myMessages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
+        }
+        LOG.debug(msg);
+      }
+    }
+
+    @NotNull
+    private static List<String> splitMessages(@NotNull String text) {
+      if (text.isEmpty()) {
+        return Collections.emptyList();
+      }
+      List<String> result = new ArrayList<>();
+      for (String msg : text.split("\\n")) {
+        result.add(msg.trim());
+      }
+      return result;
+    }
+  }
+
   @NotNull
   public static List<String> packClassFilesIntoJar(@NotNull String[] firstPackageDirPaths,
                                                  @NotNull String[] libFirstPackageDirPaths,
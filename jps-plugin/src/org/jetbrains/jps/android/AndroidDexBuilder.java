@@ -279,19 +279,11 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
       if (!AndroidCommonUtils.hasXmxParam(vmOptions)) {
         vmOptions.add("-Xmx" + configuration.getMaxHeapSize() + "M");
       }
-      programParamList.addAll(Arrays.asList("--optimize", Boolean.toString(configuration.isOptimize())));
-
-      if (configuration.isForceJumbo()) {
-        programParamList.addAll(Arrays.asList("--forceJumbo", Boolean.TRUE.toString()));
-      }
-
-      if (configuration.isCoreLibrary()) {
-        programParamList.add("--coreLibrary");
-      }
     }
     else {
       vmOptions = Collections.singletonList("-Xmx1024M");
     }
+    programParamList.addAll(getDexOptions(configuration));
     if (multiDex) {
       JpsAndroidModuleExtension extension = AndroidJpsUtil.getExtension(module);
       if (extension != null) {
@@ -328,22 +320,37 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     LOG.info(AndroidCommonUtils.command2string(commandLine));
 
-    final String[] commands = ArrayUtilRt.toStringArray(commandLine);
-    final Process process;
-
-    if (testingManager != null) {
-      process = testingManager.getCommandExecutor().createProcess(
-        commands, Collections.emptyMap());
-    }
-    else {
-      process = Runtime.getRuntime().exec(commands);
-    }
     final HashMap<AndroidCompilerMessageKind, List<String>> messages = new HashMap<>(3);
     messages.put(AndroidCompilerMessageKind.ERROR, new ArrayList<>());
     messages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<>());
     messages.put(AndroidCompilerMessageKind.INFORMATION, new ArrayList<>());
 
-    AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, messages, multiDex);
+    AndroidDexDaemon.Result daemonResult = null;
+
+    if (testingManager == null && AndroidDexDaemon.isEnabled()) {
+      final List<String> daemonCommandLine = ExternalProcessUtil
+        .buildJavaCommandLine(javaExecutable, AndroidDxRunner.class.getName(),
+                              Collections.emptyList(), classPath, vmOptions, Collections.emptyList());
+      daemonResult = AndroidDexDaemon.run(daemonCommandLine, programParamList);
+    }
+
+    if (daemonResult != null) {
+      AndroidCommonUtils.handleDexCompilationResult(daemonResult.exitCode, daemonResult.stdout, daemonResult.stderr,
+                                                    outFilePath, messages, multiDex);
+    }
+    else {
+      final String[] commands = ArrayUtilRt.toStringArray(commandLine);
+      final Process process;
+
+      if (testingManager != null) {
+        process = testingManager.getCommandExecutor().createProcess(
+          commands, Collections.emptyMap());
+      }
+      else {
+        process = Runtime.getRuntime().exec(commands);
+      }
+      AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, messages, multiDex);
+    }
 
     AndroidJpsUtil.addMessages(context, messages, builderName, srcTargetName);
     final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).isEmpty();
@@ -374,6 +381,41 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     return success;
   }
 
+  @NotNull
+  private static List<String> getDexOptions(@Nullable JpsAndroidDexCompilerConfiguration configuration) {
+    if (configuration == null) {
+      return Collections.emptyList();
+    }
+    final List<String> options = new ArrayList<>();
+    options.addAll(Arrays.asList("--optimize", Boolean.toString(configuration.isOptimize())));
+
+    if (configuration.isForceJumbo()) {
+      options.addAll(Arrays.asList("--forceJumbo", Boolean.TRUE.toString()));
+    }
+
+    if (configuration.isCoreLibrary()) {
+      options.add("--coreLibrary");
+    }
+    return options;
+  }
+
+  /**
+   * Returns a string identifying the dx tool and the options a library would be pre-dexed with,
+   * or {@code null} if dx is not available for the platform.
+   */
+  @Nullable
+  static String getPreDexOptionsFingerprint(@NotNull AndroidPlatform platform, @NotNull JpsProject project) {
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+    if (buildToolInfo == null) {
+      return null;
+    }
+    final File dxJar = new File(buildToolInfo.getPath(BuildToolInfo.PathId.DX_JAR));
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+    return dxJar.getAbsolutePath() + ':' + dxJar.length() + ':' + dxJar.lastModified() + ':' +
+           StringUtil.join(getDexOptions(configuration), " ");
+  }
+
   @Nullable
   private static String getJavaExecutable(@NotNull AndroidPlatform platform, @NotNull CompileContext context, @NotNull String builderName) {
     final JpsSdk<JpsSimpleElement<JpsAndroidSdkProperties>> sdk = platform.getSdk();
@@ -0,0 +1,303 @@
+// Copyright 2000-2019 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.util.ArrayUtilRt;
+import org.jetbrains.android.compiler.tools.AndroidDxRunner;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * A long-lived {@link AndroidDxRunner} process that executes dex requests sent over its stdin/stdout pipes.
+ * Daemons are shared by all dex and pre-dex targets of the build process (and by subsequent builds when the
+ * build process is reused) through a small {@link Pool} per java command line they were launched with, so that
+ * targets dexed in parallel don't wait for each other.
+ */
+class AndroidDexDaemon {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidDexDaemon");
+
+  @NonNls private static final String DISABLE_PROPERTY = "android.jps.dex.daemon.disabled";
+  @NonNls private static final String TIMEOUT_PROPERTY = "android.jps.dex.daemon.timeout.ms";
+  @NonNls private static final String POOL_SIZE_PROPERTY = "android.jps.dex.daemon.pool.size";
+  private static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+  // Each daemon is a JVM with the dex heap size, so only a few of them are kept
+  private static final int DEFAULT_POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  private static final ExecutorService ourResponseReader = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "Android dex daemon response reader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Map<List<String>, Pool> ourPools = new HashMap<>();
+  private static boolean ourShutdownHookInstalled;
+
+  private final Process myProcess;
+  private final DataOutputStream myInput;
+  private final DataInputStream myOutput;
+  private volatile boolean myBroken;
+
+  AndroidDexDaemon(@NotNull Process process) {
+    myProcess = process;
+    myInput = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    myOutput = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+  }
+
+  static boolean isEnabled() {
+    return !Boolean.getBoolean(DISABLE_PROPERTY);
+  }
+
+  /**
+   * Runs one dex request on a daemon of the pool for the given java command line (everything but the program parameters),
+   * launching a new daemon if all of them are busy and the pool is not full, or waiting for one otherwise. Returns {@code null}
+   * if no daemon could be launched or the daemon failed; the caller should then fall back to a one-off process.
+   */
+  @Nullable
+  static Result run(@NotNull List<String> javaCommandLine, @NotNull List<String> programParams) {
+    Pool pool = getPool(javaCommandLine);
+    AndroidDexDaemon daemon;
+    try {
+      daemon = pool.acquire();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    if (daemon == null) {
+      return null;
+    }
+    try {
+      return daemon.execute(programParams);
+    }
+    finally {
+      pool.release(daemon);
+    }
+  }
+
+  @NotNull
+  private static Pool getPool(@NotNull List<String> javaCommandLine) {
+    synchronized (ourPools) {
+      Pool pool = ourPools.get(javaCommandLine);
+      if (pool != null) {
+        return pool;
+      }
+      List<String> commandLine = new ArrayList<>(javaCommandLine);
+      commandLine.add(AndroidDxRunner.DAEMON_ARG);
+      pool = new Pool(Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE), () -> {
+        LOG.info("Starting dex daemon: " + commandLine);
+        ProcessBuilder builder = new ProcessBuilder(ArrayUtilRt.toStringArray(commandLine));
+        // The daemon reports per-request output through the protocol, anything else on stderr is only useful in the log
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+      });
+      ourPools.put(javaCommandLine, pool);
+
+      if (!ourShutdownHookInstalled) {
+        ourShutdownHookInstalled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(AndroidDexDaemon::shutdownAll, "Android dex daemon shutdown"));
+      }
+      return pool;
+    }
+  }
+
+  static void shutdownAll() {
+    synchronized (ourPools) {
+      for (Pool pool : ourPools.values()) {
+        pool.shutdown();
+      }
+      ourPools.clear();
+    }
+  }
+
+  /**
+   * Runs one dex request with the same program parameters that would be passed to {@link AndroidDxRunner#main}.
+   * Returns {@code null} if the daemon failed or did not respond within the timeout; in that case the daemon is
+   * discarded and the caller should fall back to a one-off process.
+   */
+  @Nullable
+  Result execute(@NotNull List<String> programParams) {
+    return execute(programParams, Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MS));
+  }
+
+  /**
+   * Requests are not multiplexed over the pipes, so a daemon serves one request at a time; {@link Pool} leases each daemon to a
+   * single caller, the lock only guards against misuse.
+   */
+  @Nullable
+  synchronized Result execute(@NotNull List<String> programParams, long timeoutMs) {
+    if (myBroken) {
+      return null;
+    }
+    try {
+      myInput.writeInt(programParams.size());
+      for (String param : programParams) {
+        myInput.writeUTF(param);
+      }
+      myInput.flush();
+
+      // Destroying the daemon on timeout closes its stdout, which makes the reader fail and exit
+      return ourResponseReader.submit(this::readResult).get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    catch (IOException | ExecutionException e) {
+      LOG.info("Dex daemon failed, falling back to a new process", e);
+      destroy();
+      return null;
+    }
+    catch (TimeoutException e) {
+      LOG.info("Dex daemon did not respond in " + timeoutMs + " ms, falling back to a new process");
+      destroy();
+      return null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      destroy();
+      return null;
+    }
+  }
+
+  @NotNull
+  private Result readResult() throws IOException {
+    int exitCode = myOutput.readInt();
+    String stdout = readString();
+    String stderr = readString();
+    return new Result(exitCode, stdout, stderr);
+  }
+
+  @NotNull
+  private String readString() throws IOException {
+    byte[] bytes = new byte[myOutput.readInt()];
+    myOutput.readFully(bytes);
+    return new String(bytes, Charset.defaultCharset());
+  }
+
+  private boolean isAlive() {
+    return !myBroken && myProcess.isAlive();
+  }
+
+  private void destroy() {
+    myBroken = true;
+    try {
+      myInput.close();
+    }
+    catch (IOException ignored) {
+    }
+    myProcess.destroy();
+  }
+
+  /**
+   * Daemons launched with the same java command line. Each one is leased to a single caller at a time, and up to {@code maxSize}
+   * of them run at once.
+   */
+  static class Pool {
+    private final int myMaxSize;
+    @NotNull private final ThrowableComputable<Process, IOException> myLauncher;
+    // Daemons waiting for a request, the most recently used first
+    private final Deque<AndroidDexDaemon> myIdleDaemons = new ArrayDeque<>();
+    private final List<AndroidDexDaemon> myDaemons = new ArrayList<>();
+    private int myLaunching;
+    private boolean myShutdown;
+
+    Pool(int maxSize, @NotNull ThrowableComputable<Process, IOException> launcher) {
+      myMaxSize = Math.max(1, maxSize);
+      myLauncher = launcher;
+    }
+
+    /**
+     * Returns an idle daemon, or launches a new one if the pool is not full, or waits for a daemon to be released.
+     * Returns {@code null} if the daemon cannot be launched.
+     */
+    @Nullable
+    AndroidDexDaemon acquire() throws InterruptedException {
+      synchronized (this) {
+        while (true) {
+          if (myShutdown) {
+            return null;
+          }
+          AndroidDexDaemon daemon = myIdleDaemons.pollFirst();
+          if (daemon != null) {
+            if (daemon.isAlive()) {
+              return daemon;
+            }
+            daemon.destroy();
+            myDaemons.remove(daemon);
+            continue;
+          }
+          if (myDaemons.size() + myLaunching < myMaxSize) {
+            myLaunching++;
+            break;
+          }
+          wait();
+        }
+      }
+
+      AndroidDexDaemon daemon = null;
+      try {
+        daemon = new AndroidDexDaemon(myLauncher.compute());
+      }
+      catch (IOException e) {
+        LOG.info("Cannot start dex daemon, falling back to a new process", e);
+      }
+      synchronized (this) {
+        myLaunching--;
+        if (daemon != null) {
+          myDaemons.add(daemon);
+        }
+        notifyAll();
+        if (daemon != null && myShutdown) {
+          daemon.destroy();
+          return null;
+        }
+      }
+      return daemon;
+    }
+
+    synchronized void release(@NotNull AndroidDexDaemon daemon) {
+      if (daemon.isAlive() && !myShutdown) {
+        myIdleDaemons.addFirst(daemon);
+      }
+      else {
+        daemon.destroy();
+        myDaemons.remove(daemon);
+      }
+      notifyAll();
+    }
+
+    synchronized int getDaemonCount() {
+      return myDaemons.size();
+    }
+
+    synchronized void shutdown() {
+      myShutdown = true;
+      for (AndroidDexDaemon daemon : myDaemons) {
+        daemon.destroy();
+      }
+      myDaemons.clear();
+      myIdleDaemons.clear();
+      notifyAll();
+    }
+  }
+
+  static class Result {
+    final int exitCode;
+    @NotNull final String stdout;
+    @NotNull final String stderr;
+
+    Result(int exitCode, @NotNull String stdout, @NotNull String stderr) {
+      this.exitCode = exitCode;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+  }
+}
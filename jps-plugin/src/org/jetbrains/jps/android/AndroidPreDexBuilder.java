@@ -94,6 +94,10 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
     }
     if (!filesToPreDex.isEmpty()) {
       final File outputDir = target.getOutputFile(context);
+      final AndroidPreDexCache cache = AndroidBuildTestingManager.getTestingManager() == null
+                                       ? new AndroidPreDexCache(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot())
+                                       : null;
+      final String optionsFingerprint = cache != null ? AndroidDexBuilder.getPreDexOptionsFingerprint(platform, project) : null;
 
       for (Pair<File, String> pair : filesToPreDex) {
         context.checkCanceled();
@@ -123,10 +127,21 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
           return false;
         }
 
+        final String cacheKey = optionsFingerprint != null ? AndroidPreDexCache.computeKey(srcFile, optionsFingerprint) : null;
+
+        if (cacheKey != null && cache.restore(cacheKey, outputFile)) {
+          outputConsumer.registerOutputFile(outputFile, Collections.singletonList(srcFilePath));
+          continue;
+        }
+
         if (!AndroidDexBuilder.runDex(platform, outputFile.getPath(), new String[]{srcFilePath}, context,
           project, outputConsumer, BUILDER_NAME, srcFile.getName(), null)) {
           return false;
         }
+
+        if (cacheKey != null) {
+          cache.store(cacheKey, outputFile);
+        }
       }
     }
     return true;
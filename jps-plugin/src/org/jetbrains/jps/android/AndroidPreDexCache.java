@@ -0,0 +1,138 @@
+// Copyright 2000-2019 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache of pre-dexed library jars, keyed by the content hash of the input jar and the dex options used.
+ * The cache lives in the project build data directory, so a library jar whose content did not change is dexed
+ * only once, no matter how many times it is reported dirty (e.g. after a rebuild or a touched timestamp).
+ */
+class AndroidPreDexCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPreDexCache");
+
+  @NonNls private static final String CACHE_DIR_NAME = "android_pre_dex_cache";
+  @NonNls private static final String DIGEST_ALGORITHM = "SHA-1";
+  private static final long MAX_CACHE_SIZE_BYTES = 512L * 1024 * 1024;
+
+  private final File myCacheDir;
+  private final long myMaxSizeBytes;
+
+  AndroidPreDexCache(@NotNull File dataStorageRoot) {
+    this(dataStorageRoot, MAX_CACHE_SIZE_BYTES);
+  }
+
+  AndroidPreDexCache(@NotNull File dataStorageRoot, long maxSizeBytes) {
+    myCacheDir = new File(dataStorageRoot, CACHE_DIR_NAME);
+    myMaxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Returns the cache key for pre-dexing {@code jarFile} with the given options, or {@code null} if the jar cannot be read.
+   */
+  @Nullable
+  static String computeKey(@NotNull File jarFile, @NotNull String dexOptionsFingerprint) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      digest.update(dexOptionsFingerprint.getBytes(StandardCharsets.UTF_8));
+      byte[] buffer = new byte[64 * 1024];
+      try (InputStream input = new BufferedInputStream(new FileInputStream(jarFile))) {
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+          digest.update(buffer, 0, count);
+        }
+      }
+      return StringUtil.toHexString(digest.digest());
+    }
+    catch (IOException | NoSuchAlgorithmException e) {
+      LOG.info("Cannot compute pre-dex cache key for " + jarFile.getPath(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Copies the cached pre-dexed jar for {@code key} to {@code outputFile}. Returns {@code false} on a cache miss.
+   */
+  boolean restore(@NotNull String key, @NotNull File outputFile) {
+    File cached = getCacheFile(key);
+    if (!cached.isFile()) {
+      return false;
+    }
+    try {
+      FileUtil.copy(cached, outputFile);
+      // Keeps recently used entries from being evicted first
+      //noinspection ResultOfMethodCallIgnored
+      cached.setLastModified(System.currentTimeMillis());
+      return true;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot restore pre-dexed jar from cache: " + cached.getPath(), e);
+      return false;
+    }
+  }
+
+  void store(@NotNull String key, @NotNull File preDexedFile) {
+    if (!preDexedFile.isFile()) {
+      return;
+    }
+    File cached = getCacheFile(key);
+    try {
+      FileUtil.copy(preDexedFile, cached);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store pre-dexed jar in cache: " + preDexedFile.getPath(), e);
+      FileUtil.delete(cached);
+      return;
+    }
+    trim();
+  }
+
+  @NotNull
+  private File getCacheFile(@NotNull String key) {
+    return new File(myCacheDir, key + ".jar");
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in its maximum size.
+   */
+  private void trim() {
+    File[] entries = myCacheDir.listFiles();
+    if (entries == null) {
+      return;
+    }
+    long totalSize = 0;
+    for (File entry : entries) {
+      totalSize += entry.length();
+    }
+    if (totalSize <= myMaxSizeBytes) {
+      return;
+    }
+    Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+
+    for (File entry : entries) {
+      if (totalSize <= myMaxSizeBytes) {
+        break;
+      }
+      long size = entry.length();
+      if (FileUtil.delete(entry)) {
+        totalSize -= size;
+      }
+    }
+  }
+}
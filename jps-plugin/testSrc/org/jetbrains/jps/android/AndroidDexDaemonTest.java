@@ -0,0 +1,289 @@
+// Copyright 2000-2019 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package org.jetbrains.jps.android;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AndroidDexDaemonTest {
+  private FakeDaemonProcess myProcess;
+  private final List<FakeDaemonProcess> myPoolProcesses = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    if (myProcess != null) {
+      myProcess.destroy();
+    }
+    myPoolProcesses.forEach(FakeDaemonProcess::destroy);
+  }
+
+  @Test
+  public void executeSendsTheRequestAndReadsTheResponse() throws Exception {
+    myProcess = new FakeDaemonProcess(new DaemonHandler() {
+      @Override
+      public void serve(@NotNull DataInputStream in, @NotNull DataOutputStream out) throws IOException {
+        while (true) {
+          List<String> args = readRequest(in);
+          writeResponse(out, args.size(), String.join(" ", args), "stderr of " + args.get(0));
+        }
+      }
+    });
+    AndroidDexDaemon daemon = new AndroidDexDaemon(myProcess);
+
+    AndroidDexDaemon.Result result = daemon.execute(Arrays.asList("dx.jar", "out.dex", "--optimize", "true"));
+    assertNotNull(result);
+    assertEquals(4, result.exitCode);
+    assertEquals("dx.jar out.dex --optimize true", result.stdout);
+    assertEquals("stderr of dx.jar", result.stderr);
+
+    // The daemon serves several requests over the same pipes
+    result = daemon.execute(Arrays.asList("other.jar", "other.dex"));
+    assertNotNull(result);
+    assertEquals(2, result.exitCode);
+    assertEquals("other.jar other.dex", result.stdout);
+    assertEquals("stderr of other.jar", result.stderr);
+  }
+
+  @Test
+  public void executeReturnsNullWhenTheDaemonDies() throws Exception {
+    myProcess = new FakeDaemonProcess(new DaemonHandler() {
+      @Override
+      public void serve(@NotNull DataInputStream in, @NotNull DataOutputStream out) throws IOException {
+        readRequest(in);
+        // Dies in the middle of the response
+        out.writeInt(0);
+      }
+    });
+    AndroidDexDaemon daemon = new AndroidDexDaemon(myProcess);
+
+    assertNull(daemon.execute(Arrays.asList("dx.jar", "out.dex")));
+    assertTrue(myProcess.isDestroyed());
+    // A broken daemon is not used again
+    assertNull(daemon.execute(Arrays.asList("dx.jar", "out.dex")));
+  }
+
+  @Test
+  public void executeReturnsNullWhenTheDaemonDoesNotRespond() throws Exception {
+    CountDownLatch requestReceived = new CountDownLatch(1);
+    myProcess = new FakeDaemonProcess(new DaemonHandler() {
+      @Override
+      public void serve(@NotNull DataInputStream in, @NotNull DataOutputStream out) throws IOException {
+        readRequest(in);
+        requestReceived.countDown();
+        // Never responds; reading fails once the daemon is destroyed
+        //noinspection ResultOfMethodCallIgnored
+        in.read();
+      }
+    });
+    AndroidDexDaemon daemon = new AndroidDexDaemon(myProcess);
+
+    assertNull(daemon.execute(Arrays.asList("dx.jar", "out.dex"), 100));
+    assertEquals(0, requestReceived.getCount());
+    assertTrue(myProcess.isDestroyed());
+  }
+
+  @Test
+  public void poolReusesAnIdleDaemon() throws Exception {
+    AndroidDexDaemon.Pool pool = new AndroidDexDaemon.Pool(2, () -> launchEchoDaemon(null));
+
+    for (int i = 0; i < 3; i++) {
+      AndroidDexDaemon daemon = pool.acquire();
+      assertNotNull(daemon);
+      AndroidDexDaemon.Result result = daemon.execute(Arrays.asList("dx.jar", "out" + i + ".dex"));
+      pool.release(daemon);
+      assertNotNull(result);
+      assertEquals("dx.jar out" + i + ".dex", result.stdout);
+    }
+    assertEquals(1, myPoolProcesses.size());
+    assertEquals(1, pool.getDaemonCount());
+  }
+
+  @Test
+  public void poolRunsConcurrentRequestsOnSeparateDaemons() throws Exception {
+    // Each daemon only responds once both requests were received, which needs one daemon per request
+    CountDownLatch requestsReceived = new CountDownLatch(2);
+    AndroidDexDaemon.Pool pool = new AndroidDexDaemon.Pool(2, () -> launchEchoDaemon(requestsReceived));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<AndroidDexDaemon.Result>> results = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        String output = "out" + i + ".dex";
+        results.add(executor.submit(() -> {
+          AndroidDexDaemon daemon = pool.acquire();
+          assertNotNull(daemon);
+          try {
+            return daemon.execute(Arrays.asList("dx.jar", output), TimeUnit.SECONDS.toMillis(10));
+          }
+          finally {
+            pool.release(daemon);
+          }
+        }));
+      }
+      for (int i = 0; i < 2; i++) {
+        AndroidDexDaemon.Result result = results.get(i).get(20, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertEquals("dx.jar out" + i + ".dex", result.stdout);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, myPoolProcesses.size());
+    assertEquals(2, pool.getDaemonCount());
+  }
+
+  @Test
+  public void poolDropsDeadDaemons() throws Exception {
+    AndroidDexDaemon.Pool pool = new AndroidDexDaemon.Pool(1, () -> launchEchoDaemon(null));
+
+    AndroidDexDaemon daemon = pool.acquire();
+    assertNotNull(daemon);
+    myPoolProcesses.get(0).destroy();
+    assertNull(daemon.execute(Arrays.asList("dx.jar", "out.dex")));
+    pool.release(daemon);
+    assertEquals(0, pool.getDaemonCount());
+
+    // The next request launches a new daemon instead of waiting for the dead one
+    daemon = pool.acquire();
+    assertNotNull(daemon);
+    assertNotNull(daemon.execute(Arrays.asList("dx.jar", "out.dex")));
+    pool.release(daemon);
+    assertEquals(2, myPoolProcesses.size());
+  }
+
+  @NotNull
+  private FakeDaemonProcess launchEchoDaemon(@Nullable CountDownLatch requestsReceived) throws IOException {
+    FakeDaemonProcess process = new FakeDaemonProcess(new DaemonHandler() {
+      @Override
+      public void serve(@NotNull DataInputStream in, @NotNull DataOutputStream out) throws IOException {
+        while (true) {
+          List<String> args = readRequest(in);
+          if (requestsReceived != null) {
+            requestsReceived.countDown();
+            try {
+              requestsReceived.await();
+            }
+            catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+          writeResponse(out, 0, String.join(" ", args), "");
+        }
+      }
+    });
+    synchronized (myPoolProcesses) {
+      myPoolProcesses.add(process);
+    }
+    return process;
+  }
+
+  @NotNull
+  private static List<String> readRequest(@NotNull DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<String> args = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      args.add(in.readUTF());
+    }
+    return args;
+  }
+
+  private static void writeResponse(@NotNull DataOutputStream out, int exitCode, @NotNull String stdout, @NotNull String stderr)
+    throws IOException {
+    out.writeInt(exitCode);
+    writeBytes(out, stdout.getBytes(Charset.defaultCharset()));
+    writeBytes(out, stderr.getBytes(Charset.defaultCharset()));
+    out.flush();
+  }
+
+  private static void writeBytes(@NotNull DataOutputStream out, @NotNull byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private interface DaemonHandler {
+    void serve(@NotNull DataInputStream in, @NotNull DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Stands in for the {@code AndroidDxRunner --daemon} process, serving the protocol with a {@link DaemonHandler} on a thread.
+   */
+  private static class FakeDaemonProcess extends Process {
+    private final PipedOutputStream myStdin = new PipedOutputStream();
+    private final PipedInputStream myStdout = new PipedInputStream();
+    private final Thread myThread;
+    private volatile boolean myDestroyed;
+
+    FakeDaemonProcess(@NotNull DaemonHandler handler) throws IOException {
+      PipedInputStream daemonIn = new PipedInputStream(myStdin);
+      PipedOutputStream daemonOut = new PipedOutputStream(myStdout);
+      myThread = new Thread(() -> {
+        try (DataInputStream in = new DataInputStream(daemonIn); DataOutputStream out = new DataOutputStream(daemonOut)) {
+          handler.serve(in, out);
+        }
+        catch (IOException ignored) {
+          // The client closed the pipes
+        }
+      }, "Fake dex daemon");
+      myThread.setDaemon(true);
+      myThread.start();
+    }
+
+    boolean isDestroyed() {
+      return myDestroyed;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return myStdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return myStdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      myThread.join();
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      if (myThread.isAlive()) {
+        throw new IllegalThreadStateException();
+      }
+      return 0;
+    }
+
+    @Override
+    public void destroy() {
+      myDestroyed = true;
+      try {
+        myStdin.close();
+        myStdout.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2000-2019 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AndroidPreDexCacheTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void keyDependsOnTheJarContentAndTheOptions() throws Exception {
+    File jar = createFile("lib.jar", "content");
+    File copy = createFile("copy/lib.jar", "content");
+    File changed = createFile("changed/lib.jar", "changed content");
+
+    String key = AndroidPreDexCache.computeKey(jar, "options");
+    assertNotNull(key);
+    // The path and timestamp of the jar do not matter, only its content
+    assertTrue(copy.setLastModified(jar.lastModified() + 10000));
+    assertEquals(key, AndroidPreDexCache.computeKey(copy, "options"));
+    assertNotEquals(key, AndroidPreDexCache.computeKey(changed, "options"));
+    assertNotEquals(key, AndroidPreDexCache.computeKey(jar, "other options"));
+    assertNull(AndroidPreDexCache.computeKey(new File(myTemporaryFolder.getRoot(), "missing.jar"), "options"));
+  }
+
+  @Test
+  public void restoreReturnsTheStoredPreDexedJar() throws Exception {
+    AndroidPreDexCache cache = new AndroidPreDexCache(myTemporaryFolder.newFolder("data"));
+    File output = new File(myTemporaryFolder.getRoot(), "out/lib.jar");
+
+    assertFalse(cache.restore("key", output));
+    assertFalse(output.exists());
+
+    cache.store("key", createFile("dexed/lib.jar", "dexed content"));
+    assertTrue(cache.restore("key", output));
+    assertEquals("dexed content", FileUtil.loadFile(output));
+    assertFalse(cache.restore("other key", output));
+  }
+
+  @Test
+  public void storeEvictsTheLeastRecentlyUsedEntries() throws Exception {
+    AndroidPreDexCache cache = new AndroidPreDexCache(myTemporaryFolder.newFolder("data"), 20);
+    File output = new File(myTemporaryFolder.getRoot(), "out/lib.jar");
+
+    cache.store("first", createFile("first.jar", "0123456789"));
+    cache.store("second", createFile("second.jar", "0123456789"));
+    makeOlder(new File(myTemporaryFolder.getRoot(), "data/android_pre_dex_cache/first.jar"), 20000);
+    makeOlder(new File(myTemporaryFolder.getRoot(), "data/android_pre_dex_cache/second.jar"), 10000);
+    // Using the first entry makes the second one the least recently used
+    assertTrue(cache.restore("first", output));
+
+    cache.store("third", createFile("third.jar", "0123456789"));
+    assertTrue(cache.restore("first", output));
+    assertFalse(cache.restore("second", output));
+    assertTrue(cache.restore("third", output));
+  }
+
+  @NotNull
+  private File createFile(@NotNull String relativePath, @NotNull String content) throws IOException {
+    File file = new File(myTemporaryFolder.getRoot(), relativePath);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+
+  private static void makeOlder(@NotNull File file, long millis) {
+    assertTrue(file.setLastModified(System.currentTimeMillis() - millis));
+  }
+}
@@ -15,13 +15,15 @@
  */
 package com.android.tools.idea.observable;
 
-import com.google.common.collect.Queues;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
-import java.util.Queue;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * A utility class which invokes some logic and, if multiple invocation requests come in at the
@@ -33,6 +35,12 @@ import java.util.Queue;
  * Doing this will allow us to avoid doing expensive updates on redundant, intermediate changes,
  * e.g. if you have five values in a complex mathematical calculation, and all values change in
  * the same frame, you only want to run the calculation once.
+ *
+ * Runnables enqueued while a batch is running, e.g. because a runnable updated a value that
+ * other runnables depend on, join the batch. Within a batch, runnables run in order of rank,
+ * the rank of a runnable being one more than the rank of the runnable that enqueued it. A
+ * {@link RankedRunnable} remembers the highest rank it was given, so that the next time it runs
+ * after everything it was found to depend on, and only once, instead of once per dependency.
  */
 public final class BatchInvoker {
   /**
@@ -47,8 +55,10 @@ public final class BatchInvoker {
   public static final Strategy INVOKE_IMMEDIATELY_STRATEGY = Runnable::run;
 
   /**
-   * Ensure we don't end up in a non-stop invocation loop, where one cycle triggers another cycle
-   * that triggers the first, etc. Valid update loops usually settle within 2 or 3 steps.
+   * Ensure we don't end up in a non-stop invocation loop, where one runnable triggers another
+   * that triggers the first, etc. Valid update loops usually settle within 2 or 3 steps, so a
+   * runnable running more often than this within a batch indicates a cycle. Chains of distinct
+   * runnables, e.g. a long chain of bindings, can be arbitrarily deep.
    */
   private static final int MAX_CYCLE_COUNT = 10;
 
@@ -59,18 +69,26 @@ public final class BatchInvoker {
   private final Strategy myStrategy;
 
   /**
-   * A current batch of runnables that are either running or will run soon.
+   * The runnables of the current batch that didn't run yet, by rank and then in the order they
+   * were enqueued.
    */
-  private final Queue<Runnable> myRunnables = Queues.newArrayDeque();
+  private final PriorityQueue<Entry> myQueue =
+    new PriorityQueue<>(Comparator.<Entry>comparingInt(entry -> entry.myRank).thenComparingLong(entry -> entry.mySequence));
 
   /**
-   * A deferred batch of runnables, for those that are added by {@link #enqueue(Runnable)} while a
-   * batch is already running. These will run immediately after the current batch finishes.
+   * The same runnables as {@link #myQueue}, to drop redundant ones in constant time.
    */
-  private final Queue<Runnable> myDeferredRunnables = Queues.newArrayDeque();
+  private final Map<Runnable, Entry> myPendingRunnables = new HashMap<>();
+
+  private long myNextSequence;
 
   private boolean myUpdateInProgress;
 
+  /**
+   * The rank of the runnable which is currently running, if {@link #myUpdateInProgress}.
+   */
+  private int myCurrentRank;
+
   public BatchInvoker() {
     this(ourOverrideStrategy != null ? ourOverrideStrategy : SWING_INVOKE_LATER_STRATEGY);
   }
@@ -85,19 +103,32 @@ public final class BatchInvoker {
    * this system to collapse redundant runnables.
    */
   public void enqueue(@NotNull Runnable runnable) {
-    if (myUpdateInProgress) {
-      if (!myDeferredRunnables.contains(runnable)) {
-        myDeferredRunnables.add(runnable);
+    int rank = myUpdateInProgress ? myCurrentRank + 1 : 0;
+    if (runnable instanceof RankedRunnable) {
+      RankedRunnable rankedRunnable = (RankedRunnable)runnable;
+      rank = Math.max(rank, rankedRunnable.getRank());
+      rankedRunnable.setRank(rank);
+    }
+
+    Entry pendingEntry = myPendingRunnables.get(runnable);
+    if (pendingEntry != null) {
+      // Hasn't run yet, so it will see the latest changes anyway. It only needs to move after the
+      // runnable enqueueing it again, if that one has a higher rank.
+      if (rank > pendingEntry.myRank) {
+        myQueue.remove(pendingEntry);
+        Entry entry = new Entry(runnable, rank, pendingEntry.mySequence);
+        myPendingRunnables.put(runnable, entry);
+        myQueue.add(entry);
       }
       return;
     }
 
     // Prepare to run an update if we're the first update request. Any other requests that are made
     // before the update runs will get lumped in with it.
-    boolean shouldInvoke = myRunnables.isEmpty();
-    if (!myRunnables.contains(runnable)) {
-      myRunnables.add(runnable);
-    }
+    boolean shouldInvoke = !myUpdateInProgress && myPendingRunnables.isEmpty();
+    Entry entry = new Entry(runnable, rank, myNextSequence++);
+    myPendingRunnables.put(runnable, entry);
+    myQueue.add(entry);
 
     if (shouldInvoke) {
       enqueueInvoke();
@@ -106,35 +137,30 @@ public final class BatchInvoker {
 
   private void enqueueInvoke() {
     myStrategy.invoke(() -> {
-      int cycleCount = 0;
+      Map<Runnable, Integer> runCounts = new HashMap<>();
       RuntimeException runnableExceptionChain = null;
-      while (true) {
-        myUpdateInProgress = true;
-        for (Runnable runnable : myRunnables) {
+      myUpdateInProgress = true;
+      try {
+        while (!myQueue.isEmpty()) {
+          Entry entry = myQueue.poll();
+          myPendingRunnables.remove(entry.myRunnable);
+          if (runCounts.merge(entry.myRunnable, 1, Integer::sum) > MAX_CYCLE_COUNT) {
+            myQueue.clear();
+            myPendingRunnables.clear();
+            throw new InfiniteCycleException(runnableExceptionChain);
+          }
+
+          myCurrentRank = entry.myRank;
           try {
-            runnable.run();
+            entry.myRunnable.run();
           }
           catch (RuntimeException ex) {
             runnableExceptionChain = addExceptionCause(ex, runnableExceptionChain);
           }
         }
-        myRunnables.clear();
-
+      }
+      finally {
         myUpdateInProgress = false;
-
-        if (!myDeferredRunnables.isEmpty()) {
-          cycleCount++;
-          if (cycleCount > MAX_CYCLE_COUNT) {
-            myDeferredRunnables.clear();
-            throw new InfiniteCycleException(runnableExceptionChain);
-          }
-
-          myRunnables.addAll(myDeferredRunnables);
-          myDeferredRunnables.clear();
-        }
-        else {
-          break;
-        }
       }
 
       if (runnableExceptionChain != null) {
@@ -153,6 +179,29 @@ public final class BatchInvoker {
     void invoke(@NotNull Runnable runnableBatch);
   }
 
+  /**
+   * A {@link Runnable} which keeps the rank it is given by {@link BatchInvoker}. Since that rank only
+   * grows as the runnable is found to be enqueued by higher ranked runnables, it orders the runnable
+   * after everything it depends on. Runnables that are equal should share the same rank.
+   */
+  public interface RankedRunnable extends Runnable {
+    int getRank();
+
+    void setRank(int rank);
+  }
+
+  private static final class Entry {
+    @NotNull private final Runnable myRunnable;
+    private final int myRank;
+    private final long mySequence;
+
+    Entry(@NotNull Runnable runnable, int rank, long sequence) {
+      myRunnable = runnable;
+      myRank = rank;
+      mySequence = sequence;
+    }
+  }
+
   /**
    * Override the default invocation strategy used if one is not provided in the constructor.
    */
@@ -18,8 +18,10 @@ package com.android.tools.idea.observable;
 import com.android.tools.idea.observable.expressions.bool.BooleanExpression;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -35,7 +37,7 @@ import org.jetbrains.annotations.NotNull;
  */
 public final class BindingsManager {
 
-  private final List<OneWayBinding<?>> myOneWayBindings = Lists.newArrayList();
+  private final Map<SettableValue<?>, OneWayBinding<?>> myOneWayBindings = new IdentityHashMap<>();
   private final List<TwoWayBinding<?>> myTwoWayBindings = Lists.newArrayList();
 
   private final BatchInvoker myInvoker;
@@ -73,7 +75,7 @@ public final class BindingsManager {
   public <T> void bind(@NotNull SettableValue<T> dest, @NotNull ObservableValue<T> src, @NotNull ObservableValue<Boolean> enabled) {
     release(dest);
 
-    myOneWayBindings.add(new OneWayBinding<>(dest, src, enabled));
+    myOneWayBindings.put(dest, new OneWayBinding<>(dest, src, enabled));
   }
 
   /**
@@ -93,14 +95,9 @@ public final class BindingsManager {
    * Releases a one-way binding previously registered via {@link #bind(SettableValue, ObservableValue)}
    */
   public void release(@NotNull SettableValue<?> dest) {
-    Iterator<OneWayBinding<?>> i = myOneWayBindings.iterator();
-    while (i.hasNext()) {
-      OneWayBinding<?> binding = i.next();
-      if (binding.myDest == dest) {
-        binding.dispose();
-        i.remove();
-        return;
-      }
+    OneWayBinding<?> binding = myOneWayBindings.remove(dest);
+    if (binding != null) {
+      binding.dispose();
     }
   }
 
@@ -139,7 +136,7 @@ public final class BindingsManager {
    * Release all bindings (one-way and two-way) registered with this bindings manager.
    */
   public void releaseAll() {
-    for (OneWayBinding<?> oneWayBinding : myOneWayBindings) {
+    for (OneWayBinding<?> oneWayBinding : myOneWayBindings.values()) {
       oneWayBinding.dispose();
     }
     myOneWayBindings.clear();
@@ -154,11 +151,12 @@ public final class BindingsManager {
     private final SettableValue<T> myDest;
     private final ObservableValue<T> mySrc;
     private final ObservableValue<Boolean> myEnabled;
+    private final UpdateRank myRank = new UpdateRank();
 
     @Override
     public void onInvalidated(@NotNull ObservableValue<?> sender) {
       if (myEnabled.get()) {
-        myInvoker.enqueue(new DestUpdater<>(myDest, mySrc));
+        myInvoker.enqueue(new DestUpdater<>(myDest, mySrc, myRank));
       }
     }
 
@@ -183,16 +181,18 @@ public final class BindingsManager {
   private final class TwoWayBinding<T> {
     private final SettableValue<T> myLhs;
     private final SettableValue<T> myRhs;
+    private final UpdateRank myLeftToRightRank = new UpdateRank();
+    private final UpdateRank myRightToLeftRank = new UpdateRank();
     private final InvalidationListener myLeftChangedListener = new InvalidationListener() {
       @Override
       public void onInvalidated(@NotNull ObservableValue<?> sender) {
-        myInvoker.enqueue(new DestUpdater<>(myRhs, myLhs));
+        myInvoker.enqueue(new DestUpdater<>(myRhs, myLhs, myLeftToRightRank));
       }
     };
     private final InvalidationListener myRightChangedListener = new InvalidationListener() {
       @Override
       public void onInvalidated(@NotNull ObservableValue<?> sender) {
-        myInvoker.enqueue(new DestUpdater<>(myLhs, myRhs));
+        myInvoker.enqueue(new DestUpdater<>(myLhs, myRhs, myRightToLeftRank));
       }
     };
 
@@ -212,18 +212,28 @@ public final class BindingsManager {
     }
   }
 
+  /**
+   * The rank of the updates of a binding in the {@link BatchInvoker}, kept by the binding since
+   * a new {@link DestUpdater} is created for every update.
+   */
+  private static final class UpdateRank {
+    private int myValue;
+  }
+
   /**
    * Simple helper class which wraps source and destination values and can update the destination
    * value on request. This class is used by both {@link OneWayBinding} and {@link TwoWayBinding}
    * to enqueue an update after they detect a change.
    */
-  private static final class DestUpdater<T> implements Runnable {
+  private static final class DestUpdater<T> implements BatchInvoker.RankedRunnable {
     private final SettableValue<T> myDest;
     private final ObservableValue<T> mySrc;
+    private final UpdateRank myRank;
 
-    DestUpdater(SettableValue<T> dest, ObservableValue<T> src) {
+    DestUpdater(SettableValue<T> dest, ObservableValue<T> src, UpdateRank rank) {
       myDest = dest;
       mySrc = src;
+      myRank = rank;
     }
 
     @Override
@@ -231,6 +241,16 @@ public final class BindingsManager {
       myDest.set(mySrc.get());
     }
 
+    @Override
+    public int getRank() {
+      return myRank.myValue;
+    }
+
+    @Override
+    public void setRank(int rank) {
+      myRank.myValue = rank;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) return true;
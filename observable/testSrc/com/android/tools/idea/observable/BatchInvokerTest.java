@@ -20,6 +20,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -99,6 +101,23 @@ public final class BatchInvokerTest {
     assertThat(intWrapper.value).isEqualTo(3);
   }
 
+  @Test
+  public void pendingInvocationsAreNotRunTwice() throws Exception {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BatchInvoker invoker = new BatchInvoker(testStrategy);
+
+    IntWrapper intWrapper = new IntWrapper();
+    AddToValue addToValue = new AddToValue(0, intWrapper, 1);
+    DeferRunnable deferRunnable = new DeferRunnable(invoker);
+    deferRunnable.setRunnable(addToValue);
+
+    // addToValue is enqueued again while it is still waiting to run in the same batch.
+    invoker.enqueue(deferRunnable);
+    invoker.enqueue(addToValue);
+    testStrategy.updateOneStep();
+    assertThat(intWrapper.value).isEqualTo(1);
+  }
+
   @Test
   public void infiniteCycleThrowsException() throws Exception {
     BatchInvoker invoker = new BatchInvoker(BatchInvoker.INVOKE_IMMEDIATELY_STRATEGY);
@@ -120,6 +139,34 @@ public final class BatchInvokerTest {
     assertThat(intWrapper.value).isEqualTo(123);
   }
 
+  @Test
+  public void longChainsOfDistinctRunnablesRunInOneBatch() throws Exception {
+    BatchInvoker invoker = new BatchInvoker(BatchInvoker.INVOKE_IMMEDIATELY_STRATEGY);
+    IntWrapper intWrapper = new IntWrapper();
+
+    invoker.enqueue(new EnqueueNewRunnable(invoker, intWrapper, 100)); // A -> B -> C -> ... 100 times
+
+    assertThat(intWrapper.value).isEqualTo(100);
+  }
+
+  @Test
+  public void pendingInvocationsEnqueuedAgainRunAfterTheirLatestCaller() throws Exception {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BatchInvoker invoker = new BatchInvoker(testStrategy);
+    List<String> runOrder = new ArrayList<>();
+    RecordRunnable d = new RecordRunnable("D", runOrder, invoker);
+    RecordRunnable e = new RecordRunnable("E", runOrder, invoker);
+    RecordRunnable c = new RecordRunnable("C", runOrder, invoker, d);
+    RecordRunnable a = new RecordRunnable("A", runOrder, invoker, c, d);
+    RecordRunnable b = new RecordRunnable("B", runOrder, invoker, e);
+
+    // D is enqueued by A, then again by C while it is still pending, so it has to run after C's other dependents.
+    invoker.enqueue(a);
+    invoker.enqueue(b);
+    testStrategy.updateOneStep();
+    assertThat(runOrder).containsExactly("A", "B", "C", "E", "D").inOrder();
+  }
+
   @Test
   public void batchedInvokingRecoversFromException() throws Exception {
     AtomicBoolean invokeResult = new AtomicBoolean();
@@ -184,6 +231,55 @@ public final class BatchInvokerTest {
     }
   }
 
+  /**
+   * A runnable which counts its run, then enqueues a new instance of itself, never equal to the previous ones, until
+   * {@code remaining} instances ran.
+   */
+  private static final class EnqueueNewRunnable implements Runnable {
+    @NotNull private final BatchInvoker myOwningInvoker;
+    @NotNull private final IntWrapper myRunCount;
+    private final int myRemaining;
+
+    EnqueueNewRunnable(@NotNull BatchInvoker owningInvoker, @NotNull IntWrapper runCount, int remaining) {
+      myOwningInvoker = owningInvoker;
+      myRunCount = runCount;
+      myRemaining = remaining;
+    }
+
+    @Override
+    public void run() {
+      myRunCount.value++;
+      if (myRemaining > 1) {
+        myOwningInvoker.enqueue(new EnqueueNewRunnable(myOwningInvoker, myRunCount, myRemaining - 1));
+      }
+    }
+  }
+
+  /**
+   * A runnable which records its name when it runs, then enqueues other runnables.
+   */
+  private static final class RecordRunnable implements Runnable {
+    @NotNull private final String myName;
+    @NotNull private final List<String> myRunOrder;
+    @NotNull private final BatchInvoker myOwningInvoker;
+    @NotNull private final Runnable[] myOthers;
+
+    RecordRunnable(@NotNull String name, @NotNull List<String> runOrder, @NotNull BatchInvoker owningInvoker, @NotNull Runnable... others) {
+      myName = name;
+      myRunOrder = runOrder;
+      myOwningInvoker = owningInvoker;
+      myOthers = others;
+    }
+
+    @Override
+    public void run() {
+      myRunOrder.add(myName);
+      for (Runnable other : myOthers) {
+        myOwningInvoker.enqueue(other);
+      }
+    }
+  }
+
   /**
    * A runnable which assigns another runnable to a target invoker. This will let us unit test
    * deferred behavior and infinite loop scenarios.
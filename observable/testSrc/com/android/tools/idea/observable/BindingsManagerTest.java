@@ -18,12 +18,15 @@ package com.android.tools.idea.observable;
 import com.android.tools.idea.observable.core.BoolValueProperty;
 import com.android.tools.idea.observable.core.IntValueProperty;
 import com.android.tools.idea.observable.core.StringValueProperty;
+import com.android.tools.idea.observable.expressions.integer.IntExpression;
 import com.android.tools.idea.observable.expressions.list.MapExpression;
 import com.android.tools.idea.observable.collections.ObservableList;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -283,4 +286,67 @@ public final class BindingsManagerTest {
     srcProperty.set(50);
     assertThat(destProperty.get()).isEqualTo(50);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void deepBindingChainsUpdateInOneBatch() throws Exception {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    List<IntValueProperty> chain = new ArrayList<>();
+    chain.add(new IntValueProperty(0));
+    for (int i = 1; i < 100; i++) {
+      IntValueProperty property = new IntValueProperty(0);
+      bindings.bind(property, chain.get(i - 1));
+      chain.add(property);
+    }
+    testStrategy.updateAllSteps();
+
+    chain.get(0).set(42);
+    testStrategy.updateOneStep();
+    assertThat(chain.get(99).get()).isEqualTo(42);
+  }
+
+  @Test
+  public void expressionsAreEvaluatedOnceAfterTheirDependencies() throws Exception {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    IntValueProperty a = new IntValueProperty(1);
+    IntValueProperty b = new IntValueProperty();
+    IntValueProperty c = new IntValueProperty();
+    IntValueProperty sum = new IntValueProperty();
+    List<Integer> evaluatedSums = new ArrayList<>();
+    // sum depends on a directly, and through b and c.
+    bindings.bind(b, a);
+    bindings.bind(c, b);
+    bindings.bind(sum, new IntExpression(a, c) {
+      @NotNull
+      @Override
+      public Integer get() {
+        evaluatedSums.add(a.get() + c.get());
+        return a.get() + c.get();
+      }
+    });
+    testStrategy.updateAllSteps();
+    assertThat(sum.get()).isEqualTo(2);
+
+    // Wide fan-out: many bindings depending on the same source.
+    List<IntValueProperty> fanOut = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      IntValueProperty property = new IntValueProperty();
+      bindings.bind(property, sum);
+      fanOut.add(property);
+    }
+    testStrategy.updateAllSteps();
+
+    a.set(2);
+    testStrategy.updateOneStep();
+    assertThat(sum.get()).isEqualTo(4);
+    assertThat(fanOut.stream().allMatch(property -> property.get() == 4)).isTrue();
+
+    // The binding of sum now runs after the bindings of b and c, and only sees consistent values.
+    evaluatedSums.clear();
+    a.set(3);
+    testStrategy.updateOneStep();
+    assertThat(evaluatedSums).containsExactly(6);
+    assertThat(fanOut.stream().allMatch(property -> property.get() == 6)).isTrue();
+  }
+}
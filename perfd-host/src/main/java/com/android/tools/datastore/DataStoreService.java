@@ -18,6 +18,7 @@ package com.android.tools.datastore;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.analytics.UsageTracker;
 import com.android.tools.datastore.database.DataStoreTable;
+import com.android.tools.datastore.poller.SampleBus;
 import com.android.tools.datastore.service.*;
 import com.android.tools.nativeSymbolizer.NativeSymbolizer;
 import com.android.tools.nativeSymbolizer.NopSymbolizer;
@@ -100,6 +101,8 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   private NativeSymbolizer myNativeSymbolizer = new NopSymbolizer();
   private final ServerInterceptor myInterceptor;
   private final Map<DeviceId, DataStoreClient> myConnectedClients = new HashMap<>();
+  // Lets the pollers deriving data, e.g. energy, reuse the samples of the other pollers instead of querying them again.
+  private final SampleBus mySampleBus = new SampleBus();
 
   private final Timer myReportTimer;
 
@@ -158,10 +161,10 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     myProfilerService = new ProfilerService(this, myFetchExecutor, myLogService);
     registerService(myProfilerService);
     registerService(new EventService(this, myFetchExecutor));
-    registerService(new CpuService(this, myFetchExecutor, myLogService));
+    registerService(new CpuService(this, myFetchExecutor, myLogService, mySampleBus));
     registerService(new MemoryService(this, myFetchExecutor, myLogService));
-    registerService(new NetworkService(this, myFetchExecutor));
-    registerService(new EnergyService(this, myFetchExecutor, myLogService));
+    registerService(new NetworkService(this, myFetchExecutor, mySampleBus));
+    registerService(new EnergyService(this, myFetchExecutor, myLogService, mySampleBus));
   }
 
   @VisibleForTesting
@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntLongHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, columnar store for live allocation events, used by {@link MemoryLiveAllocationTable} instead of its
+ * Memory_AllocationEvents table when enabled.
+ *
+ * Each session's events are kept in segments of primitive arrays, one array per column, in arrival order. Every segment tracks the
+ * bounds of its allocation and free times, so that range and snapshot queries skip the segments which can't match and scan the others
+ * without creating any intermediate objects.
+ */
+class AllocationEventStore {
+  @VisibleForTesting
+  static final int SEGMENT_CAPACITY = 1 << 16;
+
+  /**
+   * Receives the rows matching a query. The row's values are read from the segment's columns.
+   */
+  interface RowConsumer {
+    void accept(@NotNull Segment segment, int row);
+  }
+
+  private final Map<Long, SessionEvents> mySessions = new HashMap<>();
+
+  void allocate(long sessionId, long timestamp, @NotNull AllocationEvent.Allocation allocation) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      events.allocate(timestamp, allocation);
+    }
+  }
+
+  void free(long sessionId, long timestamp, int tag) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      events.free(timestamp, tag);
+    }
+  }
+
+  /**
+   * Drops freed allocations, in the order they were freed, until the session holds at most {@code countLimit} allocations or only live
+   * ones. This is the order of the PRUNE_ALLOC query of {@link MemoryLiveAllocationTable}, allocations freed at the same time being
+   * dropped in the order of their tags. Returns the number of dropped allocations.
+   */
+  int prune(long sessionId, int countLimit) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      return events.prune(countLimit);
+    }
+  }
+
+  /**
+   * Releases the indexes only needed to insert and prune the events of the session, once no more events are expected for it. The events
+   * themselves are kept, since the session can still be queried. The indexes are rebuilt if events arrive late.
+   */
+  void endSession(long sessionId) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      events.releaseIndexes();
+    }
+  }
+
+  /**
+   * Visits the allocations which are alive at {@code time}, i.e. allocated before and freed after {@code time}.
+   */
+  void forEachLive(long sessionId, long time, @NotNull RowConsumer consumer) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      for (Segment segment : events.mySegments) {
+        if (segment.myCount == 0 || segment.myMinAllocTime >= time) {
+          continue;
+        }
+        for (int row = 0; row < segment.myCount; row++) {
+          if (segment.myAllocTime[row] < time && segment.myFreeTime[row] > time) {
+            consumer.accept(segment, row);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the allocations which were allocated in [{@code startTime}, {@code endTime}).
+   */
+  void forEachAllocated(long sessionId, long startTime, long endTime, @NotNull RowConsumer consumer) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      for (Segment segment : events.mySegments) {
+        if (segment.myCount == 0 || segment.myMaxAllocTime < startTime || segment.myMinAllocTime >= endTime) {
+          continue;
+        }
+        for (int row = 0; row < segment.myCount; row++) {
+          long allocTime = segment.myAllocTime[row];
+          if (allocTime >= startTime && allocTime < endTime) {
+            consumer.accept(segment, row);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the allocations which were freed in [{@code startTime}, {@code endTime}).
+   */
+  void forEachFreed(long sessionId, long startTime, long endTime, @NotNull RowConsumer consumer) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      for (Segment segment : events.mySegments) {
+        if (segment.myFreedCount == 0 || segment.myMaxFreeTime < startTime || segment.myMinFreeTime >= endTime) {
+          continue;
+        }
+        for (int row = 0; row < segment.myCount; row++) {
+          long freeTime = segment.myFreeTime[row];
+          if (freeTime >= startTime && freeTime < endTime) {
+            consumer.accept(segment, row);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the latest allocation or free time of the session, or 0 if there is none.
+   */
+  long getLatestTimestamp(long sessionId) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      long latest = 0;
+      for (Segment segment : events.mySegments) {
+        if (segment.myCount > 0) {
+          latest = Math.max(latest, segment.myMaxAllocTime);
+        }
+        if (segment.myFreedCount > 0) {
+          latest = Math.max(latest, segment.myMaxFreeTime);
+        }
+      }
+      return latest;
+    }
+  }
+
+  @VisibleForTesting
+  int getSegmentCount(long sessionId) {
+    SessionEvents events = getSessionEvents(sessionId);
+    synchronized (events) {
+      return events.mySegments.size();
+    }
+  }
+
+  @NotNull
+  private SessionEvents getSessionEvents(long sessionId) {
+    synchronized (mySessions) {
+      return mySessions.computeIfAbsent(sessionId, id -> new SessionEvents());
+    }
+  }
+
+  /**
+   * A time-partitioned chunk of allocations. Columns are only valid up to {@link #getCount()}.
+   */
+  static final class Segment {
+    private final int[] myTag = new int[SEGMENT_CAPACITY];
+    private final int[] myClassTag = new int[SEGMENT_CAPACITY];
+    private final long[] myAllocTime = new long[SEGMENT_CAPACITY];
+    private final long[] myFreeTime = new long[SEGMENT_CAPACITY];
+    private final long[] mySize = new long[SEGMENT_CAPACITY];
+    private final int[] myLength = new int[SEGMENT_CAPACITY];
+    private final int[] myThreadId = new int[SEGMENT_CAPACITY];
+    private final int[] myStackId = new int[SEGMENT_CAPACITY];
+    private final int[] myHeapId = new int[SEGMENT_CAPACITY];
+    private int myCount;
+    private int myFreedCount;
+    private long myMinAllocTime = Long.MAX_VALUE;
+    private long myMaxAllocTime = Long.MIN_VALUE;
+    private long myMinFreeTime = Long.MAX_VALUE;
+    private long myMaxFreeTime = Long.MIN_VALUE;
+
+    int getCount() {
+      return myCount;
+    }
+
+    int getTag(int row) {
+      return myTag[row];
+    }
+
+    int getClassTag(int row) {
+      return myClassTag[row];
+    }
+
+    long getAllocTime(int row) {
+      return myAllocTime[row];
+    }
+
+    long getFreeTime(int row) {
+      return myFreeTime[row];
+    }
+
+    long getSize(int row) {
+      return mySize[row];
+    }
+
+    int getLength(int row) {
+      return myLength[row];
+    }
+
+    int getThreadId(int row) {
+      return myThreadId[row];
+    }
+
+    int getStackId(int row) {
+      return myStackId[row];
+    }
+
+    int getHeapId(int row) {
+      return myHeapId[row];
+    }
+
+    private boolean isFull() {
+      return myCount == SEGMENT_CAPACITY;
+    }
+
+    private int append(long timestamp, @NotNull AllocationEvent.Allocation allocation) {
+      int row = myCount++;
+      myTag[row] = allocation.getTag();
+      myClassTag[row] = allocation.getClassTag();
+      myAllocTime[row] = timestamp;
+      myFreeTime[row] = Long.MAX_VALUE;
+      mySize[row] = allocation.getSize();
+      myLength[row] = allocation.getLength();
+      myThreadId[row] = allocation.getThreadId();
+      myStackId[row] = allocation.getStackId();
+      myHeapId[row] = allocation.getHeapId();
+      myMinAllocTime = Math.min(myMinAllocTime, timestamp);
+      myMaxAllocTime = Math.max(myMaxAllocTime, timestamp);
+      return row;
+    }
+
+    private void setFreeTime(int row, long timestamp) {
+      if (myFreeTime[row] == Long.MAX_VALUE) {
+        myFreedCount++;
+      }
+      myFreeTime[row] = timestamp;
+      myMinFreeTime = Math.min(myMinFreeTime, timestamp);
+      myMaxFreeTime = Math.max(myMaxFreeTime, timestamp);
+    }
+
+    private void copy(@NotNull Segment source, int from, int to) {
+      myTag[to] = source.myTag[from];
+      myClassTag[to] = source.myClassTag[from];
+      myAllocTime[to] = source.myAllocTime[from];
+      myFreeTime[to] = source.myFreeTime[from];
+      mySize[to] = source.mySize[from];
+      myLength[to] = source.myLength[from];
+      myThreadId[to] = source.myThreadId[from];
+      myStackId[to] = source.myStackId[from];
+      myHeapId[to] = source.myHeapId[from];
+    }
+
+    /**
+     * Recomputes the freed count and the time bounds of the segment from its first {@code count} rows.
+     */
+    private void setCount(int count) {
+      myCount = count;
+      myFreedCount = 0;
+      myMinAllocTime = Long.MAX_VALUE;
+      myMaxAllocTime = Long.MIN_VALUE;
+      myMinFreeTime = Long.MAX_VALUE;
+      myMaxFreeTime = Long.MIN_VALUE;
+      for (int row = 0; row < count; row++) {
+        myMinAllocTime = Math.min(myMinAllocTime, myAllocTime[row]);
+        myMaxAllocTime = Math.max(myMaxAllocTime, myAllocTime[row]);
+        if (myFreeTime[row] != Long.MAX_VALUE) {
+          myFreedCount++;
+          myMinFreeTime = Math.min(myMinFreeTime, myFreeTime[row]);
+          myMaxFreeTime = Math.max(myMaxFreeTime, myFreeTime[row]);
+        }
+      }
+    }
+  }
+
+  private static final class SessionEvents {
+    private final List<Segment> mySegments = new ArrayList<>();
+    /**
+     * Location of every allocation, as (segment index << 32 | row), keyed by tag. Used to apply free events and ignore duplicates.
+     */
+    @NotNull private TIntLongHashMap myLocations = new TIntLongHashMap();
+    /**
+     * The freed allocations in the order they are pruned. Kept as the frees are applied, so that pruning does not need to sort them.
+     */
+    @NotNull private FreedQueue myFreed = new FreedQueue();
+    private boolean myIndexesReleased;
+    private int myCount;
+
+    private void allocate(long timestamp, @NotNull AllocationEvent.Allocation allocation) {
+      ensureIndexes();
+      if (myLocations.containsKey(allocation.getTag())) {
+        // Same as the INSERT OR IGNORE of the table.
+        return;
+      }
+      if (mySegments.isEmpty() || mySegments.get(mySegments.size() - 1).isFull()) {
+        mySegments.add(new Segment());
+      }
+      int segmentIndex = mySegments.size() - 1;
+      int row = mySegments.get(segmentIndex).append(timestamp, allocation);
+      myLocations.put(allocation.getTag(), getLocation(segmentIndex, row));
+      myCount++;
+    }
+
+    private void free(long timestamp, int tag) {
+      ensureIndexes();
+      if (!myLocations.containsKey(tag)) {
+        return;
+      }
+      long location = myLocations.get(tag);
+      mySegments.get((int)(location >>> 32)).setFreeTime((int)location, timestamp);
+      myFreed.push(timestamp, tag);
+    }
+
+    private void releaseIndexes() {
+      myLocations = new TIntLongHashMap();
+      myFreed = new FreedQueue();
+      myIndexesReleased = true;
+    }
+
+    private void ensureIndexes() {
+      if (!myIndexesReleased) {
+        return;
+      }
+      myIndexesReleased = false;
+      for (int segmentIndex = 0; segmentIndex < mySegments.size(); segmentIndex++) {
+        Segment segment = mySegments.get(segmentIndex);
+        for (int row = 0; row < segment.myCount; row++) {
+          myLocations.put(segment.myTag[row], getLocation(segmentIndex, row));
+          if (segment.myFreeTime[row] != Long.MAX_VALUE) {
+            myFreed.push(segment.myFreeTime[row], segment.myTag[row]);
+          }
+        }
+      }
+    }
+
+    private int prune(int countLimit) {
+      int pruneCount = myCount - countLimit;
+      if (pruneCount <= 0) {
+        return 0;
+      }
+
+      ensureIndexes();
+      // Pick the allocations to drop, skipping the queue entries of allocations freed again since, or already pruned.
+      TIntHashSet droppedTags = new TIntHashSet();
+      TIntHashSet droppedSegments = new TIntHashSet();
+      while (droppedTags.size() < pruneCount && !myFreed.isEmpty()) {
+        long freeTime = myFreed.peekFreeTime();
+        int tag = myFreed.peekTag();
+        myFreed.pop();
+        if (!myLocations.containsKey(tag)) {
+          continue;
+        }
+        long location = myLocations.get(tag);
+        if (mySegments.get((int)(location >>> 32)).myFreeTime[(int)location] == freeTime && droppedTags.add(tag)) {
+          droppedSegments.add((int)(location >>> 32));
+        }
+      }
+      if (droppedTags.isEmpty()) {
+        return 0;
+      }
+
+      // Compact the segments holding them in place, keeping the other allocations.
+      for (int segmentIndex : droppedSegments.toArray()) {
+        Segment segment = mySegments.get(segmentIndex);
+        int kept = 0;
+        for (int row = 0; row < segment.myCount; row++) {
+          if (droppedTags.contains(segment.myTag[row])) {
+            myLocations.remove(segment.myTag[row]);
+            continue;
+          }
+          if (kept != row) {
+            segment.copy(segment, row, kept);
+            myLocations.put(segment.myTag[kept], getLocation(segmentIndex, kept));
+          }
+          kept++;
+        }
+        segment.setCount(kept);
+      }
+      pruneCount = droppedTags.size();
+      myCount -= pruneCount;
+
+      // Release the segments emptied by pruning, once their free space adds up to a whole segment.
+      int freeSpace = 0;
+      for (int segmentIndex = 0; segmentIndex < mySegments.size() - 1; segmentIndex++) {
+        freeSpace += SEGMENT_CAPACITY - mySegments.get(segmentIndex).myCount;
+      }
+      if (freeSpace >= SEGMENT_CAPACITY) {
+        repack();
+      }
+      return pruneCount;
+    }
+
+    /**
+     * Moves the allocations into the first segments, keeping them in arrival order, and drops the segments left empty.
+     */
+    private void repack() {
+      int toIndex = 0;
+      int toRow = 0;
+      for (int fromIndex = 0; fromIndex < mySegments.size(); fromIndex++) {
+        Segment from = mySegments.get(fromIndex);
+        for (int row = 0; row < from.myCount; row++) {
+          if (toRow == SEGMENT_CAPACITY) {
+            toIndex++;
+            toRow = 0;
+          }
+          if (toIndex != fromIndex || toRow != row) {
+            mySegments.get(toIndex).copy(from, row, toRow);
+            myLocations.put(from.myTag[row], getLocation(toIndex, toRow));
+          }
+          toRow++;
+        }
+      }
+      int segmentCount = toRow == 0 ? toIndex : toIndex + 1;
+      for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+        mySegments.get(segmentIndex).setCount(segmentIndex < segmentCount - 1 ? SEGMENT_CAPACITY : toRow);
+      }
+      mySegments.subList(segmentCount, mySegments.size()).clear();
+    }
+
+    private static long getLocation(int segmentIndex, int row) {
+      return ((long)segmentIndex << 32) | row;
+    }
+  }
+
+  /**
+   * Binary min-heap of freed allocations, ordered by free time then tag like the PRUNE_ALLOC query. An allocation freed again has an
+   * entry per free, only the one matching its current free time is valid.
+   */
+  private static final class FreedQueue {
+    private long[] myFreeTimes = new long[16];
+    private int[] myTags = new int[16];
+    private int mySize;
+
+    boolean isEmpty() {
+      return mySize == 0;
+    }
+
+    long peekFreeTime() {
+      return myFreeTimes[0];
+    }
+
+    int peekTag() {
+      return myTags[0];
+    }
+
+    void push(long freeTime, int tag) {
+      if (mySize == myFreeTimes.length) {
+        myFreeTimes = Arrays.copyOf(myFreeTimes, mySize * 2);
+        myTags = Arrays.copyOf(myTags, mySize * 2);
+      }
+      int index = mySize++;
+      while (index > 0) {
+        int parent = (index - 1) / 2;
+        if (!isBefore(freeTime, tag, myFreeTimes[parent], myTags[parent])) {
+          break;
+        }
+        myFreeTimes[index] = myFreeTimes[parent];
+        myTags[index] = myTags[parent];
+        index = parent;
+      }
+      myFreeTimes[index] = freeTime;
+      myTags[index] = tag;
+    }
+
+    void pop() {
+      long freeTime = myFreeTimes[--mySize];
+      int tag = myTags[mySize];
+      int index = 0;
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= mySize) {
+          break;
+        }
+        if (child + 1 < mySize && isBefore(myFreeTimes[child + 1], myTags[child + 1], myFreeTimes[child], myTags[child])) {
+          child++;
+        }
+        if (!isBefore(myFreeTimes[child], myTags[child], freeTime, tag)) {
+          break;
+        }
+        myFreeTimes[index] = myFreeTimes[child];
+        myTags[index] = myTags[child];
+        index = child;
+      }
+      if (mySize > 0) {
+        myFreeTimes[index] = freeTime;
+        myTags[index] = tag;
+      }
+    }
+
+    private static boolean isBefore(long freeTime, int tag, long otherFreeTime, int otherTag) {
+      return freeTime < otherFreeTime || (freeTime == otherFreeTime && tag < otherTag);
+    }
+  }
+}
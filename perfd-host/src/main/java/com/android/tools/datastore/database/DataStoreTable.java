@@ -134,11 +134,13 @@ public abstract class DataStoreTable<T extends Enum> {
    * @param batchParams a list of objects to be put into the database.
    * @param paramConverter a callback that converts each object to an array of data. The array of data will be applied to the input params
    *                       of the specified statement.
+   * @return true if the batch was executed without errors, false if the connection is closed or an error occurred.
    */
-  protected <K> void executeBatch(@NotNull T statement, @NotNull List<K> batchParams, @NotNull Function<K, Object[]> paramConverter) {
+  protected <K> boolean executeBatch(@NotNull T statement, @NotNull List<K> batchParams, @NotNull Function<K, Object[]> paramConverter) {
     if (isClosed()) {
-      return;
+      return false;
     }
+    boolean[] succeeded = {true};
     try {
       PreparedStatement stmt = getStatementMap().get(statement);
       batchParams.forEach((object) -> {
@@ -146,6 +148,7 @@ public abstract class DataStoreTable<T extends Enum> {
           applyParams(stmt, paramConverter.apply(object));
           stmt.addBatch();
         } catch (SQLException ex) {
+          succeeded[0] = false;
           onError(ex);
         }
       });
@@ -158,7 +161,9 @@ public abstract class DataStoreTable<T extends Enum> {
     }
     catch (SQLException ex) {
       onError(ex);
+      return false;
     }
+    return succeeded[0];
   }
 
   protected void execute(@NotNull T statement, Object... params) {
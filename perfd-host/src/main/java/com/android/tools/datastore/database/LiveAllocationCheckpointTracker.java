@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import gnu.trove.TLongObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Follows the allocation and free events of a session as they are inserted into {@link MemoryLiveAllocationTable}, so that the table
+ * can periodically write a checkpoint of the live set: the tags of the live instances, and the per-class, per-heap live counts and sizes.
+ *
+ * A checkpoint at time {@code C} describes the instances allocated before {@code C} and not freed before {@code C}. Snapshot queries at
+ * a time {@code t >= C} then only need to replay the events between {@code C} and {@code t}, instead of scanning every allocation
+ * since the beginning of the session.
+ */
+class LiveAllocationCheckpointTracker {
+  /**
+   * Tags that were ever allocated, to ignore the duplicated events the table also ignores.
+   */
+  @NotNull private final BitSet myAllocatedTags = new BitSet();
+  @NotNull private final BitSet myLiveTags = new BitSet();
+  /**
+   * Live {count, size} keyed by {@link #getClassKey}.
+   */
+  @NotNull private final TLongObjectHashMap<long[]> myLiveClasses = new TLongObjectHashMap<>();
+  private final long myInterval;
+
+  private long myMaxTimestamp = Long.MIN_VALUE;
+  private long myNextCheckpointTime = Long.MIN_VALUE;
+  private long myLastCheckpointTime = Long.MIN_VALUE;
+  private boolean myValid = true;
+
+  LiveAllocationCheckpointTracker(long interval) {
+    myInterval = interval;
+  }
+
+  /**
+   * Returns true if a checkpoint should be written, at {@code timestamp}, before the event at {@code timestamp} is applied.
+   * All the events applied so far are strictly older than such a checkpoint.
+   */
+  boolean shouldCheckpoint(long timestamp) {
+    if (!myValid) {
+      return false;
+    }
+    if (myNextCheckpointTime == Long.MIN_VALUE) {
+      myNextCheckpointTime = timestamp + myInterval;
+      return false;
+    }
+    return timestamp >= myNextCheckpointTime && timestamp > myMaxTimestamp;
+  }
+
+  void onCheckpointWritten(long timestamp) {
+    myLastCheckpointTime = timestamp;
+    myNextCheckpointTime = timestamp + myInterval;
+  }
+
+  /**
+   * Returns true if an event at {@code timestamp} arrives too late for the checkpoints written after {@code timestamp}, which then
+   * need to be discarded.
+   */
+  boolean invalidatesCheckpoints(long timestamp) {
+    return timestamp < myLastCheckpointTime;
+  }
+
+  void onCheckpointsDiscarded(long timestamp) {
+    myLastCheckpointTime = Math.min(myLastCheckpointTime, timestamp);
+  }
+
+  boolean isValid() {
+    return myValid;
+  }
+
+  void allocate(long timestamp, int tag, int classTag, int heapId, long size) {
+    myMaxTimestamp = Math.max(myMaxTimestamp, timestamp);
+    if (tag < 0) {
+      // Can't be tracked in a bit set, stop writing checkpoints for this session.
+      myValid = false;
+      return;
+    }
+    if (myAllocatedTags.get(tag)) {
+      return;
+    }
+    myAllocatedTags.set(tag);
+    myLiveTags.set(tag);
+    long[] liveClass = myLiveClasses.get(getClassKey(classTag, heapId));
+    if (liveClass == null) {
+      liveClass = new long[2];
+      myLiveClasses.put(getClassKey(classTag, heapId), liveClass);
+    }
+    liveClass[0]++;
+    liveClass[1] += size;
+  }
+
+  void free(long timestamp, int tag, int classTag, int heapId, long size) {
+    myMaxTimestamp = Math.max(myMaxTimestamp, timestamp);
+    if (tag < 0 || !myLiveTags.get(tag)) {
+      return;
+    }
+    myLiveTags.clear(tag);
+    long[] liveClass = myLiveClasses.get(getClassKey(classTag, heapId));
+    if (liveClass != null) {
+      liveClass[0]--;
+      liveClass[1] -= size;
+      if (liveClass[0] <= 0) {
+        myLiveClasses.remove(getClassKey(classTag, heapId));
+      }
+    }
+  }
+
+  @NotNull
+  BitSet getLiveTags() {
+    return myLiveTags;
+  }
+
+  /**
+   * Live {count, size} keyed by {@link #getClassKey}. Use {@link #getClassTag} and {@link #getHeapId} to decode the keys.
+   */
+  @NotNull
+  TLongObjectHashMap<long[]> getLiveClasses() {
+    return myLiveClasses;
+  }
+
+  static long getClassKey(int classTag, int heapId) {
+    return ((long)heapId << 32) | (classTag & 0xFFFFFFFFL);
+  }
+
+  static int getClassTag(long classKey) {
+    return (int)classKey;
+  }
+
+  static int getHeapId(long classKey) {
+    return (int)(classKey >>> 32);
+  }
+
+  @NotNull
+  static byte[] compressTags(@NotNull BitSet tags) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream output = new DeflaterOutputStream(bytes)) {
+      output.write(tags.toByteArray());
+    }
+    catch (IOException e) {
+      // Can't happen with in-memory streams.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  @NotNull
+  static BitSet decompressTags(@NotNull byte[] compressed) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+    }
+    return BitSet.valueOf(bytes.toByteArray());
+  }
+}
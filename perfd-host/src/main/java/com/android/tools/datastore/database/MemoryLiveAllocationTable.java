@@ -22,16 +22,23 @@ import com.android.tools.profiler.proto.MemoryProfiler;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
 import gnu.trove.TLongHashSet;
+import gnu.trove.TLongObjectHashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.datastore.database.MemoryLiveAllocationTable.MemoryStatements.*;
 
@@ -59,6 +66,30 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     QUERY_ALLOC_BY_FREE_TIME(
       "SELECT Tag, ClassTag, AllocTime, FreeTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
       "WHERE Session = ? AND FreeTime >= ? AND FreeTime < ?"),
+    QUERY_ALLOC_BY_TAG_RANGE(
+      "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND Tag >= ? AND Tag <= ?"),
+    QUERY_SNAPSHOT_SINCE(
+      "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND AllocTime >= ? AND AllocTime < ? AND FreeTime > ?"),
+    QUERY_FREED_TAGS("SELECT Tag FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime >= ? AND FreeTime <= ?"),
+    INSERT_CHECKPOINT("INSERT OR REPLACE INTO Memory_LiveSetCheckpoints (Session, Timestamp, LiveTags) VALUES (?, ?, ?)"),
+    INSERT_CHECKPOINT_CLASS("INSERT OR REPLACE INTO Memory_LiveSetCheckpointClasses " +
+                            "(Session, Timestamp, ClassTag, HeapId, Count, Size) VALUES (?, ?, ?, ?, ?, ?)"),
+    DELETE_CHECKPOINTS_AFTER("DELETE FROM Memory_LiveSetCheckpoints WHERE Session = ? AND Timestamp > ?"),
+    DELETE_CHECKPOINT_CLASSES_AFTER("DELETE FROM Memory_LiveSetCheckpointClasses WHERE Session = ? AND Timestamp > ?"),
+    DELETE_CHECKPOINT_CLASSES_UNTIL("DELETE FROM Memory_LiveSetCheckpointClasses WHERE Session = ? AND Timestamp <= ?"),
+    QUERY_LATEST_CHECKPOINT(
+      "SELECT Timestamp, LiveTags FROM Memory_LiveSetCheckpoints WHERE Session = ? AND Timestamp <= ? ORDER BY Timestamp DESC LIMIT 1"),
+    QUERY_LATEST_CHECKPOINT_CLASSES(
+      "SELECT Timestamp, ClassTag, HeapId, Count, Size FROM Memory_LiveSetCheckpointClasses WHERE Session = ? AND Timestamp = " +
+      "(SELECT MAX(Timestamp) FROM Memory_LiveSetCheckpointClasses WHERE Session = ? AND Timestamp <= ?)"),
+    QUERY_CLASS_COUNTS_ALLOCATED(
+      "SELECT ClassTag, HeapId, COUNT(*), SUM(Size) FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND AllocTime >= ? AND AllocTime < ? AND FreeTime > ? GROUP BY ClassTag, HeapId"),
+    QUERY_CLASS_COUNTS_FREED(
+      "SELECT ClassTag, HeapId, COUNT(*), SUM(Size) FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND AllocTime < ? AND FreeTime >= ? AND FreeTime <= ? GROUP BY ClassTag, HeapId"),
     QUERY_METHOD_INFO("Select MethodName, ClassName FROM Memory_MethodInfos WHERE Session = ? AND MethodId = ?"),
     QUERY_ENCODED_STACK_INFO_BY_TIME(
       "Select StackData FROM Memory_StackInfos WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
@@ -66,13 +97,20 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       "Select ThreadId, ThreadName FROM Memory_ThreadInfos WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
 
     COUNT_ALLOC("SELECT count(*) FROM Memory_AllocationEvents"),
-    PRUNE_ALLOC("DELETE FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime <= (" +
-                " SELECT MAX(FreeTime)" +
+    PRUNE_ALLOC("DELETE FROM Memory_AllocationEvents WHERE Session = ? AND Tag IN (" +
+                " SELECT Tag" +
                 " FROM Memory_AllocationEvents" +
                 " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
-                " ORDER BY FreeTime" +
+                " ORDER BY FreeTime, Tag" +
                 " LIMIT ?" +
                 ")"),
+    QUERY_PRUNED_MAX_FREE_TIME("SELECT MAX(FreeTime) FROM (" +
+                               " SELECT FreeTime" +
+                               " FROM Memory_AllocationEvents" +
+                               " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
+                               " ORDER BY FreeTime, Tag" +
+                               " LIMIT ?" +
+                               ")"),
     INSERT_JNI_REF(
       "INSERT OR IGNORE INTO Memory_JniGlobalReferences " +
       "(Session, Tag, RefValue, AllocTime, AllocThreadId, AllocBacktrace, FreeThreadId, FreeTime) " +
@@ -136,13 +174,34 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   private int myAllocationCountLimit = 5000000;
   private final static byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+  // Live set checkpoints, which let snapshot queries replay only the events since the nearest checkpoint (see getSnapshot).
+  private long myCheckpointIntervalNs = TimeUnit.SECONDS.toNanos(10);
+  // Live tags that are less than this apart are fetched with a single query, filtering out the freed ones in between.
+  private static final int MAX_TAG_GAP = 64;
+  @NotNull private final Map<Long, LiveAllocationCheckpointTracker> myCheckpointTrackers = new ConcurrentHashMap<>();
+  // Sessions that will not receive events anymore (see endSession). Events arriving late for them must not start a new tracker, which
+  // would only know about those events and write wrong checkpoints.
+  @NotNull private final Set<Long> myEndedSessions = ConcurrentHashMap.newKeySet();
+
+  // When set, allocation and free events are kept there instead of in Memory_AllocationEvents.
+  @Nullable private final AllocationEventStore myEventStore;
+
   @NotNull
   private LogService.Logger getLogger() {
     return myLogService.getLogger(MemoryLiveAllocationTable.class);
   }
 
   public MemoryLiveAllocationTable(@NotNull LogService logService) {
+    this(logService, false);
+  }
+
+  /**
+   * @param useColumnarEventStore whether to keep allocation and free events in an in-memory {@link AllocationEventStore} rather than
+   *                              in the database, which avoids a SQL row per event and the result set conversions on queries.
+   */
+  public MemoryLiveAllocationTable(@NotNull LogService logService, boolean useColumnarEventStore) {
     myLogService = logService;
+    myEventStore = useColumnarEventStore ? new AllocationEventStore() : null;
   }
 
   @Override
@@ -169,6 +228,10 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
                   "AllocBacktrace BLOB", "FreeBacktrace BLOB", "PRIMARY KEY(Session, Tag, RefValue)");
       createTable("Memory_AllocationSamplingRateEvent", "Session INTEGER NOT NULL", "Timestamp INTEGER", "Data BLOB",
                   "PRIMARY KEY(Session, Timestamp)");
+      createTable("Memory_LiveSetCheckpoints", "Session INTEGER NOT NULL", "Timestamp INTEGER", "LiveTags BLOB",
+                  "PRIMARY KEY(Session, Timestamp)");
+      createTable("Memory_LiveSetCheckpointClasses", "Session INTEGER NOT NULL", "Timestamp INTEGER", "ClassTag INTEGER",
+                  "HeapId INTEGER", "Count INTEGER", "Size INTEGER", "PRIMARY KEY(Session, Timestamp, ClassTag, HeapId)");
 
       createIndex("Memory_AllocationEvents", 0, "Session", "AllocTime");
       createIndex("Memory_AllocationEvents", 1, "Session", "FreeTime");
@@ -190,6 +253,29 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     myAllocationCountLimit = allocationCountLimit;
   }
 
+  @VisibleForTesting
+  void setCheckpointInterval(long checkpointIntervalNs) {
+    myCheckpointIntervalNs = checkpointIntervalNs;
+  }
+
+  @VisibleForTesting
+  int getCheckpointTrackerCount() {
+    return myCheckpointTrackers.size();
+  }
+
+  /**
+   * Releases the live set kept to write the checkpoints of {@code session}, and the indexes of the columnar store used to insert and
+   * prune its events, once no more allocation events are polled for it. The checkpoints and events already stored are kept, and still
+   * serve the queries of the session.
+   */
+  public void endSession(@NotNull Common.Session session) {
+    myEndedSessions.add(session.getSessionId());
+    myCheckpointTrackers.remove(session.getSessionId());
+    if (myEventStore != null) {
+      myEventStore.endSession(session.getSessionId());
+    }
+  }
+
   @Override
   public void prepareStatements() {
     try {
@@ -202,36 +288,204 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
   }
 
+  /**
+   * Returns the instances that are alive at {@code endTime}, i.e. allocated before and freed after {@code endTime}.
+   *
+   * If a live set checkpoint exists at or before {@code endTime}, the snapshot starts from the checkpoint's live tags and only replays
+   * the events between the checkpoint and {@code endTime}. Otherwise every allocation before {@code endTime} needs to be scanned.
+   */
   public MemoryProfiler.BatchAllocationSample getSnapshot(Common.Session session, long endTime) {
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
+    if (myEventStore != null) {
+      long[] timestamp = {Long.MIN_VALUE};
+      myEventStore.forEachLive(session.getSessionId(), endTime, (segment, row) -> {
+        sampleBuilder.addEvents(createAllocationEvent(segment, row));
+        timestamp[0] = Math.max(timestamp[0], segment.getAllocTime(row));
+      });
+      return sampleBuilder.setTimestamp(timestamp[0]).build();
+    }
     try {
-      ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
-      long timestamp = Long.MIN_VALUE;
+      ResultSet checkpointResult = executeQuery(QUERY_LATEST_CHECKPOINT, session.getSessionId(), endTime);
+      ResultSet allocResult;
+      if (checkpointResult.next()) {
+        long checkpointTime = checkpointResult.getLong(1);
+        BitSet liveTags = LiveAllocationCheckpointTracker.decompressTags(checkpointResult.getBytes(2));
+        addLiveInstancesFromCheckpoint(session, checkpointTime, liveTags, endTime, sampleBuilder);
+        allocResult = executeQuery(QUERY_SNAPSHOT_SINCE, session.getSessionId(), checkpointTime, endTime, endTime);
+      }
+      else {
+        allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
+      }
       while (allocResult.next()) {
-        long allocTime = allocResult.getLong(3);
-        MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent
-          .newBuilder()
-          .setAllocData(
-            MemoryProfiler.AllocationEvent.Allocation
-              .newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
-              .setSize(allocResult.getLong(4)).setLength(allocResult.getInt(5))
-              .setThreadId(allocResult.getInt(6)).setStackId(allocResult.getInt(7))
-              .setHeapId(allocResult.getInt(8)).build())
-          .setTimestamp(allocTime).build();
-        sampleBuilder.addEvents(event);
-        timestamp = Math.max(timestamp, allocTime);
+        sampleBuilder.addEvents(readSnapshotEvent(allocResult));
+      }
+
+      long timestamp = Long.MIN_VALUE;
+      for (MemoryProfiler.AllocationEvent event : sampleBuilder.getEventsList()) {
+        timestamp = Math.max(timestamp, event.getTimestamp());
       }
       sampleBuilder.setTimestamp(timestamp);
     }
-    catch (SQLException ex) {
+    catch (SQLException | IOException ex) {
       onError(ex);
     }
 
     return sampleBuilder.build();
   }
 
+  /**
+   * Adds the instances of a checkpoint's live set which are still alive at {@code endTime}.
+   */
+  private void addLiveInstancesFromCheckpoint(@NotNull Common.Session session,
+                                              long checkpointTime,
+                                              @NotNull BitSet liveTags,
+                                              long endTime,
+                                              @NotNull MemoryProfiler.BatchAllocationSample.Builder sampleBuilder) throws SQLException {
+    ResultSet freedResult = executeQuery(QUERY_FREED_TAGS, session.getSessionId(), checkpointTime, endTime);
+    while (freedResult.next()) {
+      int tag = freedResult.getInt(1);
+      if (tag >= 0) {
+        liveTags.clear(tag);
+      }
+    }
+
+    int rangeStart = liveTags.nextSetBit(0);
+    while (rangeStart >= 0) {
+      // Extend the tag range as long as the gaps between live tags are small.
+      int rangeEnd = rangeStart;
+      int next = liveTags.nextSetBit(rangeEnd + 1);
+      while (next >= 0 && next - rangeEnd <= MAX_TAG_GAP) {
+        rangeEnd = next;
+        next = liveTags.nextSetBit(rangeEnd + 1);
+      }
+      ResultSet allocResult = executeQuery(QUERY_ALLOC_BY_TAG_RANGE, session.getSessionId(), rangeStart, rangeEnd);
+      while (allocResult.next()) {
+        int tag = allocResult.getInt(1);
+        if (tag >= 0 && liveTags.get(tag)) {
+          sampleBuilder.addEvents(readSnapshotEvent(allocResult));
+        }
+      }
+      rangeStart = next;
+    }
+  }
+
+  /**
+   * Returns the live instance count and shallow size of every class at {@code endTime}, as {count, size} keyed by
+   * {@link LiveAllocationCheckpointTracker#getClassKey}.
+   *
+   * If a checkpoint of the per-class live counts exists at or before {@code endTime}, the counts start from it and only the events
+   * between the checkpoint and {@code endTime} are aggregated. Otherwise every allocation before {@code endTime} is aggregated.
+   */
+  @NotNull
+  public TLongObjectHashMap<long[]> getLiveClassCounts(Common.Session session, long endTime) {
+    TLongObjectHashMap<long[]> liveClasses = new TLongObjectHashMap<>();
+    if (myEventStore != null) {
+      myEventStore.forEachLive(session.getSessionId(), endTime, (segment, row) -> addClassCount(
+        liveClasses, LiveAllocationCheckpointTracker.getClassKey(segment.getClassTag(row), segment.getHeapId(row)), 1,
+        segment.getSize(row)));
+      return liveClasses;
+    }
+    try {
+      long checkpointTime = Long.MIN_VALUE;
+      ResultSet checkpointResult =
+        executeQuery(QUERY_LATEST_CHECKPOINT_CLASSES, session.getSessionId(), session.getSessionId(), endTime);
+      while (checkpointResult.next()) {
+        checkpointTime = checkpointResult.getLong(1);
+        addClassCount(liveClasses, LiveAllocationCheckpointTracker.getClassKey(checkpointResult.getInt(2), checkpointResult.getInt(3)),
+                      checkpointResult.getLong(4), checkpointResult.getLong(5));
+      }
+      if (checkpointTime != Long.MIN_VALUE) {
+        // Instances live at the checkpoint, but freed by endTime.
+        ResultSet freedResult = executeQuery(QUERY_CLASS_COUNTS_FREED, session.getSessionId(), checkpointTime, checkpointTime, endTime);
+        while (freedResult.next()) {
+          addClassCount(liveClasses, LiveAllocationCheckpointTracker.getClassKey(freedResult.getInt(1), freedResult.getInt(2)),
+                        -freedResult.getLong(3), -freedResult.getLong(4));
+        }
+      }
+      ResultSet allocResult = executeQuery(QUERY_CLASS_COUNTS_ALLOCATED, session.getSessionId(), checkpointTime, endTime, endTime);
+      while (allocResult.next()) {
+        addClassCount(liveClasses, LiveAllocationCheckpointTracker.getClassKey(allocResult.getInt(1), allocResult.getInt(2)),
+                      allocResult.getLong(3), allocResult.getLong(4));
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+
+    for (long classKey : liveClasses.keys()) {
+      if (liveClasses.get(classKey)[0] <= 0) {
+        liveClasses.remove(classKey);
+      }
+    }
+    return liveClasses;
+  }
+
+  private static void addClassCount(@NotNull TLongObjectHashMap<long[]> liveClasses, long classKey, long count, long size) {
+    long[] liveClass = liveClasses.get(classKey);
+    if (liveClass == null) {
+      liveClass = new long[2];
+      liveClasses.put(classKey, liveClass);
+    }
+    liveClass[0] += count;
+    liveClass[1] += size;
+  }
+
+  @NotNull
+  private static MemoryProfiler.AllocationEvent createAllocationEvent(@NotNull AllocationEventStore.Segment segment, int row) {
+    return MemoryProfiler.AllocationEvent
+      .newBuilder()
+      .setAllocData(
+        MemoryProfiler.AllocationEvent.Allocation
+          .newBuilder().setTag(segment.getTag(row)).setClassTag(segment.getClassTag(row))
+          .setSize(segment.getSize(row)).setLength(segment.getLength(row))
+          .setThreadId(segment.getThreadId(row)).setStackId(segment.getStackId(row))
+          .setHeapId(segment.getHeapId(row)).build())
+      .setTimestamp(segment.getAllocTime(row)).build();
+  }
+
+  @NotNull
+  private static MemoryProfiler.AllocationEvent createDeallocationEvent(@NotNull AllocationEventStore.Segment segment, int row) {
+    return MemoryProfiler.AllocationEvent
+      .newBuilder()
+      .setFreeData(
+        MemoryProfiler.AllocationEvent.Deallocation
+          .newBuilder().setTag(segment.getTag(row)).setClassTag(segment.getClassTag(row))
+          .setSize(segment.getSize(row)).setLength(segment.getLength(row))
+          .setThreadId(segment.getThreadId(row)).setStackId(segment.getStackId(row))
+          .setHeapId(segment.getHeapId(row)).build())
+      .setTimestamp(segment.getFreeTime(row)).build();
+  }
+
+  /**
+   * Reads a row of {@link MemoryStatements#QUERY_SNAPSHOT} or a query with the same columns.
+   */
+  @NotNull
+  private static MemoryProfiler.AllocationEvent readSnapshotEvent(@NotNull ResultSet allocResult) throws SQLException {
+    return MemoryProfiler.AllocationEvent
+      .newBuilder()
+      .setAllocData(
+        MemoryProfiler.AllocationEvent.Allocation
+          .newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
+          .setSize(allocResult.getLong(4)).setLength(allocResult.getInt(5))
+          .setThreadId(allocResult.getInt(6)).setStackId(allocResult.getInt(7))
+          .setHeapId(allocResult.getInt(8)).build())
+      .setTimestamp(allocResult.getLong(3)).build();
+  }
+
   public MemoryProfiler.BatchAllocationSample getAllocations(Common.Session session, long startTime, long endTime) {
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
+    if (myEventStore != null) {
+      long[] timestamp = {Long.MIN_VALUE};
+      myEventStore.forEachAllocated(session.getSessionId(), startTime, endTime, (segment, row) -> {
+        sampleBuilder.addEvents(createAllocationEvent(segment, row));
+        timestamp[0] = Math.max(timestamp[0], segment.getAllocTime(row));
+      });
+      myEventStore.forEachFreed(session.getSessionId(), startTime, endTime, (segment, row) -> {
+        sampleBuilder.addEvents(createDeallocationEvent(segment, row));
+        timestamp[0] = Math.max(timestamp[0], segment.getFreeTime(row));
+      });
+      return sampleBuilder.setTimestamp(timestamp[0]).build();
+    }
     try {
       // Then get all allocation events that are valid for requestTime.
       ResultSet allocResult = executeQuery(QUERY_ALLOC_BY_ALLOC_TIME, session.getSessionId(), startTime, endTime);
@@ -277,6 +531,9 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   @NotNull
   public LatestAllocationTimeResponse getLatestDataTimestamp(Common.Session session) {
     LatestAllocationTimeResponse.Builder builder = LatestAllocationTimeResponse.newBuilder();
+    if (myEventStore != null) {
+      return builder.setTimestamp(myEventStore.getLatestTimestamp(session.getSessionId())).build();
+    }
     try {
       long latest = 0;
       ResultSet result = executeQuery(QUERY_LATEST_ALLOC_TIME, session.getSessionId());
@@ -589,7 +846,27 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       return;
     }
     try {
+      LiveAllocationCheckpointTracker tracker = myCheckpointTrackers.computeIfAbsent(
+        session.getSessionId(), id -> myEndedSessions.contains(id) ? null : new LiveAllocationCheckpointTracker(myCheckpointIntervalNs));
       for (MemoryProfiler.AllocationEvent event : sample.getEventsList()) {
+        if (myEventStore != null) {
+          // Allocations and frees go to the columnar store, only class data is written to the database.
+          if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+            allocAndFreeCount++;
+            myEventStore.allocate(session.getSessionId(), event.getTimestamp(), event.getAllocData());
+            continue;
+          }
+          if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA) {
+            allocAndFreeCount++;
+            myEventStore.free(session.getSessionId(), event.getTimestamp(), event.getFreeData().getTag());
+            continue;
+          }
+        }
+        else if (tracker != null &&
+                 (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA ||
+                  event.getEventCase() == AllocationEvent.EventCase.FREE_DATA)) {
+          updateCheckpoints(session, tracker, event);
+        }
         if (currentCase != event.getEventCase()) {
           if (currentCase != null) {
             currentStatement.executeBatch();
@@ -639,7 +916,9 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       }
 
       // Handles last batch after exiting from for-loop.
-      currentStatement.executeBatch();
+      if (currentStatement != null) {
+        currentStatement.executeBatch();
+      }
 
       if (allocAndFreeCount > 0) {
         pruneAllocations(session);
@@ -650,6 +929,57 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
   }
 
+  /**
+   * Applies an allocation or free event to the live set {@code tracker}, writing a checkpoint before it if one is due.
+   */
+  private void updateCheckpoints(@NotNull Common.Session session,
+                                 @NotNull LiveAllocationCheckpointTracker tracker,
+                                 @NotNull AllocationEvent event) throws SQLException {
+    if (!tracker.isValid()) {
+      return;
+    }
+    long timestamp = event.getTimestamp();
+    if (tracker.invalidatesCheckpoints(timestamp)) {
+      // An event older than the latest checkpoints, they don't account for it.
+      deleteCheckpointsAfter(session, timestamp);
+      tracker.onCheckpointsDiscarded(timestamp);
+    }
+    if (tracker.shouldCheckpoint(timestamp)) {
+      writeCheckpoint(session, tracker, timestamp);
+    }
+
+    if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+      AllocationEvent.Allocation allocation = event.getAllocData();
+      tracker.allocate(timestamp, allocation.getTag(), allocation.getClassTag(), allocation.getHeapId(), allocation.getSize());
+    }
+    else {
+      AllocationEvent.Deallocation free = event.getFreeData();
+      tracker.free(timestamp, free.getTag(), free.getClassTag(), free.getHeapId(), free.getSize());
+    }
+    if (!tracker.isValid()) {
+      deleteCheckpointsAfter(session, Long.MIN_VALUE);
+    }
+  }
+
+  private void writeCheckpoint(@NotNull Common.Session session, @NotNull LiveAllocationCheckpointTracker tracker, long timestamp)
+    throws SQLException {
+    PreparedStatement classStatement = getStatementMap().get(INSERT_CHECKPOINT_CLASS);
+    for (long classKey : tracker.getLiveClasses().keys()) {
+      long[] liveClass = tracker.getLiveClasses().get(classKey);
+      applyParams(classStatement, session.getSessionId(), timestamp, LiveAllocationCheckpointTracker.getClassTag(classKey),
+                  LiveAllocationCheckpointTracker.getHeapId(classKey), liveClass[0], liveClass[1]);
+      classStatement.addBatch();
+    }
+    classStatement.executeBatch();
+    execute(INSERT_CHECKPOINT, session.getSessionId(), timestamp, LiveAllocationCheckpointTracker.compressTags(tracker.getLiveTags()));
+    tracker.onCheckpointWritten(timestamp);
+  }
+
+  private void deleteCheckpointsAfter(@NotNull Common.Session session, long timestamp) {
+    execute(DELETE_CHECKPOINTS_AFTER, session.getSessionId(), timestamp);
+    execute(DELETE_CHECKPOINT_CLASSES_AFTER, session.getSessionId(), timestamp);
+  }
+
   public void insertMethodInfo(Common.Session session, List<AllocationStack.StackFrame> methods) {
     if (isClosed()) {
       return;
@@ -743,6 +1073,13 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
    * Removes entries from the allocations table so the process (in-memory DB) doesn't run out of memory.
    */
   private void pruneAllocations(@NotNull Common.Session session) {
+    if (myEventStore != null) {
+      int pruneCount = myEventStore.prune(session.getSessionId(), myAllocationCountLimit);
+      if (pruneCount > 0) {
+        getLogger().info(String.format("Allocations have exceed %d entries. Pruned %d.", myAllocationCountLimit, pruneCount));
+      }
+      return;
+    }
     try {
       // TODO save data to disk
       ResultSet result = executeQuery(COUNT_ALLOC);
@@ -750,6 +1087,15 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       int rowCount = result.getInt(1);
       if (rowCount > myAllocationCountLimit) {
         int pruneCount = rowCount - myAllocationCountLimit;
+        // The class counts of a checkpoint at or before a pruned free can't subtract that free anymore, drop them. The live tags of the
+        // checkpoint are still valid, pruned instances are only missing from the snapshots.
+        ResultSet pruneResult = executeQuery(QUERY_PRUNED_MAX_FREE_TIME, session.getSessionId(), pruneCount);
+        if (pruneResult.next()) {
+          long maxFreeTime = pruneResult.getLong(1);
+          if (!pruneResult.wasNull()) {
+            execute(DELETE_CHECKPOINT_CLASSES_UNTIL, session.getSessionId(), maxFreeTime);
+          }
+        }
         execute(PRUNE_ALLOC, session.getSessionId(), session.getSessionId(), pruneCount);
         getLogger().info(String.format("Allocations have exceed %d entries. Attempting to prune %d.", myAllocationCountLimit, pruneCount));
       }
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.annotations.VisibleForTesting;
 import com.android.tools.profiler.proto.Profiler;
 import com.android.tools.profiler.protobuf3jarjar.*;
 import org.jetbrains.annotations.NotNull;
@@ -22,11 +23,21 @@ import org.jetbrains.annotations.NotNull;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
 
+/**
+ * Stores the unified events of every stream. On top of the database, the most recent events are kept in memory: polls for new events
+ * are answered from there, and subscribers are pushed the events as they are inserted, so that they don't need to poll at all.
+ */
 public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statements> {
+  /**
+   * Number of the most recent events kept in memory. Besides answering polls, it is used to tell new events from the ones which are
+   * polled again from a device, which happens for the events at the last polled timestamp.
+   */
+  @VisibleForTesting
+  static final int TAIL_CAPACITY = 4096;
+
   public enum Statements {
     // Since no data should be updated after it has been inserted we drop any duplicated request from the poller.
     INSERT(
@@ -45,6 +56,18 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
   }
 
+  /**
+   * The most recent events, keyed by timestamp. It holds every event inserted with a timestamp after {@link #myLastEvictedTimestamp}.
+   * Also used as the lock which orders insertions, queries and subscriptions.
+   */
+  private final TreeMap<Long, List<StreamEvent>> myTail = new TreeMap<>();
+  private int myTailSize;
+  private long myLastEvictedTimestamp = Long.MIN_VALUE;
+  /**
+   * Guarded by {@link #myTail}, so that a subscriber is queued every event inserted after its replay, and no event twice.
+   */
+  private final List<Subscription> mySubscriptions = new ArrayList<>();
+
   @Override
   public void prepareStatements() {
     try {
@@ -60,6 +83,11 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
+    synchronized (myTail) {
+      myTail.clear();
+      myTailSize = 0;
+      myLastEvictedTimestamp = Long.MIN_VALUE;
+    }
     try {
       createTable("UnifiedEventsTable",
                   "StreamId INTEGER NOT NULL", // Optional filter, required for all data.
@@ -71,6 +99,8 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
                   "Data BLOB");
 
       createUniqueIndex("UnifiedEventsTable", "StreamId", "SessionId", "EventId", "Kind", "Type", "Timestamp");
+      // The unique index can't be used by queries which don't filter on the stream, which is most of them.
+      createIndex("UnifiedEventsTable", 0, "Kind", "Timestamp");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -79,17 +109,50 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
 
 
   public void insertUnifiedEvents(long streamId, @NotNull List<Profiler.Event> eventList) {
-    executeBatch(Statements.INSERT, eventList,
-            (event -> new Object[]{streamId,
-              event.getSessionId(),
-              event.getEventId(),
-              event.getKind().getNumber(),
-              event.getType().getNumber(),
-              event.getTimestamp(),
-              event.toByteArray()}));
+    List<Subscription> subscriptions;
+    synchronized (myTail) {
+      if (!executeBatch(Statements.INSERT, eventList,
+                        (event -> new Object[]{streamId,
+                          event.getSessionId(),
+                          event.getEventId(),
+                          event.getKind().getNumber(),
+                          event.getType().getNumber(),
+                          event.getTimestamp(),
+                          event.toByteArray()}))) {
+        return;
+      }
+
+      for (Profiler.Event event : eventList) {
+        // Events older than the tail can't be told apart from duplicates anymore, and are considered new.
+        if (event.getTimestamp() <= myLastEvictedTimestamp || addToTail(streamId, event)) {
+          for (Subscription subscription : mySubscriptions) {
+            subscription.enqueue(streamId, event);
+          }
+        }
+      }
+      while (myTailSize > TAIL_CAPACITY) {
+        Map.Entry<Long, List<StreamEvent>> oldest = myTail.pollFirstEntry();
+        myTailSize -= oldest.getValue().size();
+        myLastEvictedTimestamp = oldest.getKey();
+      }
+      subscriptions = new ArrayList<>(mySubscriptions);
+    }
+    // Listeners are called without the lock, so that a slow one doesn't hold back insertions and queries.
+    subscriptions.forEach(Subscription::deliverPending);
   }
 
   public List<Profiler.Event> queryUnifiedEvents(@NotNull Profiler.GetEventsRequest request) {
+    synchronized (myTail) {
+      if (isInTail(request.getFromTimestamp())) {
+        List<Profiler.Event> events = new ArrayList<>();
+        if (request.getFromTimestamp() <= request.getToTimestamp()) {
+          for (List<StreamEvent> sameTimeEvents : myTail.subMap(request.getFromTimestamp(), true, request.getToTimestamp(), true).values()) {
+            sameTimeEvents.forEach(streamEvent -> events.add(streamEvent.myEvent));
+          }
+        }
+        return events;
+      }
+    }
     return queryUnifiedEvents(Statements.QUERY_WITHIN_TIME, request.getFromTimestamp(), request.getToTimestamp());
   }
 
@@ -130,6 +193,93 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     return groups;
   }
 
+  /**
+   * Pushes the events matching the filter to the listener: first the ones already inserted from {@code fromTimestamp} on, in timestamp
+   * order, then every new one as it is inserted, until the returned subscription is cancelled. The listener is called on the inserting
+   * thread, outside of the table's lock, and is never called concurrently with itself. It should still return quickly, as it holds back
+   * the inserting thread.
+   */
+  @NotNull
+  public Subscription subscribe(@NotNull EventFilter filter, long fromTimestamp, @NotNull Consumer<Profiler.Event> listener) {
+    Subscription subscription = new Subscription(filter, listener);
+    synchronized (myTail) {
+      if (isInTail(fromTimestamp)) {
+        for (List<StreamEvent> sameTimeEvents : myTail.tailMap(fromTimestamp, true).values()) {
+          sameTimeEvents.forEach(streamEvent -> subscription.enqueue(streamEvent.myStreamId, streamEvent.myEvent));
+        }
+      }
+      else {
+        // Matches the filter already.
+        subscription.myPending.addAll(queryEvents(filter, fromTimestamp));
+      }
+      mySubscriptions.add(subscription);
+    }
+    subscription.deliverPending();
+    return subscription;
+  }
+
+  @NotNull
+  private List<Profiler.Event> queryEvents(@NotNull EventFilter filter, long fromTimestamp) {
+    List<Object> params = new ArrayList<>();
+    StringBuilder sql = new StringBuilder("SELECT [Data] From [UnifiedEventsTable] WHERE Timestamp >= ?");
+    params.add(fromTimestamp);
+    if (filter.myKind != Profiler.Event.Kind.NONE) {
+      sql.append(" AND Kind = ?");
+      params.add(filter.myKind.getNumber());
+    }
+    if (filter.myStreamId != 0) {
+      sql.append(" AND StreamId = ?");
+      params.add(filter.myStreamId);
+    }
+    if (filter.mySessionId != 0) {
+      sql.append(" AND SessionId = ?");
+      params.add(filter.mySessionId);
+    }
+    if (filter.myGroupId != 0) {
+      sql.append(" AND EventId = ?");
+      params.add(filter.myGroupId);
+    }
+    sql.append(" ORDER BY Timestamp");
+
+    List<Profiler.Event> events = new ArrayList<>();
+    try {
+      ResultSet results = executeOneTimeQuery(sql.toString(), params.toArray());
+      while (results.next()) {
+        events.add(Profiler.Event.parser().parseFrom(results.getBytes(1)));
+      }
+    }
+    catch (SQLException | InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
+    return events;
+  }
+
+  /**
+   * Returns true if the tail holds every event inserted from {@code fromTimestamp} on.
+   */
+  private boolean isInTail(long fromTimestamp) {
+    return !myTail.isEmpty() && fromTimestamp > myLastEvictedTimestamp;
+  }
+
+  /**
+   * Adds the event to the tail, unless it's already there. Same as the unique index of the table, which makes INSERT ignore it.
+   */
+  private boolean addToTail(long streamId, @NotNull Profiler.Event event) {
+    List<StreamEvent> sameTimeEvents = myTail.computeIfAbsent(event.getTimestamp(), timestamp -> new ArrayList<>(1));
+    for (StreamEvent other : sameTimeEvents) {
+      if (other.myStreamId == streamId &&
+          other.myEvent.getSessionId() == event.getSessionId() &&
+          other.myEvent.getEventId() == event.getEventId() &&
+          other.myEvent.getKind() == event.getKind() &&
+          other.myEvent.getType() == event.getType()) {
+        return false;
+      }
+    }
+    sameTimeEvents.add(new StreamEvent(streamId, event));
+    myTailSize++;
+    return true;
+  }
+
   private List<Profiler.Event> queryUnifiedEvents(Statements stmt, Object... args) {
     List<Profiler.Event> records = new ArrayList<>();
     try {
@@ -143,4 +293,112 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
     return records;
   }
+
+  /**
+   * Selects the events pushed to a subscriber. A stream, session or group id of 0, or a {@link Profiler.Event.Kind#NONE} kind, matches
+   * every event. Groups are identified by the event id.
+   */
+  public static final class EventFilter {
+    private final long myStreamId;
+    @NotNull private final Profiler.Event.Kind myKind;
+    private final long mySessionId;
+    private final long myGroupId;
+
+    public EventFilter(long streamId, @NotNull Profiler.Event.Kind kind, long sessionId, long groupId) {
+      myStreamId = streamId;
+      myKind = kind;
+      mySessionId = sessionId;
+      myGroupId = groupId;
+    }
+
+    private boolean matches(long streamId, @NotNull Profiler.Event event) {
+      return (myStreamId == 0 || myStreamId == streamId) &&
+             (myKind == Profiler.Event.Kind.NONE || myKind == event.getKind()) &&
+             (mySessionId == 0 || mySessionId == event.getSessionId()) &&
+             (myGroupId == 0 || myGroupId == event.getEventId());
+    }
+  }
+
+  public final class Subscription {
+    @NotNull private final EventFilter myFilter;
+    @NotNull private final Consumer<Profiler.Event> myListener;
+    /**
+     * The events queued for the listener, in insertion order. Filled while holding {@link #myTail}, drained without it. Also used as the
+     * lock of this subscription's state.
+     */
+    private final ArrayDeque<Profiler.Event> myPending = new ArrayDeque<>();
+    private boolean myDelivering;
+    private volatile boolean myCancelled;
+
+    private Subscription(@NotNull EventFilter filter, @NotNull Consumer<Profiler.Event> listener) {
+      myFilter = filter;
+      myListener = listener;
+    }
+
+    private void enqueue(long streamId, @NotNull Profiler.Event event) {
+      if (myFilter.matches(streamId, event)) {
+        synchronized (myPending) {
+          myPending.add(event);
+        }
+      }
+    }
+
+    /**
+     * Passes the queued events to the listener. If another thread is already doing so, it also passes the ones queued by this thread, so
+     * that the listener sees them in order and never concurrently.
+     */
+    private void deliverPending() {
+      synchronized (myPending) {
+        if (myDelivering) {
+          return;
+        }
+        myDelivering = true;
+      }
+      boolean drained = false;
+      try {
+        while (!myCancelled) {
+          Profiler.Event event;
+          synchronized (myPending) {
+            event = myPending.poll();
+            if (event == null) {
+              myDelivering = false;
+              drained = true;
+              return;
+            }
+          }
+          myListener.accept(event);
+        }
+      }
+      finally {
+        if (!drained) {
+          synchronized (myPending) {
+            myDelivering = false;
+          }
+        }
+      }
+    }
+
+    /**
+     * Stops pushing events to the listener.
+     */
+    public void cancel() {
+      myCancelled = true;
+      synchronized (myTail) {
+        mySubscriptions.remove(this);
+      }
+      synchronized (myPending) {
+        myPending.clear();
+      }
+    }
+  }
+
+  private static final class StreamEvent {
+    private final long myStreamId;
+    @NotNull private final Profiler.Event myEvent;
+
+    private StreamEvent(long streamId, @NotNull Profiler.Event event) {
+      myStreamId = streamId;
+      myEvent = event;
+    }
+  }
 }
@@ -42,6 +42,11 @@ import java.util.function.Function;
  * Note that this means, if a couple of events happen within microseconds of each other,
  * they can be merged into a single bucket.
  * <p>
+ * Internally, the model is a run-length encoded timeline: a sorted list of the samples at which
+ * the usage changed, each of which holds until the next one, indexed by the energy used since the
+ * first one. This makes a query cost O(log n + k), n being the number of changes and k the number
+ * of samples returned, however long the session is.
+ * <p>
  * TODO(b/73538823): Move battery model out of the datastore
  */
 public final class BatteryModel {
@@ -58,6 +63,14 @@ public final class BatteryModel {
    */
   @NotNull
   private final List<EnergySample> mySparseSamples = new ArrayList<>();
+  /**
+   * The energy used by each component from the first sparse sample to each sparse sample, in usage units times nanoseconds. Only valid
+   * before {@link #myFirstStaleEnergyIndex}, past which it is recomputed when queried.
+   */
+  @NotNull private long[] myCpuEnergy = new long[16];
+  @NotNull private long[] myNetworkEnergy = new long[16];
+  @NotNull private long[] myLocationEnergy = new long[16];
+  private int myFirstStaleEnergyIndex;
   @NotNull
   private final PowerProfile myPowerProfile;
   private final long mySampleIntervalNs;
@@ -182,15 +195,85 @@ public final class BatteryModel {
     return samples;
   }
 
+  /**
+   * Returns the average usage of each component between the two times, as a sample at {@code startInclusiveNs}. Unlike averaging the
+   * samples returned by {@link #getSamplesBetween(long, long)}, this doesn't depend on the length of the range.
+   */
+  @NotNull
+  public EnergySample getAverageSampleBetween(long startInclusiveNs, long endExclusiveNs) {
+    EnergySample.Builder average = EnergySample.newBuilder().setTimestamp(startInclusiveNs);
+    long durationNs = endExclusiveNs - startInclusiveNs;
+    if (durationNs <= 0) {
+      return average.build();
+    }
+
+    updateEnergy();
+    int startIndex = getSampleIndexFor(startInclusiveNs);
+    int endIndex = getSampleIndexFor(endExclusiveNs);
+    long startOffsetNs = Math.max(0, startInclusiveNs - mySparseSamples.get(startIndex).getTimestamp());
+    long endOffsetNs = Math.max(0, endExclusiveNs - mySparseSamples.get(endIndex).getTimestamp());
+    EnergySample start = mySparseSamples.get(startIndex);
+    EnergySample end = mySparseSamples.get(endIndex);
+    return average
+      .setCpuUsage(getAverage(myCpuEnergy, startIndex, start.getCpuUsage(), startOffsetNs, endIndex, end.getCpuUsage(), endOffsetNs,
+                              durationNs))
+      .setNetworkUsage(getAverage(myNetworkEnergy, startIndex, start.getNetworkUsage(), startOffsetNs, endIndex, end.getNetworkUsage(),
+                                  endOffsetNs, durationNs))
+      .setLocationUsage(getAverage(myLocationEnergy, startIndex, start.getLocationUsage(), startOffsetNs, endIndex,
+                                   end.getLocationUsage(), endOffsetNs, durationNs))
+      .build();
+  }
+
+  private static int getAverage(@NotNull long[] energy,
+                                int startIndex,
+                                int startUsage,
+                                long startOffsetNs,
+                                int endIndex,
+                                int endUsage,
+                                long endOffsetNs,
+                                long durationNs) {
+    long startEnergy = energy[startIndex] + startUsage * startOffsetNs;
+    long endEnergy = energy[endIndex] + endUsage * endOffsetNs;
+    return (int)Math.round((endEnergy - startEnergy) / (double)durationNs);
+  }
+
+  /**
+   * Brings the energy used up to each sparse sample up to date with the samples which were added or changed since the last query.
+   */
+  private void updateEnergy() {
+    int size = mySparseSamples.size();
+    if (myCpuEnergy.length < size) {
+      int capacity = Math.max(size, myCpuEnergy.length * 2);
+      myCpuEnergy = Arrays.copyOf(myCpuEnergy, capacity);
+      myNetworkEnergy = Arrays.copyOf(myNetworkEnergy, capacity);
+      myLocationEnergy = Arrays.copyOf(myLocationEnergy, capacity);
+    }
+    for (int i = Math.max(1, myFirstStaleEnergyIndex); i < size; i++) {
+      EnergySample prev = mySparseSamples.get(i - 1);
+      long durationNs = mySparseSamples.get(i).getTimestamp() - prev.getTimestamp();
+      myCpuEnergy[i] = myCpuEnergy[i - 1] + prev.getCpuUsage() * durationNs;
+      myNetworkEnergy[i] = myNetworkEnergy[i - 1] + prev.getNetworkUsage() * durationNs;
+      myLocationEnergy[i] = myLocationEnergy[i - 1] + prev.getLocationUsage() * durationNs;
+    }
+    myFirstStaleEnergyIndex = size;
+  }
+
+  /**
+   * Returns the index of the last sparse sample at or before {@code timestampNs}, or 0 if there is none.
+   */
   private int getSampleIndexFor(long timestampNs) {
-    for (int i = mySparseSamples.size() - 1; i >= 0; i--) {
-      EnergySample sample = mySparseSamples.get(i);
-      if (sample.getTimestamp() <= timestampNs) {
-        // TODO (b/73486903): How slow is this? Replace with binary search?
-        return i;
+    int low = 0;
+    int high = mySparseSamples.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (mySparseSamples.get(mid).getTimestamp() <= timestampNs) {
+        low = mid;
+      }
+      else {
+        high = mid - 1;
       }
     }
-    return 0;
+    return low;
   }
 
   private void addNewCpuSample(long timestampNs) {
@@ -234,9 +317,11 @@ public final class BatteryModel {
         // This means we had multiple events occur at the same time. Replace with the latest sample
         // in that case.
         mySparseSamples.set(prevSampleIndex, newSample);
+        myFirstStaleEnergyIndex = Math.min(myFirstStaleEnergyIndex, prevSampleIndex + 1);
       }
       else {
         mySparseSamples.add(prevSampleIndex + 1, newSample);
+        myFirstStaleEnergyIndex = Math.min(myFirstStaleEnergyIndex, prevSampleIndex + 1);
       }
     }
 
@@ -265,6 +350,7 @@ public final class BatteryModel {
     else {
       mySparseSamples.set(sampleIndex, updatedSample);
     }
+    myFirstStaleEnergyIndex = Math.min(myFirstStaleEnergyIndex, sampleIndex);
   }
 
   private void handleLocationUpdateEvent(long timestampNs, @NotNull PowerProfile.LocationEvent locationEvent) {
@@ -55,16 +55,20 @@ public class CpuDataPoller extends PollRunner {
   private final Common.Session mySession;
   @NotNull
   private final LogService myLogService;
+  @NotNull
+  private final SampleBus.Publisher<CpuProfiler.CpuUsageData> myUsagePublisher;
 
   public CpuDataPoller(@NotNull Common.Session session,
                        @NotNull CpuTable table,
                        @NotNull CpuServiceGrpc.CpuServiceBlockingStub pollingService,
-                       @NotNull LogService logService) {
+                       @NotNull LogService logService,
+                       @NotNull SampleBus sampleBus) {
     super(POLLING_DELAY_NS);
     myCpuTable = table;
     myPollingService = pollingService;
     mySession = session;
     myLogService = logService;
+    myUsagePublisher = sampleBus.registerPublisher(SampleBus.CPU_USAGE, session.getSessionId());
   }
 
   @Override
@@ -78,6 +82,7 @@ public class CpuDataPoller extends PollRunner {
       getDataStartNs = Math.max(getDataStartNs, data.getEndTimestamp());
       myCpuTable.insert(mySession, data);
     }
+    myUsagePublisher.publish(response.getDataList());
 
     // Poll thread activities.
     long getThreadsStartNs = myDataRequestStartTimestampNs;
@@ -156,6 +161,7 @@ public class CpuDataPoller extends PollRunner {
     CpuProfiler.ProfilingStateResponse response = CpuProfiler.ProfilingStateResponse
       .newBuilder().setBeingProfiled(false).setCheckTimestamp(Long.MAX_VALUE).build();
     myCpuTable.insertProfilingStateData(mySession, response);
+    myUsagePublisher.close();
     super.stop();
   }
 }
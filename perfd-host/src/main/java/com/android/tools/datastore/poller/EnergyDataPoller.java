@@ -31,6 +31,7 @@ import com.android.tools.profiler.proto.NetworkServiceGrpc;
 import com.android.tools.profiler.proto.Profiler;
 import com.android.tools.profiler.proto.ProfilerServiceGrpc;
 import io.grpc.StatusRuntimeException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,6 +41,9 @@ import org.jetbrains.annotations.Nullable;
  * <p>
  * NOTE: This poller depends on other services (e.g. CPU, Network). Be sure that those service's
  * pollers get called first.
+ * <p>
+ * While the pollers of those services are running for the session, their samples are received through the {@link SampleBus} as they
+ * poll them. Otherwise, they are queried by this poller.
  */
 public final class EnergyDataPoller extends PollRunner {
   @NotNull private final Common.Session mySession;
@@ -60,6 +64,15 @@ public final class EnergyDataPoller extends PollRunner {
   private int myCpuConfigRetries = 5; // Initial value is maximum number of retries.
   @NotNull private CpuConfig myCpuConfig;
 
+  @NotNull private final SampleBus mySampleBus;
+  @NotNull private final SampleBus.Subscription<CpuProfiler.CpuUsageData> myCpuSamples;
+  @NotNull private final SampleBus.Subscription<NetworkProfiler.NetworkProfilerData> myNetworkSamples;
+  // Samples can be received more than once, since pollers query their last timestamp again. Those are only handled the first time.
+  private long myLastCpuTimestampNs = Long.MIN_VALUE;
+  // Connectivity and speed samples can share a timestamp, so they are tracked separately.
+  private long myLastConnectivityTimestampNs = Long.MIN_VALUE;
+  private long myLastSpeedTimestampNs = Long.MIN_VALUE;
+
   // TODO: Once we move away from fake data, don't rely on the profilerService anymore
   public EnergyDataPoller(@NotNull Common.Session session,
                           @NotNull BatteryModel batteryModel,
@@ -68,7 +81,8 @@ public final class EnergyDataPoller extends PollRunner {
                           @NotNull CpuServiceGrpc.CpuServiceBlockingStub cpuService,
                           @NotNull NetworkServiceGrpc.NetworkServiceBlockingStub networkService,
                           @NotNull EnergyServiceGrpc.EnergyServiceBlockingStub energyService,
-                          @NotNull LogService logService) {
+                          @NotNull LogService logService,
+                          @NotNull SampleBus sampleBus) {
     super(POLLING_DELAY_NS);
     myBatteryModel = batteryModel;
     myEnergyTable = eventTable;
@@ -78,6 +92,9 @@ public final class EnergyDataPoller extends PollRunner {
     myEnergyService = energyService;
     mySession = session;
     myLogService = logService;
+    mySampleBus = sampleBus;
+    myCpuSamples = sampleBus.subscribe(SampleBus.CPU_USAGE, session.getSessionId(), SampleBus.DEFAULT_CAPACITY);
+    myNetworkSamples = sampleBus.subscribe(SampleBus.NETWORK_DATA, session.getSessionId(), SampleBus.DEFAULT_CAPACITY);
 
     myDataRequestStartTimestampNs = queryCurrentTime();
 
@@ -145,29 +162,33 @@ public final class EnergyDataPoller extends PollRunner {
   }
 
   private void addLatestSamples(@NotNull EnergyProfiler.EnergyRequest request) {
-    // Network-related samples
-    {
-      NetworkProfiler.NetworkDataRequest networkDataRequest =
-        NetworkProfiler.NetworkDataRequest
-          .newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
-          .setEndTimestamp(request.getEndTimestamp()).setType(NetworkProfiler.NetworkDataRequest.Type.ALL).build();
+    // Samples received late from the other pollers can change the energy samples which were already inserted, update those as well.
+    long firstChangedTimestampNs = request.getStartTimestamp();
 
-      NetworkProfiler.NetworkDataResponse networkDataResponse = myNetworkService.getData(networkDataRequest);
-      for (NetworkProfiler.NetworkProfilerData networkData : networkDataResponse.getDataList()) {
-        switch (networkData.getDataCase()) {
-          case CONNECTIVITY_DATA:
-            // Don't send an event for connection change. Leave it for the next speed data.
-            myLastKnownNetworkType = PowerProfile.NetworkType.from(networkData.getConnectivityData().getNetworkType());
-            break;
-          case SPEED_DATA:
-            NetworkProfiler.SpeedData speedData = networkData.getSpeedData();
-            myBatteryModel.handleEvent(networkData.getEndTimestamp(),
-                                       BatteryModel.Event.NETWORK_USAGE,
-                                       new PowerProfile.NetworkStats(myLastKnownNetworkType, speedData.getReceived(), speedData.getSent()));
-            break;
-          default:
-            break;
-        }
+    // Network-related samples
+    for (NetworkProfiler.NetworkProfilerData networkData : getNetworkSamples(request)) {
+      switch (networkData.getDataCase()) {
+        case CONNECTIVITY_DATA:
+          if (networkData.getEndTimestamp() <= myLastConnectivityTimestampNs) {
+            continue;
+          }
+          myLastConnectivityTimestampNs = networkData.getEndTimestamp();
+          // Don't send an event for connection change. Leave it for the next speed data.
+          myLastKnownNetworkType = PowerProfile.NetworkType.from(networkData.getConnectivityData().getNetworkType());
+          break;
+        case SPEED_DATA:
+          if (networkData.getEndTimestamp() <= myLastSpeedTimestampNs) {
+            continue;
+          }
+          myLastSpeedTimestampNs = networkData.getEndTimestamp();
+          firstChangedTimestampNs = Math.min(firstChangedTimestampNs, networkData.getEndTimestamp());
+          NetworkProfiler.SpeedData speedData = networkData.getSpeedData();
+          myBatteryModel.handleEvent(networkData.getEndTimestamp(),
+                                     BatteryModel.Event.NETWORK_USAGE,
+                                     new PowerProfile.NetworkStats(myLastKnownNetworkType, speedData.getReceived(), speedData.getSent()));
+          break;
+        default:
+          break;
       }
     }
 
@@ -191,29 +212,65 @@ public final class EnergyDataPoller extends PollRunner {
         }
       }
 
-      CpuProfiler.CpuDataRequest cpuDataRequest =
-        CpuProfiler.CpuDataRequest.newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
-                                  .setEndTimestamp(request.getEndTimestamp()).build();
-      CpuProfiler.CpuDataResponse cpuDataResponse = myCpuService.getData(cpuDataRequest);
       CpuProfiler.CpuUsageData prevUsageData = myLastData;
-
-      for (CpuProfiler.CpuUsageData currUsageData : cpuDataResponse.getDataList()) {
+      for (CpuProfiler.CpuUsageData currUsageData : getCpuSamples(request)) {
+        if (currUsageData.getEndTimestamp() <= myLastCpuTimestampNs) {
+          continue;
+        }
+        myLastCpuTimestampNs = currUsageData.getEndTimestamp();
         if (prevUsageData == null) {
           prevUsageData = currUsageData;
           continue;
         }
 
+        firstChangedTimestampNs = Math.min(firstChangedTimestampNs, currUsageData.getEndTimestamp());
         myBatteryModel.handleEvent(currUsageData.getEndTimestamp(), BatteryModel.Event.CPU_USAGE,
                                    myCpuConfig.getCpuCoreUsages(prevUsageData, currUsageData));
         prevUsageData = currUsageData;
       }
+      myLastData = prevUsageData;
     }
 
-    for (EnergyProfiler.EnergySample sample : myBatteryModel.getSamplesBetween(request.getStartTimestamp(), request.getEndTimestamp())) {
+    for (EnergyProfiler.EnergySample sample : myBatteryModel.getSamplesBetween(firstChangedTimestampNs, request.getEndTimestamp())) {
       myEnergyTable.insertOrReplace(mySession, sample);
     }
   }
 
+  @NotNull
+  private List<NetworkProfiler.NetworkProfilerData> getNetworkSamples(@NotNull EnergyProfiler.EnergyRequest request) {
+    List<NetworkProfiler.NetworkProfilerData> samples = myNetworkSamples.drain();
+    if (!mySampleBus.hasPublisher(SampleBus.NETWORK_DATA, mySession.getSessionId())) {
+      NetworkProfiler.NetworkDataRequest networkDataRequest =
+        NetworkProfiler.NetworkDataRequest
+          .newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
+          .setEndTimestamp(request.getEndTimestamp()).setType(NetworkProfiler.NetworkDataRequest.Type.ALL).build();
+      samples.addAll(myNetworkService.getData(networkDataRequest).getDataList());
+    }
+    return samples;
+  }
+
+  @NotNull
+  private List<CpuProfiler.CpuUsageData> getCpuSamples(@NotNull EnergyProfiler.EnergyRequest request) {
+    List<CpuProfiler.CpuUsageData> samples = myCpuSamples.drain();
+    if (!mySampleBus.hasPublisher(SampleBus.CPU_USAGE, mySession.getSessionId())) {
+      CpuProfiler.CpuDataRequest cpuDataRequest =
+        CpuProfiler.CpuDataRequest.newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
+                                  .setEndTimestamp(request.getEndTimestamp()).build();
+      samples.addAll(myCpuService.getData(cpuDataRequest).getDataList());
+    }
+    return samples;
+  }
+
+  @Override
+  public void stop() {
+    if (myCpuSamples.getDroppedCount() > 0 || myNetworkSamples.getDroppedCount() > 0) {
+      getLog().info(String.format("Energy samples lagged behind: %s; %s", myCpuSamples, myNetworkSamples));
+    }
+    myCpuSamples.close();
+    myNetworkSamples.close();
+    super.stop();
+  }
+
   @NotNull
   private LogService.Logger getLog() {
     return myLogService.getLogger(EnergyDataPoller.class);
@@ -31,14 +31,17 @@ public class NetworkDataPoller extends PollRunner {
   private Common.Session mySession;
   private NetworkTable myNetworkTable;
   NetworkServiceGrpc.NetworkServiceBlockingStub myPollingService;
+  private final SampleBus.Publisher<NetworkProfilerData> myDataPublisher;
 
   public NetworkDataPoller(@NotNull Common.Session session,
                            @NotNull NetworkTable table,
-                           @NotNull NetworkServiceGrpc.NetworkServiceBlockingStub pollingService) {
+                           @NotNull NetworkServiceGrpc.NetworkServiceBlockingStub pollingService,
+                           @NotNull SampleBus sampleBus) {
     super(POLLING_DELAY_NS);
     mySession = session;
     myNetworkTable = table;
     myPollingService = pollingService;
+    myDataPublisher = sampleBus.registerPublisher(SampleBus.NETWORK_DATA, session.getSessionId());
   }
 
   @Override
@@ -52,9 +55,16 @@ public class NetworkDataPoller extends PollRunner {
       myDataRequestStartTimestampNs = Math.max(myDataRequestStartTimestampNs, data.getEndTimestamp());
       myNetworkTable.insert(mySession, data);
     }
+    myDataPublisher.publish(response.getDataList());
     pollHttpRange();
   }
 
+  @Override
+  public void stop() {
+    myDataPublisher.close();
+    super.stop();
+  }
+
   private void pollHttpRange() {
     HttpRangeRequest.Builder requestBuilder = HttpRangeRequest
       .newBuilder().setSession(mySession).setStartTimestamp(myHttpRangeRequestStartTimeNs).setEndTimestamp(Long.MAX_VALUE);
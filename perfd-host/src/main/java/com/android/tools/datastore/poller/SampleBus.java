@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.profiler.proto.CpuProfiler;
+import com.android.tools.profiler.proto.NetworkProfiler;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans out the samples decoded by the pollers of raw data, e.g. {@link CpuDataPoller}, to the pollers deriving data from them, e.g.
+ * {@link EnergyDataPoller}, so that the latter don't need to query the same data again. Samples are published once per topic and session,
+ * and every subscription to that topic and session gets them in publishing order.
+ *
+ * Each subscription buffers its samples in a bounded queue until its subscriber drains them. When a queue is full, the publisher waits
+ * for its subscriber to catch up, up to a timeout after which the samples which still don't fit are dropped for that subscriber. Each
+ * subscription keeps track of how far behind its subscriber is, see {@link Subscription#toString()}.
+ */
+public final class SampleBus {
+  public static final Topic<CpuProfiler.CpuUsageData> CPU_USAGE = new Topic<>("CPU usage");
+  public static final Topic<NetworkProfiler.NetworkProfilerData> NETWORK_DATA = new Topic<>("Network data");
+
+  /**
+   * Number of samples a subscription buffers by default: several seconds of the samples of a topic, at the rate the pollers poll.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+  private static final long DEFAULT_MAX_BLOCKING_NS = PollRunner.POLLING_DELAY_NS;
+
+  private final long myMaxBlockingNs;
+  private final Map<ChannelKey, Channel> myChannels = new HashMap<>();
+
+  public SampleBus() {
+    this(DEFAULT_MAX_BLOCKING_NS);
+  }
+
+  /**
+   * @param maxBlockingNs How long a publisher waits, at most, for the subscribers of a topic to make room for the samples it publishes.
+   */
+  @VisibleForTesting
+  public SampleBus(long maxBlockingNs) {
+    myMaxBlockingNs = maxBlockingNs;
+  }
+
+  /**
+   * Registers a publisher of the given topic for the given session. Subscribers can tell, with {@link #hasPublisher(Topic, long)},
+   * whether they will get the samples of the session or need to fetch them by themselves.
+   */
+  @NotNull
+  public synchronized <T> Publisher<T> registerPublisher(@NotNull Topic<T> topic, long sessionId) {
+    Channel channel = getChannel(topic, sessionId);
+    channel.myPublisherCount++;
+    return new Publisher<>(channel);
+  }
+
+  public synchronized boolean hasPublisher(@NotNull Topic<?> topic, long sessionId) {
+    Channel channel = myChannels.get(new ChannelKey(topic, sessionId));
+    return channel != null && channel.myPublisherCount > 0;
+  }
+
+  /**
+   * Subscribes to the samples of the given topic published from now on for the given session.
+   *
+   * @param capacity The number of samples buffered until the subscriber drains them, past which publishers are blocked.
+   */
+  @NotNull
+  public synchronized <T> Subscription<T> subscribe(@NotNull Topic<T> topic, long sessionId, int capacity) {
+    Channel channel = getChannel(topic, sessionId);
+    Subscription<T> subscription = new Subscription<>(channel, capacity);
+    channel.mySubscriptions.add(subscription);
+    return subscription;
+  }
+
+  @NotNull
+  private Channel getChannel(@NotNull Topic<?> topic, long sessionId) {
+    return myChannels.computeIfAbsent(new ChannelKey(topic, sessionId), Channel::new);
+  }
+
+  private synchronized void removeIfUnused(@NotNull Channel channel) {
+    if (channel.myPublisherCount == 0 && channel.mySubscriptions.isEmpty()) {
+      myChannels.remove(channel.myKey);
+    }
+  }
+
+  /**
+   * Identifies a kind of samples, typed with the class of the samples.
+   */
+  public static final class Topic<T> {
+    @NotNull private final String myName;
+
+    public Topic(@NotNull String name) {
+      myName = name;
+    }
+
+    @Override
+    public String toString() {
+      return myName;
+    }
+  }
+
+  public final class Publisher<T> {
+    @NotNull private final Channel myChannel;
+    private boolean myClosed;
+
+    private Publisher(@NotNull Channel channel) {
+      myChannel = channel;
+    }
+
+    /**
+     * Hands the samples to every subscriber of the topic and session, in order. Blocks while the queue of a subscriber is full, at most
+     * for the timeout of the bus.
+     */
+    @SuppressWarnings("unchecked")
+    public void publish(@NotNull List<T> samples) {
+      if (samples.isEmpty()) {
+        return;
+      }
+      long deadlineNs = System.nanoTime() + myMaxBlockingNs;
+      for (Subscription<?> subscription : myChannel.mySubscriptions) {
+        ((Subscription<T>)subscription).offer(samples, deadlineNs);
+      }
+    }
+
+    /**
+     * Unregisters the publisher. Its subscribers keep the samples already published until they drain them.
+     */
+    public void close() {
+      synchronized (SampleBus.this) {
+        if (!myClosed) {
+          myClosed = true;
+          myChannel.myPublisherCount--;
+          removeIfUnused(myChannel);
+        }
+      }
+    }
+  }
+
+  public final class Subscription<T> {
+    @NotNull private final Channel myChannel;
+    @NotNull private final BlockingQueue<Pending<T>> myQueue;
+    private final AtomicLong myDeliveredCount = new AtomicLong();
+    private final AtomicLong myDroppedCount = new AtomicLong();
+    private final AtomicLong myBlockedNs = new AtomicLong();
+    private volatile int myMaxPendingCount;
+
+    private Subscription(@NotNull Channel channel, int capacity) {
+      myChannel = channel;
+      myQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    private void offer(@NotNull List<T> samples, long deadlineNs) {
+      long publishedNs = System.nanoTime();
+      for (int i = 0; i < samples.size(); i++) {
+        Pending<T> pending = new Pending<>(samples.get(i), publishedNs);
+        if (!myQueue.offer(pending)) {
+          // The subscriber is lagging behind, give it a chance to catch up.
+          long startNs = System.nanoTime();
+          try {
+            if (!myQueue.offer(pending, Math.max(0, deadlineNs - startNs), TimeUnit.NANOSECONDS)) {
+              myDroppedCount.incrementAndGet();
+            }
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            myDroppedCount.addAndGet(samples.size() - i);
+            return;
+          }
+          finally {
+            myBlockedNs.addAndGet(System.nanoTime() - startNs);
+          }
+        }
+        myMaxPendingCount = Math.max(myMaxPendingCount, myQueue.size());
+      }
+    }
+
+    /**
+     * Returns, and removes, the samples published since the last call, oldest first.
+     */
+    @NotNull
+    public List<T> drain() {
+      List<Pending<T>> pendings = new ArrayList<>(myQueue.size());
+      myQueue.drainTo(pendings);
+      List<T> samples = new ArrayList<>(pendings.size());
+      for (Pending<T> pending : pendings) {
+        samples.add(pending.mySample);
+      }
+      myDeliveredCount.addAndGet(samples.size());
+      return samples;
+    }
+
+    /**
+     * Stops receiving samples. The publishers don't wait for this subscription anymore.
+     */
+    public void close() {
+      synchronized (SampleBus.this) {
+        if (myChannel.mySubscriptions.remove(this)) {
+          removeIfUnused(myChannel);
+        }
+      }
+      myQueue.clear();
+    }
+
+    /**
+     * Returns the number of samples published but not drained yet.
+     */
+    public int getPendingCount() {
+      return myQueue.size();
+    }
+
+    public int getMaxPendingCount() {
+      return myMaxPendingCount;
+    }
+
+    /**
+     * Returns how long ago the oldest sample not drained yet was published, or 0 if there is none.
+     */
+    public long getLagNs() {
+      Pending<T> oldest = myQueue.peek();
+      return oldest == null ? 0 : System.nanoTime() - oldest.myPublishedNs;
+    }
+
+    public long getDeliveredCount() {
+      return myDeliveredCount.get();
+    }
+
+    /**
+     * Returns the number of samples which were dropped because the queue was still full after the publisher's timeout.
+     */
+    public long getDroppedCount() {
+      return myDroppedCount.get();
+    }
+
+    /**
+     * Returns the total time publishers spent waiting for the subscriber to make room in the queue.
+     */
+    public long getBlockedNs() {
+      return myBlockedNs.get();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s (session %d): %d pending (max %d), lag %dms, %d delivered, %d dropped, publishers blocked %dms",
+                           myChannel.myKey.myTopic, myChannel.myKey.mySessionId, getPendingCount(), getMaxPendingCount(),
+                           TimeUnit.NANOSECONDS.toMillis(getLagNs()), getDeliveredCount(), getDroppedCount(),
+                           TimeUnit.NANOSECONDS.toMillis(getBlockedNs()));
+    }
+  }
+
+  private static final class Channel {
+    @NotNull private final ChannelKey myKey;
+    @NotNull private final List<Subscription<?>> mySubscriptions = new CopyOnWriteArrayList<>();
+    private int myPublisherCount;
+
+    private Channel(@NotNull ChannelKey key) {
+      myKey = key;
+    }
+  }
+
+  private static final class ChannelKey {
+    @NotNull private final Topic<?> myTopic;
+    private final long mySessionId;
+
+    private ChannelKey(@NotNull Topic<?> topic, long sessionId) {
+      myTopic = topic;
+      mySessionId = sessionId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ChannelKey)) {
+        return false;
+      }
+      ChannelKey other = (ChannelKey)obj;
+      return myTopic == other.myTopic && mySessionId == other.mySessionId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(myTopic), mySessionId);
+    }
+  }
+
+  private static final class Pending<T> {
+    private final T mySample;
+    private final long myPublishedNs;
+
+    private Pending(T sample, long publishedNs) {
+      mySample = sample;
+      myPublishedNs = publishedNs;
+    }
+  }
+}
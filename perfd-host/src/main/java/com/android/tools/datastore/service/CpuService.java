@@ -22,6 +22,7 @@ import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.CpuTable;
 import com.android.tools.datastore.poller.CpuDataPoller;
 import com.android.tools.datastore.poller.PollRunner;
+import com.android.tools.datastore.poller.SampleBus;
 import com.android.tools.profiler.proto.CpuProfiler.*;
 import com.android.tools.profiler.proto.CpuServiceGrpc;
 import io.grpc.stub.StreamObserver;
@@ -48,6 +49,8 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
   private final DataStoreService myService;
   @NotNull
   private final LogService myLogService;
+  @NotNull
+  private final SampleBus mySampleBus;
 
   @SuppressWarnings("unchecked")
   private ResponseData<CpuDataResponse> myLastCpuResponse = ResponseData.createEmpty();
@@ -59,9 +62,17 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
   public CpuService(@NotNull DataStoreService dataStoreService,
                     Consumer<Runnable> fetchExecutor,
                     LogService logService) {
+    this(dataStoreService, fetchExecutor, logService, new SampleBus());
+  }
+
+  public CpuService(@NotNull DataStoreService dataStoreService,
+                    Consumer<Runnable> fetchExecutor,
+                    LogService logService,
+                    @NotNull SampleBus sampleBus) {
     myFetchExecutor = fetchExecutor;
     myService = dataStoreService;
     myLogService = logService;
+    mySampleBus = sampleBus;
     myCpuTable = new CpuTable();
   }
 
@@ -132,7 +143,8 @@ public class CpuService extends CpuServiceGrpc.CpuServiceImplBase implements Ser
       long sessionId = request.getSession().getSessionId();
       myRunners
         .put(sessionId,
-             new CpuDataPoller(request.getSession(), myCpuTable, myService.getCpuClient(DeviceId.fromSession(request.getSession())), myLogService));
+             new CpuDataPoller(request.getSession(), myCpuTable, myService.getCpuClient(DeviceId.fromSession(request.getSession())), myLogService,
+                               mySampleBus));
       myFetchExecutor.accept(myRunners.get(sessionId));
     }
     else {
@@ -24,6 +24,7 @@ import com.android.tools.datastore.database.EnergyTable;
 import com.android.tools.datastore.energy.BatteryModel;
 import com.android.tools.datastore.poller.EnergyDataPoller;
 import com.android.tools.datastore.poller.PollRunner;
+import com.android.tools.datastore.poller.SampleBus;
 import com.android.tools.profiler.proto.*;
 import com.android.tools.profiler.proto.EnergyProfiler.*;
 import io.grpc.stub.StreamObserver;
@@ -45,6 +46,7 @@ public class EnergyService extends EnergyServiceGrpc.EnergyServiceImplBase imple
   private final Map<Long, PollRunner> myRunners = new HashMap<>();
   private final Consumer<Runnable> myFetchExecutor;
   @NotNull private final LogService myLogService;
+  @NotNull private final SampleBus mySampleBus;
 
   @SuppressWarnings("unchecked")
   private ResponseData<EnergySamplesResponse> myLastSamplesResponse = ResponseData.createEmpty();
@@ -52,16 +54,30 @@ public class EnergyService extends EnergyServiceGrpc.EnergyServiceImplBase imple
   private ResponseData<EnergyEventsResponse> myLastEventsResponse = ResponseData.createEmpty();
 
   public EnergyService(@NotNull DataStoreService service, @NotNull Consumer<Runnable> fetchExecutor, @NotNull LogService logService) {
-    this(new BatteryModel(), service, fetchExecutor, logService);
+    this(service, fetchExecutor, logService, new SampleBus());
+  }
+
+  public EnergyService(@NotNull DataStoreService service,
+                       @NotNull Consumer<Runnable> fetchExecutor,
+                       @NotNull LogService logService,
+                       @NotNull SampleBus sampleBus) {
+    this(new BatteryModel(), service, fetchExecutor, logService, sampleBus);
   }
 
   @VisibleForTesting
   public EnergyService(@NotNull BatteryModel batteryModel, @NotNull DataStoreService service, Consumer<Runnable> fetchExecutor,
                        @NotNull LogService logService) {
+    this(batteryModel, service, fetchExecutor, logService, new SampleBus());
+  }
+
+  @VisibleForTesting
+  public EnergyService(@NotNull BatteryModel batteryModel, @NotNull DataStoreService service, Consumer<Runnable> fetchExecutor,
+                       @NotNull LogService logService, @NotNull SampleBus sampleBus) {
     myBatteryModel = batteryModel;
     myService = service;
     myFetchExecutor = fetchExecutor;
     myLogService = logService;
+    mySampleBus = sampleBus;
     myEnergyTable = new EnergyTable();
   }
 
@@ -80,7 +96,7 @@ public class EnergyService extends EnergyServiceGrpc.EnergyServiceImplBase imple
       long sessionId = request.getSession().getSessionId();
       myRunners
         .put(sessionId, new EnergyDataPoller(request.getSession(), myBatteryModel, myEnergyTable, profilerClient, cpuClient, networkClient,
-                                             energyClient, myLogService));
+                                             energyClient, myLogService, mySampleBus));
       myFetchExecutor.accept(myRunners.get(sessionId));
     }
     else {
@@ -81,6 +81,10 @@ import org.jetbrains.annotations.NotNull;
 
 public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase implements ServicePassThrough {
   private static final BackingNamespace LIVE_ALLOCATION_NAMESPACE = new BackingNamespace("LiveAllocations", PERFORMANT);
+  /**
+   * System property which keeps live allocation events in a columnar in-memory store instead of the database.
+   */
+  private static final String COLUMNAR_ALLOCATION_STORE_PROPERTY = "profiler.datastore.columnar.allocations";
 
   private final Map<Long, PollRunner> myRunners = new HashMap<>();
   private final Map<Long, PollRunner> myJvmtiRunners = new HashMap<>();
@@ -97,7 +101,7 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     myFetchExecutor = fetchExecutor;
     myService = dataStoreService;
     myStatsTable = new MemoryStatsTable();
-    myAllocationsTable = new MemoryLiveAllocationTable(myLogService);
+    myAllocationsTable = new MemoryLiveAllocationTable(myLogService, Boolean.getBoolean(COLUMNAR_ALLOCATION_STORE_PROPERTY));
   }
 
   @Override
@@ -138,6 +142,7 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     if (runner != null) {
       runner.stop();
     }
+    myAllocationsTable.endSession(request.getSession());
     runner = mySymbolizationRunners.remove(sessionId);
     if (runner != null) {
       runner.stop();
@@ -21,6 +21,7 @@ import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.NetworkTable;
 import com.android.tools.datastore.poller.NetworkDataPoller;
 import com.android.tools.datastore.poller.PollRunner;
+import com.android.tools.datastore.poller.SampleBus;
 import com.android.tools.profiler.proto.NetworkProfiler;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
 import io.grpc.stub.StreamObserver;
@@ -39,10 +40,16 @@ public class NetworkService extends NetworkServiceGrpc.NetworkServiceImplBase im
   private final Consumer<Runnable> myFetchExecutor;
   private final Map<Long, PollRunner> myRunners = new HashMap<>();
   private final DataStoreService myService;
+  private final SampleBus mySampleBus;
 
   public NetworkService(@NotNull DataStoreService service, Consumer<Runnable> fetchExecutor) {
+    this(service, fetchExecutor, new SampleBus());
+  }
+
+  public NetworkService(@NotNull DataStoreService service, Consumer<Runnable> fetchExecutor, @NotNull SampleBus sampleBus) {
     myFetchExecutor = fetchExecutor;
     myService = service;
+    mySampleBus = sampleBus;
     myNetworkTable = new NetworkTable();
   }
 
@@ -64,7 +71,7 @@ public class NetworkService extends NetworkServiceGrpc.NetworkServiceImplBase im
       responseObserver.onNext(client.startMonitoringApp(request));
       responseObserver.onCompleted();
       long sessionId = request.getSession().getSessionId();
-      myRunners.put(sessionId, new NetworkDataPoller(request.getSession(), myNetworkTable, client));
+      myRunners.put(sessionId, new NetworkDataPoller(request.getSession(), myNetworkTable, client, mySampleBus));
       myFetchExecutor.accept(myRunners.get(sessionId));
     }
     else {
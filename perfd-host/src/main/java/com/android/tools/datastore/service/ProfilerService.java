@@ -28,8 +28,11 @@ import com.android.tools.profiler.proto.Profiler.*;
 import com.android.tools.profiler.proto.ProfilerServiceGrpc;
 import com.google.common.collect.Maps;
 import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.util.*;
@@ -40,6 +43,11 @@ import java.util.function.Consumer;
  * The data is populated from polling the service passed into the connectService function.
  */
 public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase implements ServicePassThrough {
+  /**
+   * Number of events held for a subscriber while its call isn't ready to send them, before the call is ended.
+   */
+  private static final int SUBSCRIBER_BUFFER_SIZE = 1024;
+
   private final Map<Channel, ProfilerDevicePoller> myPollers = Maps.newHashMap();
   private final Consumer<Runnable> myFetchExecutor;
   @NotNull private final LogService myLogService;
@@ -275,4 +283,110 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
     responseObserver.onNext(response.build());
     responseObserver.onCompleted();
   }
+
+  /**
+   * Streams the events of the request's kind and session to the observer as they are inserted, starting with the ones already stored
+   * from the request's start time, until the call is cancelled. The request's end time is ignored. Unlike {@link #getEventGroups}, the
+   * caller doesn't need to poll for new events. Events are only sent while the call is ready for them; a caller which falls more than
+   * {@link #SUBSCRIBER_BUFFER_SIZE} events behind is ended with {@link Status#RESOURCE_EXHAUSTED}, and can subscribe again from the last
+   * event it received.
+   */
+  public void subscribeEvents(@NotNull GetEventGroupsRequest request, @NotNull StreamObserver<Event> responseObserver) {
+    UnifiedEventsTable.EventFilter filter = new UnifiedEventsTable.EventFilter(0, request.getKind(), request.getSessionId(), 0);
+    EventSender sender = new EventSender(responseObserver);
+    UnifiedEventsTable.Subscription subscription = myUnifiedEventsTable.subscribe(filter, request.getFromTimestamp(), sender::send);
+    sender.setOnClosed(subscription::cancel);
+  }
+
+  /**
+   * Sends the events of one subscriber, holding them in a bounded buffer while the call's transport isn't ready for more.
+   */
+  private static final class EventSender {
+    @NotNull private final StreamObserver<Event> myObserver;
+    @Nullable private final ServerCallStreamObserver<Event> myServerObserver;
+    /**
+     * Also used as the lock of the sender, as the observer may not be called concurrently from the inserting and the transport threads.
+     */
+    private final ArrayDeque<Event> myBuffer = new ArrayDeque<>();
+    private boolean myClosed;
+    @Nullable private Runnable myOnClosed;
+
+    private EventSender(@NotNull StreamObserver<Event> observer) {
+      myObserver = observer;
+      myServerObserver = observer instanceof ServerCallStreamObserver ? (ServerCallStreamObserver<Event>)observer : null;
+      if (myServerObserver != null) {
+        myServerObserver.setOnCancelHandler(this::close);
+        myServerObserver.setOnReadyHandler(this::flush);
+      }
+    }
+
+    private void setOnClosed(@NotNull Runnable onClosed) {
+      boolean closed;
+      synchronized (myBuffer) {
+        myOnClosed = onClosed;
+        closed = myClosed;
+      }
+      if (closed) {
+        onClosed.run();
+      }
+    }
+
+    private void send(@NotNull Event event) {
+      boolean overflow;
+      synchronized (myBuffer) {
+        if (myClosed) {
+          return;
+        }
+        overflow = myBuffer.size() >= SUBSCRIBER_BUFFER_SIZE;
+        if (!overflow) {
+          myBuffer.add(event);
+        }
+        else {
+          try {
+            myObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("The subscriber is too slow to receive the events")
+                                 .asRuntimeException());
+          }
+          catch (RuntimeException ignored) {
+            // The call was already cancelled by the client.
+          }
+        }
+      }
+      if (overflow) {
+        close();
+      }
+      else {
+        flush();
+      }
+    }
+
+    private void flush() {
+      synchronized (myBuffer) {
+        try {
+          while (!myClosed && !myBuffer.isEmpty() && (myServerObserver == null || myServerObserver.isReady())) {
+            myObserver.onNext(myBuffer.poll());
+          }
+          return;
+        }
+        catch (RuntimeException e) {
+          // The call was cancelled by the client.
+        }
+      }
+      close();
+    }
+
+    private void close() {
+      Runnable onClosed;
+      synchronized (myBuffer) {
+        if (myClosed) {
+          return;
+        }
+        myClosed = true;
+        myBuffer.clear();
+        onClosed = myOnClosed;
+      }
+      if (onClosed != null) {
+        onClosed.run();
+      }
+    }
+  }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AllocationEventStoreTest {
+  private static final long SESSION = 1;
+  private static final long OTHER_SESSION = 2;
+
+  @Test
+  public void testRangeAndSnapshotQueries() {
+    AllocationEventStore store = new AllocationEventStore();
+    store.allocate(SESSION, 0, allocation(1));
+    store.allocate(SESSION, 6, allocation(2));
+    store.free(SESSION, 7, 1);
+    store.allocate(OTHER_SESSION, 3, allocation(3));
+
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(1, 2).inOrder();
+    assertThat(getAllocatedTags(store, 0, 6)).containsExactly(1);
+    assertThat(getFreedTags(store, 0, 7)).isEmpty();
+    assertThat(getFreedTags(store, 7, Long.MAX_VALUE)).containsExactly(1);
+    assertThat(getLiveTags(store, 6)).containsExactly(1);
+    assertThat(getLiveTags(store, 7)).containsExactly(2);
+    assertThat(store.getLatestTimestamp(SESSION)).isEqualTo(7);
+    assertThat(store.getLatestTimestamp(OTHER_SESSION)).isEqualTo(3);
+  }
+
+  @Test
+  public void testDuplicatedAllocationsAreIgnored() {
+    AllocationEventStore store = new AllocationEventStore();
+    store.allocate(SESSION, 0, allocation(1));
+    store.allocate(SESSION, 5, allocation(1));
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(1);
+    assertThat(getAllocatedTags(store, 5, Long.MAX_VALUE)).isEmpty();
+  }
+
+  @Test
+  public void testEventsSpanningSegments() {
+    AllocationEventStore store = new AllocationEventStore();
+    int count = AllocationEventStore.SEGMENT_CAPACITY + 10;
+    for (int tag = 0; tag < count; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    store.free(SESSION, count, count - 1);
+
+    assertThat(getLiveTags(store, count + 1)).hasSize(count - 1);
+    assertThat(getAllocatedTags(store, count - 2, count)).containsExactly(count - 2, count - 1).inOrder();
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).containsExactly(count - 1);
+  }
+
+  @Test
+  public void testPruneDropsFreedAllocations() {
+    AllocationEventStore store = new AllocationEventStore();
+    for (int tag = 0; tag < 10; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    store.free(SESSION, 20, 2);
+    store.free(SESSION, 21, 5);
+
+    assertThat(store.prune(SESSION, 10)).isEqualTo(0);
+    // Only the allocation which was freed first is dropped.
+    assertThat(store.prune(SESSION, 9)).isEqualTo(1);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 1, 3, 4, 5, 6, 7, 8, 9).inOrder();
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).containsExactly(5);
+    assertThat(store.prune(SESSION, 0)).isEqualTo(1);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 1, 3, 4, 6, 7, 8, 9).inOrder();
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).isEmpty();
+
+    // Moved rows can still be freed.
+    store.free(SESSION, 22, 9);
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).containsExactly(9);
+    assertThat(getLiveTags(store, 30)).containsExactly(0, 1, 3, 4, 6, 7, 8);
+  }
+
+  @Test
+  public void testPruneDropsAllocationsFreedAtTheSameTimeInTagOrder() {
+    AllocationEventStore store = new AllocationEventStore();
+    for (int tag = 0; tag < 6; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    store.free(SESSION, 10, 4);
+    store.free(SESSION, 10, 1);
+    store.free(SESSION, 10, 3);
+    store.free(SESSION, 5, 0);
+
+    assertThat(store.prune(SESSION, 4)).isEqualTo(2);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(2, 3, 4, 5).inOrder();
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).containsExactly(3, 4).inOrder();
+  }
+
+  @Test
+  public void testPruneUsesTheLatestFreeTime() {
+    AllocationEventStore store = new AllocationEventStore();
+    for (int tag = 0; tag < 4; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    store.free(SESSION, 10, 0);
+    store.free(SESSION, 11, 1);
+    // A duplicated free event moves the free time of the allocation.
+    store.free(SESSION, 12, 0);
+
+    assertThat(store.prune(SESSION, 3)).isEqualTo(1);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 2, 3).inOrder();
+    assertThat(store.prune(SESSION, 2)).isEqualTo(1);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(2, 3).inOrder();
+    assertThat(store.prune(SESSION, 0)).isEqualTo(0);
+  }
+
+  @Test
+  public void testEndedSessionKeepsItsEvents() {
+    AllocationEventStore store = new AllocationEventStore();
+    for (int tag = 0; tag < 4; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    store.free(SESSION, 10, 2);
+    store.endSession(SESSION);
+
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 1, 2, 3).inOrder();
+    assertThat(getFreedTags(store, 0, Long.MAX_VALUE)).containsExactly(2);
+
+    // Events arriving late are still applied, and pruned in order.
+    store.allocate(SESSION, 5, allocation(1));
+    store.free(SESSION, 11, 1);
+    store.free(SESSION, 12, 3);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 1, 2, 3).inOrder();
+    assertThat(store.prune(SESSION, 2)).isEqualTo(2);
+    assertThat(getAllocatedTags(store, 0, Long.MAX_VALUE)).containsExactly(0, 3).inOrder();
+  }
+
+  @Test
+  public void testPruneReleasesEmptiedSegments() {
+    AllocationEventStore store = new AllocationEventStore();
+    int count = AllocationEventStore.SEGMENT_CAPACITY * 3;
+    for (int tag = 0; tag < count; tag++) {
+      store.allocate(SESSION, tag, allocation(tag));
+    }
+    // Free every other allocation of the first two segments, and all of the third one's but its last.
+    for (int tag = 0; tag < count - 1; tag++) {
+      if (tag >= AllocationEventStore.SEGMENT_CAPACITY * 2 || tag % 2 == 0) {
+        store.free(SESSION, count + tag, tag);
+      }
+    }
+    assertThat(store.getSegmentCount(SESSION)).isEqualTo(3);
+
+    assertThat(store.prune(SESSION, AllocationEventStore.SEGMENT_CAPACITY + 1)).isEqualTo(AllocationEventStore.SEGMENT_CAPACITY * 2 - 1);
+    assertThat(store.getSegmentCount(SESSION)).isEqualTo(2);
+    List<Integer> liveTags = getLiveTags(store, Long.MAX_VALUE - 1);
+    assertThat(liveTags).hasSize(AllocationEventStore.SEGMENT_CAPACITY + 1);
+    assertThat(liveTags.get(0)).isEqualTo(1);
+    assertThat(liveTags.get(liveTags.size() - 1)).isEqualTo(count - 1);
+
+    // Moved rows can still be freed.
+    store.free(SESSION, count * 2, count - 1);
+    assertThat(getFreedTags(store, count * 2, Long.MAX_VALUE)).containsExactly(count - 1);
+  }
+
+  private static AllocationEvent.Allocation allocation(int tag) {
+    return AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(100).setSize(8).build();
+  }
+
+  private static List<Integer> getAllocatedTags(AllocationEventStore store, long startTime, long endTime) {
+    List<Integer> tags = new ArrayList<>();
+    store.forEachAllocated(SESSION, startTime, endTime, (segment, row) -> tags.add(segment.getTag(row)));
+    return tags;
+  }
+
+  private static List<Integer> getFreedTags(AllocationEventStore store, long startTime, long endTime) {
+    List<Integer> tags = new ArrayList<>();
+    store.forEachFreed(SESSION, startTime, endTime, (segment, row) -> tags.add(segment.getTag(row)));
+    return tags;
+  }
+
+  private static List<Integer> getLiveTags(AllocationEventStore store, long time) {
+    List<Integer> tags = new ArrayList<>();
+    store.forEachLive(SESSION, time, (segment, row) -> tags.add(segment.getTag(row)));
+    return tags;
+  }
+}
@@ -15,12 +15,16 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.FakeLogService;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack.StackFrame;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -513,6 +517,139 @@ public class MemoryLiveAllocationTableTest extends DatabaseTest<MemoryLiveAlloca
     assertThat(querySample.getTimestamp()).isEqualTo(alloc2.getTimestamp());
   }
 
+  @Test
+  public void testSnapshotFromLiveSetCheckpoints() {
+    getTable().setCheckpointInterval(10);
+    // Checkpoints are written at t = 12 (live: 1, 2) and t = 25 (live: 2, 3).
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(1, CLASS1, 0))
+      .addEvents(allocation(2, CLASS1, 5))
+      .addEvents(allocation(3, CLASS2, 12))
+      .addEvents(free(1, CLASS1, 15))
+      .build());
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(4, CLASS2, 25))
+      .addEvents(free(3, CLASS2, 30))
+      .build());
+
+    assertThat(getSnapshotTags(3)).containsExactly(1);
+    assertThat(getSnapshotTags(12)).containsExactly(1, 2);
+    assertThat(getSnapshotTags(15)).containsExactly(2, 3);
+    assertThat(getSnapshotTags(26)).containsExactly(2, 3, 4);
+    assertThat(getSnapshotTags(30)).containsExactly(2, 4);
+    assertThat(getSnapshotTags(Long.MAX_VALUE - 1)).containsExactly(2, 4);
+    assertThat(getTable().getSnapshot(VALID_SESSION, 26).getTimestamp()).isEqualTo(25);
+
+    // A late event older than the second checkpoint discards it, and later snapshots still account for the event.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(free(2, CLASS1, 20)).build());
+    assertThat(getSnapshotTags(15)).containsExactly(2, 3);
+    assertThat(getSnapshotTags(26)).containsExactly(3, 4);
+  }
+
+  @Test
+  public void testLiveClassCountsFromCheckpoints() {
+    getTable().setCheckpointInterval(10);
+    // Checkpoints are written at t = 12 (CLASS1: 2) and t = 25 (CLASS1: 1, CLASS2: 1).
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(1, CLASS1, 0))
+      .addEvents(allocation(2, CLASS1, 5))
+      .addEvents(allocation(3, CLASS2, 12))
+      .addEvents(free(1, CLASS1, 15))
+      .build());
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(4, CLASS2, 25))
+      .addEvents(free(3, CLASS2, 30))
+      .build());
+
+    assertThat(getLiveClassCount(3, CLASS1)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(3, CLASS2)).isNull();
+    assertThat(getLiveClassCount(15, CLASS1)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(15, CLASS2)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(26, CLASS1)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(26, CLASS2)).isEqualTo(new long[]{2, 16});
+    assertThat(getLiveClassCount(30, CLASS2)).isEqualTo(new long[]{1, 8});
+
+    // A late event older than the second checkpoint discards it, and later counts still account for the event.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(free(2, CLASS1, 20)).build());
+    assertThat(getLiveClassCount(15, CLASS1)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(26, CLASS1)).isNull();
+    assertThat(getLiveClassCount(26, CLASS2)).isEqualTo(new long[]{2, 16});
+  }
+
+  @Test
+  public void testPruningDiscardsStaleClassCheckpoints() {
+    getTable().setCheckpointInterval(10);
+    getTable().setAllocationCountLimit(2);
+    // A checkpoint is written at t = 12 (CLASS1: 2), then the free of tag 1 after it is pruned.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(1, CLASS1, 0))
+      .addEvents(allocation(2, CLASS1, 5))
+      .addEvents(allocation(3, CLASS2, 12))
+      .addEvents(free(1, CLASS1, 15))
+      .build());
+
+    assertThat(getSnapshotTags(20)).containsExactly(2, 3);
+    assertThat(getLiveClassCount(20, CLASS1)).isEqualTo(new long[]{1, 8});
+    assertThat(getLiveClassCount(20, CLASS2)).isEqualTo(new long[]{1, 8});
+  }
+
+  @Test
+  public void testEndSessionReleasesCheckpointTracker() {
+    getTable().setCheckpointInterval(10);
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(1, CLASS1, 0))
+      .addEvents(allocation(2, CLASS1, 12))
+      .build());
+    assertThat(getTable().getCheckpointTrackerCount()).isEqualTo(1);
+
+    getTable().endSession(VALID_SESSION);
+    assertThat(getTable().getCheckpointTrackerCount()).isEqualTo(0);
+
+    // Events arriving late for the ended session are still inserted, without tracking a partial live set for them.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample
+      .newBuilder()
+      .addEvents(allocation(3, CLASS2, 25))
+      .addEvents(free(1, CLASS1, 30))
+      .build());
+    assertThat(getTable().getCheckpointTrackerCount()).isEqualTo(0);
+    assertThat(getSnapshotTags(15)).containsExactly(1, 2);
+    assertThat(getSnapshotTags(Long.MAX_VALUE - 1)).containsExactly(2, 3);
+  }
+
+  @NotNull
+  private static AllocationEvent allocation(int tag, int classTag, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(classTag).setSize(8).setHeapId(HEAP0))
+      .setTimestamp(timestamp).build();
+  }
+
+  @NotNull
+  private static AllocationEvent free(int tag, int classTag, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(tag).setClassTag(classTag).setSize(8).setHeapId(HEAP0))
+      .setTimestamp(timestamp).build();
+  }
+
+  @NotNull
+  private List<Integer> getSnapshotTags(long endTime) {
+    List<Integer> tags = new ArrayList<>();
+    for (AllocationEvent event : getTable().getSnapshot(VALID_SESSION, endTime).getEventsList()) {
+      tags.add(event.getAllocData().getTag());
+    }
+    return tags;
+  }
+
+  @Nullable
+  private long[] getLiveClassCount(long endTime, int classTag) {
+    return getTable().getLiveClassCounts(VALID_SESSION, endTime).get(LiveAllocationCheckpointTracker.getClassKey(classTag, HEAP0));
+  }
+
   @Test
   public void testLatestDataTimestamp() {
     assertThat(getTable().getLatestDataTimestamp(VALID_SESSION).getTimestamp()).isEqualTo(0);
@@ -775,6 +912,86 @@ public class MemoryLiveAllocationTableTest extends DatabaseTest<MemoryLiveAlloca
     assertThat(querySample.getEvents(1)).isEqualTo(alloc4);
   }
 
+  @Test
+  public void testPruningOnlyDropsTheAllocationsOverTheLimit() {
+    getTable().setAllocationCountLimit(4);
+
+    BatchAllocationSample.Builder allocations = BatchAllocationSample.newBuilder();
+    for (int tag = 0; tag < 5; tag++) {
+      allocations.addEvents(AllocationEvent.newBuilder()
+                              .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(CLASS1))
+                              .setTimestamp(tag));
+    }
+    getTable().insertAllocationData(VALID_SESSION, allocations.build());
+    BatchAllocationSample.Builder frees = BatchAllocationSample.newBuilder();
+    for (int tag = 0; tag < 3; tag++) {
+      frees.addEvents(AllocationEvent.newBuilder()
+                        .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(tag).setClassTag(CLASS1))
+                        .setTimestamp(10 + tag));
+    }
+    getTable().insertAllocationData(VALID_SESSION, frees.build());
+
+    // One allocation over the limit: only the one freed first is dropped, the other freed allocations are kept.
+    BatchAllocationSample sample = getTable().getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+    assertThat(getTags(sample, AllocationEvent.EventCase.ALLOC_DATA)).containsExactly(1, 2, 3, 4);
+    assertThat(getTags(sample, AllocationEvent.EventCase.FREE_DATA)).containsExactly(1, 2);
+  }
+
+  @Test
+  public void testColumnarStorePrunesLikeTheDatabase() throws Exception {
+    File dbFile = File.createTempFile("MemoryLiveAllocationTableTest", "mysql");
+    dbFile.deleteOnExit();
+    DataStoreDatabase database = new DataStoreDatabase(dbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE, new FakeLogService());
+    try {
+      MemoryLiveAllocationTable columnarTable = new MemoryLiveAllocationTable(new FakeLogService(), true);
+      columnarTable.initialize(database.getConnection());
+      getTable().setAllocationCountLimit(6);
+      columnarTable.setAllocationCountLimit(6);
+
+      BatchAllocationSample.Builder allocations = BatchAllocationSample.newBuilder();
+      for (int tag = 0; tag < 10; tag++) {
+        allocations.addEvents(AllocationEvent.newBuilder()
+                                .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(CLASS1))
+                                .setTimestamp(tag));
+      }
+      // Frees out of order, some of them at the same time.
+      BatchAllocationSample.Builder frees = BatchAllocationSample.newBuilder();
+      int[][] freeTimesAndTags = {{20, 7}, {15, 2}, {20, 5}, {30, 0}, {20, 9}, {25, 4}};
+      for (int[] freeTimeAndTag : freeTimesAndTags) {
+        frees.addEvents(AllocationEvent.newBuilder()
+                          .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(freeTimeAndTag[1]).setClassTag(CLASS1))
+                          .setTimestamp(freeTimeAndTag[0]));
+      }
+      for (MemoryLiveAllocationTable table : Arrays.asList(getTable(), columnarTable)) {
+        table.insertAllocationData(VALID_SESSION, allocations.build());
+        table.insertAllocationData(VALID_SESSION, frees.build());
+      }
+
+      // The allocation freed first, then the ones freed at the same time in tag order, are pruned down to the limit.
+      BatchAllocationSample expected = getTable().getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+      assertThat(getTags(expected, AllocationEvent.EventCase.ALLOC_DATA)).containsExactly(0, 1, 3, 4, 6, 8);
+      assertThat(getTags(expected, AllocationEvent.EventCase.FREE_DATA)).containsExactly(0, 4);
+      BatchAllocationSample actual = columnarTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+      assertThat(getTags(actual, AllocationEvent.EventCase.ALLOC_DATA))
+        .containsExactlyElementsIn(getTags(expected, AllocationEvent.EventCase.ALLOC_DATA));
+      assertThat(getTags(actual, AllocationEvent.EventCase.FREE_DATA))
+        .containsExactlyElementsIn(getTags(expected, AllocationEvent.EventCase.FREE_DATA));
+    }
+    finally {
+      database.disconnect();
+    }
+  }
+
+  private static List<Integer> getTags(@NotNull BatchAllocationSample sample, @NotNull AllocationEvent.EventCase eventCase) {
+    List<Integer> tags = new ArrayList<>();
+    for (AllocationEvent event : sample.getEventsList()) {
+      if (event.getEventCase() == eventCase) {
+        tags.add(eventCase == AllocationEvent.EventCase.ALLOC_DATA ? event.getAllocData().getTag() : event.getFreeData().getTag());
+      }
+    }
+    return tags;
+  }
+
   @Test
   public void testIgnoreDuplicatedAllocationContext() {
     List<StackFrame> methodsToInsert = new ArrayList<>();
@@ -18,6 +18,8 @@ package com.android.tools.datastore.database
 import com.android.tools.profiler.proto.Profiler
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 
 class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
@@ -45,7 +47,8 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
         it.queryUnifiedEventGroups(
           Profiler.GetEventGroupsRequest.newBuilder().setKind(Profiler.Event.Kind.SESSION).setSessionId(1).setToTimestamp(10).build())
       }),
-      (Consumer { it.queryUnifiedEvents(Profiler.GetEventsRequest.getDefaultInstance()) }))
+      (Consumer { it.queryUnifiedEvents(Profiler.GetEventsRequest.getDefaultInstance()) }),
+      (Consumer { it.subscribe(UnifiedEventsTable.EventFilter(1, Profiler.Event.Kind.SESSION, 0, 0), 0, Consumer {}) }))
   }
 
   private fun insertData(count: Int, incrementSession: Boolean, incrementEventId: Boolean): List<Profiler.Event> {
@@ -155,6 +158,100 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
                      .setToTimestamp(3).build())
   }
 
+  @Test
+  fun subscribersArePushedMatchingEvents() {
+    val received = mutableListOf<Profiler.Event>()
+    table.subscribe(UnifiedEventsTable.EventFilter(1, Profiler.Event.Kind.SESSION, 1, 0), 0, Consumer { received.add(it) })
+
+    val session1 = eventBuilder(Profiler.Event.Kind.SESSION, Profiler.Event.Type.SESSION_STARTED, 1, 1, 1)
+    val session2 = eventBuilder(Profiler.Event.Kind.SESSION, Profiler.Event.Type.SESSION_STARTED, 2, 2, 2)
+    table.insertUnifiedEvents(1, listOf(session1, session2))
+    table.insertUnifiedEvents(2, listOf(session1.toBuilder().setTimestamp(3).build()))
+    assertThat(received).containsExactly(session1)
+  }
+
+  @Test
+  fun subscribersFilterOnGroup() {
+    val received = mutableListOf<Profiler.Event>()
+    table.subscribe(UnifiedEventsTable.EventFilter(0, Profiler.Event.Kind.NONE, 0, 2), 0, Consumer { received.add(it) })
+    table.insertUnifiedEvents(1, events[0])
+    table.insertUnifiedEvents(1, events[1])
+    assertThat(received).containsExactlyElementsIn(events[1]).inOrder()
+  }
+
+  @Test
+  fun duplicatesAreNotPushed() {
+    val received = mutableListOf<Profiler.Event>()
+    table.subscribe(UnifiedEventsTable.EventFilter(0, Profiler.Event.Kind.SESSION, 0, 0), 0, Consumer { received.add(it) })
+    val polled = insertData(3, true, true)
+    // The next poll returns the events at the last polled timestamp again.
+    val repolled = listOf(polled[2], eventBuilder(Profiler.Event.Kind.SESSION, Profiler.Event.Type.SESSION_ENDED, 3, 3, 4))
+    table.insertUnifiedEvents(1, repolled)
+    assertThat(received).containsExactly(polled[0], polled[1], polled[2], repolled[1]).inOrder()
+  }
+
+  @Test
+  fun subscribeReplaysStoredEvents() {
+    val stored = insertData(4, true, true)
+    val received = mutableListOf<Profiler.Event>()
+    table.subscribe(UnifiedEventsTable.EventFilter(1, Profiler.Event.Kind.SESSION, 0, 0), 3, Consumer { received.add(it) })
+    assertThat(received).containsExactly(stored[2], stored[3]).inOrder()
+
+    // Events older than the tail are replayed from the database.
+    val old = insertData(UnifiedEventsTable.TAIL_CAPACITY * 2, false, true)
+    received.clear()
+    table.subscribe(UnifiedEventsTable.EventFilter(1, Profiler.Event.Kind.SESSION, 1, 0), 0, Consumer { received.add(it) })
+    assertThat(received).containsExactlyElementsIn(old).inOrder()
+  }
+
+  @Test
+  fun cancelledSubscribersAreNotPushed() {
+    val received = mutableListOf<Profiler.Event>()
+    val subscription =
+      table.subscribe(UnifiedEventsTable.EventFilter(0, Profiler.Event.Kind.SESSION, 0, 0), 0, Consumer { received.add(it) })
+    val events = insertData(1, true, true)
+    subscription.cancel()
+    table.insertUnifiedEvents(1, listOf(eventBuilder(Profiler.Event.Kind.SESSION, Profiler.Event.Type.SESSION_ENDED, 1, 1, 2)))
+    assertThat(received).containsExactlyElementsIn(events)
+  }
+
+  @Test
+  fun listenersAreCalledWithoutTheTableLock() {
+    val queried = mutableListOf<Profiler.Event>()
+    table.subscribe(UnifiedEventsTable.EventFilter(0, Profiler.Event.Kind.SESSION, 0, 0), 0, Consumer {
+      // Would block until the insertion returns, if the listener was called while holding the lock.
+      val query = CompletableFuture.supplyAsync {
+        table.queryUnifiedEvents(Profiler.GetEventsRequest.newBuilder().setFromTimestamp(0).setToTimestamp(Long.MAX_VALUE).build())
+      }
+      queried.addAll(query.get(10, TimeUnit.SECONDS))
+    })
+    val events = insertData(1, true, true)
+    assertThat(queried).containsExactlyElementsIn(events)
+  }
+
+  @Test
+  fun queryEventsBeforeAndWithinTail() {
+    val count = UnifiedEventsTable.TAIL_CAPACITY * 2
+    val events = mutableListOf<Profiler.Event>()
+    // Insert in batches, the way the poller does.
+    for (batch in 0 until count / 100) {
+      val batchEvents = (1..100).map {
+        val timestamp = batch * 100L + it
+        eventBuilder(Profiler.Event.Kind.SESSION, Profiler.Event.Type.SESSION_STARTED, 1, timestamp, timestamp)
+      }
+      table.insertUnifiedEvents(1, batchEvents)
+      events.addAll(batchEvents)
+    }
+
+    // From the database.
+    var result = table.queryUnifiedEvents(Profiler.GetEventsRequest.newBuilder().setFromTimestamp(1).setToTimestamp(200).build())
+    assertThat(result).containsExactlyElementsIn(events.subList(0, 200))
+    // From the tail.
+    result = table.queryUnifiedEvents(
+      Profiler.GetEventsRequest.newBuilder().setFromTimestamp(events.size - 99L).setToTimestamp(Long.MAX_VALUE).build())
+    assertThat(result).containsExactlyElementsIn(events.subList(events.size - 100, events.size)).inOrder()
+  }
+
   private fun validateFilter(request: Profiler.GetEventGroupsRequest) {
     val results = mutableListOf<List<Profiler.Event>>()
     for (eventGroup in events) {
@@ -185,4 +185,62 @@ class BatteryModelTest {
     assertThat(sample.networkUsage).isEqualTo(0)
     assertThat(sample.cpuUsage).isGreaterThan(0)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun averageSampleWeighsUsageByDuration() {
+    val batteryModel = BatteryModel(AppCpuPowerProfile(), SAMPLE_INTERVAL_NS)
+    val timeStartNs = TimeUnit.SECONDS.toNanos(10)
+    batteryModel.handleEvent(timeStartNs, BatteryModel.Event.CPU_USAGE, cpuUsage(1.0))
+    batteryModel.handleEvent(fastForward(timeStartNs, 1), BatteryModel.Event.CPU_USAGE, cpuUsage(0.0))
+    batteryModel.handleEvent(fastForward(timeStartNs, 2), BatteryModel.Event.CPU_USAGE, cpuUsage(0.5))
+
+    assertThat(batteryModel.getAverageSampleBetween(timeStartNs, fastForward(timeStartNs, 1)).cpuUsage).isEqualTo(100)
+    assertThat(batteryModel.getAverageSampleBetween(timeStartNs, fastForward(timeStartNs, 2)).cpuUsage).isEqualTo(50)
+    assertThat(batteryModel.getAverageSampleBetween(timeStartNs, fastForward(timeStartNs, 4)).cpuUsage).isEqualTo(50)
+    // Ranges starting and ending in the middle of samples.
+    assertThat(batteryModel.getAverageSampleBetween(timeStartNs + SAMPLE_INTERVAL_NS / 2,
+                                                    timeStartNs + SAMPLE_INTERVAL_NS * 3 / 2).cpuUsage).isEqualTo(50)
+    assertThat(batteryModel.getAverageSampleBetween(0, timeStartNs).cpuUsage).isEqualTo(0)
+
+    // The average matches the one of the dense samples, and is updated when samples are changed.
+    batteryModel.handleEvent(fastForward(timeStartNs, 1), BatteryModel.Event.CPU_USAGE, cpuUsage(0.25))
+    val samples = batteryModel.getNSamplesStartingAt(timeStartNs, 4)
+    assertThat(batteryModel.getAverageSampleBetween(timeStartNs, fastForward(timeStartNs, 4)).cpuUsage)
+      .isEqualTo(samples.sumBy { it.cpuUsage } / samples.size)
+  }
+
+  @Test
+  fun queriesAnywhereInLongSessionsReturnTheirWindow() {
+    // An hour-long session in which the usage changes at every sample
+    val batteryModel = BatteryModel(AppCpuPowerProfile(), SAMPLE_INTERVAL_NS)
+    val sessionNs = TimeUnit.HOURS.toNanos(1)
+    var timeNs = 0L
+    var sampleCount = 0
+    while (timeNs < sessionNs) {
+      batteryModel.handleEvent(timeNs, BatteryModel.Event.CPU_USAGE, cpuUsage(if (sampleCount % 2 == 0) 1.0 else 0.0))
+      timeNs = fastForward(timeNs, 1)
+      sampleCount++
+    }
+
+    val windowNs = TimeUnit.MINUTES.toNanos(1)
+    for (startNs in listOf(0L, sessionNs - windowNs)) {
+      val samples = batteryModel.getSamplesBetween(startNs, startNs + windowNs)
+      assertThat(samples).hasSize((windowNs / SAMPLE_INTERVAL_NS).toInt())
+      assertThat(batteryModel.getAverageSampleBetween(startNs, startNs + windowNs).cpuUsage).isEqualTo(50)
+    }
+  }
+
+  private fun cpuUsage(appUsage: Double) =
+    arrayOf(PowerProfile.CpuCoreUsage(0, appUsage, 1.0, MIN_CPU_FREQUENCY, MAX_CPU_FREQUENCY, MAX_CPU_FREQUENCY, false))
+
+  /**
+   * Uses the app's CPU usage of the first core as a percentage, and nothing for the other components, to make usages easy to check.
+   */
+  private class AppCpuPowerProfile : PowerProfile {
+    override fun getCpuUsage(usages: Array<PowerProfile.CpuCoreUsage>) = (usages[0].myAppUsage * 100).toInt()
+
+    override fun getNetworkUsage(networkStats: PowerProfile.NetworkStats) = 0
+
+    override fun getLocationUsage(locationStats: PowerProfile.LocationStats) = 0
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.android.testutils.TestUtils;
+import com.android.tools.datastore.DataStoreDatabase;
+import com.android.tools.datastore.FakeLogService;
+import com.android.tools.datastore.database.EnergyTable;
+import com.android.tools.datastore.energy.BatteryModel;
+import com.android.tools.profiler.proto.*;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SampleBusTest {
+  private static final Common.Session SESSION = Common.Session.newBuilder().setSessionId(4321).setDeviceId(1234).setPid(5678).build();
+  private static final SampleBus.Topic<Integer> NUMBERS = new SampleBus.Topic<>("Numbers");
+
+  private final FakeProfilerService myProfilerService = new FakeProfilerService();
+  private final FakeCpuService myCpuService = new FakeCpuService();
+  private final FakeNetworkService myNetworkService = new FakeNetworkService();
+  private Server myServer;
+  private ManagedChannel myChannel;
+  private DataStoreDatabase myDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    String name = UUID.randomUUID().toString();
+    myServer = InProcessServerBuilder.forName(name)
+                                     .addService(myProfilerService)
+                                     .addService(myCpuService)
+                                     .addService(myNetworkService)
+                                     .addService(new EnergyServiceGrpc.EnergyServiceImplBase() {
+                                       @Override
+                                       public void getEvents(EnergyProfiler.EnergyRequest request,
+                                                             StreamObserver<EnergyProfiler.EnergyEventsResponse> observer) {
+                                         observer.onNext(EnergyProfiler.EnergyEventsResponse.getDefaultInstance());
+                                         observer.onCompleted();
+                                       }
+                                     })
+                                     .directExecutor()
+                                     .build()
+                                     .start();
+    myChannel = InProcessChannelBuilder.forName(name).usePlaintext(true).directExecutor().build();
+    File dbFile = new File(TestUtils.createTempDirDeletedOnExit(), "datastoredb");
+    myDatabase = new DataStoreDatabase(dbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE, new FakeLogService());
+  }
+
+  @After
+  public void tearDown() {
+    myChannel.shutdownNow();
+    myServer.shutdownNow();
+    myDatabase.disconnect();
+  }
+
+  @Test
+  public void samplesAreFannedOutPerSession() {
+    SampleBus bus = new SampleBus();
+    SampleBus.Subscription<Integer> first = bus.subscribe(NUMBERS, 1, 16);
+    SampleBus.Subscription<Integer> second = bus.subscribe(NUMBERS, 1, 16);
+    SampleBus.Subscription<Integer> otherSession = bus.subscribe(NUMBERS, 2, 16);
+
+    SampleBus.Publisher<Integer> publisher = bus.registerPublisher(NUMBERS, 1);
+    publisher.publish(Arrays.asList(1, 2));
+    publisher.publish(Collections.singletonList(3));
+
+    assertThat(first.drain()).containsExactly(1, 2, 3).inOrder();
+    assertThat(first.drain()).isEmpty();
+    assertThat(second.getPendingCount()).isEqualTo(3);
+    assertThat(second.drain()).containsExactly(1, 2, 3).inOrder();
+    assertThat(second.getDeliveredCount()).isEqualTo(3L);
+    assertThat(otherSession.drain()).isEmpty();
+
+    second.close();
+    publisher.publish(Collections.singletonList(4));
+    assertThat(first.drain()).containsExactly(4);
+    assertThat(second.drain()).isEmpty();
+  }
+
+  @Test
+  public void publishersAreTrackedPerSession() {
+    SampleBus bus = new SampleBus();
+    assertThat(bus.hasPublisher(NUMBERS, 1)).isFalse();
+    SampleBus.Publisher<Integer> publisher = bus.registerPublisher(NUMBERS, 1);
+    assertThat(bus.hasPublisher(NUMBERS, 1)).isTrue();
+    assertThat(bus.hasPublisher(NUMBERS, 2)).isFalse();
+    assertThat(bus.hasPublisher(SampleBus.CPU_USAGE, 1)).isFalse();
+    publisher.close();
+    assertThat(bus.hasPublisher(NUMBERS, 1)).isFalse();
+  }
+
+  @Test
+  public void fullQueuesBlockPublishersThenDrop() {
+    SampleBus bus = new SampleBus(TimeUnit.MILLISECONDS.toNanos(10));
+    SampleBus.Subscription<Integer> lagging = bus.subscribe(NUMBERS, 1, 2);
+    SampleBus.Subscription<Integer> keepingUp = bus.subscribe(NUMBERS, 1, 8);
+    bus.registerPublisher(NUMBERS, 1).publish(Arrays.asList(1, 2, 3, 4, 5));
+
+    assertThat(lagging.getPendingCount()).isEqualTo(2);
+    assertThat(lagging.getMaxPendingCount()).isEqualTo(2);
+    assertThat(lagging.getDroppedCount()).isEqualTo(3L);
+    assertThat(lagging.getBlockedNs()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(lagging.getLagNs()).isGreaterThan(0L);
+    assertThat(lagging.drain()).containsExactly(1, 2).inOrder();
+    assertThat(lagging.getLagNs()).isEqualTo(0L);
+
+    assertThat(keepingUp.getDroppedCount()).isEqualTo(0L);
+    assertThat(keepingUp.getBlockedNs()).isEqualTo(0L);
+    assertThat(keepingUp.drain()).containsExactly(1, 2, 3, 4, 5).inOrder();
+  }
+
+  @Test
+  public void publishersWaitForSubscribersToCatchUp() throws Exception {
+    SampleBus bus = new SampleBus(TimeUnit.SECONDS.toNanos(10));
+    SampleBus.Subscription<Integer> subscription = bus.subscribe(NUMBERS, 1, 4);
+    List<Integer> samples = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      samples.add(i);
+    }
+
+    List<Integer> received = new ArrayList<>();
+    Thread subscriber = new Thread(() -> {
+      while (received.size() < samples.size()) {
+        received.addAll(subscription.drain());
+        Thread.yield();
+      }
+    });
+    subscriber.start();
+    bus.registerPublisher(NUMBERS, 1).publish(samples);
+    subscriber.join(TimeUnit.SECONDS.toMillis(10));
+
+    assertThat(received).containsExactlyElementsIn(samples).inOrder();
+    assertThat(subscription.getDroppedCount()).isEqualTo(0L);
+  }
+
+  @Test
+  public void energyPollerReusesPublishedSamples() {
+    // Runs a simulated session with and without the CPU and network pollers publishing their samples, and checks that publishing them
+    // saves every query while computing the same energy samples.
+    int pollCount = 40;
+    long sessionNs = pollCount * PollRunner.POLLING_DELAY_NS;
+
+    EnergyTable fetchingTable = new EnergyTable();
+    fetchingTable.initialize(myDatabase.getConnection());
+    int fetchingQueries = runEnergySession(SESSION, new SampleBus(), false, fetchingTable, pollCount);
+
+    // A session of its own, since both tables are backed by the same database.
+    Common.Session session = SESSION.toBuilder().setSessionId(SESSION.getSessionId() + 1).build();
+    EnergyTable subscribingTable = new EnergyTable();
+    subscribingTable.initialize(myDatabase.getConnection());
+    int subscribingQueries = runEnergySession(session, new SampleBus(), true, subscribingTable, pollCount);
+
+    assertThat(fetchingQueries).isEqualTo(2 * pollCount);
+    assertThat(subscribingQueries).isEqualTo(0);
+
+    EnergyProfiler.EnergyRequest request =
+      EnergyProfiler.EnergyRequest.newBuilder().setSession(SESSION).setStartTimestamp(0).setEndTimestamp(sessionNs).build();
+    List<EnergyProfiler.EnergySample> samples = fetchingTable.getSamples(request);
+    assertThat(samples).isNotEmpty();
+    assertThat(samples.stream().anyMatch(sample -> sample.getCpuUsage() > 0 && sample.getNetworkUsage() > 0)).isTrue();
+    assertThat(subscribingTable.getSamples(request.toBuilder().setSession(session).build())).containsExactlyElementsIn(samples).inOrder();
+  }
+
+  /**
+   * Runs an energy poller for the given number of polls, feeding it a CPU and a network sample per poll, and returns the number of CPU
+   * and network data queries it made. Published samples are published twice, to check they are only handled once.
+   */
+  private int runEnergySession(Common.Session session, SampleBus bus, boolean publish, EnergyTable table, int pollCount) {
+    myProfilerService.myCurrentTimeNs = 0;
+    myCpuService.mySamples.clear();
+    myNetworkService.mySamples.clear();
+    myCpuService.myDataQueryCount.set(0);
+    myNetworkService.myDataQueryCount.set(0);
+
+    SampleBus.Publisher<CpuProfiler.CpuUsageData> cpuPublisher =
+      publish ? bus.registerPublisher(SampleBus.CPU_USAGE, session.getSessionId()) : null;
+    SampleBus.Publisher<NetworkProfiler.NetworkProfilerData> networkPublisher =
+      publish ? bus.registerPublisher(SampleBus.NETWORK_DATA, session.getSessionId()) : null;
+    EnergyDataPoller poller = new EnergyDataPoller(session, new BatteryModel(), table,
+                                                   ProfilerServiceGrpc.newBlockingStub(myChannel),
+                                                   CpuServiceGrpc.newBlockingStub(myChannel),
+                                                   NetworkServiceGrpc.newBlockingStub(myChannel),
+                                                   EnergyServiceGrpc.newBlockingStub(myChannel),
+                                                   new FakeLogService(),
+                                                   bus);
+    for (int i = 1; i <= pollCount; i++) {
+      long timeNs = i * PollRunner.POLLING_DELAY_NS;
+      long elapsedMs = TimeUnit.NANOSECONDS.toMillis(timeNs);
+      CpuProfiler.CpuUsageData cpu =
+        CpuProfiler.CpuUsageData.newBuilder().setEndTimestamp(timeNs)
+                                .setElapsedTimeInMillisec(elapsedMs)
+                                .setSystemCpuTimeInMillisec(elapsedMs)
+                                .setAppCpuTimeInMillisec(elapsedMs / 2)
+                                .addCores(CpuProfiler.CpuCoreUsageData.newBuilder()
+                                                                      .setCore(0)
+                                                                      .setSystemCpuTimeInMillisec(elapsedMs)
+                                                                      .setElapsedTimeInMillisec(elapsedMs))
+                                .build();
+      List<NetworkProfiler.NetworkProfilerData> network = new ArrayList<>();
+      if (i == 1) {
+        network.add(NetworkProfiler.NetworkProfilerData.newBuilder().setEndTimestamp(timeNs).setConnectivityData(
+          NetworkProfiler.ConnectivityData.newBuilder().setNetworkType(NetworkProfiler.ConnectivityData.NetworkType.WIFI)).build());
+      }
+      network.add(NetworkProfiler.NetworkProfilerData.newBuilder().setEndTimestamp(timeNs).setSpeedData(
+        NetworkProfiler.SpeedData.newBuilder().setReceived(i % 2 == 0 ? 1024 : 0)).build());
+
+      if (publish) {
+        // Pollers query their last timestamp again, so the same samples are published twice.
+        cpuPublisher.publish(Collections.singletonList(cpu));
+        cpuPublisher.publish(Collections.singletonList(cpu));
+        networkPublisher.publish(network);
+        networkPublisher.publish(network);
+      }
+      else {
+        myCpuService.mySamples.add(cpu);
+        myNetworkService.mySamples.addAll(network);
+      }
+      myProfilerService.myCurrentTimeNs = timeNs;
+      poller.poll();
+    }
+    poller.stop();
+    if (publish) {
+      cpuPublisher.close();
+      networkPublisher.close();
+    }
+    return myCpuService.myDataQueryCount.get() + myNetworkService.myDataQueryCount.get();
+  }
+
+  private static final class FakeProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase {
+    private long myCurrentTimeNs;
+
+    @Override
+    public void getCurrentTime(Profiler.TimeRequest request, StreamObserver<Profiler.TimeResponse> observer) {
+      observer.onNext(Profiler.TimeResponse.newBuilder().setTimestampNs(myCurrentTimeNs).build());
+      observer.onCompleted();
+    }
+  }
+
+  private static final class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
+    private final List<CpuProfiler.CpuUsageData> mySamples = new ArrayList<>();
+    private final AtomicInteger myDataQueryCount = new AtomicInteger();
+
+    @Override
+    public void getData(CpuProfiler.CpuDataRequest request, StreamObserver<CpuProfiler.CpuDataResponse> observer) {
+      myDataQueryCount.incrementAndGet();
+      List<CpuProfiler.CpuUsageData> samples = mySamples.stream().filter(
+        sample -> sample.getEndTimestamp() >= request.getStartTimestamp() && sample.getEndTimestamp() <= request.getEndTimestamp())
+                                                        .collect(Collectors.toList());
+      observer.onNext(CpuProfiler.CpuDataResponse.newBuilder().addAllData(samples).build());
+      observer.onCompleted();
+    }
+
+    @Override
+    public void getCpuCoreConfig(CpuProfiler.CpuCoreConfigRequest request, StreamObserver<CpuProfiler.CpuCoreConfigResponse> observer) {
+      observer.onNext(CpuProfiler.CpuCoreConfigResponse.newBuilder().addConfigs(
+        CpuProfiler.CpuCoreConfigResponse.CpuCoreConfigData.newBuilder()
+                                                           .setCore(0)
+                                                           .setMinFrequencyInKhz(300000)
+                                                           .setMaxFrequencyInKhz(2457600)).build());
+      observer.onCompleted();
+    }
+  }
+
+  private static final class FakeNetworkService extends NetworkServiceGrpc.NetworkServiceImplBase {
+    private final List<NetworkProfiler.NetworkProfilerData> mySamples = new ArrayList<>();
+    private final AtomicInteger myDataQueryCount = new AtomicInteger();
+
+    @Override
+    public void getData(NetworkProfiler.NetworkDataRequest request, StreamObserver<NetworkProfiler.NetworkDataResponse> observer) {
+      myDataQueryCount.incrementAndGet();
+      List<NetworkProfiler.NetworkProfilerData> samples = mySamples.stream().filter(
+        sample -> sample.getEndTimestamp() >= request.getStartTimestamp() && sample.getEndTimestamp() <= request.getEndTimestamp())
+                                                                  .collect(Collectors.toList());
+      observer.onNext(NetworkProfiler.NetworkDataResponse.newBuilder().addAllData(samples).build());
+      observer.onCompleted();
+    }
+  }
+}
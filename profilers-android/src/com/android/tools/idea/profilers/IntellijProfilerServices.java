@@ -225,6 +225,11 @@ public class IntellijProfilerServices implements IdeProfilerServices {
         return StudioFlags.PROFILER_USE_LIVE_ALLOCATIONS.get();
       }
 
+      @Override
+      public boolean isLiveAllocationsAggregationEnabled() {
+        return StudioFlags.PROFILER_LIVE_ALLOCATIONS_AGGREGATION.get();
+      }
+
       @Override
       public boolean isLiveAllocationsSamplingEnabled() {
         return StudioFlags.PROFILER_SAMPLE_LIVE_ALLOCATIONS.get();
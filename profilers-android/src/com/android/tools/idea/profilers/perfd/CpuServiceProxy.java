@@ -23,7 +23,6 @@ import io.grpc.ManagedChannel;
 import io.grpc.MethodDescriptor;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerServiceDefinition;
-import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
@@ -106,15 +105,15 @@ public class CpuServiceProxy extends PerfdProxyService {
   public ServerServiceDefinition getServiceDefinition() {
     Map<MethodDescriptor, ServerCallHandler> overrides = new HashMap<>();
     overrides.put(CpuServiceGrpc.METHOD_START_PROFILING_APP,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     startProfilingApp((CpuProfilingAppStartRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(CpuServiceGrpc.METHOD_STOP_PROFILING_APP,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     stopProfilingApp((CpuProfilingAppStopRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(CpuServiceGrpc.METHOD_CHECK_APP_PROFILING_STATE,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     checkAppProfilingState((ProfilingStateRequest)request, (StreamObserver)observer);
                   }));
 
@@ -25,6 +25,8 @@ import com.android.tools.profiler.proto.MemoryProfiler;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TLongObjectHashMap;
@@ -32,12 +34,10 @@ import io.grpc.ManagedChannel;
 import io.grpc.MethodDescriptor;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerServiceDefinition;
-import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 
@@ -176,60 +176,53 @@ public class MemoryServiceProxy extends PerfdProxyService {
   }
 
   /**
-   * Note: this call is blocking if there is an existing completed AllocationsInfo sample that is in the parsing stage.
+   * Note: if there is an existing completed AllocationsInfo sample that is in the parsing stage, this call replies once the parsing is done.
+   * It does not wait for it, so that it does not hold one of the threads running the calls of this service.
    */
   public void getLegacyAllocationEvents(LegacyAllocationEventsRequest request,
                                         StreamObserver<LegacyAllocationEventsResponse> responseObserver) {
     assert myUseLegacyTracking;
 
     TLongObjectHashMap<AllocationTrackingData> datas = myTrackingData.get(request.getSession().getSessionId());
-    if (datas == null || !datas.containsKey(request.getStartTime()) || datas.get(request.getStartTime()).myDataParsingLatch == null) {
+    if (datas == null || !datas.containsKey(request.getStartTime()) || datas.get(request.getStartTime()).myDataParsed == null) {
       responseObserver.onNext(NOT_FOUND_RESPONSE);
-    }
-    else {
-      AllocationTrackingData data = datas.get(request.getStartTime());
-      try {
-        assert data.myDataParsingLatch != null;
-        data.myDataParsingLatch.await();
-        synchronized (myUpdatingDataLock) {
-          assert data.myEventsResponse != null;
-          responseObserver.onNext(data.myEventsResponse);
-        }
-      }
-      catch (InterruptedException e) {
-        getLogger().error("Exception while waiting for Allocation Tracking parsing results: " + e);
-      }
+      responseObserver.onCompleted();
+      return;
     }
 
-    responseObserver.onCompleted();
+    AllocationTrackingData data = datas.get(request.getStartTime());
+    assert data.myDataParsed != null;
+    data.myDataParsed.addListener(() -> {
+      synchronized (myUpdatingDataLock) {
+        assert data.myEventsResponse != null;
+        responseObserver.onNext(data.myEventsResponse);
+      }
+      responseObserver.onCompleted();
+    }, MoreExecutors.directExecutor());
   }
 
   /**
-   * Note: this call is blocking if there is an existing completed AllocationsInfo sample that is in the parsing stage.
+   * Note: if there is an existing completed AllocationsInfo sample that is in the parsing stage, this call replies once the parsing is done.
    */
   public void getLegacyAllocationDump(DumpDataRequest request, StreamObserver<DumpDataResponse> responseObserver) {
     assert myUseLegacyTracking;
 
     TLongObjectHashMap<AllocationTrackingData> datas = myTrackingData.get(request.getSession().getSessionId());
-    if (datas == null || !datas.containsKey(request.getDumpTime()) || datas.get(request.getDumpTime()).myDataParsingLatch == null) {
+    if (datas == null || !datas.containsKey(request.getDumpTime()) || datas.get(request.getDumpTime()).myDataParsed == null) {
       responseObserver.onNext(DumpDataResponse.newBuilder().setStatus(DumpDataResponse.Status.NOT_FOUND).build());
-    }
-    else {
-      AllocationTrackingData data = datas.get(request.getDumpTime());
-      try {
-        assert data.myDataParsingLatch != null;
-        data.myDataParsingLatch.await();
-        synchronized (myUpdatingDataLock) {
-          assert data.myDumpDataResponse != null;
-          responseObserver.onNext(data.myDumpDataResponse);
-        }
-      }
-      catch (InterruptedException e) {
-        getLogger().error("Exception while waiting for Allocation Tracking parsing results: " + e);
-      }
+      responseObserver.onCompleted();
+      return;
     }
 
-    responseObserver.onCompleted();
+    AllocationTrackingData data = datas.get(request.getDumpTime());
+    assert data.myDataParsed != null;
+    data.myDataParsed.addListener(() -> {
+      synchronized (myUpdatingDataLock) {
+        assert data.myDumpDataResponse != null;
+        responseObserver.onNext(data.myDumpDataResponse);
+      }
+      responseObserver.onCompleted();
+    }, MoreExecutors.directExecutor());
   }
 
   public void getLegacyAllocationContexts(LegacyAllocationContextsRequest request,
@@ -321,7 +314,7 @@ public class MemoryServiceProxy extends PerfdProxyService {
       if (success) {
         lastInfoBuilder.setStatus(COMPLETED);
         responseBuilder.setStatus(TrackAllocationsResponse.Status.SUCCESS);
-        datas.get(lastInfo.getStartTime()).myDataParsingLatch = new CountDownLatch(1);
+        datas.get(lastInfo.getStartTime()).myDataParsed = SettableFuture.create();
       }
       else {
         lastInfoBuilder.setStatus(FAILURE_UNKNOWN);
@@ -363,7 +356,7 @@ public class MemoryServiceProxy extends PerfdProxyService {
         stacks.forEach(stack -> myAllocationStacks.get(sessionId).put(stack.getStackId(), stack));
       }
       finally {
-        datas.get(infoId).myDataParsingLatch.countDown();
+        datas.get(infoId).myDataParsed.set(null);
         myInProgressTrackingInfo.remove(sessionId);
       }
     }
@@ -387,35 +380,35 @@ public class MemoryServiceProxy extends PerfdProxyService {
   public ServerServiceDefinition getServiceDefinition() {
     Map<MethodDescriptor, ServerCallHandler> overrides = new HashMap<>();
     overrides.put(MemoryServiceGrpc.METHOD_START_MONITORING_APP,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     startMonitoringApp((MemoryStartRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_STOP_MONITORING_APP,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     stopMonitoringApp((MemoryStopRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_GET_DATA,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getData((MemoryRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_TRACK_ALLOCATIONS,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     trackAllocations((TrackAllocationsRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_GET_LEGACY_ALLOCATION_EVENTS,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getLegacyAllocationEvents((LegacyAllocationEventsRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_GET_LEGACY_ALLOCATION_CONTEXTS,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getLegacyAllocationContexts((LegacyAllocationContextsRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_GET_LEGACY_ALLOCATION_DUMP,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getLegacyAllocationDump((DumpDataRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(MemoryServiceGrpc.METHOD_FORCE_GARBAGE_COLLECTION,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     forceGarbageCollection((ForceGarbageCollectionRequest)request, (StreamObserver)observer);
                   }));
 
@@ -426,6 +419,6 @@ public class MemoryServiceProxy extends PerfdProxyService {
     @NotNull AllocationsInfo myInfo;
     LegacyAllocationEventsResponse myEventsResponse;
     DumpDataResponse myDumpDataResponse;
-    CountDownLatch myDataParsingLatch;
+    SettableFuture<Void> myDataParsed;
   }
 }
\ No newline at end of file
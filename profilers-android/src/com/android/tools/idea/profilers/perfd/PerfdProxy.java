@@ -20,27 +20,37 @@ import com.android.tools.idea.profilers.StudioLegacyAllocationTracker;
 import com.android.tools.idea.profilers.StudioLegacyCpuTraceProfiler;
 import com.android.tools.profiler.proto.CpuServiceGrpc;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.diagnostic.Logger;
 import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import io.grpc.inprocess.InProcessServerBuilder;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages the start/stop of a proxy layer that run services bridging between the perfd-host and device perfd.
  */
 public final class PerfdProxy {
+  private static Logger getLogger() {
+    return Logger.getInstance(PerfdProxy.class);
+  }
 
-  @NotNull private static final String MEMORY_PROXY_EXECUTOR_NAME = "MemoryServiceProxy";
+  @NotNull private static final String MEMORY_PROXY_EXECUTOR_NAME = "MemoryServiceProxy-%d";
+  // Legacy allocation tracking data of different sessions can be parsed at the same time.
+  private static final int MEMORY_PROXY_FETCH_THREADS = 2;
 
   @NotNull private Server myProxyServer;
   @NotNull private final List<PerfdProxyService> myProxyServices;
   @NotNull private IDevice myDevice;
+  @NotNull private final RpcLatencyTracker myLatencyTracker = new RpcLatencyTracker();
 
   public PerfdProxy(@NotNull IDevice device, @NotNull ManagedChannel perfdChannel, String channelName) {
     myDevice = device;
@@ -51,14 +61,16 @@ public final class PerfdProxy {
     myProxyServices.add(new CpuServiceProxy(device, perfdChannel, new StudioLegacyCpuTraceProfiler(device,
                                                                                                    CpuServiceGrpc
                                                                                                      .newBlockingStub(perfdChannel))));
-    myProxyServices.add(new MemoryServiceProxy(
-      device, perfdChannel, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat(MEMORY_PROXY_EXECUTOR_NAME).build()),
-      (d, p) -> new StudioLegacyAllocationTracker(d, p)));
+    ThreadPoolExecutor memoryFetchExecutor =
+      new ThreadPoolExecutor(MEMORY_PROXY_FETCH_THREADS, MEMORY_PROXY_FETCH_THREADS, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                             new ThreadFactoryBuilder().setNameFormat(MEMORY_PROXY_EXECUTOR_NAME).build());
+    memoryFetchExecutor.allowCoreThreadTimeOut(true);
+    myProxyServices.add(new MemoryServiceProxy(device, perfdChannel, memoryFetchExecutor, (d, p) -> new StudioLegacyAllocationTracker(d, p)));
     myProxyServices.add(new NetworkServiceProxy(device, perfdChannel));
     myProxyServices.add(new EnergyServiceProxy(device, perfdChannel));
 
     ServerBuilder builder = InProcessServerBuilder.forName(channelName);
-    myProxyServices.forEach(service -> builder.addService(service.getServiceDefinition()));
+    myProxyServices.forEach(service -> builder.addService(ServerInterceptors.intercept(service.getServiceDefinition(), myLatencyTracker)));
     myProxyServer = builder.build();
   }
 
@@ -67,8 +79,20 @@ public final class PerfdProxy {
   }
 
   public void disconnect() {
-    myProxyServices.forEach(PerfdProxyService::disconnect);
+    myProxyServices.forEach(service -> {
+      service.disconnect();
+      service.shutdownCalls();
+    });
     myProxyServer.shutdownNow();
+    getLogger().info(String.format("Call latencies of the PerfdProxy for device %s:%n%s", myDevice, myLatencyTracker));
+  }
+
+  /**
+   * Returns the latencies of the calls which went through this proxy so far.
+   */
+  @NotNull
+  public RpcLatencyTracker getLatencyTracker() {
+    return myLatencyTracker;
   }
 
   @NotNull
@@ -15,10 +15,12 @@
  */
 package com.android.tools.idea.profilers.perfd;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.MethodDescriptor;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerServiceDefinition;
 import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
 import io.grpc.stub.AbstractStub;
 import io.grpc.stub.ClientCalls;
 import io.grpc.stub.ServerCalls;
@@ -27,13 +29,37 @@ import org.jetbrains.annotations.NotNull;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class PerfdProxyService {
+  /**
+   * Number of overridden calls of a service that can run at the same time. The calls of different services don't wait for each other.
+   */
+  static final int DEFAULT_MAX_CONCURRENT_CALLS = 4;
 
   private final ServiceDescriptor myServiceDescriptor;
 
+  // Runs the overridden calls, which can block on the device, e.g. while pulling a trace.
+  @NotNull private final ExecutorService myCallExecutor;
+
   public PerfdProxyService(@NotNull ServiceDescriptor serviceDescriptor) {
+    this(serviceDescriptor, DEFAULT_MAX_CONCURRENT_CALLS);
+  }
+
+  public PerfdProxyService(@NotNull ServiceDescriptor serviceDescriptor, int maxConcurrentCalls) {
     myServiceDescriptor = serviceDescriptor;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls, 1L, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         new ThreadFactoryBuilder()
+                                                           .setNameFormat(serviceDescriptor.getName() + "Proxy-%d")
+                                                           .setDaemon(true)
+                                                           .build());
+    executor.allowCoreThreadTimeOut(true);
+    myCallExecutor = executor;
   }
 
 
@@ -46,6 +72,39 @@ public abstract class PerfdProxyService {
   }
 
   /**
+   * Stops running overridden calls. Called by {@link PerfdProxy} after {@link #disconnect()}.
+   */
+  final void shutdownCalls() {
+    myCallExecutor.shutdownNow();
+  }
+
+  /**
+   * Creates a handler for an overridden unary call, which runs {@code method} on this service's executor instead of the server's thread.
+   * Calls to the device from different services and devices therefore proceed in parallel, while each service is bounded to a fixed
+   * number of concurrent calls. A call waiting on work which is not done by the device, e.g. parsing its data, must register to be
+   * notified of the result and return instead of holding one of those threads.
+   */
+  final <Req, Resp> ServerCallHandler<Req, Resp> asyncUnaryCall(@NotNull ServerCalls.UnaryMethod<Req, Resp> method) {
+    return ServerCalls.asyncUnaryCall((request, observer) -> {
+      try {
+        myCallExecutor.execute(() -> {
+          try {
+            method.invoke(request, observer);
+          }
+          catch (RuntimeException e) {
+            observer.onError(e);
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        // The proxy is disconnecting.
+        observer.onError(Status.UNAVAILABLE.withDescription("The profiler proxy is disconnecting").asRuntimeException());
+      }
+    });
+  }
+
+  /**
+   * Un-mapped unary calls are forwarded asynchronously, so any number of them are in flight over the channel to perfd at the same time.
    * TODO this only handles calls of {@link io.grpc.MethodDescriptor.MethodType.UNARY} type at the moment.
    *
    * @param overrides    a map of overridden descriptor-handlers which do not need forwarding to the stubs.
@@ -32,7 +32,6 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.io.DigestUtil;
 import io.grpc.*;
-import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
@@ -219,15 +218,15 @@ public class ProfilerServiceProxy extends PerfdProxyService
   public ServerServiceDefinition getServiceDefinition() {
     Map<MethodDescriptor, ServerCallHandler> overrides = Maps.newHashMap();
     overrides.put(ProfilerServiceGrpc.METHOD_GET_DEVICES,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getDevices((GetDevicesRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(ProfilerServiceGrpc.METHOD_GET_PROCESSES,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getProcesses((GetProcessesRequest)request, (StreamObserver)observer);
                   }));
     overrides.put(ProfilerServiceGrpc.METHOD_GET_CURRENT_TIME,
-                  ServerCalls.asyncUnaryCall((request, observer) -> {
+                  asyncUnaryCall((request, observer) -> {
                     getCurrentTime((TimeRequest)request, (StreamObserver)observer);
                   }));
     return generatePassThroughDefinitions(overrides, myServiceStub);
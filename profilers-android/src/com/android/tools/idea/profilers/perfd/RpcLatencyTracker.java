@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.perfd;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency of the calls going through a {@link PerfdProxy}, from their start until they are closed, in a histogram per
+ * method. Since there is a proxy per device, this tells which service of which device is slow to respond.
+ */
+public final class RpcLatencyTracker implements ServerInterceptor {
+  private final ConcurrentMap<String, Histogram> myHistograms = new ConcurrentHashMap<>();
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                               Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+    long startTimeNs = System.nanoTime();
+    String methodName = call.getMethodDescriptor().getFullMethodName();
+    return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+      @Override
+      public void close(Status status, Metadata trailers) {
+        record(methodName, System.nanoTime() - startTimeNs);
+        super.close(status, trailers);
+      }
+    }, headers);
+  }
+
+  void record(@NotNull String methodName, long latencyNs) {
+    myHistograms.computeIfAbsent(methodName, name -> new Histogram()).record(latencyNs);
+  }
+
+  /**
+   * Returns the histograms of the methods which were called so far, keyed by full method name.
+   */
+  @NotNull
+  public Map<String, Histogram> getHistograms() {
+    return new TreeMap<>(myHistograms);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    getHistograms().forEach((methodName, histogram) -> builder.append(methodName).append(": ").append(histogram).append('\n'));
+    return builder.toString();
+  }
+
+  /**
+   * Latencies in buckets of powers of two milliseconds: bucket 0 holds the calls under 1ms, bucket {@code i} the calls between
+   * 2^(i-1) and 2^i ms, and the last bucket every longer call.
+   */
+  public static final class Histogram {
+    public static final int BUCKET_COUNT = 16;
+
+    private final AtomicLongArray myBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder myCount = new LongAdder();
+    private final LongAdder myTotalLatencyNs = new LongAdder();
+
+    private void record(long latencyNs) {
+      myBuckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMillis(latencyNs)));
+      myCount.increment();
+      myTotalLatencyNs.add(latencyNs);
+    }
+
+    public long getCount() {
+      return myCount.sum();
+    }
+
+    public long getBucketCount(int bucket) {
+      return myBuckets.get(bucket);
+    }
+
+    public double getMeanLatencyMs() {
+      long count = getCount();
+      return count == 0 ? 0 : myTotalLatencyNs.sum() / (count * 1e6);
+    }
+
+    /**
+     * Returns the upper bound, in milliseconds, of the bucket holding the given percentile of the calls, e.g. 0.99 for the 99th.
+     * The last bucket has no upper bound and returns {@link Long#MAX_VALUE}.
+     */
+    public long getPercentileUpperBoundMs(double percentile) {
+      long count = getCount();
+      long calls = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        calls += getBucketCount(bucket);
+        if (calls > 0 && calls >= percentile * count) {
+          return getUpperBoundMs(bucket);
+        }
+      }
+      return count == 0 ? 0 : Long.MAX_VALUE;
+    }
+
+    static int getBucket(long latencyMs) {
+      return latencyMs < 1 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(latencyMs));
+    }
+
+    static long getUpperBoundMs(int bucket) {
+      return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d calls, mean %.1fms, p50 <%dms, p99 <%dms", getCount(), getMeanLatencyMs(),
+                           getPercentileUpperBoundMs(0.5), getPercentileUpperBoundMs(0.99));
+    }
+  }
+}
@@ -30,8 +30,10 @@ import com.android.tools.profilers.FakeGrpcChannel;
 import com.android.tools.profilers.memory.FakeMemoryService;
 import io.grpc.ManagedChannel;
 import io.grpc.MethodDescriptor;
+import io.grpc.Server;
 import io.grpc.ServerServiceDefinition;
 import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 import org.junit.After;
@@ -42,6 +44,7 @@ import org.junit.Test;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.android.tools.profiler.proto.MemoryProfiler.AllocationsInfo.Status.COMPLETED;
@@ -236,6 +239,59 @@ public class MemoryServiceProxyTest {
     verify(observer6, times(1)).onCompleted();
   }
 
+  @Test
+  public void testCallsWaitingForParsingDoNotHoldCallThreads() throws Exception {
+    int time1 = 5;
+    int time2 = 10;
+    when(myDevice.getClients()).thenReturn(new Client[0]);
+
+    // Complete a tracking session on Process 1, whose data is being parsed
+    myProxy.trackAllocations(
+      TrackAllocationsRequest.newBuilder().setSession(SESSION1).setEnabled(true).setRequestTime(time1).build(),
+      mock(StreamObserver.class));
+    myProxy.trackAllocations(
+      TrackAllocationsRequest.newBuilder().setSession(SESSION1).setEnabled(false).setRequestTime(time2).build(),
+      mock(StreamObserver.class));
+
+    Server server = InProcessServerBuilder.forName("MemoryServiceProxyTestCalls").addService(myProxy.getServiceDefinition()).build();
+    server.start();
+    ManagedChannel channel = InProcessChannelBuilder.forName("MemoryServiceProxyTestCalls").build();
+    try {
+      // Request the events of the session more times than there are threads running the calls of the service
+      LegacyAllocationEventsRequest eventRequest =
+        LegacyAllocationEventsRequest.newBuilder().setSession(SESSION1).setStartTime(time1).setEndTime(time2).build();
+      List<StreamObserver<LegacyAllocationEventsResponse>> eventObservers = new ArrayList<>();
+      for (int i = 0; i < PerfdProxyService.DEFAULT_MAX_CONCURRENT_CALLS + 1; i++) {
+        StreamObserver<LegacyAllocationEventsResponse> observer = mock(StreamObserver.class);
+        MemoryServiceGrpc.newStub(channel).getLegacyAllocationEvents(eventRequest, observer);
+        eventObservers.add(observer);
+      }
+
+      // Other calls still go through while the parsing is not done
+      MemoryServiceGrpc.newBlockingStub(channel).withDeadlineAfter(10, TimeUnit.SECONDS)
+        .forceGarbageCollection(ForceGarbageCollectionRequest.newBuilder().setSession(SESSION1).build());
+      for (StreamObserver<LegacyAllocationEventsResponse> observer : eventObservers) {
+        verify(observer, never()).onCompleted();
+      }
+
+      // The waiting calls reply once the parsing is done
+      myParsingWaitLatch.countDown();
+      myParsingDoneLatch.await();
+      LegacyAllocationEventsResponse expected =
+        LegacyAllocationEventsResponse.newBuilder().setStatus(LegacyAllocationEventsResponse.Status.SUCCESS)
+          .addAllEvents(myAllocationConverter.getAllocationEvents(time1, time2)).build();
+      for (StreamObserver<LegacyAllocationEventsResponse> observer : eventObservers) {
+        verify(observer, timeout(10000)).onNext(expected);
+        verify(observer, timeout(10000)).onCompleted();
+        verify(observer, never()).onError(any());
+      }
+    }
+    finally {
+      channel.shutdownNow();
+      server.shutdownNow();
+    }
+  }
+
   @Test
   public void testLegacyAllocationTrackingReturningNullData() throws Exception {
     int time1 = 5;
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.perfd;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RpcLatencyTrackerTest {
+  @Test
+  public void testBuckets() {
+    assertThat(RpcLatencyTracker.Histogram.getBucket(0)).isEqualTo(0);
+    assertThat(RpcLatencyTracker.Histogram.getBucket(1)).isEqualTo(1);
+    assertThat(RpcLatencyTracker.Histogram.getBucket(2)).isEqualTo(2);
+    assertThat(RpcLatencyTracker.Histogram.getBucket(3)).isEqualTo(2);
+    assertThat(RpcLatencyTracker.Histogram.getBucket(4)).isEqualTo(3);
+    assertThat(RpcLatencyTracker.Histogram.getBucket(Long.MAX_VALUE)).isEqualTo(RpcLatencyTracker.Histogram.BUCKET_COUNT - 1);
+  }
+
+  @Test
+  public void testHistogramsArePerMethod() {
+    RpcLatencyTracker tracker = new RpcLatencyTracker();
+    for (int i = 0; i < 99; i++) {
+      tracker.record("MemoryService/GetData", TimeUnit.MICROSECONDS.toNanos(500));
+    }
+    tracker.record("MemoryService/GetData", TimeUnit.MILLISECONDS.toNanos(100));
+    tracker.record("CpuService/StopProfilingApp", TimeUnit.SECONDS.toNanos(3));
+
+    assertThat(tracker.getHistograms().keySet()).containsExactly("CpuService/StopProfilingApp", "MemoryService/GetData").inOrder();
+    RpcLatencyTracker.Histogram memory = tracker.getHistograms().get("MemoryService/GetData");
+    assertThat(memory.getCount()).isEqualTo(100);
+    assertThat(memory.getBucketCount(0)).isEqualTo(99);
+    assertThat(memory.getPercentileUpperBoundMs(0.5)).isEqualTo(1);
+    assertThat(memory.getPercentileUpperBoundMs(1)).isEqualTo(128);
+    assertThat(memory.getMeanLatencyMs()).isWithin(0.01).of(1.495);
+
+    RpcLatencyTracker.Histogram cpu = tracker.getHistograms().get("CpuService/StopProfilingApp");
+    assertThat(cpu.getCount()).isEqualTo(1);
+    assertThat(cpu.getPercentileUpperBoundMs(0.5)).isEqualTo(4096);
+  }
+}
@@ -29,6 +29,7 @@ public interface FeatureConfig {
   boolean isImportCpuTraceEnabled();
   boolean isJniReferenceTrackingEnabled();
   boolean isLiveAllocationsEnabled();
+  boolean isLiveAllocationsAggregationEnabled();
   boolean isLiveAllocationsSamplingEnabled();
   boolean isMemoryCaptureFilterEnabled();
   boolean isMemorySnapshotEnabled();
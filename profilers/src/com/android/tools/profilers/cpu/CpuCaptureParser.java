@@ -15,9 +15,11 @@
  */
 package com.android.tools.profilers.cpu;
 
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.tools.adtui.model.AspectModel;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.CpuProfiler.CpuProfilerType;
+import com.android.tools.profiler.proto.CpuProfiler.GetTraceResponse;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.cpu.art.ArtTraceParser;
@@ -35,12 +37,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Manages the parsing of traces into {@link CpuCapture} objects and provide a way to retrieve them.
+ *
+ * Parsed captures are kept in memory up to a budget of {@link CaptureNode}s, after which the least recently used ones are evicted.
+ * The trace of an evicted capture stays in its temporary file, and is parsed again from it the next time the capture is requested.
  */
 public class CpuCaptureParser {
 
@@ -58,15 +64,44 @@ public class CpuCaptureParser {
   static final int IMPORTED_TRACE_ID = 42;
 
   /**
-   * Maps a trace id to a corresponding {@link CompletableFuture<CpuCapture>}.
+   * Maximum number of {@link CaptureNode}s of the captures kept in memory. With their data, a node takes in the order of 100 bytes.
+   */
+  @VisibleForTesting
+  static final long MAX_CAPTURE_NODE_COUNT = 2_000_000;
+
+  /**
+   * Maps a trace id to a corresponding {@link CompletableFuture<CpuCapture>}, the least recently requested first.
+   */
+  @GuardedBy("this")
+  private final LinkedHashMap<Integer, CompletableFuture<CpuCapture>> myCaptures;
+
+  /**
+   * Number of {@link CaptureNode}s of each parsed capture in {@link #myCaptures}, by trace id.
    */
-  private final Map<Integer, CompletableFuture<CpuCapture>> myCaptures;
+  @GuardedBy("this")
+  private final Map<Integer, Long> myCaptureNodeCounts = new HashMap<>();
+
+  @GuardedBy("this")
+  private long myTotalCaptureNodeCount;
+
+  /**
+   * Maps the trace id of the captures which were evicted from {@link #myCaptures} to what is needed to parse them again.
+   */
+  @GuardedBy("this")
+  private final Map<Integer, TraceSource> myEvictedCaptures = new HashMap<>();
+
+  private final long myMaxCaptureNodeCount;
 
   /**
    * Maps a trace id to the path of a temporary file containing the trace content.
    */
   private final Map<Integer, String> myTraceFiles;
 
+  /**
+   * Maps the trace id of the traces written to a temporary file to what is needed to parse them again.
+   */
+  private final Map<Integer, TraceSource> myTraceSources = new ConcurrentHashMap<>();
+
   /**
    * Services containing the {@link java.util.concurrent.Executor} responsible for parsing the capture.
    * This is also used for determining if large trace files should be parsed.
@@ -89,9 +124,16 @@ public class CpuCaptureParser {
   private long myParsingStartTimeMs;
 
   public CpuCaptureParser(@NotNull IdeProfilerServices services) {
+    this(services, MAX_CAPTURE_NODE_COUNT);
+  }
+
+  @VisibleForTesting
+  CpuCaptureParser(@NotNull IdeProfilerServices services, long maxCaptureNodeCount) {
     myServices = services;
-    myCaptures = new HashMap<>();
-    myTraceFiles = new HashMap<>();
+    myMaxCaptureNodeCount = maxCaptureNodeCount;
+    myCaptures = new LinkedHashMap<>(16, 0.75f, true);
+    // Written when parsing, on the pool executor
+    myTraceFiles = new ConcurrentHashMap<>();
   }
 
   private static Logger getLogger() {
@@ -103,11 +145,36 @@ public class CpuCaptureParser {
   }
 
   /**
-   * Returns a capture (or a promise of one) in case {@link #parse} was already called for the given trace id.
+   * Returns a capture (or a promise of one) in case {@link #parse} was already called for the given trace id. If the capture was
+   * evicted since then, it starts parsing it again.
    */
   @Nullable
   public CompletableFuture<CpuCapture> getCapture(int traceId) {
-    return myCaptures.get(traceId);
+    TraceSource evictedCapture;
+    synchronized (this) {
+      CompletableFuture<CpuCapture> capture = myCaptures.get(traceId);
+      evictedCapture = capture == null ? myEvictedCaptures.get(traceId) : null;
+      if (evictedCapture == null) {
+        return capture;
+      }
+    }
+
+    updateParsingStateWhenStarting();
+    CompletableFuture<CpuCapture> capture = createCaptureFuture(evictedCapture, traceId);
+    synchronized (this) {
+      // Another thread may have requested the capture in the meantime; if so use theirs, ours completes unused.
+      CompletableFuture<CpuCapture> existingCapture = myCaptures.get(traceId);
+      if (existingCapture != null) {
+        return existingCapture;
+      }
+      putCapture(traceId, capture);
+      return capture;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getTotalCaptureNodeCount() {
+    return myTotalCaptureNodeCount;
   }
 
   @Nullable
@@ -118,8 +185,12 @@ public class CpuCaptureParser {
   /**
    * Abort every capture parsing that might still be in progress.
    */
-  public void abortParsing() {
+  public synchronized void abortParsing() {
     myCaptures.forEach((id, capture) -> {
+      if (capture == null) {
+        // Parsing was declined by the user
+        return;
+      }
       boolean isCaptureCancelled = capture.cancel(true);
       if (!isCaptureCancelled) {
         getLogger().warn(String.format("Parsing of capture %d was not properly cancelled.", id));
@@ -178,13 +249,13 @@ public class CpuCaptureParser {
       Runnable yesCallback = () -> {
         getLogger().warn(String.format("Parsing long (%d bytes) trace file.", fileLength));
         // User decided to proceed. Try parsing the trace file.
-        myCaptures.put(IMPORTED_TRACE_ID, createCaptureFuture(traceFile));
+        putCapture(IMPORTED_TRACE_ID, createCaptureFuture(traceFile));
       };
 
       Runnable noCallback = () -> {
         // User aborted the parsing before it starts. Return null and don't try to parse the file.
         getLogger().warn(String.format("Parsing of a long (%d bytes) trace file was aborted by the user.", fileLength));
-        myCaptures.put(IMPORTED_TRACE_ID, null);
+        putCapture(IMPORTED_TRACE_ID, null);
       };
 
       // Open the dialog warning the user the file is too large and asking them if they want to proceed with parsing.
@@ -192,9 +263,9 @@ public class CpuCaptureParser {
     }
     else {
       // Trace file is not too big to be parsed. Parse it normally.
-      myCaptures.put(IMPORTED_TRACE_ID, createCaptureFuture(traceFile));
+      putCapture(IMPORTED_TRACE_ID, createCaptureFuture(traceFile));
     }
-    return myCaptures.get(IMPORTED_TRACE_ID);
+    return getCapture(IMPORTED_TRACE_ID);
   }
 
   private CompletableFuture<CpuCapture> createCaptureFuture(@NotNull File traceFile) {
@@ -270,31 +341,73 @@ public class CpuCaptureParser {
                                              int traceId,
                                              @NotNull ByteString traceData,
                                              CpuProfilerType profilerType) {
-    if (!myCaptures.containsKey(traceId)) {
+    if (!containsCapture(traceId)) {
       // Trace is not being parsed nor is already parsed. We need to start parsing it.
       if (traceData.size() <= MAX_SUPPORTED_TRACE_SIZE) {
         // Trace size is supported. Start parsing normally and create the future object corresponding to the capture.
-        myCaptures.put(traceId, createCaptureFuture(session, traceId, traceData, profilerType));
+        putCapture(traceId, createCaptureFuture(session, traceId, traceData, profilerType));
       }
       else {
         Runnable yesCallback = () -> {
           getLogger().warn(String.format("Parsing long (%d bytes) trace file.", traceData.size()));
           // User decided to proceed with capture. Start parsing and create the future object corresponding to the capture.
-          myCaptures.put(traceId, createCaptureFuture(session, traceId, traceData, profilerType));
+          putCapture(traceId, createCaptureFuture(session, traceId, traceData, profilerType));
         };
 
         Runnable noCallback = () -> {
           // User aborted the parsing before it starts. Add an entry for the trace id to the map with a null value.
           // This way, next time our model requests this trace capture, we return early.
           getLogger().warn(String.format("Parsing of a long (%d bytes) trace file was aborted by the user.", traceData.size()));
-          myCaptures.put(traceId, null);
+          putCapture(traceId, null);
         };
         // Open the dialog warning the user the trace is too large and asking them if they want to proceed with parsing.
         myServices.openParseLargeTracesDialog(yesCallback, noCallback);
       }
     }
 
-    return myCaptures.get(traceId);
+    return getCapture(traceId);
+  }
+
+  /**
+   * Parses a trace on {@link IdeProfilerServices#getPoolExecutor()} before it is requested, typically the newest one of the session
+   * as it is the most likely to be selected, so that its capture is ready by then. Unlike {@link #parse}, this neither updates the
+   * parsing state nor asks the user about large traces, which are simply not pre-parsed.
+   *
+   * @param traceSupplier supplies the trace data, called on the pool executor
+   */
+  public void preParse(@NotNull Common.Session session, int traceId, @NotNull Supplier<GetTraceResponse> traceSupplier) {
+    myServices.getPoolExecutor().execute(() -> {
+      if (containsCapture(traceId)) {
+        return;
+      }
+      GetTraceResponse trace;
+      try {
+        trace = traceSupplier.get();
+      }
+      catch (RuntimeException e) {
+        getLogger().info(String.format("Trace %d could not be fetched for pre-parsing.", traceId), e);
+        return;
+      }
+      if (trace.getStatus() != GetTraceResponse.Status.SUCCESS || trace.getData().size() > MAX_SUPPORTED_TRACE_SIZE) {
+        return;
+      }
+
+      CompletableFuture<CpuCapture> capture = new CompletableFuture<>();
+      synchronized (this) {
+        if (myCaptures.containsKey(traceId)) {
+          // The capture was requested while we were fetching its trace.
+          return;
+        }
+        putCapture(traceId, capture);
+      }
+      // We are already on the pool executor, parse right away.
+      try {
+        capture.complete(traceBytesToCapture(session, traceId, trace.getData(), trace.getProfilerType()));
+      }
+      catch (Throwable t) {
+        capture.completeExceptionally(t);
+      }
+    });
   }
 
   private CompletableFuture<CpuCapture> createCaptureFuture(@NotNull Common.Session session, int traceId, ByteString traceBytes,
@@ -305,6 +418,99 @@ public class CpuCaptureParser {
     return future;
   }
 
+  /**
+   * Parses again a capture which was evicted, from the file its trace was written to.
+   */
+  private CompletableFuture<CpuCapture> createCaptureFuture(@NotNull TraceSource source, int traceId) {
+    CompletableFuture<CpuCapture> future =
+      CompletableFuture.supplyAsync(() -> traceFileToCapture(source, traceId), myServices.getPoolExecutor());
+    updateParsingStateWhenDone(future);
+    return future;
+  }
+
+  private synchronized boolean containsCapture(int traceId) {
+    return myCaptures.containsKey(traceId);
+  }
+
+  /**
+   * Adds a capture (or a promise of one) to {@link #myCaptures}, replacing the previous one for the same trace id if any.
+   */
+  private synchronized void putCapture(int traceId, @Nullable CompletableFuture<CpuCapture> capture) {
+    myCaptures.put(traceId, capture);
+    myEvictedCaptures.remove(traceId);
+    Long previousCount = myCaptureNodeCounts.remove(traceId);
+    if (previousCount != null) {
+      myTotalCaptureNodeCount -= previousCount;
+    }
+    if (capture != null) {
+      countCaptureNodesWhenDone(traceId, capture);
+    }
+  }
+
+  /**
+   * Once the given capture is parsed, counts its {@link CaptureNode}s and evicts the least recently used captures if the total goes
+   * over {@link #myMaxCaptureNodeCount}.
+   */
+  private void countCaptureNodesWhenDone(int traceId, @NotNull CompletableFuture<CpuCapture> future) {
+    future.thenAccept(capture -> {
+      if (capture == null) {
+        return;
+      }
+      long count = countCaptureNodes(capture);
+      synchronized (this) {
+        // The capture may have been replaced or aborted in the meantime.
+        if (myCaptures.get(traceId) != future) {
+          return;
+        }
+        myCaptureNodeCounts.put(traceId, count);
+        myTotalCaptureNodeCount += count;
+        evictCaptures(traceId);
+      }
+    });
+  }
+
+  /**
+   * Evicts the least recently used captures until their total number of nodes fits in {@link #myMaxCaptureNodeCount}, keeping the
+   * capture which just got parsed, even when it doesn't fit on its own. Captures still being parsed and imported traces (which would
+   * need the user to pick a process again) are never evicted.
+   */
+  @GuardedBy("this")
+  private void evictCaptures(int parsedTraceId) {
+    Iterator<Map.Entry<Integer, CompletableFuture<CpuCapture>>> iterator = myCaptures.entrySet().iterator();
+    while (myTotalCaptureNodeCount > myMaxCaptureNodeCount && iterator.hasNext()) {
+      int traceId = iterator.next().getKey();
+      Long count = myCaptureNodeCounts.get(traceId);
+      TraceSource source = myTraceSources.get(traceId);
+      if (traceId == parsedTraceId || traceId == IMPORTED_TRACE_ID || count == null || source == null) {
+        continue;
+      }
+      getLogger().info(String.format("Evicting capture %d (%d nodes) to stay within %d nodes.", traceId, count, myMaxCaptureNodeCount));
+      iterator.remove();
+      myCaptureNodeCounts.remove(traceId);
+      myTotalCaptureNodeCount -= count;
+      myEvictedCaptures.put(traceId, source);
+    }
+  }
+
+  private static long countCaptureNodes(@NotNull CpuCapture capture) {
+    long count = 0;
+    Deque<CaptureNode> nodes = new ArrayDeque<>();
+    for (CpuThreadInfo thread : capture.getThreads()) {
+      CaptureNode root = capture.getCaptureNode(thread.getId());
+      if (root != null) {
+        nodes.push(root);
+      }
+    }
+    while (!nodes.isEmpty()) {
+      CaptureNode node = nodes.pop();
+      count++;
+      for (CaptureNode child : node.getChildren()) {
+        nodes.push(child);
+      }
+    }
+    return count;
+  }
+
   private CpuCapture traceBytesToCapture(@NotNull Common.Session session, int traceId, @NotNull ByteString traceData,
                                          CpuProfilerType profilerType) {
     // TODO: Remove layers, analyze whether we can keep the whole file in memory.
@@ -314,7 +520,18 @@ public class CpuCaptureParser {
         out.write(traceData.toByteArray());
       }
       myTraceFiles.put(traceId, trace.getAbsolutePath());
+      TraceSource source = new TraceSource(session, profilerType, trace);
+      myTraceSources.put(traceId, source);
+      return traceFileToCapture(source, traceId);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
+  private static CpuCapture traceFileToCapture(@NotNull TraceSource source, int traceId) {
+    try {
+      CpuProfilerType profilerType = source.myProfilerType;
       TraceParser parser;
       if (profilerType == CpuProfilerType.ART) {
         parser = new ArtTraceParser();
@@ -323,16 +540,31 @@ public class CpuCaptureParser {
         parser = new SimpleperfTraceParser();
       }
       else if (profilerType == CpuProfilerType.ATRACE) {
-        parser = new AtraceParser(session.getPid());
+        parser = new AtraceParser(source.mySession.getPid());
       }
       else {
         throw new IllegalStateException("Trace file cannot be parsed. Profiler type (ART, simpleperf, or atrace) needs to be set.");
       }
 
-      return parser.parse(trace, traceId);
+      return parser.parse(source.myTraceFile, traceId);
     }
     catch (IOException | BufferUnderflowException e) {
       throw new IllegalStateException(e);
     }
   }
+
+  /**
+   * What is needed to parse a trace again from the temporary file it was written to.
+   */
+  private static final class TraceSource {
+    @NotNull private final Common.Session mySession;
+    private final CpuProfilerType myProfilerType;
+    @NotNull private final File myTraceFile;
+
+    private TraceSource(@NotNull Common.Session session, CpuProfilerType profilerType, @NotNull File traceFile) {
+      mySession = session;
+      myProfilerType = profilerType;
+      myTraceFile = traceFile;
+    }
+  }
 }
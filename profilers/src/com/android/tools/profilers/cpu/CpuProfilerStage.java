@@ -444,6 +444,14 @@ public class CpuProfilerStage extends Stage implements CodeNavigator.Listener {
       // Set the profiler mode to EXPANDED to make sure that L3 panel is shown.
       setProfilerMode(ProfilerMode.EXPANDED);
     }
+    else {
+      // The newest trace is the one most likely to be selected, parse it in the background so its flame chart shows up right away.
+      int lastTraceId = myTraceIdsIterator.getLastTraceId();
+      if (lastTraceId != TraceIdsIterator.INVALID_TRACE_ID) {
+        GetTraceRequest request = GetTraceRequest.newBuilder().setSession(mySession).setTraceId(lastTraceId).build();
+        myCaptureParser.preParse(mySession, lastTraceId, () -> getCpuClient().getTrace(request));
+      }
+    }
 
     if (getStudioProfilers().getIdeServices().getFeatureConfig().isCpuNewRecordingWorkflowEnabled()) {
       // In the new recording workflow it is always expanded mode.
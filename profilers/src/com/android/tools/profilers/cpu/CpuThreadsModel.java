@@ -19,7 +19,6 @@ import com.android.annotations.VisibleForTesting;
 import com.android.tools.adtui.model.*;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.CpuProfiler;
-import com.android.tools.profiler.proto.CpuServiceGrpc;
 import com.android.tools.profilers.DragAndDropListModel;
 import com.android.tools.profilers.DragAndDropModelListElement;
 import org.jetbrains.annotations.NotNull;
@@ -46,6 +45,11 @@ public class CpuThreadsModel extends DragAndDropListModel<CpuThreadsModel.Ranged
 
   @NotNull private final AspectObserver myAspectObserver;
 
+  /**
+   * Thread states of the session, queried once per range for all the threads.
+   */
+  @NotNull private final ThreadStateTimeline myTimeline;
+
   @VisibleForTesting
   protected final HashMap<Integer, RangedCpuThread> myThreadIdToCpuThread;
 
@@ -55,6 +59,7 @@ public class CpuThreadsModel extends DragAndDropListModel<CpuThreadsModel.Ranged
     mySession = session;
     myAspectObserver = new AspectObserver();
     myThreadIdToCpuThread = new HashMap<>();
+    myTimeline = new ThreadStateTimeline(myStage.getStudioProfilers().getClient().getCpuClient(), mySession);
 
     myRange.addDependency(myAspectObserver).onChange(Range.Aspect.RANGE, this::rangeChanged);
 
@@ -75,23 +80,15 @@ public class CpuThreadsModel extends DragAndDropListModel<CpuThreadsModel.Ranged
       return;
     }
 
-    CpuProfiler.GetThreadsRequest.Builder request = CpuProfiler.GetThreadsRequest.newBuilder()
-                                                                                 .setSession(mySession)
-                                                                                 .setStartTimestamp(
-                                                                                   TimeUnit.MICROSECONDS.toNanos((long)myRange.getMin()))
-                                                                                 .setEndTimestamp(
-                                                                                   TimeUnit.MICROSECONDS.toNanos((long)myRange.getMax()));
-    CpuServiceGrpc.CpuServiceBlockingStub client = myStage.getStudioProfilers().getClient().getCpuClient();
-    CpuProfiler.GetThreadsResponse response = client.getThreads(request.build());
+    // The thread rows read their states for the same range from the timeline, without querying them again.
+    myTimeline.update(TimeUnit.MICROSECONDS.toNanos((long)myRange.getMin()), TimeUnit.MICROSECONDS.toNanos((long)myRange.getMax()));
 
     // Merge the two lists.
     Map<Integer, RangedCpuThread> requestedThreadsRangedCpuThreads = new HashMap<>();
-    for (CpuProfiler.GetThreadsResponse.Thread newThread : response.getThreadsList()) {
-      RangedCpuThread cpuThread = myThreadIdToCpuThread.computeIfAbsent(newThread.getTid(),
-                                                                        id -> new RangedCpuThread(myRange, newThread.getTid(),
-                                                                                                  newThread.getName()));
-      requestedThreadsRangedCpuThreads.put(newThread.getTid(), cpuThread);
-    }
+    myTimeline.getThreadNames().forEach((tid, name) -> {
+      RangedCpuThread cpuThread = myThreadIdToCpuThread.computeIfAbsent(tid, id -> new RangedCpuThread(myRange, tid, name));
+      requestedThreadsRangedCpuThreads.put(tid, cpuThread);
+    });
 
     // Find elements that already exist and remove them from the incoming set.
     for (int i = 0; i < getSize(); i++) {
@@ -215,8 +212,7 @@ public class CpuThreadsModel extends DragAndDropListModel<CpuThreadsModel.Ranged
       myModel = new StateChartModel<>();
       if (capture == null) {
         // Capture is null for non-imported traces
-        ThreadStateDataSeries threadStateDataSeries =
-          new ThreadStateDataSeries(myStage.getStudioProfilers().getClient().getCpuClient(), mySession, myThreadId);
+        ThreadStateDataSeries threadStateDataSeries = new ThreadStateDataSeries(myTimeline, myThreadId);
         myAtraceDataSeries = new AtraceDataSeries<>(myStage, (atraceCapture) -> atraceCapture.getThreadStatesForThread(myThreadId));
         mySeries = new MergeCaptureDataSeries<>(myStage, threadStateDataSeries, myAtraceDataSeries);
         // For non-imported traces, the main thread ID is equal to the process ID of the current session
@@ -18,9 +18,11 @@ package com.android.tools.profilers.cpu;
 import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Implementers of this class should implement {@link #inMemoryDataList}, which should return all the {@link DataSeries} that would be
@@ -32,30 +34,58 @@ abstract class InMemoryDataSeries<T> implements DataSeries<T> {
   public List<SeriesData<T>> getDataForXRange(Range xRange) {
     long min = (long)xRange.getMin();
     long max = (long)xRange.getMax();
-    List<SeriesData<T>> series = new ArrayList<>();
     List<SeriesData<T>> seriesDataList = inMemoryDataList();
     if (seriesDataList.isEmpty()) {
-      return series;
+      return new ArrayList<>();
     }
-    for (int i = 0; i < seriesDataList.size() - 1; i++) {
-      SeriesData<T> data = seriesDataList.get(i);
-      SeriesData<T> nextData = seriesDataList.get(i + 1);
-      // If our series overlaps with the start of the range upto excluding the end. We add the series.
-      if (data.x >= max) {
-        break;
+    if (!(seriesDataList instanceof RandomAccess)) {
+      return getDataForXRangeLinear(seriesDataList, min, max);
+    }
+    // The series is sorted by x. Start with the last element at or before min, which overlaps the start of the range, or the first
+    // element if there is none, and stop before the first element at or after max.
+    int first = Math.max(0, indexOfFirstAfter(seriesDataList, min) - 1);
+    int end = indexOfFirstAfter(seriesDataList, max - 1);
+    return first < end ? new ArrayList<>(seriesDataList.subList(first, end)) : new ArrayList<>();
+  }
+
+  /**
+   * Returns the index of the first element of the sorted list with an x greater than the given value, or the size of the list.
+   */
+  private static <T> int indexOfFirstAfter(@NotNull List<SeriesData<T>> seriesDataList, long x) {
+    int low = 0;
+    int high = seriesDataList.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (seriesDataList.get(mid).x <= x) {
+        low = mid + 1;
       }
-      // If our next series is greater than our min then we add our current element to the return set. This works because
-      // we want to add the element just before our range starts so checking the next element gives us that.
-      // After that point all elements will be greater than our min until our current element is > than our max in which case
-      // we break out of the loop.
-      if (nextData.x > min) {
-        series.add(data);
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static <T> List<SeriesData<T>> getDataForXRangeLinear(@NotNull List<SeriesData<T>> seriesDataList, long min, long max) {
+    List<SeriesData<T>> series = new ArrayList<>();
+    SeriesData<T> data = null;
+    for (SeriesData<T> nextData : seriesDataList) {
+      // If our series overlaps with the start of the range upto excluding the end. We add the series.
+      if (data != null) {
+        if (data.x >= max) {
+          return series;
+        }
+        // If our next series is greater than our min then we add our current element to the return set. This works because
+        // we want to add the element just before our range starts so checking the next element gives us that.
+        if (nextData.x > min) {
+          series.add(data);
+        }
       }
+      data = nextData;
     }
-    SeriesData<T> lastElement = seriesDataList.get(seriesDataList.size() - 1);
     // Always add the last element if it is less than the max.
-    if (lastElement.x < max) {
-      series.add(lastElement);
+    if (data.x < max) {
+      series.add(data);
     }
     return series;
   }
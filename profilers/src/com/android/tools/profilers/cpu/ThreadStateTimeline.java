@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.CpuProfiler;
+import com.android.tools.profiler.proto.CpuProfiler.*;
+import com.android.tools.profiler.proto.CpuServiceGrpc;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread states of every thread of a session, shared by the {@link ThreadStateDataSeries} of all the threads of a
+ * {@link CpuThreadsModel}.
+ *
+ * Every thread row asks for its states in the same range on every frame. Instead of having each of them query the threads of the whole
+ * process and discard all but one, the timeline makes a single {@code getThreads} and {@code getTraceInfo} call per range and splits the
+ * response into compact per-thread arrays, which all the rows read from. When the range moves forward, as it does when following live
+ * data, only its end is queried again and appended to the arrays.
+ *
+ * This relies on {@code getThreads} returning, for every thread, its state at the start of the requested range followed by the states it
+ * changed to within the range.
+ */
+public class ThreadStateTimeline {
+  /**
+   * How far back from the end of the last queried range a forward update queries again, to pick up the states which reached the
+   * datastore after that range was queried.
+   */
+  @VisibleForTesting
+  static final long LATE_DATA_NS = TimeUnit.SECONDS.toNanos(1);
+
+  @NotNull private final CpuServiceGrpc.CpuServiceBlockingStub myClient;
+  @NotNull private final Common.Session mySession;
+
+  /**
+   * States of the threads returned for the last queried range, keyed by tid, in the order of the response.
+   */
+  @NotNull private Map<Integer, ThreadStates> myThreads = new LinkedHashMap<>();
+  /**
+   * Start and end times, in microseconds, of the captures which include each thread, as consecutive pairs.
+   */
+  @NotNull private Map<Integer, TLongArrayList> myCaptureTimes = new HashMap<>();
+  /**
+   * Range covered by {@link #myThreads}, in nanoseconds. Every thread keeps the state it was in at {@link #myStartNs}, but none before.
+   */
+  private long myStartNs;
+  private long myEndNs;
+  private boolean myHasData;
+
+  public ThreadStateTimeline(@NotNull CpuServiceGrpc.CpuServiceBlockingStub client, @NotNull Common.Session session) {
+    myClient = client;
+    mySession = session;
+  }
+
+  /**
+   * Makes the timeline cover the given range, querying the part of it which isn't covered yet.
+   */
+  public synchronized void update(long startNs, long endNs) {
+    if (myHasData && startNs == myStartNs && endNs == myEndNs) {
+      return;
+    }
+
+    Map<Integer, ThreadStates> threads = new LinkedHashMap<>();
+    if (myHasData && startNs >= myStartNs && startNs <= myEndNs && endNs >= myEndNs) {
+      // The range moved forward: only query its end, plus a bit of what we already have in case some states were late.
+      long queryStartNs = Math.max(myStartNs, myEndNs - LATE_DATA_NS);
+      for (GetThreadsResponse.Thread thread : getThreads(queryStartNs, endNs)) {
+        ThreadStates states = myThreads.get(thread.getTid());
+        if (states == null) {
+          states = new ThreadStates(thread.getName());
+          states.append(thread.getActivitiesList(), Long.MIN_VALUE);
+        }
+        else {
+          states.truncateAfter(queryStartNs);
+          states.append(thread.getActivitiesList(), queryStartNs);
+        }
+        threads.put(thread.getTid(), states);
+      }
+      // The query doesn't return the threads which were already dead at its start. Keep the ones which died within the range.
+      myThreads.forEach((tid, states) -> {
+        if (!threads.containsKey(tid) && states.getLastTimestamp() >= startNs) {
+          threads.put(tid, states);
+        }
+      });
+    }
+    else {
+      for (GetThreadsResponse.Thread thread : getThreads(startNs, endNs)) {
+        ThreadStates states = new ThreadStates(thread.getName());
+        states.append(thread.getActivitiesList(), Long.MIN_VALUE);
+        threads.put(thread.getTid(), states);
+      }
+    }
+    for (ThreadStates states : threads.values()) {
+      states.dropBefore(startNs);
+    }
+
+    myThreads = threads;
+    myCaptureTimes = getCaptureTimes(startNs, endNs);
+    myStartNs = startNs;
+    myEndNs = endNs;
+    myHasData = true;
+  }
+
+  /**
+   * Returns the tids and names of the threads in the last range passed to {@link #update(long, long)}, in the order of the response.
+   */
+  @NotNull
+  public synchronized Map<Integer, String> getThreadNames() {
+    Map<Integer, String> names = new LinkedHashMap<>();
+    myThreads.forEach((tid, states) -> names.put(tid, states.myName));
+    return names;
+  }
+
+  /**
+   * Returns the states of the given thread in the given range, marking the ones within captures. Ranges inside of the one the timeline
+   * covers are answered without querying anything.
+   */
+  @NotNull
+  public synchronized List<SeriesData<CpuProfilerStage.ThreadState>> getStates(int tid, long startNs, long endNs) {
+    if (!myHasData || startNs < myStartNs || endNs > myEndNs) {
+      update(startNs, endNs);
+    }
+
+    List<SeriesData<CpuProfilerStage.ThreadState>> data = new ArrayList<>();
+    ThreadStates states = myThreads.get(tid);
+    if (states == null) {
+      return data;
+    }
+
+    TLongArrayList captureTimes = getCaptureTimes(tid, TimeUnit.NANOSECONDS.toMicros(startNs), TimeUnit.NANOSECONDS.toMicros(endNs));
+    // Like getThreads, start with the state the thread was in at the start of the range, if any.
+    int i = Math.max(0, states.indexOfLastAtOrBefore(startNs));
+    int end = states.indexOfLastAtOrBefore(endNs) + 1;
+    int j = 0;
+    boolean inCapture = false;
+    GetThreadsResponse.State state = GetThreadsResponse.State.UNSPECIFIED;
+    while (i < end) {
+      long timestamp = TimeUnit.NANOSECONDS.toMicros(Math.max(states.myTimestamps[i], startNs));
+      long captureTime = j < captureTimes.size() ? captureTimes.get(j) : Long.MAX_VALUE;
+
+      long time;
+      if (captureTime < timestamp) {
+        inCapture = !inCapture;
+        time = captureTime;
+        j++;
+      }
+      else {
+        state = states.myStates[i];
+        time = timestamp;
+        i++;
+      }
+      // We shouldn't add an activity if capture has started before the first activity for the current thread.
+      if (state != GetThreadsResponse.State.UNSPECIFIED) {
+        data.add(new SeriesData<>(time, getState(state, inCapture)));
+      }
+    }
+    while (j < captureTimes.size()) {
+      inCapture = !inCapture;
+      data.add(new SeriesData<>(captureTimes.get(j), getState(state, inCapture)));
+      j++;
+    }
+    return data;
+  }
+
+  @NotNull
+  private List<GetThreadsResponse.Thread> getThreads(long startNs, long endNs) {
+    return myClient.getThreads(GetThreadsRequest.newBuilder()
+                                                .setSession(mySession)
+                                                .setStartTimestamp(startNs)
+                                                .setEndTimestamp(endNs)
+                                                .build()).getThreadsList();
+  }
+
+  @NotNull
+  private Map<Integer, TLongArrayList> getCaptureTimes(long startNs, long endNs) {
+    GetTraceInfoResponse traces = myClient.getTraceInfo(GetTraceInfoRequest.newBuilder()
+                                                                           .setSession(mySession)
+                                                                           .setFromTimestamp(startNs)
+                                                                           .setToTimestamp(endNs)
+                                                                           .build());
+    Map<Integer, TLongArrayList> captureTimes = new HashMap<>();
+    for (TraceInfo traceInfo : traces.getTraceInfoList()) {
+      TIntHashSet tids = new TIntHashSet();
+      for (CpuProfiler.Thread thread : traceInfo.getThreadsList()) {
+        if (tids.add(thread.getTid())) {
+          TLongArrayList times = captureTimes.computeIfAbsent(thread.getTid(), tid -> new TLongArrayList());
+          times.add(TimeUnit.NANOSECONDS.toMicros(traceInfo.getFromTimestamp()));
+          times.add(TimeUnit.NANOSECONDS.toMicros(traceInfo.getToTimestamp()));
+        }
+      }
+    }
+    return captureTimes;
+  }
+
+  /**
+   * Returns the start and end times of the captures including the given thread which overlap the given range.
+   */
+  @NotNull
+  private TLongArrayList getCaptureTimes(int tid, long startUs, long endUs) {
+    TLongArrayList times = myCaptureTimes.get(tid);
+    if (times == null) {
+      return new TLongArrayList(0);
+    }
+    TLongArrayList overlapping = new TLongArrayList(times.size());
+    for (int i = 0; i < times.size(); i += 2) {
+      if (times.get(i) <= endUs && times.get(i + 1) >= startUs) {
+        overlapping.add(times.get(i));
+        overlapping.add(times.get(i + 1));
+      }
+    }
+    return overlapping;
+  }
+
+  private static CpuProfilerStage.ThreadState getState(GetThreadsResponse.State state, boolean captured) {
+    switch (state) {
+      case RUNNING:
+        return captured ? CpuProfilerStage.ThreadState.RUNNING_CAPTURED : CpuProfilerStage.ThreadState.RUNNING;
+      case DEAD:
+        return captured ? CpuProfilerStage.ThreadState.DEAD_CAPTURED : CpuProfilerStage.ThreadState.DEAD;
+      case SLEEPING:
+        return captured ? CpuProfilerStage.ThreadState.SLEEPING_CAPTURED : CpuProfilerStage.ThreadState.SLEEPING;
+      case WAITING:
+        return captured ? CpuProfilerStage.ThreadState.WAITING_CAPTURED : CpuProfilerStage.ThreadState.WAITING;
+      default:
+        // TODO: Use colors that have been agreed in design review.
+        return CpuProfilerStage.ThreadState.UNKNOWN;
+    }
+  }
+
+  /**
+   * The states of a thread, sorted by timestamp, as parallel arrays.
+   */
+  private static final class ThreadStates {
+    @NotNull private final String myName;
+    @NotNull private long[] myTimestamps = new long[4];
+    @NotNull private GetThreadsResponse.State[] myStates = new GetThreadsResponse.State[4];
+    private int mySize;
+
+    private ThreadStates(@NotNull String name) {
+      myName = name;
+    }
+
+    /**
+     * Appends the activities which happened after {@code afterNs}.
+     */
+    private void append(@NotNull List<GetThreadsResponse.ThreadActivity> activities, long afterNs) {
+      for (GetThreadsResponse.ThreadActivity activity : activities) {
+        if (activity.getTimestamp() <= afterNs) {
+          continue;
+        }
+        if (mySize == myTimestamps.length) {
+          myTimestamps = Arrays.copyOf(myTimestamps, mySize * 2);
+          myStates = Arrays.copyOf(myStates, mySize * 2);
+        }
+        myTimestamps[mySize] = activity.getTimestamp();
+        myStates[mySize] = activity.getNewState();
+        mySize++;
+      }
+    }
+
+    /**
+     * Returns the timestamp of the last state, or {@link Long#MIN_VALUE} if there is none.
+     */
+    private long getLastTimestamp() {
+      return mySize == 0 ? Long.MIN_VALUE : myTimestamps[mySize - 1];
+    }
+
+    private void truncateAfter(long timestampNs) {
+      mySize = indexOfLastAtOrBefore(timestampNs) + 1;
+    }
+
+    /**
+     * Drops the states before the one the thread was in at {@code timestampNs}.
+     */
+    private void dropBefore(long timestampNs) {
+      int first = indexOfLastAtOrBefore(timestampNs);
+      // Only compact the arrays when it frees a good part of them, so that moving forward a little on every frame stays cheap.
+      if (first > 0 && first >= mySize / 2) {
+        mySize -= first;
+        System.arraycopy(myTimestamps, first, myTimestamps, 0, mySize);
+        System.arraycopy(myStates, first, myStates, 0, mySize);
+        Arrays.fill(myStates, mySize, mySize + first, null);
+      }
+    }
+
+    /**
+     * Returns the index of the last state at or before {@code timestampNs}, or -1 if there is none.
+     */
+    private int indexOfLastAtOrBefore(long timestampNs) {
+      int index = Arrays.binarySearch(myTimestamps, 0, mySize, timestampNs);
+      if (index < 0) {
+        return -index - 2;
+      }
+      // Several states can share a timestamp, use the last one.
+      while (index + 1 < mySize && myTimestamps[index + 1] == timestampNs) {
+        index++;
+      }
+      return index;
+    }
+  }
+}
@@ -117,6 +117,13 @@ class TraceIdsIterator {
     return myTraceIds.get(currentTraceIdIndex - 1);
   }
 
+  /**
+   * Returns the ID of the trace which started last, or {@link #INVALID_TRACE_ID} if there is none.
+   */
+  public int getLastTraceId() {
+    return myTraceIds.isEmpty() ? INVALID_TRACE_ID : myTraceIds.get(myTraceIds.size() - 1);
+  }
+
   /**
    * Adds the given trace to {@link #myTraceIds}.
    */
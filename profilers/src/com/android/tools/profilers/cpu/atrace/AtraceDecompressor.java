@@ -27,28 +27,57 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 /**
  * This class takes concatenated compressed atrace files and will on the fly decompress them one line at a time.
- * As lines are requested from nextLine this class will read in a chunk of the compressed atrace file decompress it
- * and return the next line decoded. Each line is returned as a string as the atrace file is encoded as a series of
- * strings.
+ * As lines are requested from {@link #next()} this class inflates the compressed atrace file into large chunks, and returns each
+ * line as a {@link DataSlice} over the chunk it was inflated into, without decoding it into a string.
+ *
+ * The slices handed to the parser stay valid: trebuchet's StreamingReader keeps the last few slices it was given to look back at, so
+ * a chunk is never inflated into again once it is full, a new one is allocated instead and only the partial line at the end of the
+ * previous chunk is copied over.
  */
 public class AtraceDecompressor implements BufferProducer {
-  private static final int BUFFER_SIZE_BYTES = 2048;
-  private byte[] myOutputBuffer = new byte[BUFFER_SIZE_BYTES];
-  private byte[] myInputBuffer = new byte[BUFFER_SIZE_BYTES];
-  private int myInputBufferOffset = BUFFER_SIZE_BYTES; //We have no data available to read so we point to end of buffer.
+  private static final int INPUT_BUFFER_SIZE_BYTES = 64 * 1024;
+  private static final int CHUNK_SIZE_BYTES = 256 * 1024;
+  /**
+   * Due to a bug in StreamingLineReader we need to truncate all lines to 1023 characters including the \n appended to the end.
+   * For more details see (b/77846431)
+   */
+  private static final int MAX_LINE_LENGTH = 1022;
+  private static final String INITIAL_LINE = "# Initial Data Required by Importer";
+
+  private final byte[] myInputBuffer = new byte[INPUT_BUFFER_SIZE_BYTES];
+  /**
+   * Range of {@link #myInputBuffer} which was read from the file but not handed to the inflater yet.
+   */
+  private int myInputStart;
+  private int myInputEnd;
+
+  /**
+   * Chunk the trace is inflated into. Bytes before {@link #myChunkStart} were already returned as lines, bytes between it and
+   * {@link #myChunkEnd} are the start of the next line.
+   */
+  @NotNull private byte[] myChunk = new byte[CHUNK_SIZE_BYTES];
+  private int myChunkStart;
+  private int myChunkEnd;
+
+  /**
+   * The last line found by {@link #findNextLine()}, trimmed, as a range of {@link #myLineBuffer}.
+   */
+  @NotNull private byte[] myLineBuffer = myChunk;
+  private int myLineStart;
+  private int myLineEnd;
+
+  private boolean myInitialLinePending = true;
   private boolean myIsFinished = false;
-  private Queue<String> myLineQueue = new LinkedList<>();
-  private String myLastPartialLine = "";
-  private InputStream myInputStream;
-  private Inflater myInflater;
+  private final InputStream myInputStream;
+  private final Inflater myInflater;
 
   /**
    * The TRACE:\n header comes from atrace when it dumps data to disk. Each compressed chunk starts with this.
@@ -64,9 +93,8 @@ public class AtraceDecompressor implements BufferProducer {
     myInflater = new Inflater();
 
     // Read the initial header of the input file.
-    fillInputBuffer();
-    verifyHeader();
-    myLineQueue.add("# Initial Data Required by Importer");
+    readHeader();
+    setInflaterInput();
   }
 
   public AtraceDecompressor(File file) throws IOException {
@@ -93,113 +121,183 @@ public class AtraceDecompressor implements BufferProducer {
     }
   }
 
-  private void verifyHeader() {
+  /**
+   * Reads the {@link #HEADER} starting a compressed chunk of the file.
+   */
+  private void readHeader() throws IOException {
+    if (!fillInputBuffer(HEADER.size())) {
+      throw new IOException("The trace file ends in the middle of a header.");
+    }
     for (int i = 0; i < HEADER.size(); i++) {
-      assert HEADER.byteAt(i) == myInputBuffer[myInputBufferOffset];
-      myInputBufferOffset++;
+      if (HEADER.byteAt(i) != myInputBuffer[myInputStart + i]) {
+        throw new IOException("The trace file has no atrace header.");
+      }
     }
+    myInputStart += HEADER.size();
   }
 
   /**
-   * Read as much data as we can from our input file, and set a new input buffer.
+   * Reads from our input file until at least {@code minBytes} are available in the input buffer, moving the ones which weren't
+   * handed to the inflater yet to its start first.
+   *
+   * @return false if the file ends before that.
    */
-  private int fillInputBuffer() throws IOException {
-    shift(myInputBuffer, myInputBufferOffset, 0, myInputBuffer.length - myInputBufferOffset);
-    myInputBufferOffset = myInputBuffer.length - myInputBufferOffset;
-    return myInputStream.read(myInputBuffer, myInputBufferOffset, myInputBuffer.length - myInputBufferOffset);
+  private boolean fillInputBuffer(int minBytes) throws IOException {
+    if (myInputStart > 0) {
+      System.arraycopy(myInputBuffer, myInputStart, myInputBuffer, 0, myInputEnd - myInputStart);
+      myInputEnd -= myInputStart;
+      myInputStart = 0;
+    }
+    while (myInputEnd < minBytes) {
+      int read = myInputStream.read(myInputBuffer, myInputEnd, myInputBuffer.length - myInputEnd);
+      if (read < 0) {
+        return false;
+      }
+      myInputEnd += read;
+    }
+    return true;
   }
 
-  /**
-   * Fill data on the inflater from the input buffer.
-   */
-  private void fill() throws IOException {
-    int readAmount = fillInputBuffer();
-    myInflater.setInput(myInputBuffer, 0, readAmount + myInputBufferOffset);
-    myInputBufferOffset = 0;
+  private void setInflaterInput() {
+    myInflater.setInput(myInputBuffer, myInputStart, myInputEnd - myInputStart);
+    myInputStart = myInputEnd;
   }
 
   /**
-   * Move data from one part of an array to another. This is used to shift data left before reading more data from the file.
+   * Inflates the next bytes of the trace into the given buffer, moving on to the next compressed chunk of the file when the current
+   * one is done.
    *
-   * @param data       array to move data around in.
-   * @param srcOffset  offset to start moving data from.
-   * @param destOffset offset to move data to, has to be less than srcOffset.
-   * @param length     amount of data to move.
+   * @return the number of bytes inflated, or -1 at the end of the file.
    */
-  private void shift(byte[] data, int srcOffset, int destOffset, int length) {
-    for (int i = 0; i < length; i++) {
-      data[destOffset + i] = data[srcOffset + i];
+  private int inflate(@NotNull byte[] buffer, int offset, int length) throws IOException, DataFormatException {
+    while (true) {
+      if (myInflater.finished()) {
+        // What the inflater didn't consume belongs to the next chunk, if there is one.
+        myInputStart = myInputEnd - myInflater.getRemaining();
+        if (!fillInputBuffer(1)) {
+          return -1;
+        }
+        readHeader();
+        myInflater.reset();
+        setInflaterInput();
+      }
+      else if (myInflater.needsInput()) {
+        myInputStart = myInputEnd;
+        if (!fillInputBuffer(1)) {
+          // The file was cut in the middle of a chunk, return what we could inflate.
+          return -1;
+        }
+        setInflaterInput();
+      }
+      else if (myInflater.needsDictionary()) {
+        throw new DataFormatException("The trace file requires a preset dictionary.");
+      }
+
+      int inflated = myInflater.inflate(buffer, offset, length);
+      if (inflated > 0) {
+        return inflated;
+      }
     }
   }
 
   /**
-   * This function will decompress the atrace file on demand and return the next line found.
+   * Finds the next line of the trace, inflating more of it as needed, and sets {@link #myLineBuffer}, {@link #myLineStart} and
+   * {@link #myLineEnd} to it.
    *
-   * @return the next line of data from the trace.
+   * @return false if there are no more lines.
    */
-  public String getNextLine() throws IOException, DataFormatException {
-    // Early out if we have no more data to read from the file, and we have no lines in our queue.
-    if (myIsFinished && myLineQueue.isEmpty()) {
-      return null;
-    }
-
-    // If we have more data in the file, and our queue is empty we get the next block of lines.
-    while (myLineQueue.isEmpty()) {
-
-      // If we are finished with our decompression buffer, we either are done with our input,
-      // or we are done with this chunk of the file.
-      if (myInflater.finished()) {
-        // If we have no more input then we are at the end of the file, and have nothing left to
-        // decompress.
-        if (myInputStream.available() == 0) {
-          myIsFinished = true;
-          myInputStream.close();
-          myLineQueue.add(myLastPartialLine);
-          myLastPartialLine = "";
-          break;
+  private boolean findNextLine() throws IOException, DataFormatException {
+    int scanStart = myChunkStart;
+    while (true) {
+      for (int i = scanStart; i < myChunkEnd; i++) {
+        if (myChunk[i] == '\n') {
+          setLine(myChunkStart, i);
+          myChunkStart = i + 1;
+          return true;
         }
-        else {
-
-          // We can get into a state where we read the exact amount of data into our buffer and as we reset to the head of our next
-          // file we want to refill the buffer.
-          if (myInputBufferOffset + HEADER.size() >= myInputBuffer.length) {
-            fillInputBuffer();
-          }
-          // If we are only done with one chunk of the file, then we read the header and reset our
-          // inflater.
-          verifyHeader();
-          myInflater = new Inflater();
+      }
+      scanStart = myChunkEnd;
+
+      if (myIsFinished) {
+        if (myChunkStart == myChunkEnd) {
+          return false;
         }
+        // The last line of the file doesn't have to end with \n.
+        setLine(myChunkStart, myChunkEnd);
+        myChunkStart = myChunkEnd;
+        return true;
       }
 
-      if (myInflater.needsInput()) {
-        fill();
+      if (myChunkEnd == myChunk.length) {
+        // Move the partial line to a new chunk, growing it in the unlikely case of a line longer than a chunk.
+        int partialLength = myChunkEnd - myChunkStart;
+        byte[] chunk = new byte[Math.max(CHUNK_SIZE_BYTES, 2 * partialLength)];
+        System.arraycopy(myChunk, myChunkStart, chunk, 0, partialLength);
+        myChunk = chunk;
+        myChunkStart = 0;
+        myChunkEnd = partialLength;
+        scanStart = partialLength;
       }
 
-      // Need to keep track of where in our buffer the inflater has read to. To do this,
-      // we keep track of the total bytes in the inflater has consumed. So we subtract
-      // the previous total from our new total and add this to our buffer count.
-      int inputBufferTotal = myInflater.getTotalIn();
-      int bytesInOutputBuffer = myInflater.inflate(myOutputBuffer, 0, myOutputBuffer.length);
-      inputBufferTotal = myInflater.getTotalIn() - inputBufferTotal;
-      myInputBufferOffset += inputBufferTotal;
-
-      // Create a string from our decompressed buffer, and split it into the lines for that string.
-      myLastPartialLine += new String(myOutputBuffer, 0, bytesInOutputBuffer, StandardCharsets.UTF_8);
-      // By default string split gets passed 0, this indicates that the string should return minimum number of split lines. -1 indicates
-      // that we want to return the actual number of splits. Allowing the split to handle the case of the last char of \n instead of
-      // dropping it we get an additional line. So foo\nbar\n ends up returning 3 lines ("foo", "bar", "") which works with our
-      // lastIndexOf('\n') substring below.
-      String[] lines = myLastPartialLine.split("\n", -1);
-
-      // Add each line to our queue and keep track of our partial line for the next time we decompress more info.
-      for (int i = 0; i < lines.length - 1; i++) {
-        myLineQueue.add(lines[i].trim());
+      int inflated = inflate(myChunk, myChunkEnd, myChunk.length - myChunkEnd);
+      if (inflated < 0) {
+        myIsFinished = true;
+        myInputStream.close();
+      }
+      else {
+        myChunkEnd += inflated;
       }
+    }
+  }
+
+  private void setLine(int start, int end) {
+    // Trim the same characters String#trim does.
+    while (start < end && (myChunk[start] & 0xFF) <= ' ') {
+      start++;
+    }
+    while (end > start && (myChunk[end - 1] & 0xFF) <= ' ') {
+      end--;
+    }
+    myLineBuffer = myChunk;
+    myLineStart = start;
+    myLineEnd = end;
+  }
 
-      myLastPartialLine = myLastPartialLine.substring(myLastPartialLine.lastIndexOf('\n') + 1);
+  /**
+   * This function will decompress the atrace file on demand and return the next line found.
+   *
+   * @return the next line of data from the trace.
+   */
+  public String getNextLine() throws IOException, DataFormatException {
+    if (myInitialLinePending) {
+      myInitialLinePending = false;
+      return INITIAL_LINE;
+    }
+    if (!findNextLine()) {
+      return null;
     }
-    return myLineQueue.remove();
+    return new String(myLineBuffer, myLineStart, myLineEnd - myLineStart, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the rest of the trace, inflated but not split into lines, to the given stream. The initial line added for the importer is
+   * not written.
+   */
+  public void copyTo(@NotNull OutputStream output) throws IOException, DataFormatException {
+    myInitialLinePending = false;
+    output.write(myChunk, myChunkStart, myChunkEnd - myChunkStart);
+    myChunkStart = myChunkEnd;
+    if (myIsFinished) {
+      return;
+    }
+    // Nothing refers to the inflated bytes once written, so a single buffer is reused for all of them.
+    byte[] buffer = new byte[CHUNK_SIZE_BYTES];
+    int inflated;
+    while ((inflated = inflate(buffer, 0, buffer.length)) >= 0) {
+      output.write(buffer, 0, inflated);
+    }
+    myIsFinished = true;
+    myInputStream.close();
   }
 
   /**
@@ -217,20 +315,32 @@ public class AtraceDecompressor implements BufferProducer {
   }
 
   /**
-   * @return the next line used by {@link BufferProducer}. The parser assumes that each line ends
-   * with \n, so we add a return to the string before returning the next requested slice.
+   * @return the next line used by {@link BufferProducer}. The parser assumes that each line ends with \n, so the slice always includes
+   * one. The byte following the trimmed, and possibly truncated, line is overwritten with it: it is either the line's own \n, one of
+   * its trailing spaces or truncated characters, or free space at the end of the chunk.
    */
   @Nullable
   @Override
   public DataSlice next() {
     try {
-      String line = getNextLine();
-      if (line != null) {
-        // Due to a bug in StreamingLineReader we need to truncate all lines to 1023 characters including the \n appended to the end.
-        // For more details see (b/77846431)
-        byte[] data = String.format("%s\n", line.substring(0, Math.min(1022, line.length()))).getBytes(StandardCharsets.UTF_8);
+      if (myInitialLinePending) {
+        myInitialLinePending = false;
+        byte[] data = (INITIAL_LINE + "\n").getBytes(StandardCharsets.UTF_8);
         return new DataSlice(data, 0, data.length);
       }
+      if (findNextLine()) {
+        byte[] buffer = myLineBuffer;
+        int start = myLineStart;
+        int end = Math.min(myLineEnd, start + MAX_LINE_LENGTH);
+        if (end == buffer.length) {
+          // The line ends the file and fills its chunk, there's no room for the \n.
+          buffer = Arrays.copyOfRange(buffer, start, end + 1);
+          end -= start;
+          start = 0;
+        }
+        buffer[end] = '\n';
+        return new DataSlice(buffer, start, end + 1);
+      }
     }
     catch (IOException | DataFormatException ex) {
       getLogger().error(ex);
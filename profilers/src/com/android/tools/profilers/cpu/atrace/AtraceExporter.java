@@ -15,13 +15,12 @@
  */
 package com.android.tools.profilers.cpu.atrace;
 
-import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.zip.DataFormatException;
 import java.util.zip.DeflaterOutputStream;
 
@@ -30,6 +29,8 @@ import java.util.zip.DeflaterOutputStream;
  * Systrace expects the file to be compressed. The first line should be "# tracer: nop".
  */
 public final class AtraceExporter {
+  private static final int OUTPUT_BUFFER_SIZE_BYTES = 64 * 1024;
+
   /**
    * This method reads data from an {@link AtraceDecompressor} and writes it out compressed to a {@link File}.
    * @param input Input stream to read data from.
@@ -38,18 +39,16 @@ public final class AtraceExporter {
    */
   public static void export(@NotNull FileInputStream input, @NotNull OutputStream output) throws IOException {
     AtraceDecompressor data = new AtraceDecompressor(input);
-    try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(output)) {
-      // The first line is added by the AtraceDecompressor, for the atrace-parser. Systrace will throw an error
-      // if this line is detected in the file parsing so we throw away the line.
-      String line = data.getNextLine();
-      output.write(AtraceDecompressor.HEADER.toByteArray());
-      while (!StringUtil.isEmpty(line = data.getNextLine())) {
-        deflaterOutputStream.write(String.format("%s\n", line).getBytes(StandardCharsets.UTF_8));
-      }
-      deflaterOutputStream.flush();
-      deflaterOutputStream.close();
+    OutputStream bufferedOutput = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE_BYTES);
+    try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(bufferedOutput)) {
+      bufferedOutput.write(AtraceDecompressor.HEADER.toByteArray());
+      // The decompressor adds a first line for the atrace-parser, which Systrace would throw an error on. Copying the inflated
+      // bytes as they are skips it, and doesn't decode the lines just to encode them again.
+      data.copyTo(deflaterOutputStream);
     } catch (IOException | DataFormatException ex) {
       throw new IOException("Failed to export atrace file.", ex);
+    } finally {
+      data.close();
     }
   }
 }
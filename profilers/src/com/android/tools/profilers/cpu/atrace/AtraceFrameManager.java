@@ -19,11 +19,14 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.profilers.cpu.CpuFramesModel;
 import com.intellij.util.Function;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import trebuchet.model.ProcessModel;
 import trebuchet.model.ThreadModel;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
@@ -43,6 +46,11 @@ public class AtraceFrameManager {
 
   private final int myRenderThreadId;
 
+  /**
+   * Index of the slices of each thread frames were looked up on, keyed by thread id.
+   */
+  private final Map<Integer, SliceIndex> mySliceIndices = new HashMap<>();
+
   private final List<AtraceFrame> myMainThreadFrames;
   private final List<AtraceFrame> myRenderThreadFrames;
 
@@ -98,12 +106,12 @@ public class AtraceFrameManager {
                                           long longFrameTimingUs,
                                           AtraceFrame.FrameThread frameThread) {
     List<AtraceFrame> frames = new ArrayList<>();
-    Optional<ThreadModel> activeThread = myProcessModel.getThreads().stream().filter((thread) -> thread.getId() == threadId).findFirst();
-    if (!activeThread.isPresent()) {
+    SliceIndex sliceIndex = getSliceIndex(threadId);
+    if (sliceIndex == null) {
       return frames;
     }
-    new SliceStream(activeThread.get().getSlices()).matchPattern(Pattern.compile(identifierRegEx)).enumerate((sliceGroup) -> {
-      AtraceFrame frame = new AtraceFrame(activeThread.get().getId(), myBootClockSecondsToMonoUs, longFrameTimingUs, frameThread);
+    new SliceStream(sliceIndex).matchPattern(Pattern.compile(identifierRegEx)).enumerate((sliceGroup) -> {
+      AtraceFrame frame = new AtraceFrame(threadId, myBootClockSecondsToMonoUs, longFrameTimingUs, frameThread);
       double startTime = sliceGroup.getStartTime();
       double endTime = sliceGroup.getEndTime();
       frame.addSlice(sliceGroup, new Range(startTime, endTime));
@@ -113,6 +121,23 @@ public class AtraceFrameManager {
     return frames;
   }
 
+  /**
+   * Returns the index of the slices of the given thread, building it the first time, or null if there is no such thread.
+   */
+  @Nullable
+  private synchronized SliceIndex getSliceIndex(int threadId) {
+    SliceIndex index = mySliceIndices.get(threadId);
+    if (index == null) {
+      Optional<ThreadModel> thread = myProcessModel.getThreads().stream().filter((model) -> model.getId() == threadId).findFirst();
+      if (!thread.isPresent()) {
+        return null;
+      }
+      index = new SliceIndex(thread.get().getSlices());
+      mySliceIndices.put(threadId, index);
+    }
+    return index;
+  }
+
   /**
    * @return This function return a list of frames that match the given filter.
    */
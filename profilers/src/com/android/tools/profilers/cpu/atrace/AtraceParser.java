@@ -28,6 +28,7 @@ import trebuchet.util.PrintlnImportFeedback;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -70,7 +71,13 @@ public class AtraceParser implements TraceParser {
    * List of cpu utilization values for a specific process. The values range from 0 -> 100 in increments of CPU count.
    * The value needs to be a long as that is what {@link com.android.tools.adtui.model.RangedContinuousSeries} expects.
    */
-  private final List<SeriesData<Long>> myCpuUtilizationSeries;
+  private List<SeriesData<Long>> myCpuUtilizationSeries;
+
+  /**
+   * Frame series built by {@link #getFrames(AtraceFrameFilterConfig)}, keyed by the filter they were built for. The data series of the
+   * frames ask for them with the same filter on every update.
+   */
+  private final Map<AtraceFrameFilterConfig, List<SeriesData<AtraceFrame>>> myFramesSeries = new ConcurrentHashMap<>();
 
   private int myProcessId;
   /**
@@ -271,6 +278,11 @@ public class AtraceParser implements TraceParser {
    */
   @NotNull
   public List<SeriesData<AtraceFrame>> getFrames(AtraceFrameFilterConfig filter) {
+    return myFramesSeries.computeIfAbsent(filter, this::buildFramesSeries);
+  }
+
+  @NotNull
+  private List<SeriesData<AtraceFrame>> buildFramesSeries(@NotNull AtraceFrameFilterConfig filter) {
     List<SeriesData<AtraceFrame>> framesSeries = new ArrayList<>();
     List<AtraceFrame> framesList = myFrameInfo.buildFramesList(filter);
     // Look at each frame converting them to series data.
@@ -394,6 +406,8 @@ public class AtraceParser implements TraceParser {
       series.value *= (long)(100 / (myModel.getCpus().size() * 1.0));
       return series;
     });
+    // The series was built with insertions in its middle, but it is looked up by index from now on.
+    myCpuUtilizationSeries = new ArrayList<>(myCpuUtilizationSeries);
   }
 
   /**
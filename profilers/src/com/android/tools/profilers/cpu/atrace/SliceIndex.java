@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import trebuchet.model.base.SliceGroup;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * An index over the {@link SliceGroup} trees of a thread, which finds the slices overlapping a time range or having a given name
+ * without walking through all of them.
+ *
+ * Slices are numbered in depth first order, the order {@link SliceStream} enumerates them in, and their start and end times are kept
+ * in arrays. Each list of siblings is also laid out contiguously, sorted by start time and along with the running maximum of their end
+ * times, so the first sibling overlapping a range is found with a binary search. Children are only searched when their parent
+ * overlaps the range, as in a nested containment list. Names are interned into an inverted index, mapping each one to the sorted
+ * numbers of the slices having it.
+ */
+public final class SliceIndex {
+  @NotNull private final SliceGroup[] mySlices;
+  @NotNull private final double[] myStartTimes;
+  @NotNull private final double[] myEndTimes;
+  /**
+   * Number following the last descendant of each slice.
+   */
+  @NotNull private final int[] mySubtreeEnds;
+  /**
+   * Number of the parent of each slice, -1 for the roots.
+   */
+  @NotNull private final int[] myParents;
+  /**
+   * Slice numbers grouped by parent, roots first, each group sorted by start time.
+   */
+  @NotNull private final int[] mySiblings;
+  /**
+   * Running maximum of the end times of the slices in each group of {@link #mySiblings}.
+   */
+  @NotNull private final double[] mySiblingMaxEndTimes;
+  /**
+   * Range of {@link #mySiblings} holding the children of each slice.
+   */
+  @NotNull private final int[] myChildrenStarts;
+  @NotNull private final int[] myChildrenEnds;
+  private final int myRootCount;
+  @NotNull private final Map<String, int[]> mySlicesByName = new HashMap<>();
+
+  public SliceIndex(@NotNull List<? extends SliceGroup> roots) {
+    int count = countSlices(roots);
+    mySlices = new SliceGroup[count];
+    myStartTimes = new double[count];
+    myEndTimes = new double[count];
+    mySubtreeEnds = new int[count];
+    myParents = new int[count];
+    mySiblings = new int[count];
+    mySiblingMaxEndTimes = new double[count];
+    myChildrenStarts = new int[count];
+    myChildrenEnds = new int[count];
+    myRootCount = roots.size();
+
+    Map<String, TIntArrayList> slicesByName = new HashMap<>();
+    int next = 0;
+    for (int i = 0; i < myRootCount; i++) {
+      mySiblings[i] = next;
+      next = addSlice(roots.get(i), -1, next, slicesByName);
+    }
+    slicesByName.forEach((name, slices) -> mySlicesByName.put(name, slices.toNativeArray()));
+
+    // Lay out the children of each slice after the roots, group by group. The children of a slice are the slice following it, the
+    // slice following that child's descendants, and so on until the end of the parent's descendants.
+    next = layOutSiblings(0, myRootCount);
+    for (int i = 0; i < next; i++) {
+      int slice = mySiblings[i];
+      int start = next;
+      for (int child = slice + 1; child < mySubtreeEnds[slice]; child = mySubtreeEnds[child]) {
+        mySiblings[next++] = child;
+      }
+      myChildrenStarts[slice] = start;
+      myChildrenEnds[slice] = layOutSiblings(start, next);
+    }
+  }
+
+  private static int countSlices(@NotNull List<? extends SliceGroup> slices) {
+    int count = slices.size();
+    for (SliceGroup slice : slices) {
+      count += countSlices(slice.getChildren());
+    }
+    return count;
+  }
+
+  /**
+   * Numbers the given slice and its descendants in depth first order, starting with {@code number}.
+   *
+   * @return the number following the last descendant.
+   */
+  private int addSlice(@NotNull SliceGroup slice, int parent, int number, @NotNull Map<String, TIntArrayList> slicesByName) {
+    mySlices[number] = slice;
+    myStartTimes[number] = slice.getStartTime();
+    myEndTimes[number] = slice.getEndTime();
+    myParents[number] = parent;
+    slicesByName.computeIfAbsent(slice.getName(), name -> new TIntArrayList()).add(number);
+    int next = number + 1;
+    for (SliceGroup child : slice.getChildren()) {
+      next = addSlice(child, number, next, slicesByName);
+    }
+    mySubtreeEnds[number] = next;
+    return next;
+  }
+
+  /**
+   * Sorts a group of {@link #mySiblings} by start time, which it usually already is, and computes its running maximum end times.
+   *
+   * @return the end of the group.
+   */
+  private int layOutSiblings(int start, int end) {
+    boolean sorted = true;
+    for (int i = start + 1; i < end && sorted; i++) {
+      sorted = myStartTimes[mySiblings[i - 1]] <= myStartTimes[mySiblings[i]];
+    }
+    if (!sorted) {
+      Integer[] group = new Integer[end - start];
+      for (int i = start; i < end; i++) {
+        group[i - start] = mySiblings[i];
+      }
+      Arrays.sort(group, Comparator.comparingDouble(slice -> myStartTimes[slice]));
+      for (int i = start; i < end; i++) {
+        mySiblings[i] = group[i - start];
+      }
+    }
+    double maxEndTime = Double.NEGATIVE_INFINITY;
+    for (int i = start; i < end; i++) {
+      maxEndTime = Math.max(maxEndTime, myEndTimes[mySiblings[i]]);
+      mySiblingMaxEndTimes[i] = maxEndTime;
+    }
+    return end;
+  }
+
+  public int getSliceCount() {
+    return mySlices.length;
+  }
+
+  /**
+   * Enumerates the slices overlapping the given range, inclusive of min and max, with a name matching the given pattern if there is
+   * one, in depth first order. As when walking the trees, the children of a slice are only enumerated if it overlaps the range too.
+   */
+  @NotNull
+  public SliceStream.EnumerationResult enumerate(@Nullable Pattern pattern,
+                                                 double min,
+                                                 double max,
+                                                 @NotNull Function<SliceGroup, SliceStream.EnumerationResult> action) {
+    if (pattern == null) {
+      return enumerateSiblings(0, myRootCount, min, max, action);
+    }
+
+    int skipUntil = 0;
+    for (int slice : getSlicesMatching(pattern)) {
+      if (slice < skipUntil || !overlapsWithAncestors(slice, min, max)) {
+        continue;
+      }
+      SliceStream.EnumerationResult result = action.apply(mySlices[slice]);
+      if (result == SliceStream.EnumerationResult.TERMINATE) {
+        return result;
+      }
+      if (result == SliceStream.EnumerationResult.SKIP_CHILDREN) {
+        skipUntil = mySubtreeEnds[slice];
+      }
+    }
+    return SliceStream.EnumerationResult.CONTINUE;
+  }
+
+  @NotNull
+  private SliceStream.EnumerationResult enumerateSiblings(int start,
+                                                          int end,
+                                                          double min,
+                                                          double max,
+                                                          @NotNull Function<SliceGroup, SliceStream.EnumerationResult> action) {
+    // Siblings before the first one whose running maximum end time reaches min can't overlap the range.
+    int low = start;
+    int high = end;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mySiblingMaxEndTimes[mid] < min) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+
+    for (int i = low; i < end; i++) {
+      int slice = mySiblings[i];
+      if (myStartTimes[slice] > max) {
+        break;
+      }
+      if (myEndTimes[slice] < min) {
+        continue;
+      }
+      SliceStream.EnumerationResult result = action.apply(mySlices[slice]);
+      if (result == SliceStream.EnumerationResult.TERMINATE) {
+        return result;
+      }
+      if (result != SliceStream.EnumerationResult.SKIP_CHILDREN &&
+          enumerateSiblings(myChildrenStarts[slice], myChildrenEnds[slice], min, max, action) ==
+          SliceStream.EnumerationResult.TERMINATE) {
+        return SliceStream.EnumerationResult.TERMINATE;
+      }
+    }
+    return SliceStream.EnumerationResult.CONTINUE;
+  }
+
+  /**
+   * Returns the numbers of the slices with a name matching the given pattern, in depth first order. The pattern is only matched
+   * against each distinct name once.
+   */
+  @NotNull
+  private int[] getSlicesMatching(@NotNull Pattern pattern) {
+    List<int[]> matching = new ArrayList<>();
+    int count = 0;
+    for (Map.Entry<String, int[]> entry : mySlicesByName.entrySet()) {
+      if (pattern.matcher(entry.getKey()).matches()) {
+        matching.add(entry.getValue());
+        count += entry.getValue().length;
+      }
+    }
+    if (matching.size() == 1) {
+      return matching.get(0);
+    }
+    int[] slices = new int[count];
+    int next = 0;
+    for (int[] sameName : matching) {
+      System.arraycopy(sameName, 0, slices, next, sameName.length);
+      next += sameName.length;
+    }
+    Arrays.sort(slices);
+    return slices;
+  }
+
+  private boolean overlapsWithAncestors(int slice, double min, double max) {
+    for (; slice >= 0; slice = myParents[slice]) {
+      if (myStartTimes[slice] > max || myEndTimes[slice] < min) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
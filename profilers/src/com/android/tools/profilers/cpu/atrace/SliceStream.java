@@ -17,6 +17,7 @@ package com.android.tools.profilers.cpu.atrace;
 
 import com.android.tools.adtui.model.Range;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import trebuchet.model.base.SliceGroup;
 
 import java.util.List;
@@ -24,7 +25,8 @@ import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
- * This class assist with doing a depth first search enumeration of SliceGroups.
+ * This class assist with doing a depth first search enumeration of SliceGroups. The search goes through a {@link SliceIndex}, so only
+ * the slices overlapping the range, or with a matching name, are looked at.
  */
 public final class SliceStream {
 
@@ -43,8 +45,12 @@ public final class SliceStream {
     SKIP_CHILDREN,
   }
   @NotNull
-  private final List<SliceGroup> mySlices;
-  private Pattern myPattern = Pattern.compile(".*");
+  private final SliceIndex myIndex;
+  /**
+   * Pattern the names of the slices must match, any name if null.
+   */
+  @Nullable
+  private Pattern myPattern;
   private Range myRange = new Range(Double.MIN_VALUE, Double.MAX_VALUE);
 
   /**
@@ -52,7 +58,14 @@ public final class SliceStream {
    * @param slices list of slices to perform stream events on.
    */
   public SliceStream(@NotNull List<SliceGroup> slices) {
-    mySlices = slices;
+    this(new SliceIndex(slices));
+  }
+
+  /**
+   * Constructs a default stream over an index of slices, which can be shared by the streams enumerating the same slices.
+   */
+  public SliceStream(@NotNull SliceIndex index) {
+    myIndex = index;
   }
 
   /**
@@ -85,7 +98,7 @@ public final class SliceStream {
    * @param action callback action to perform on each element.
    */
   public void enumerate(@NotNull Function<SliceGroup, EnumerationResult> action) {
-    forEachMatchingSlice(mySlices, myPattern, myRange, action);
+    myIndex.enumerate(myPattern, myRange.getMin(), myRange.getMax(), action);
   }
 
   /**
@@ -93,44 +106,10 @@ public final class SliceStream {
    */
   public SliceGroup findFirst() {
     SliceGroup[] slices = new SliceGroup[1];
-    forEachMatchingSlice(mySlices, myPattern, myRange, (sliceGroup) -> {
+    enumerate((sliceGroup) -> {
       slices[0] = sliceGroup;
       return EnumerationResult.TERMINATE;
     });
     return slices[0];
   }
-
-  /**
-   * A helper function for enumerating slices by a filter. The function passed in receives each slice with a name matching the filter,
-   * and is expected to return an {@link EnumerationResult} for the enumeration to continue, skip children, stop the enumeration.
-   *
-   * @param sliceGroups the group of slices to perform a depth first search on.
-   * @param pattern     the regex filter restrict the action callback to.
-   * @param range       the range to restrict the search to.
-   * @param action      the action to perform on each slice matching the name criteria.
-   */
-  private static EnumerationResult forEachMatchingSlice(@NotNull List<SliceGroup> sliceGroups,
-                                                        @NotNull Pattern pattern,
-                                                        @NotNull Range range,
-                                                        Function<SliceGroup, EnumerationResult> action) {
-    for (SliceGroup slice : sliceGroups) {
-      if (slice.getStartTime() <= range.getMax() && slice.getEndTime() >= range.getMin()) {
-        boolean skipChildren = false;
-        if (pattern.matcher(slice.getName()).matches()) {
-          EnumerationResult continueResult = action.apply(slice);
-          if (continueResult == EnumerationResult.TERMINATE) {
-            return continueResult;
-          }
-          skipChildren = continueResult == EnumerationResult.SKIP_CHILDREN;
-        }
-        if (!skipChildren) {
-          EnumerationResult result = forEachMatchingSlice(slice.getChildren(), pattern, range, action);
-          if (result == EnumerationResult.TERMINATE) {
-            return result;
-          }
-        }
-      }
-    }
-    return EnumerationResult.CONTINUE;
-  }
 }
@@ -22,7 +22,9 @@ import org.jetbrains.annotations.Nullable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Classifies {@link InstanceObject}s based on their {@link Class}.
@@ -32,6 +34,10 @@ public class ClassSet extends ClassifierSet {
 
   @NotNull private final ClassDb.ClassEntry myClassEntry;
 
+  // Set when this ClassSet was populated by aggregated counts, the instances are then only loaded on demand.
+  @Nullable private InstanceLoader myInstanceLoader;
+  private boolean myInstancesLoading;
+
   @NotNull
   public static Classifier createDefaultClassifier() {
     return new ClassClassifier();
@@ -47,6 +53,85 @@ public class ClassSet extends ClassifierSet {
     return myClassEntry;
   }
 
+  /**
+   * Add pre-aggregated counts of the instances of this class. The instances themselves are fetched via {@code instanceLoader} the first
+   * time they are listed, i.e. when the class is expanded, and are discarded whenever the counts change. Until they are loaded, the
+   * class lists no instances. Selection and containment checks are answered from the aggregates.
+   */
+  public void addAggregate(int snapshotCount,
+                           int deltaAllocations,
+                           int deltaDeallocations,
+                           long nativeSize,
+                           long shallowSize,
+                           long retainedSize,
+                           int instancesWithStackInfo,
+                           @NotNull InstanceLoader instanceLoader) {
+    addAggregate(snapshotCount, deltaAllocations, deltaDeallocations, nativeSize, shallowSize, retainedSize, instancesWithStackInfo);
+    mySnapshotInstances.clear();
+    myDeltaInstances.clear();
+    myInstanceLoader = instanceLoader;
+    myInstancesLoading = false;
+  }
+
+  @Override
+  public void clearClassifierSets() {
+    super.clearClassifierSets();
+    myInstanceLoader = null;
+    myInstancesLoading = false;
+  }
+
+  @Override
+  public int getInstancesCount() {
+    ensureInstancesLoaded();
+    return super.getInstancesCount();
+  }
+
+  @NotNull
+  @Override
+  public Stream<InstanceObject> getInstancesStream() {
+    ensureInstancesLoaded();
+    return super.getInstancesStream();
+  }
+
+  @Nullable
+  @Override
+  public ClassifierSet findContainingClassifierSet(@NotNull InstanceObject target) {
+    if (myInstanceLoader != null) {
+      // Answer from the aggregates rather than fetching the instances: only instances of this class can be in this set.
+      return !isEmpty() && myClassEntry.equals(target.getClassEntry()) ? this : null;
+    }
+    return super.findContainingClassifierSet(target);
+  }
+
+  @Override
+  protected boolean hasUnloadedInstances() {
+    return myInstanceLoader != null;
+  }
+
+  @Override
+  protected boolean containsClassSet(@NotNull ClassDb.ClassEntry classEntry) {
+    return myClassEntry.equals(classEntry);
+  }
+
+  private void ensureInstancesLoaded() {
+    if (myInstanceLoader == null || myInstancesLoading) {
+      return;
+    }
+    InstanceLoader instanceLoader = myInstanceLoader;
+    myInstancesLoading = true;
+    instanceLoader.loadInstances((snapshotInstances, deltaInstances) -> {
+      if (myInstanceLoader != instanceLoader) {
+        // The aggregates changed while loading, these instances are stale.
+        return;
+      }
+      myInstanceLoader = null;
+      myInstancesLoading = false;
+      // The counts are already accounted for by the aggregates.
+      mySnapshotInstances.addAll(snapshotInstances);
+      myDeltaInstances.addAll(deltaInstances);
+    });
+  }
+
   @NotNull
   @Override
   public Classifier createSubClassifier() {
@@ -70,13 +155,28 @@ public class ClassSet extends ClassifierSet {
     return filter.matches(myClassEntry.getClassName());
   }
 
-  private static final class ClassClassifier extends Classifier {
+  /**
+   * Fetches the instances of a {@link ClassSet} which only holds aggregated counts.
+   */
+  public interface InstanceLoader {
+    /**
+     * Starts fetching the instances, then passes the snapshot and delta instances to {@code onLoaded} on the thread the {@link ClassSet}
+     * is used from.
+     */
+    void loadInstances(@NotNull BiConsumer<List<InstanceObject>, List<InstanceObject>> onLoaded);
+  }
+
+  static final class ClassClassifier extends Classifier {
     @NotNull private final Map<ClassDb.ClassEntry, ClassSet> myClassMap = new LinkedHashMap<>();
 
     @Nullable
     @Override
     public ClassifierSet getClassifierSet(@NotNull InstanceObject instance, boolean createIfAbsent) {
-      ClassDb.ClassEntry classEntry = instance.getClassEntry();
+      return getClassSet(instance.getClassEntry(), createIfAbsent);
+    }
+
+    @Nullable
+    ClassSet getClassSet(@NotNull ClassDb.ClassEntry classEntry, boolean createIfAbsent) {
       ClassSet classSet = myClassMap.get(classEntry);
       if (classSet == null && createIfAbsent) {
         classSet = new ClassSet(classEntry);
@@ -168,6 +168,27 @@ public abstract class ClassifierSet implements MemoryObject {
     myNeedsRefiltering = true;
   }
 
+  /**
+   * Update the accounting of the "total" values with pre-aggregated counts, without the instances they were computed from.
+   * Each value is a signed change to the current one.
+   */
+  protected void addAggregate(int snapshotCount,
+                              int deltaAllocations,
+                              int deltaDeallocations,
+                              long nativeSize,
+                              long shallowSize,
+                              long retainedSize,
+                              int instancesWithStackInfo) {
+    mySnapshotObjectCount += snapshotCount;
+    myDeltaAllocations += deltaAllocations;
+    myDeltaDeallocations += deltaDeallocations;
+    myTotalNativeSize += nativeSize;
+    myTotalShallowSize += shallowSize;
+    myTotalRetainedSize += retainedSize;
+    myInstancesWithStackInfoCount += instancesWithStackInfo;
+    myNeedsRefiltering = true;
+  }
+
   // Add delta alloc information into the ClassifierSet
   // Return true if the set did not contain the instance prior to invocation
   public boolean addDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
@@ -277,6 +298,7 @@ public abstract class ClassifierSet implements MemoryObject {
     mySnapshotObjectCount = 0;
     myDeltaAllocations = 0;
     myDeltaDeallocations = 0;
+    myTotalNativeSize = 0;
     myTotalShallowSize = 0;
     myTotalRetainedSize = 0;
     myInstancesWithStackInfoCount = 0;
@@ -392,6 +414,12 @@ public abstract class ClassifierSet implements MemoryObject {
    * {@code targetSet}'s immediate children.
    */
   public boolean isSupersetOf(@NotNull ClassifierSet targetSet) {
+    if (targetSet instanceof ClassSet && (hasUnloadedInstances() || targetSet.hasUnloadedInstances())) {
+      // Some instances are only known by their aggregated counts. Don't fetch them just to compare, a class' instances all end up in
+      // the ClassSet of that class.
+      return containsClassSet(((ClassSet)targetSet).getClassEntry());
+    }
+
     // TODO perhaps not use getImmediateInstances if we want this to work across all inheritors of ClassifierSet?
     if (getInstancesCount() < targetSet.getInstancesCount()) {
       return false;
@@ -401,6 +429,23 @@ public abstract class ClassifierSet implements MemoryObject {
     return targetSet.getInstancesStream().allMatch(instances::contains);
   }
 
+  /**
+   * Whether some of the instances of this set or its descendants are only accounted for by aggregated counts, see
+   * {@link ClassSet#addAggregate}.
+   */
+  protected boolean hasUnloadedInstances() {
+    return myClassifier != null && myClassifier.getAllClassifierSets().stream().anyMatch(ClassifierSet::hasUnloadedInstances);
+  }
+
+  /**
+   * Whether this set or one of its descendants is the {@link ClassSet} of {@code classEntry}.
+   */
+  protected boolean containsClassSet(@NotNull ClassDb.ClassEntry classEntry) {
+    // Package and callstack sets are only partitioned once their children are needed.
+    ensurePartition();
+    return myClassifier.getAllClassifierSets().stream().anyMatch(set -> set.containsClassSet(classEntry));
+  }
+
   /**
    * Force the instances of this node to be partitioned.
    */
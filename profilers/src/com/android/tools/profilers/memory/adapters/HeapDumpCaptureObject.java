@@ -15,13 +15,16 @@
  */
 package com.android.tools.profilers.memory.adapters;
 
+import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.perflib.heap.ClassObj;
 import com.android.tools.perflib.heap.Heap;
 import com.android.tools.perflib.heap.Instance;
 import com.android.tools.perflib.heap.Snapshot;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
+import com.android.tools.perflib.heap.io.HprofBuffer;
 import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
@@ -29,21 +32,33 @@ import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.memory.MemoryProfiler;
+import com.android.tools.profilers.memory.MemoryProfilerAspect;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGrouping;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.*;
 
 public class HeapDumpCaptureObject implements CaptureObject {
+  private static Logger getLogger() {
+    return Logger.getInstance(HeapDumpCaptureObject.class);
+  }
 
   @NotNull
   private final MemoryServiceBlockingStub myClient;
@@ -57,9 +72,14 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   private final Map<Integer, HeapSet> myHeapSets = new HashMap<>();
 
+  // All the heaps of the snapshot, including the default heap when it is hidden from myHeapSets.
+  @NotNull
+  private final Map<Heap, HeapSet> myAllHeapSets = new HashMap<>();
+
   @NotNull
   private final Map<ClassObj, InstanceObject> myClassObjectIndex = new HashMap<>();
 
+  // Instances are only wrapped into InstanceObjects when they are first needed, see getOrCreateInstanceObject.
   @NotNull
   private final Map<Instance, InstanceObject> myInstanceIndex = new HashMap<>();
 
@@ -77,11 +97,27 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   private volatile boolean myIsLoadingError = false;
 
+  private volatile boolean myIsLoadCancelled = false;
+
+  // Retained sizes and depths of the instances, computed when loading.
+  @Nullable
+  private volatile HeapDumpDominators myDominators;
+
   private boolean myHasNativeAllocations;
 
+  // Holds the content of the heap dump, which perflib reads the instances' values from for as long as the capture is loaded.
+  @Nullable
+  private HprofBuffer myBuffer;
+
+  @Nullable
+  private File myDumpFile;
+
   @NotNull
   private final MemoryProfilerStage myStage;
 
+  @NotNull
+  private final AspectObserver myAspectObserver = new AspectObserver();
+
   public HeapDumpCaptureObject(@NotNull MemoryServiceBlockingStub client,
                                @NotNull Common.Session session,
                                @NotNull HeapDumpInfo heapDumpInfo,
@@ -190,7 +226,8 @@ public class HeapDumpCaptureObject implements CaptureObject {
       return false;
     }
 
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
+    HprofBuffer buffer = createBuffer(response);
+    myBuffer = buffer;
     Snapshot snapshot;
     NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
     if (myProguardMap != null) {
@@ -199,11 +236,17 @@ public class HeapDumpCaptureObject implements CaptureObject {
     else {
       snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Collections.singletonList(nativeRegistryPostProcessor));
     }
-    snapshot.computeDominators();
+    try {
+      myDominators = HeapDumpDominators.getOrCompute(getDominatorsKey(response), snapshot, () -> myIsLoadCancelled);
+    }
+    catch (CancellationException e) {
+      myIsLoadingError = true;
+      return false;
+    }
     myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
     mySnapshot = snapshot;
 
-    Map<Heap, HeapSet> heapSets = new HashMap<>(snapshot.getHeaps().size());
+    Map<Heap, HeapSet> heapSets = myAllHeapSets;
     InstanceObject javaLangClassObject = null;
     for (Heap heap : snapshot.getHeaps()) {
       HeapSet heapSet = new HeapSet(this, heap.getName(), heap.getId());
@@ -219,27 +262,19 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
     InstanceObject finalJavaLangClassObject = javaLangClassObject;
     for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = heapSets.get(heap);
       heap.getClasses().forEach(classObj -> {
         InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj);
         myInstanceIndex.put(classObj, classObject);
-        heapSet.addDeltaInstanceObject(classObject);
       });
     }
 
-    for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = heapSets.get(heap);
-      heap.forEachInstance(instance -> {
-        assert !ClassDb.JAVA_LANG_CLASS.equals(getName());
-        ClassObj classObj = instance.getClassObj();
-        InstanceObject instanceObject =
-          new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
-                                     myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
-        myInstanceIndex.put(instance, instanceObject);
-        heapSet.addDeltaInstanceObject(instanceObject);
-        return true;
-      });
-    }
+    ClassGrouping grouping = myStage.getConfiguration().getClassGrouping();
+    applyHeapContents(collectHeapContents(snapshot, grouping), grouping);
+    // Class aggregates are only supported when arranging by class, repopulate the heaps with instances for the other groupings.
+    Executor joiner = queryJoiner == null ? MoreExecutors.directExecutor() : queryJoiner;
+    myStage.getAspect().addDependency(myAspectObserver)
+      .onChange(MemoryProfilerAspect.CLASS_GROUPING, () -> repopulateHeapSets(snapshot, joiner));
+
     heapSets.forEach((key, value) -> {
       if ("default".equals(key.getName())) {
         if (heapSets.size() == 1 || key.getInstancesCount() > 0) {
@@ -268,7 +303,138 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public void unload() {
+    myIsLoadCancelled = true;
+    myStage.getAspect().removeDependencies(myAspectObserver);
+    if (myBuffer != null) {
+      myBuffer.dispose();
+      myBuffer = null;
+    }
+    if (myDumpFile != null) {
+      if (!myDumpFile.delete()) {
+        getLogger().warn("Failed to delete " + myDumpFile);
+      }
+      myDumpFile = null;
+    }
+  }
+
+  /**
+   * The dominators only depend on the content of the dump, which a reopened capture, e.g. an imported .hprof file, gets again.
+   */
+  @NotNull
+  private String getDominatorsKey(@NotNull DumpDataResponse response) {
+    return mySession.getSessionId() + ":" + myHeapDumpInfo.getStartTime() + ":" + response.getData().size() + ":" +
+           response.getData().hashCode();
+  }
+
+  /**
+   * Spills the heap dump to a temporary file and memory-maps it, so that its content doesn't take space in the IDE's heap for the
+   * lifetime of the capture. Falls back to reading it from memory if the file can't be written.
+   */
+  @NotNull
+  private HprofBuffer createBuffer(@NotNull DumpDataResponse response) {
+    File dumpFile = null;
+    try {
+      dumpFile = File.createTempFile("heapdump", ".hprof");
+      dumpFile.deleteOnExit();
+      try (OutputStream outputStream = new FileOutputStream(dumpFile)) {
+        response.getData().writeTo(outputStream);
+      }
+      HprofBuffer buffer = new MemoryMappedFileBuffer(dumpFile);
+      myDumpFile = dumpFile;
+      return buffer;
+    }
+    catch (IOException e) {
+      getLogger().warn("Failed to map the heap dump, loading it in memory", e);
+      if (dumpFile != null) {
+        dumpFile.delete();
+      }
+      return new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
+    }
+  }
 
+  /**
+   * Repopulates every heap for a new class grouping. The heaps are walked on the pool executor and the result is applied on
+   * {@code joiner}, after which the heap contents are refreshed. Until then, the heaps keep their previous contents.
+   */
+  private void repopulateHeapSets(@NotNull Snapshot snapshot, @NotNull Executor joiner) {
+    ClassGrouping grouping = myStage.getConfiguration().getClassGrouping();
+    myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATING);
+    myStage.getStudioProfilers().getIdeServices().getPoolExecutor().execute(() -> {
+      Map<HeapSet, Consumer<HeapSet>> contents = collectHeapContents(snapshot, grouping);
+      joiner.execute(() -> {
+        if (grouping != myStage.getConfiguration().getClassGrouping()) {
+          // Superseded by a later grouping change.
+          return;
+        }
+        applyHeapContents(contents, grouping);
+        myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATED);
+        myStage.refreshSelectedHeap();
+      });
+    });
+  }
+
+  /**
+   * Walks every heap for the given class grouping, and returns how to populate each of their {@link HeapSet}. When arranging by class,
+   * only the per-class counts and sizes are computed and the InstanceObjects of a class are created when the class is expanded. The other
+   * groupings need all the InstanceObjects.
+   */
+  @NotNull
+  private Map<HeapSet, Consumer<HeapSet>> collectHeapContents(@NotNull Snapshot snapshot, @NotNull ClassGrouping grouping) {
+    Map<HeapSet, Consumer<HeapSet>> contents = new LinkedHashMap<>();
+    for (Heap heap : snapshot.getHeaps()) {
+      List<InstanceObject> instances = new ArrayList<>();
+      heap.getClasses().forEach(classObj -> instances.add(myClassObjectIndex.get(classObj)));
+      Consumer<HeapSet> classAggregates;
+      if (grouping == ClassGrouping.ARRANGE_BY_CLASS) {
+        classAggregates = collectClassAggregates(heap);
+      }
+      else {
+        heap.forEachInstance(instance -> {
+          instances.add(getOrCreateInstanceObject(instance));
+          return true;
+        });
+        classAggregates = heapSet -> {};
+      }
+      contents.put(myAllHeapSets.get(heap), heapSet -> {
+        instances.forEach(heapSet::addDeltaInstanceObject);
+        classAggregates.accept(heapSet);
+      });
+    }
+    return contents;
+  }
+
+  private static void applyHeapContents(@NotNull Map<HeapSet, Consumer<HeapSet>> contents, @NotNull ClassGrouping grouping) {
+    contents.forEach((heapSet, content) -> {
+      heapSet.setClassGrouping(grouping);
+      heapSet.clearClassifierSets();
+      // Class objects and aggregates are only known to this capture, so it repopulates the heaps itself.
+      heapSet.setRepopulatedByCapture();
+      content.accept(heapSet);
+    });
+  }
+
+  @NotNull
+  private Consumer<HeapSet> collectClassAggregates(@NotNull Heap heap) {
+    // {count, native size, shallow size, retained size, instances with stack} of each class, in the order they are first seen.
+    Map<ClassObj, long[]> aggregates = new LinkedHashMap<>();
+    heap.forEachInstance(instance -> {
+      long[] aggregate = aggregates.computeIfAbsent(instance.getClassObj(), classObj -> new long[5]);
+      aggregate[0]++;
+      aggregate[1] += instance.getNativeSize();
+      aggregate[2] += instance.getSize();
+      aggregate[3] += getRetainedSize(instance);
+      aggregate[4] += instance.getStack() != null && instance.getStack().getFrames().length > 0 ? 1 : 0;
+      return true;
+    });
+
+    int heapId = heap.getId();
+    return heapSet -> aggregates.forEach((classObj, aggregate) -> heapSet.addClassAggregate(
+      registerClass(classObj), 0, (int)aggregate[0], 0, aggregate[1], aggregate[2], aggregate[3], (int)aggregate[4],
+      (snapshotInstances, deltaInstances) -> {
+        for (Instance instance : classObj.getHeapInstances(heapId)) {
+          deltaInstances.add(getOrCreateInstanceObject(instance));
+        }
+      }));
   }
 
   @NotNull
@@ -295,7 +461,34 @@ public class HeapDumpCaptureObject implements CaptureObject {
       return null;
     }
 
-    return myInstanceIndex.get(instance);
+    return getOrCreateInstanceObject(instance);
+  }
+
+  // Synchronized as the heaps can be walked on the pool executor while the UI creates instances of the classes it expands.
+  @NotNull
+  private synchronized InstanceObject getOrCreateInstanceObject(@NotNull Instance instance) {
+    InstanceObject instanceObject = myInstanceIndex.get(instance);
+    if (instanceObject == null) {
+      instanceObject = new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance, registerClass(instance.getClassObj()),
+                                                  null);
+      myInstanceIndex.put(instance, instanceObject);
+    }
+    return instanceObject;
+  }
+
+  @NotNull
+  private synchronized ClassDb.ClassEntry registerClass(@NotNull ClassObj classObj) {
+    return myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName());
+  }
+
+  long getRetainedSize(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getTotalRetainedSize() : dominators.getRetainedSize(instance);
+  }
+
+  int getDepth(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getDistanceToGcRoot() : dominators.getDepth(instance);
   }
 
   @NotNull
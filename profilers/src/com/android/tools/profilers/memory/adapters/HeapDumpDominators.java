@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.RootObj;
+import com.android.tools.perflib.heap.Snapshot;
+import gnu.trove.TLongIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the retained size and the distance to the GC roots of every instance of a heap dump, in place of
+ * {@link Snapshot#computeDominators()}.
+ *
+ * The hard references of the snapshot are first extracted into compressed sparse row arrays of node indexes, node 0 being a virtual
+ * root referencing every GC root. The extraction, which walks perflib's objects, is split across cores. The dominator tree is then
+ * computed over the arrays with the iterative algorithm of Cooper, Harvey and Kennedy, and the retained sizes are summed up the tree.
+ *
+ * The results are keyed by instance id, so they stay valid for any snapshot parsed from the same dump. They are only cached in memory,
+ * for the captures reopened while the IDE runs.
+ */
+final class HeapDumpDominators {
+  private static final int ROOT = 0;
+  private static final int UNVISITED = -1;
+  private static final int CACHE_SIZE = 4;
+
+  private static final Map<String, SoftReference<HeapDumpDominators>> ourCache =
+    new LinkedHashMap<String, SoftReference<HeapDumpDominators>>(CACHE_SIZE, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SoftReference<HeapDumpDominators>> eldest) {
+        return size() > CACHE_SIZE;
+      }
+    };
+
+  // Ids of the instances in ascending order, with their retained size and depth at the same positions.
+  @NotNull private final long[] myIds;
+  @NotNull private final long[] myRetainedSizes;
+  @NotNull private final int[] myDepths;
+
+  private HeapDumpDominators(@NotNull long[] ids, @NotNull long[] retainedSizes, @NotNull int[] depths) {
+    myIds = ids;
+    myRetainedSizes = retainedSizes;
+    myDepths = depths;
+  }
+
+  /**
+   * Returns the results cached under {@code key}, or computes them for {@code snapshot} and caches them.
+   *
+   * @throws CancellationException if {@code isCancelled} returns true before the computation completes.
+   */
+  @NotNull
+  static HeapDumpDominators getOrCompute(@NotNull String key, @NotNull Snapshot snapshot, @NotNull BooleanSupplier isCancelled) {
+    HeapDumpDominators dominators = getCached(key);
+    if (dominators == null) {
+      dominators = compute(snapshot, isCancelled);
+      synchronized (ourCache) {
+        ourCache.put(key, new SoftReference<>(dominators));
+      }
+    }
+    return dominators;
+  }
+
+  @Nullable
+  private static HeapDumpDominators getCached(@NotNull String key) {
+    synchronized (ourCache) {
+      SoftReference<HeapDumpDominators> reference = ourCache.get(key);
+      return reference == null ? null : reference.get();
+    }
+  }
+
+  /**
+   * Returns the size of the instance and of all the instances it dominates, or 0 if it isn't reachable from a GC root.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    int position = Arrays.binarySearch(myIds, instance.getId());
+    return position < 0 ? 0 : myRetainedSizes[position];
+  }
+
+  /**
+   * Returns the number of hard references between a GC root and the instance, or {@link Integer#MAX_VALUE} if it isn't reachable.
+   */
+  int getDepth(@NotNull Instance instance) {
+    int position = Arrays.binarySearch(myIds, instance.getId());
+    return position < 0 ? Integer.MAX_VALUE : myDepths[position];
+  }
+
+  @NotNull
+  static HeapDumpDominators compute(@NotNull Snapshot snapshot, @NotNull BooleanSupplier isCancelled) {
+    // Index the instances, including the class objects. Looking up an unknown id returns 0, i.e. the virtual root.
+    List<Instance> nodes = new ArrayList<>();
+    nodes.add(null);
+    TLongIntHashMap index = new TLongIntHashMap();
+    for (Heap heap : snapshot.getHeaps()) {
+      for (ClassObj classObj : heap.getClasses()) {
+        addNode(classObj, nodes, index);
+      }
+      heap.forEachInstance(instance -> {
+        addNode(instance, nodes, index);
+        return true;
+      });
+    }
+    int nodeCount = nodes.size();
+    boolean[] isGcRoot = new boolean[nodeCount];
+    for (RootObj root : snapshot.getGCRoots()) {
+      Instance referredInstance = root.getReferredInstance();
+      if (referredInstance != null) {
+        isGcRoot[index.get(referredInstance.getId())] = true;
+      }
+    }
+    isGcRoot[ROOT] = false;
+    checkCancelled(isCancelled);
+
+    // Predecessors of each node, the virtual root preceding the GC roots.
+    int[] predecessorOffsets = new int[nodeCount + 1];
+    IntStream.range(1, nodeCount).parallel().forEach(node -> {
+      checkCancelled(isCancelled);
+      int count = isGcRoot[node] ? 1 : 0;
+      for (Instance referrer : getReferrers(nodes.get(node))) {
+        if (index.get(referrer.getId()) != ROOT) {
+          count++;
+        }
+      }
+      predecessorOffsets[node + 1] = count;
+    });
+    Arrays.parallelPrefix(predecessorOffsets, Integer::sum);
+    int[] predecessors = new int[predecessorOffsets[nodeCount]];
+    IntStream.range(1, nodeCount).parallel().forEach(node -> {
+      checkCancelled(isCancelled);
+      int offset = predecessorOffsets[node];
+      if (isGcRoot[node]) {
+        predecessors[offset++] = ROOT;
+      }
+      for (Instance referrer : getReferrers(nodes.get(node))) {
+        int predecessor = index.get(referrer.getId());
+        if (predecessor != ROOT) {
+          predecessors[offset++] = predecessor;
+        }
+      }
+    });
+
+    // Successors of each node, by inverting the predecessors.
+    int[] successorOffsets = new int[nodeCount + 1];
+    for (int predecessor : predecessors) {
+      successorOffsets[predecessor + 1]++;
+    }
+    Arrays.parallelPrefix(successorOffsets, Integer::sum);
+    int[] successors = new int[predecessors.length];
+    int[] nextSuccessor = Arrays.copyOf(successorOffsets, nodeCount);
+    for (int node = 1; node < nodeCount; node++) {
+      for (int edge = predecessorOffsets[node]; edge < predecessorOffsets[node + 1]; edge++) {
+        successors[nextSuccessor[predecessors[edge]]++] = node;
+      }
+    }
+    checkCancelled(isCancelled);
+
+    // Depth-first traversal from the virtual root, to number the reachable nodes in reverse postorder.
+    int[] postorderNumbers = new int[nodeCount];
+    Arrays.fill(postorderNumbers, UNVISITED);
+    int[] reversePostorder = new int[nodeCount];
+    int reachableCount = 0;
+    int[] stack = new int[nodeCount];
+    int stackSize = 0;
+    int[] nextEdge = Arrays.copyOf(successorOffsets, nodeCount);
+    boolean[] visited = new boolean[nodeCount];
+    stack[stackSize++] = ROOT;
+    visited[ROOT] = true;
+    while (stackSize > 0) {
+      int node = stack[stackSize - 1];
+      if (nextEdge[node] < successorOffsets[node + 1]) {
+        int successor = successors[nextEdge[node]++];
+        if (!visited[successor]) {
+          visited[successor] = true;
+          stack[stackSize++] = successor;
+        }
+      }
+      else {
+        postorderNumbers[node] = reachableCount;
+        reversePostorder[nodeCount - 1 - reachableCount] = node;
+        reachableCount++;
+        stackSize--;
+      }
+    }
+    // Compact the reverse postorder to the reachable nodes, the virtual root being first.
+    reversePostorder = Arrays.copyOfRange(reversePostorder, nodeCount - reachableCount, nodeCount);
+    checkCancelled(isCancelled);
+
+    // Immediate dominators, iterating in reverse postorder until they no longer change.
+    int[] dominators = new int[nodeCount];
+    Arrays.fill(dominators, UNVISITED);
+    dominators[ROOT] = ROOT;
+    boolean changed = true;
+    while (changed) {
+      checkCancelled(isCancelled);
+      changed = false;
+      for (int i = 1; i < reachableCount; i++) {
+        int node = reversePostorder[i];
+        int dominator = UNVISITED;
+        for (int edge = predecessorOffsets[node]; edge < predecessorOffsets[node + 1]; edge++) {
+          int predecessor = predecessors[edge];
+          if (dominators[predecessor] != UNVISITED) {
+            dominator = dominator == UNVISITED ? predecessor : intersect(predecessor, dominator, dominators, postorderNumbers);
+          }
+        }
+        if (dominators[node] != dominator) {
+          dominators[node] = dominator;
+          changed = true;
+        }
+      }
+    }
+
+    // Retained sizes, from the leaves of the dominator tree up. A node is dominated by nodes that precede it in reverse postorder.
+    long[] retainedSizes = new long[nodeCount];
+    for (int i = reachableCount - 1; i > 0; i--) {
+      int node = reversePostorder[i];
+      retainedSizes[node] += nodes.get(node).getSize();
+      retainedSizes[dominators[node]] += retainedSizes[node];
+    }
+
+    // Depths, by a breadth-first traversal from the GC roots.
+    int[] depths = new int[nodeCount];
+    Arrays.fill(depths, Integer.MAX_VALUE);
+    int[] queue = new int[nodeCount];
+    int queueStart = 0;
+    int queueEnd = 0;
+    for (int edge = successorOffsets[ROOT]; edge < successorOffsets[ROOT + 1]; edge++) {
+      int gcRoot = successors[edge];
+      if (depths[gcRoot] == Integer.MAX_VALUE) {
+        depths[gcRoot] = 0;
+        queue[queueEnd++] = gcRoot;
+      }
+    }
+    while (queueStart < queueEnd) {
+      int node = queue[queueStart++];
+      for (int edge = successorOffsets[node]; edge < successorOffsets[node + 1]; edge++) {
+        int successor = successors[edge];
+        if (depths[successor] == Integer.MAX_VALUE) {
+          depths[successor] = depths[node] + 1;
+          queue[queueEnd++] = successor;
+        }
+      }
+    }
+    checkCancelled(isCancelled);
+
+    // Only keep the results, ordered by instance id.
+    long[] ids = new long[nodeCount - 1];
+    for (int node = 1; node < nodeCount; node++) {
+      ids[node - 1] = nodes.get(node).getId();
+    }
+    Arrays.parallelSort(ids);
+    long[] retainedSizesById = new long[ids.length];
+    int[] depthsById = new int[ids.length];
+    IntStream.range(0, ids.length).parallel().forEach(position -> {
+      int node = index.get(ids[position]);
+      retainedSizesById[position] = retainedSizes[node];
+      depthsById[position] = depths[node];
+    });
+    return new HeapDumpDominators(ids, retainedSizesById, depthsById);
+  }
+
+  private static void addNode(@NotNull Instance instance, @NotNull List<Instance> nodes, @NotNull TLongIntHashMap index) {
+    if (!index.containsKey(instance.getId())) {
+      index.put(instance.getId(), nodes.size());
+      nodes.add(instance);
+    }
+  }
+
+  @NotNull
+  private static List<Instance> getReferrers(@NotNull Instance instance) {
+    List<Instance> referrers = instance.getHardReverseReferences();
+    return referrers == null ? Collections.emptyList() : referrers;
+  }
+
+  private static int intersect(int node1, int node2, @NotNull int[] dominators, @NotNull int[] postorderNumbers) {
+    while (node1 != node2) {
+      while (postorderNumbers[node1] < postorderNumbers[node2]) {
+        node1 = dominators[node1];
+      }
+      while (postorderNumbers[node2] < postorderNumbers[node1]) {
+        node2 = dominators[node2];
+      }
+    }
+    return node1;
+  }
+
+  private static void checkCancelled(@NotNull BooleanSupplier isCancelled) {
+    if (isCancelled.getAsBoolean()) {
+      throw new CancellationException();
+    }
+  }
+}
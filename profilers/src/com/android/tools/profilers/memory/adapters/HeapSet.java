@@ -30,6 +30,9 @@ public class HeapSet extends ClassifierSet {
   @NotNull private ClassGrouping myClassGrouping = ClassGrouping.ARRANGE_BY_CLASS;
   private final int myId;
   @NotNull private Filter myFilter;
+  // Whether the capture repopulates this heap when the class grouping changes, e.g. because some of its ClassSets only hold aggregates
+  // whose instances are only known to the capture. The current contents are then kept until the capture replaces them.
+  private boolean myRepopulatedByCapture;
 
   public HeapSet(@NotNull CaptureObject captureObject, @NotNull String heapName, int id) {
     super(heapName);
@@ -45,6 +48,11 @@ public class HeapSet extends ClassifierSet {
     }
     myClassGrouping = classGrouping;
 
+    if (myRepopulatedByCapture) {
+      myNeedsRefiltering = true;
+      return;
+    }
+
     // Gather all the instances from the descendants and add them to the heap node.
     // Subsequent calls to getChildrenClassifierSets will re-partition them to the correct child ClassifierSet.
     List<InstanceObject> snapshotStream = getSnapshotInstanceStream().collect(Collectors.toList());
@@ -61,6 +69,49 @@ public class HeapSet extends ClassifierSet {
     return myId;
   }
 
+  @Override
+  public void clearClassifierSets() {
+    super.clearClassifierSets();
+    myRepopulatedByCapture = false;
+  }
+
+  /**
+   * Lets the capture repopulate this heap for a new class grouping, instead of {@link #setClassGrouping} regrouping its instances. Reset
+   * by {@link #clearClassifierSets()}.
+   */
+  public void setRepopulatedByCapture() {
+    myRepopulatedByCapture = true;
+  }
+
+  /**
+   * Add pre-aggregated counts of the {@code classEntry} instances of this heap, see {@link ClassSet#addAggregate}.
+   * Only supported when arranged by class, as the other groupings need the individual instances.
+   */
+  public void addClassAggregate(@NotNull ClassDb.ClassEntry classEntry,
+                                int snapshotCount,
+                                int deltaAllocations,
+                                int deltaDeallocations,
+                                long nativeSize,
+                                long shallowSize,
+                                long retainedSize,
+                                int instancesWithStackInfo,
+                                @NotNull ClassSet.InstanceLoader instanceLoader) {
+    assert myClassGrouping == ClassGrouping.ARRANGE_BY_CLASS;
+    ensurePartition();
+    assert myClassifier instanceof ClassSet.ClassClassifier;
+    ClassSet classSet = ((ClassSet.ClassClassifier)myClassifier).getClassSet(classEntry, true);
+    assert classSet != null;
+    classSet.addAggregate(snapshotCount, deltaAllocations, deltaDeallocations, nativeSize, shallowSize, retainedSize, instancesWithStackInfo,
+                          instanceLoader);
+    addAggregate(snapshotCount, deltaAllocations, deltaDeallocations, nativeSize, shallowSize, retainedSize, instancesWithStackInfo);
+    myRepopulatedByCapture = true;
+  }
+
+  @NotNull
+  public ClassGrouping getClassGrouping() {
+    return myClassGrouping;
+  }
+
   // Select and apply a filter.
   // When there are content changes in HeapSet, we need to re-select the same filter.
   public void selectFilter(@NotNull Filter filter) {
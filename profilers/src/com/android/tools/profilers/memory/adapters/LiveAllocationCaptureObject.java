@@ -24,6 +24,7 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
 import com.android.tools.profilers.memory.MemoryProfiler;
 import com.android.tools.profilers.memory.MemoryProfilerAspect;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGrouping;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.android.tools.profilers.stacktrace.ThreadId;
 import com.google.common.collect.ImmutableList;
@@ -39,6 +40,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -69,13 +71,23 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   private final List<HeapSet> myHeapSets;
   private final AspectObserver myAspectObserver;
   private final boolean myEnableJniRefsTracking;
+  private final boolean myEnableAggregation;
 
   private long myEventsEndTimeNs;
   private long myContextEndTimeNs;
   private long myPreviousQueryStartTimeNs;
   private long myPreviousQueryEndTimeNs;
+  // Whether the heap sets are currently populated by class aggregates instead of instances.
+  private boolean myAggregated;
+  // The range the class aggregates of the heap sets were computed for. Only accessed via the joiner.
+  private long myAggregateStartTimeNs;
+  private long myAggregateEndTimeNs;
+  // The events of the last range whose class instances were requested, shared by the classes expanded in that range. Only accessed from
+  // myExecutorService.
+  @Nullable private RangeEvents myRangeEvents;
 
   private Range myQueryRange;
+  private Executor myQueryJoiner;
 
   private Future myCurrentTask;
   @Nullable private String myInfoMessage;
@@ -115,6 +127,9 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     if (myEnableJniRefsTracking) {
       myHeapSets.add(new HeapSet(this, JNI_HEAP_NAME, JNI_HEAP_ID));
     }
+    // JNI references need the Java instances they refer to, so they can't be shown along with class aggregates.
+    myEnableAggregation =
+      stage.getStudioProfilers().getIdeServices().getFeatureConfig().isLiveAllocationsAggregationEnabled() && !myEnableJniRefsTracking;
 
     myEventsEndTimeNs = Long.MIN_VALUE;
     myContextEndTimeNs = Long.MIN_VALUE;
@@ -178,7 +193,9 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @Override
   public Collection<HeapSet> getHeapSets() {
     // Exclude DEFAULT_HEAP since it shouldn't show up in use in devices that support live allocation tracking.
-    if (myHeapSets.get(0).getInstancesCount() > 0) {
+    // Class aggregates are checked by count, so that the default heap's instances are not loaded just for this.
+    HeapSet defaultHeap = myHeapSets.get(0);
+    if (myAggregated ? !defaultHeap.isEmpty() : defaultHeap.getInstancesCount() > 0) {
       // But handle the unexpected, just in case....
       return myHeapSets;
     }
@@ -212,9 +229,15 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     assert queryRange != null;
     assert queryJoiner != null;
     myQueryRange = queryRange;
+    myQueryJoiner = queryJoiner;
     // TODO There's a problem with this, as the datastore is effectively a real-time system.
     // TODO In other words, when we query for some range, we may not get back entries that are still being inserted, and we don't re-query.
     myQueryRange.addDependency(myAspectObserver).onChange(Range.Aspect.RANGE, () -> loadTimeRange(myQueryRange, queryJoiner));
+    if (myEnableAggregation) {
+      // Class aggregates only support arranging by class, reload the instances when the grouping changes.
+      myStage.getAspect().addDependency(myAspectObserver)
+        .onChange(MemoryProfilerAspect.CLASS_GROUPING, () -> loadTimeRange(myQueryRange, queryJoiner));
+    }
 
     // Load the initial data within queryRange.
     loadTimeRange(myQueryRange, queryJoiner);
@@ -247,6 +270,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @Override
   public void unload() {
     myQueryRange.removeDependencies(myAspectObserver);
+    myStage.getAspect().removeDependencies(myAspectObserver);
     myExecutorService.shutdownNow();
   }
 
@@ -295,8 +319,11 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       myCurrentTask = myExecutorService.submit(() -> {
         long newStartTimeNs = TimeUnit.MICROSECONDS.toNanos((long)queryRange.getMin());
         long newEndTimeNs = TimeUnit.MICROSECONDS.toNanos((long)queryRange.getMax());
+        boolean aggregate =
+          myEnableAggregation && myStage.getConfiguration().getClassGrouping() == ClassGrouping.ARRANGE_BY_CLASS;
         // Special case for max-value newEndTimeNs, as that indicates querying the latest events.
-        if (newStartTimeNs == myPreviousQueryStartTimeNs && newEndTimeNs == myPreviousQueryEndTimeNs && newEndTimeNs != Long.MAX_VALUE) {
+        if (newStartTimeNs == myPreviousQueryStartTimeNs && newEndTimeNs == myPreviousQueryEndTimeNs && newEndTimeNs != Long.MAX_VALUE &&
+            aggregate == myAggregated) {
           return null;
         }
 
@@ -319,6 +346,17 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           }
         }
 
+        // Clear and recreate the instance/heap sets if previous range does not intersect with the new one, or if switching between
+        // instances and class aggregates.
+        boolean modeChanged = aggregate != myAggregated;
+        boolean clear = myPreviousQueryEndTimeNs <= newStartTimeNs || newEndTimeNs <= myPreviousQueryStartTimeNs || modeChanged;
+        myAggregated = aggregate;
+        if (aggregate) {
+          loadClassAggregates(newStartTimeNs, newEndTimeNs, clear, hasNonFullTrackingRegion, joiner);
+          return null;
+        }
+        myRangeEvents = null;
+
         // Snapshots data
         List<InstanceObject> snapshotList = new ArrayList<>();
         List<InstanceObject> resetSnapshotList = new ArrayList<>();
@@ -328,8 +366,6 @@ public class LiveAllocationCaptureObject implements CaptureObject {
         List<InstanceObject> deltaFreeList = new ArrayList<>();
         List<InstanceObject> resetDeltaFreeList = new ArrayList<>();
 
-        // Clear and recreate the instance/heap sets if previous range does not intersect with the new one
-        boolean clear = myPreviousQueryEndTimeNs <= newStartTimeNs || newEndTimeNs <= myPreviousQueryStartTimeNs;
         if (clear) {
           myInstanceMap.clear();
           // If we are resetting, then first establish the object snapshot at the query range's start point.
@@ -396,6 +432,10 @@ public class LiveAllocationCaptureObject implements CaptureObject {
           if (clear ||
               deltaAllocationList.size() + deltaFreeList.size() + resetDeltaAllocationList.size() + resetDeltaFreeList.size() > 0) {
             if (clear) {
+              if (modeChanged) {
+                // Leaving class aggregates because of a grouping change, which may not have been applied to the heaps yet.
+                myHeapSets.forEach(heap -> heap.setClassGrouping(myStage.getConfiguration().getClassGrouping()));
+              }
               myHeapSets.forEach(heap -> heap.clearClassifierSets());
               if (myStage.getSelectedClassSet() != null) {
                 myStage.selectClassSet(ClassSet.EMPTY_SET);
@@ -422,29 +462,297 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     }
   }
 
+  /**
+   * Same as the instance path of {@link #loadTimeRange(Range, Executor)}, but only accumulates the per-class, per-heap changes of the
+   * counts and shallow sizes. No {@link InstanceObject} is created until a class' instances are requested, see
+   * {@link #loadClassInstances(int, int, BiConsumer)}.
+   */
+  private void loadClassAggregates(long startTimeNs,
+                                   long endTimeNs,
+                                   boolean clear,
+                                   boolean hasNonFullTrackingRegion,
+                                   @NotNull Executor joiner) {
+    boolean snapshotEnabled = myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled();
+    TLongObjectHashMap<ClassAggregate> aggregates = new TLongObjectHashMap<>();
+    if (clear) {
+      if (snapshotEnabled) {
+        queryClassAggregateSnapshot(startTimeNs, aggregates);
+      }
+      queryClassAggregateDelta(startTimeNs, endTimeNs, aggregates, 1, false);
+    }
+    else {
+      // Moving the selection's min also moves the events in between into or out of the snapshot.
+      if (startTimeNs < myPreviousQueryStartTimeNs) {
+        queryClassAggregateDelta(startTimeNs, myPreviousQueryStartTimeNs, aggregates, 1, snapshotEnabled);
+      }
+      else if (startTimeNs > myPreviousQueryStartTimeNs) {
+        queryClassAggregateDelta(myPreviousQueryStartTimeNs, startTimeNs, aggregates, -1, snapshotEnabled);
+      }
+
+      if (endTimeNs < myPreviousQueryEndTimeNs) {
+        queryClassAggregateDelta(endTimeNs, myPreviousQueryEndTimeNs, aggregates, -1, false);
+      }
+      else if (endTimeNs > myPreviousQueryEndTimeNs) {
+        queryClassAggregateDelta(myPreviousQueryEndTimeNs, endTimeNs, aggregates, 1, false);
+      }
+    }
+
+    myPreviousQueryStartTimeNs = startTimeNs;
+    myPreviousQueryEndTimeNs = endTimeNs;
+
+    joiner.execute(() -> {
+      myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATED);
+      myAggregateStartTimeNs = startTimeNs;
+      myAggregateEndTimeNs = endTimeNs;
+      if (!clear && aggregates.isEmpty()) {
+        return;
+      }
+      ClassGrouping grouping = myStage.getConfiguration().getClassGrouping();
+      if (clear) {
+        myHeapSets.forEach(heap -> {
+          heap.setClassGrouping(grouping);
+          heap.clearClassifierSets();
+        });
+        if (myStage.getSelectedClassSet() != null) {
+          myStage.selectClassSet(ClassSet.EMPTY_SET);
+        }
+      }
+      if (grouping != ClassGrouping.ARRANGE_BY_CLASS) {
+        // The grouping changed since this load started, the reload it triggered will populate the heaps with instances instead.
+        return;
+      }
+
+      aggregates.forEachValue(aggregate -> {
+        if (!aggregate.isEmpty()) {
+          int heapId = aggregate.myHeapId;
+          int classTag = aggregate.myClassTag;
+          myHeapSets.get(heapId).addClassAggregate(
+            myClassDb.getEntry(classTag), aggregate.mySnapshotCount, aggregate.myDeltaAllocations, aggregate.myDeltaDeallocations, 0,
+            aggregate.myShallowSize, 0, aggregate.myInstancesWithStackInfo,
+            onLoaded -> loadClassInstances(heapId, classTag, onLoaded));
+        }
+        return true;
+      });
+
+      myInfoMessage = hasNonFullTrackingRegion ? SAMPLING_INFO_MESSAGE : null;
+      myStage.refreshSelectedHeap();
+    });
+  }
+
+  private void queryClassAggregateSnapshot(long newTimeNs, @NotNull TLongObjectHashMap<ClassAggregate> aggregates) {
+    BatchAllocationSample sampleResponse = myClient.getAllocations(AllocationSnapshotRequest.newBuilder().setSession(mySession)
+                                                                     .setEndTime(newTimeNs).setLiveObjectsOnly(true).build());
+
+    for (AllocationEvent event : sampleResponse.getEventsList()) {
+      if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+        AllocationEvent.Allocation allocation = event.getAllocData();
+        ClassAggregate aggregate = getClassAggregate(aggregates, allocation.getHeapId(), allocation.getClassTag());
+        aggregate.mySnapshotCount++;
+        aggregate.myShallowSize += allocation.getSize();
+        aggregate.myInstancesWithStackInfo += allocation.getStackId() != 0 ? 1 : 0;
+      }
+      else {
+        assert false;
+      }
+    }
+  }
+
+  /**
+   * @param sign           1 to add the events within the query range to the aggregates, -1 to remove them.
+   * @param adjustSnapshot whether the query range is leaving (for a positive {@code sign}) or entering the baseline snapshot, in which
+   *                       case the snapshot counts are updated the opposite way of the delta counts.
+   */
+  private void queryClassAggregateDelta(long startTimeNs,
+                                        long endTimeNs,
+                                        @NotNull TLongObjectHashMap<ClassAggregate> aggregates,
+                                        int sign,
+                                        boolean adjustSnapshot) {
+    if (startTimeNs == endTimeNs) {
+      return;
+    }
+
+    BatchAllocationSample sampleResponse = myClient.getAllocations(
+      AllocationSnapshotRequest.newBuilder().setSession(mySession).setStartTime(startTimeNs).setEndTime(endTimeNs).build());
+
+    for (AllocationEvent event : sampleResponse.getEventsList()) {
+      if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+        AllocationEvent.Allocation allocation = event.getAllocData();
+        ClassAggregate aggregate = getClassAggregate(aggregates, allocation.getHeapId(), allocation.getClassTag());
+        int stackInfo = allocation.getStackId() != 0 ? 1 : 0;
+        aggregate.myDeltaAllocations += sign;
+        aggregate.myShallowSize += sign * allocation.getSize();
+        aggregate.myInstancesWithStackInfo += sign * stackInfo;
+        if (adjustSnapshot) {
+          aggregate.mySnapshotCount -= sign;
+          aggregate.myShallowSize -= sign * allocation.getSize();
+          aggregate.myInstancesWithStackInfo -= sign * stackInfo;
+        }
+      }
+      else if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA) {
+        AllocationEvent.Deallocation deallocation = event.getFreeData();
+        ClassAggregate aggregate = getClassAggregate(aggregates, deallocation.getHeapId(), deallocation.getClassTag());
+        aggregate.myDeltaDeallocations += sign;
+        aggregate.myShallowSize -= sign * deallocation.getSize();
+        if (adjustSnapshot) {
+          aggregate.mySnapshotCount += sign;
+          aggregate.myShallowSize += sign * deallocation.getSize();
+        }
+      }
+      else {
+        assert false;
+      }
+    }
+  }
+
+  @NotNull
+  private static ClassAggregate getClassAggregate(@NotNull TLongObjectHashMap<ClassAggregate> aggregates, int heapId, int classTag) {
+    long key = getClassKey(heapId, classTag);
+    ClassAggregate aggregate = aggregates.get(key);
+    if (aggregate == null) {
+      aggregate = new ClassAggregate(heapId, classTag);
+      aggregates.put(key, aggregate);
+    }
+    return aggregate;
+  }
+
+  /**
+   * Fetches the instances of a class on a heap on myExecutorService, for the range the class aggregates were last computed for, then
+   * passes them to {@code onLoaded} via the joiner. Called from the joiner.
+   */
+  private void loadClassInstances(int heapId,
+                                  int classTag,
+                                  @NotNull BiConsumer<List<InstanceObject>, List<InstanceObject>> onLoaded) {
+    long startTimeNs = myAggregateStartTimeNs;
+    long endTimeNs = myAggregateEndTimeNs;
+    try {
+      myExecutorService.submit(() -> {
+        if (myRangeEvents == null || myRangeEvents.myStartTimeNs != startTimeNs || myRangeEvents.myEndTimeNs != endTimeNs) {
+          myRangeEvents = queryRangeEvents(startTimeNs, endTimeNs);
+        }
+        long classKey = getClassKey(heapId, classTag);
+        List<InstanceObject> snapshotInstances = new ArrayList<>();
+        List<InstanceObject> deltaInstances = new ArrayList<>();
+        TIntObjectHashMap<LiveAllocationInstanceObject> instances = new TIntObjectHashMap<>();
+
+        for (AllocationEvent event : myRangeEvents.getSnapshotEvents(classKey)) {
+          AllocationEvent.Allocation allocation = event.getAllocData();
+          LiveAllocationInstanceObject instance =
+            createInstanceObject(classTag, allocation.getStackId(), allocation.getThreadId(), allocation.getSize(), heapId);
+          instance.setAllocationTime(event.getTimestamp());
+          instances.put(allocation.getTag(), instance);
+          snapshotInstances.add(instance);
+        }
+        for (AllocationEvent event : myRangeEvents.getDeltaEvents(classKey)) {
+          if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+            AllocationEvent.Allocation allocation = event.getAllocData();
+            LiveAllocationInstanceObject instance = instances.get(allocation.getTag());
+            if (instance == null) {
+              instance = createInstanceObject(classTag, allocation.getStackId(), allocation.getThreadId(), allocation.getSize(), heapId);
+              instances.put(allocation.getTag(), instance);
+            }
+            instance.setAllocationTime(event.getTimestamp());
+            deltaInstances.add(instance);
+          }
+          else {
+            AllocationEvent.Deallocation deallocation = event.getFreeData();
+            LiveAllocationInstanceObject instance = instances.get(deallocation.getTag());
+            if (instance == null) {
+              instance =
+                createInstanceObject(classTag, deallocation.getStackId(), deallocation.getThreadId(), deallocation.getSize(), heapId);
+              instances.put(deallocation.getTag(), instance);
+            }
+            instance.setDeallocTime(event.getTimestamp());
+            deltaInstances.add(instance);
+          }
+        }
+
+        myQueryJoiner.execute(() -> {
+          onLoaded.accept(snapshotInstances, deltaInstances);
+          myStage.refreshSelectedHeap();
+        });
+        return null;
+      });
+    }
+    catch (RejectedExecutionException e) {
+      getLogger().debug(e);
+    }
+  }
+
+  /**
+   * Fetches the snapshot at {@code startTimeNs} and the events within the range once, split by class, for the instances of the classes
+   * expanded in that range.
+   */
+  @NotNull
+  private RangeEvents queryRangeEvents(long startTimeNs, long endTimeNs) {
+    RangeEvents rangeEvents = new RangeEvents(startTimeNs, endTimeNs);
+    if (myStage.getStudioProfilers().getIdeServices().getFeatureConfig().isMemorySnapshotEnabled()) {
+      BatchAllocationSample sampleResponse = myClient.getAllocations(AllocationSnapshotRequest.newBuilder().setSession(mySession)
+                                                                       .setEndTime(startTimeNs).setLiveObjectsOnly(true).build());
+      for (AllocationEvent event : sampleResponse.getEventsList()) {
+        AllocationEvent.Allocation allocation = event.getAllocData();
+        addEvent(rangeEvents.mySnapshotEvents, getClassKey(allocation.getHeapId(), allocation.getClassTag()), event);
+      }
+    }
+
+    if (startTimeNs == endTimeNs) {
+      return rangeEvents;
+    }
+    BatchAllocationSample sampleResponse = myClient.getAllocations(
+      AllocationSnapshotRequest.newBuilder().setSession(mySession).setStartTime(startTimeNs).setEndTime(endTimeNs).build());
+    for (AllocationEvent event : sampleResponse.getEventsList()) {
+      if (event.getEventCase() == AllocationEvent.EventCase.ALLOC_DATA) {
+        AllocationEvent.Allocation allocation = event.getAllocData();
+        addEvent(rangeEvents.myDeltaEvents, getClassKey(allocation.getHeapId(), allocation.getClassTag()), event);
+      }
+      else if (event.getEventCase() == AllocationEvent.EventCase.FREE_DATA) {
+        AllocationEvent.Deallocation deallocation = event.getFreeData();
+        addEvent(rangeEvents.myDeltaEvents, getClassKey(deallocation.getHeapId(), deallocation.getClassTag()), event);
+      }
+    }
+    return rangeEvents;
+  }
+
+  private static void addEvent(@NotNull TLongObjectHashMap<List<AllocationEvent>> events, long classKey, @NotNull AllocationEvent event) {
+    List<AllocationEvent> classEvents = events.get(classKey);
+    if (classEvents == null) {
+      classEvents = new ArrayList<>();
+      events.put(classKey, classEvents);
+    }
+    classEvents.add(event);
+  }
+
+  private static long getClassKey(int heapId, int classTag) {
+    return ((long)heapId << 32) | (classTag & 0xFFFFFFFFL);
+  }
+
   @NotNull
   private LiveAllocationInstanceObject getOrCreateInstanceObject(int tag, int classTag, int stackId, int threadId, long size, int heapId) {
     LiveAllocationInstanceObject instance = myInstanceMap.get(tag);
     if (instance == null) {
-      ClassDb.ClassEntry entry = myClassDb.getEntry(classTag);
-      assert myClassMap.containsKey(entry);
-      AllocationStack callstack = null;
-      if (stackId != 0) {
-        assert myCallstackMap.containsKey(stackId);
-        callstack = myCallstackMap.get(stackId);
-      }
-      ThreadId thread = null;
-      if (threadId != 0) {
-        assert myThreadIdMap.containsKey(threadId);
-        thread = myThreadIdMap.get(threadId);
-      }
-      instance = new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, size, heapId);
+      instance = createInstanceObject(classTag, stackId, threadId, size, heapId);
       myInstanceMap.put(tag, instance);
     }
 
     return instance;
   }
 
+  @NotNull
+  private LiveAllocationInstanceObject createInstanceObject(int classTag, int stackId, int threadId, long size, int heapId) {
+    ClassDb.ClassEntry entry = myClassDb.getEntry(classTag);
+    assert myClassMap.containsKey(entry);
+    AllocationStack callstack = null;
+    if (stackId != 0) {
+      assert myCallstackMap.containsKey(stackId);
+      callstack = myCallstackMap.get(stackId);
+    }
+    ThreadId thread = null;
+    if (threadId != 0) {
+      assert myThreadIdMap.containsKey(threadId);
+      thread = myThreadIdMap.get(threadId);
+    }
+    return new LiveAllocationInstanceObject(this, entry, myClassMap.get(entry), thread, callstack, size, heapId);
+  }
+
   @Nullable
   private JniReferenceInstanceObject getOrCreateJniRefObject(int tag, long refValue) {
     LiveAllocationInstanceObject referencedObject = myInstanceMap.get(tag);
@@ -617,4 +925,53 @@ public class LiveAllocationCaptureObject implements CaptureObject {
       }
     }
   }
+
+  /**
+   * Signed changes to the counts and shallow size of a class on a heap, see {@link HeapSet#addClassAggregate}.
+   */
+  private static final class ClassAggregate {
+    private final int myHeapId;
+    private final int myClassTag;
+    private int mySnapshotCount;
+    private int myDeltaAllocations;
+    private int myDeltaDeallocations;
+    private long myShallowSize;
+    private int myInstancesWithStackInfo;
+
+    private ClassAggregate(int heapId, int classTag) {
+      myHeapId = heapId;
+      myClassTag = classTag;
+    }
+
+    private boolean isEmpty() {
+      return mySnapshotCount == 0 && myDeltaAllocations == 0 && myDeltaDeallocations == 0 && myShallowSize == 0;
+    }
+  }
+
+  /**
+   * The snapshot at the start of a range and the events within it, by class key (see {@link #getClassKey}).
+   */
+  private static final class RangeEvents {
+    private final long myStartTimeNs;
+    private final long myEndTimeNs;
+    @NotNull private final TLongObjectHashMap<List<AllocationEvent>> mySnapshotEvents = new TLongObjectHashMap<>();
+    @NotNull private final TLongObjectHashMap<List<AllocationEvent>> myDeltaEvents = new TLongObjectHashMap<>();
+
+    private RangeEvents(long startTimeNs, long endTimeNs) {
+      myStartTimeNs = startTimeNs;
+      myEndTimeNs = endTimeNs;
+    }
+
+    @NotNull
+    private List<AllocationEvent> getSnapshotEvents(long classKey) {
+      List<AllocationEvent> events = mySnapshotEvents.get(classKey);
+      return events == null ? Collections.emptyList() : events;
+    }
+
+    @NotNull
+    private List<AllocationEvent> getDeltaEvents(long classKey) {
+      List<AllocationEvent> events = myDeltaEvents.get(classKey);
+      return events == null ? Collections.emptyList() : events;
+    }
+  }
 }
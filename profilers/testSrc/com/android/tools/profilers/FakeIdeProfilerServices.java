@@ -93,6 +93,11 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
    */
   private boolean myLiveTrackingEnabled = false;
 
+  /**
+   * Toggle for building live allocation heaps from per-class aggregates in tests.
+   */
+  private boolean myLiveAllocationsAggregationEnabled = false;
+
   /**
    * Toggle for faking memory snapshot support in tests.
    */
@@ -263,6 +268,11 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
         return myLiveTrackingEnabled;
       }
 
+      @Override
+      public boolean isLiveAllocationsAggregationEnabled() {
+        return myLiveAllocationsAggregationEnabled;
+      }
+
       @Override
       public boolean isLiveAllocationsSamplingEnabled() {
         return myLiveAllocationsSamplingEnabled;
@@ -446,6 +456,10 @@ public final class FakeIdeProfilerServices implements IdeProfilerServices {
     myCpuNewRecordingWorkflowEnabled = enabled;
   }
 
+  public void enableLiveAllocationsAggregation(boolean enabled) {
+    myLiveAllocationsAggregationEnabled = enabled;
+  }
+
   public void enableLiveAllocationsSampling(boolean enabled) {
     myLiveAllocationsSamplingEnabled = enabled;
   }
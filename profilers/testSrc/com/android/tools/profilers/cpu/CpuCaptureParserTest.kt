@@ -269,6 +269,67 @@ class CpuCaptureParserTest {
     assertThat(parser.parse(someFile)).isNotNull()
   }
 
+  @Test
+  fun capturesOverTheNodeBudgetAreEvictedAndParsedAgainWhenRequested() {
+    val traceBytes = CpuProfilerTestUtils.traceFileToByteString("valid_trace.trace")
+    val unboundedParser = CpuCaptureParser(FakeIdeProfilerServices())
+    unboundedParser.parse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID, traceBytes, CpuProfiler.CpuProfilerType.ART)!!.get()
+    val captureNodeCount = unboundedParser.totalCaptureNodeCount
+    assertThat(captureNodeCount).isGreaterThan(0L)
+
+    // Leave room for one capture and a half, so that parsing a capture evicts the least recently used one.
+    val maxCaptureNodeCount = captureNodeCount * 3 / 2
+    val parser = CpuCaptureParser(FakeIdeProfilerServices(), maxCaptureNodeCount)
+    val futureCapture = parser.parse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID, traceBytes, CpuProfiler.CpuProfilerType.ART)!!
+    checkValidCapture(futureCapture.get())
+    for (traceId in 1..2) {
+      parser.parse(ProfilersTestData.SESSION_DATA, traceId, traceBytes, CpuProfiler.CpuProfilerType.ART)!!.get()
+      assertThat(parser.totalCaptureNodeCount).isAtMost(maxCaptureNodeCount)
+    }
+
+    // The evicted capture is parsed again from its trace file, and then kept.
+    val parsedAgain = parser.getCapture(ANY_TRACE_ID)!!
+    assertThat(parsedAgain).isNotSameAs(futureCapture)
+    checkValidCapture(parsedAgain.get())
+    assertThat(parser.totalCaptureNodeCount).isAtMost(maxCaptureNodeCount)
+    assertThat(parser.getCapture(ANY_TRACE_ID)).isSameAs(parsedAgain)
+  }
+
+  @Test
+  fun preParsedCaptureIsReadyWhenRequested() {
+    val traceBytes = CpuProfilerTestUtils.traceFileToByteString("valid_trace.trace")
+    val trace = CpuProfiler.GetTraceResponse.newBuilder()
+      .setStatus(CpuProfiler.GetTraceResponse.Status.SUCCESS)
+      .setData(traceBytes)
+      .setProfilerType(CpuProfiler.CpuProfilerType.ART)
+      .build()
+
+    val parser = CpuCaptureParser(FakeIdeProfilerServices())
+    parser.preParse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID) { trace }
+    // Pre-parsing doesn't show up as parsing.
+    assertThat(parser.isParsing).isFalse()
+
+    val futureCapture = parser.getCapture(ANY_TRACE_ID)!!
+    assertThat(futureCapture.isDone).isTrue()
+    checkValidCapture(futureCapture.get())
+
+    // Selecting the capture later doesn't parse it again.
+    assertThat(parser.parse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID, traceBytes, CpuProfiler.CpuProfilerType.ART))
+      .isSameAs(futureCapture)
+  }
+
+  @Test
+  fun preParsingSkipsTracesWhichCannotBeFetched() {
+    val parser = CpuCaptureParser(FakeIdeProfilerServices())
+    parser.preParse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID) {
+      CpuProfiler.GetTraceResponse.newBuilder().setStatus(CpuProfiler.GetTraceResponse.Status.FAILURE).build()
+    }
+    assertThat(parser.getCapture(ANY_TRACE_ID)).isNull()
+
+    parser.preParse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID) { throw RuntimeException("Connection lost") }
+    assertThat(parser.getCapture(ANY_TRACE_ID)).isNull()
+  }
+
   /**
    * Check some fields of a [CpuCapture] to see if it was properly built.
    */
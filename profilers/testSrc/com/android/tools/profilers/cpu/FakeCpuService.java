@@ -89,6 +89,8 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
 
   private List<String> myTraceFilePaths = new ArrayList<>();
 
+  private List<CpuProfiler.GetThreadsRequest> myGetThreadsRequests = new ArrayList<>();
+
   /**
    * Session used in start/stop capturing gRPC requests in this fake service.
    */
@@ -325,6 +327,7 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
 
   @Override
   public void getThreads(CpuProfiler.GetThreadsRequest request, StreamObserver<CpuProfiler.GetThreadsResponse> responseObserver) {
+    myGetThreadsRequests.add(request);
     CpuProfiler.GetThreadsResponse.Builder response = CpuProfiler.GetThreadsResponse.newBuilder();
     List<CpuProfiler.GetThreadsResponse.Thread> threads = new ArrayList<>();
     if (myValidTrace) {
@@ -367,6 +370,10 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
     return myTraceFilePaths;
   }
 
+  public List<CpuProfiler.GetThreadsRequest> getGetThreadsRequests() {
+    return myGetThreadsRequests;
+  }
+
   /**
    * Create two threads that overlap for certain amount of time.
    * They are referred as thread1 and thread2 in the comments present in the tests.
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.FakeTimer;
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.profiler.proto.CpuProfiler;
+import com.android.tools.profilers.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ThreadStateTimelineTest {
+  private final FakeCpuService myCpuService = new FakeCpuService();
+  @Rule
+  public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("ThreadStateTimelineTest", myCpuService, new FakeProfilerService());
+  private StudioProfilers myProfilers;
+
+  @Before
+  public void setUp() {
+    FakeTimer timer = new FakeTimer();
+    myProfilers = new StudioProfilers(myGrpcChannel.getClient(), new FakeIdeProfilerServices(), timer);
+    // One second must be enough for new devices (and processes) to be picked up
+    timer.tick(FakeTimer.ONE_SECOND_IN_NS);
+  }
+
+  @Test
+  public void threadRowsShareOneQueryPerRange() {
+    addThreads(100);
+    Range range = new Range();
+    CpuThreadsModel model = new CpuThreadsModel(range, new CpuProfilerStage(myProfilers), ProfilersTestData.SESSION_DATA);
+
+    range.set(TimeUnit.SECONDS.toMicros(1), TimeUnit.SECONDS.toMicros(10));
+    int requestCount = myCpuService.getGetThreadsRequests().size();
+    for (int i = 0; i < model.getSize(); i++) {
+      assertThat(model.getElementAt(i).getStateSeries().getDataForXRange(range)).isNotEmpty();
+    }
+    assertThat(model.getSize()).isEqualTo(102);
+    assertThat(myCpuService.getGetThreadsRequests()).hasSize(requestCount);
+  }
+
+  @Test
+  public void forwardRangesOnlyQueryTheirEnd() {
+    ThreadStateTimeline timeline =
+      new ThreadStateTimeline(myProfilers.getClient().getCpuClient(), ProfilersTestData.SESSION_DATA);
+    timeline.update(TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(7));
+    timeline.update(TimeUnit.SECONDS.toNanos(2), TimeUnit.SECONDS.toNanos(12));
+
+    CpuProfiler.GetThreadsRequest request = myCpuService.getGetThreadsRequests().get(myCpuService.getGetThreadsRequests().size() - 1);
+    assertThat(request.getStartTimestamp()).isEqualTo(TimeUnit.SECONDS.toNanos(7) - ThreadStateTimeline.LATE_DATA_NS);
+    assertThat(request.getEndTimestamp()).isEqualTo(TimeUnit.SECONDS.toNanos(12));
+    assertThat(timeline.getThreadNames()).containsExactly(1, "Thread 1", 2, "Thread 2").inOrder();
+
+    // Thread 2 changes state at 6, 8 and 10 seconds, the first change coming from the first query and the others from the second.
+    List<SeriesData<CpuProfilerStage.ThreadState>> states = timeline.getStates(2, TimeUnit.SECONDS.toNanos(2), TimeUnit.SECONDS.toNanos(12));
+    assertThat(getTimesSec(states)).containsExactly(6L, 8L, 10L, 12L).inOrder();
+    assertThat(states.get(0).value).isEqualTo(CpuProfilerStage.ThreadState.RUNNING);
+    assertThat(states.get(2).value).isEqualTo(CpuProfilerStage.ThreadState.SLEEPING);
+
+    // Sub-ranges are answered from what was already queried, starting with the state the thread was in.
+    int requestCount = myCpuService.getGetThreadsRequests().size();
+    states = timeline.getStates(2, TimeUnit.SECONDS.toNanos(9), TimeUnit.SECONDS.toNanos(11));
+    assertThat(getTimesSec(states)).containsExactly(9L, 10L).inOrder();
+    assertThat(states.get(0).value).isEqualTo(CpuProfilerStage.ThreadState.UNKNOWN);
+    assertThat(myCpuService.getGetThreadsRequests()).hasSize(requestCount);
+  }
+
+  @Test
+  public void forwardRangesKeepThreadsWhichDiedInTheRange() {
+    ThreadStateTimeline timeline =
+      new ThreadStateTimeline(myProfilers.getClient().getCpuClient(), ProfilersTestData.SESSION_DATA);
+    timeline.update(0, TimeUnit.SECONDS.toNanos(10));
+    // Thread 1 dies at 8 seconds, 2 seconds into the range, before the start of the forward query.
+    timeline.update(TimeUnit.SECONDS.toNanos(6), TimeUnit.SECONDS.toNanos(16));
+    CpuProfiler.GetThreadsRequest request = myCpuService.getGetThreadsRequests().get(myCpuService.getGetThreadsRequests().size() - 1);
+    assertThat(request.getStartTimestamp()).isGreaterThan(TimeUnit.SECONDS.toNanos(8));
+    assertThat(timeline.getThreadNames()).containsExactly(1, "Thread 1", 2, "Thread 2");
+    List<SeriesData<CpuProfilerStage.ThreadState>> states = timeline.getStates(1, TimeUnit.SECONDS.toNanos(6), TimeUnit.SECONDS.toNanos(16));
+    assertThat(getTimesSec(states)).containsExactly(6L, 8L).inOrder();
+    assertThat(states.get(1).value).isEqualTo(CpuProfilerStage.ThreadState.DEAD);
+
+    // Once its death is out of the range, the thread is dropped.
+    timeline.update(TimeUnit.SECONDS.toNanos(9), TimeUnit.SECONDS.toNanos(19));
+    assertThat(timeline.getThreadNames()).containsExactly(2, "Thread 2");
+  }
+
+  @Test
+  public void frameQueriesDoNotDependOnThreadCount() {
+    int threadCount = 0;
+    for (int newThreadCount : new int[]{100, 200, 400}) {
+      addThreads(threadCount, newThreadCount - threadCount);
+      threadCount = newThreadCount;
+      Range range = new Range();
+      CpuThreadsModel model = new CpuThreadsModel(range, new CpuProfilerStage(myProfilers), ProfilersTestData.SESSION_DATA);
+
+      int requestCount = myCpuService.getGetThreadsRequests().size();
+      int frameCount = 60;
+      for (int frame = 0; frame < frameCount; frame++) {
+        range.set(TimeUnit.MILLISECONDS.toMicros(frame * 16), TimeUnit.MILLISECONDS.toMicros(10000 + frame * 16));
+        for (int i = 0; i < model.getSize(); i++) {
+          model.getElementAt(i).getStateSeries().getDataForXRange(range);
+        }
+      }
+      // One query per frame, whatever the number of threads.
+      assertThat(myCpuService.getGetThreadsRequests().size() - requestCount).isEqualTo(frameCount);
+    }
+  }
+
+  private void addThreads(int count) {
+    addThreads(0, count);
+  }
+
+  private void addThreads(int first, int count) {
+    for (int tid = 1000 + first; tid < 1000 + first + count; tid++) {
+      List<CpuProfiler.GetThreadsResponse.ThreadActivity> activities = new ArrayList<>();
+      for (int second = 0; second < 10; second++) {
+        activities.add(CpuProfiler.GetThreadsResponse.ThreadActivity.newBuilder()
+                                                                     .setTimestamp(TimeUnit.SECONDS.toNanos(second))
+                                                                     .setNewState(second % 2 == 0
+                                                                                  ? CpuProfiler.GetThreadsResponse.State.RUNNING
+                                                                                  : CpuProfiler.GetThreadsResponse.State.SLEEPING)
+                                                                     .build());
+      }
+      myCpuService.addAdditionalThreads(tid, "Thread " + tid, activities);
+    }
+  }
+
+  private static List<Long> getTimesSec(List<SeriesData<CpuProfilerStage.ThreadState>> states) {
+    List<Long> times = new ArrayList<>();
+    for (SeriesData<CpuProfilerStage.ThreadState> state : states) {
+      times.add(TimeUnit.MICROSECONDS.toSeconds(state.x));
+    }
+    return times;
+  }
+}
@@ -19,8 +19,12 @@ import com.android.tools.profilers.cpu.CpuProfilerTestUtils
 import com.google.common.truth.Truth.assertThat
 import org.junit.Before
 import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
 import java.io.FileInputStream
+import java.io.FileOutputStream
 import java.io.InputStreamReader
+import java.util.zip.DeflaterOutputStream
 
 class AtraceDecompressorTest {
 
@@ -99,6 +103,26 @@ class AtraceDecompressorTest {
     while (line != null)
   }
 
+  @Test
+  fun testSlicesMatchLinesAcrossChunks() {
+    val lines = createSyntheticLines(20000)
+    val decompressor = AtraceDecompressor(createSyntheticTrace(lines, 3))
+    assertThat(decompressor.next().toString()).isEqualTo("# Initial Data Required by Importer\n")
+    for (line in lines) {
+      assertThat(decompressor.next().toString()).isEqualTo(line + "\n")
+    }
+    assertThat(decompressor.next()).isNull()
+  }
+
+  @Test
+  fun testCopyToWritesInflatedTrace() {
+    val lines = createSyntheticLines(20000)
+    val decompressor = AtraceDecompressor(createSyntheticTrace(lines, 3))
+    val output = ByteArrayOutputStream()
+    decompressor.copyTo(output)
+    assertThat(output.toString("UTF-8")).isEqualTo(lines.joinToString("\n", postfix = "\n"))
+  }
+
   // Adding a kotlin property fopr AtraceDecompressor to assist with iterating lines.
   val AtraceDecompressor.lines: Iterator<String>
     get() = object : Iterator<String> {
@@ -114,6 +138,37 @@ class AtraceDecompressorTest {
       override fun hasNext() = line != null
     }
 
+  private fun createSyntheticLines(count: Int): List<String> {
+    val lines = mutableListOf("# tracer: nop", "#")
+    for (i in 0 until count - lines.size) {
+      val cpu = i % 8
+      val timestamp = String.format("%d.%06d", 87688 + i / 1000000, i % 1000000)
+      lines.add(String.format("RenderThread-%d  ( %d) [%03d] ...1 %s: tracing_mark_write: B|%d|DrawFrame %d", 1000 + cpu, 1000 + cpu,
+                              cpu, timestamp, 1000 + cpu, i))
+    }
+    return lines
+  }
+
+  /**
+   * Writes the given lines as an atrace file made of the given number of compressed chunks.
+   */
+  private fun createSyntheticTrace(lines: List<String>, chunkCount: Int): File {
+    val file = File.createTempFile("synthetic", ".ctrace")
+    file.deleteOnExit()
+    FileOutputStream(file).use { output ->
+      val linesPerChunk = (lines.size + chunkCount - 1) / chunkCount
+      for (start in lines.indices step linesPerChunk) {
+        output.write(AtraceDecompressor.HEADER.toByteArray())
+        val chunk = ByteArrayOutputStream()
+        DeflaterOutputStream(chunk).use {
+          it.write(lines.subList(start, Math.min(start + linesPerChunk, lines.size)).joinToString("\n", postfix = "\n").toByteArray())
+        }
+        chunk.writeTo(output)
+      }
+    }
+    return file
+  }
+
   companion object {
     // Setting const for atrace file in one location so if we update file we can update const in one location.
 
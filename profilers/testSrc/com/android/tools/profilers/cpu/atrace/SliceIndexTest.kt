@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import trebuchet.model.base.SliceGroup
+import trebuchet.model.fragments.SliceGroupBuilder.MutableSliceGroup
+import java.util.regex.Pattern
+
+class SliceIndexTest {
+  @Test
+  fun rangeQueryOnlyReturnsOverlappingSlicesDepthFirst() {
+    val index = SliceIndex(buildSlices())
+    assertThat(enumerateNames(index, null, 2.5, 4.5)).containsExactly("Frame1", "Measure1", "Draw1").inOrder()
+    assertThat(enumerateNames(index, null, 10.0, 20.0)).isEmpty()
+  }
+
+  @Test
+  fun nameQueryReturnsMatchingSlicesDepthFirst() {
+    val index = SliceIndex(buildSlices())
+    assertThat(enumerateNames(index, Pattern.compile("Draw.*"), 0.0, 10.0)).containsExactly("Draw0", "Draw1", "Draw2").inOrder()
+    assertThat(enumerateNames(index, Pattern.compile("Draw.*"), 2.5, 4.5)).containsExactly("Draw1")
+    assertThat(enumerateNames(index, Pattern.compile("Missing"), 0.0, 10.0)).isEmpty()
+  }
+
+  @Test
+  fun childrenOfSkippedSlicesAreNotEnumerated() {
+    val index = SliceIndex(buildSlices())
+    val names = mutableListOf<String>()
+    index.enumerate(Pattern.compile("(Frame|Draw).*"), 0.0, 10.0) { slice ->
+      names.add(slice.name)
+      SliceStream.EnumerationResult.SKIP_CHILDREN
+    }
+    assertThat(names).containsExactly("Frame0", "Frame1", "Frame2").inOrder()
+  }
+
+  @Test
+  fun unsortedSiblingsAreFound() {
+    val slices = listOf(MutableSliceGroup(5.0, 6.0, false, 0.0, "Late", mutableListOf()),
+                        MutableSliceGroup(1.0, 2.0, false, 0.0, "Early", mutableListOf()))
+    val index = SliceIndex(slices)
+    assertThat(enumerateNames(index, null, 0.0, 10.0)).containsExactly("Early", "Late").inOrder()
+    assertThat(enumerateNames(index, null, 1.5, 1.5)).containsExactly("Early")
+  }
+
+  @Test
+  fun queriesOnManySlices() {
+    val slices = mutableListOf<MutableSliceGroup>()
+    for (frame in 0 until 25000) {
+      val start = frame * 16.0
+      val children = mutableListOf(MutableSliceGroup(start + 1, start + 5, false, 0.0, "measure", mutableListOf()),
+                                   MutableSliceGroup(start + 5, start + 9, false, 0.0, "layout", mutableListOf()),
+                                   MutableSliceGroup(start + 9, start + 15, false, 0.0, "draw", mutableListOf()))
+      slices.add(MutableSliceGroup(start, start + 15, false, 0.0, "Choreographer#doFrame", children))
+    }
+
+    val index = SliceIndex(slices)
+    assertThat(index.sliceCount).isEqualTo(100000)
+
+    val queryCount = 100
+    var found = 0
+    for (i in 0 until queryCount) {
+      // Roughly what a timeline showing 100 frames asks for.
+      val min = (i * 3989 % 25000) * 16.0
+      index.enumerate(null, min, min + 1600) { found++; SliceStream.EnumerationResult.CONTINUE }
+    }
+    assertThat(found).isGreaterThan(queryCount)
+
+    var frames = 0
+    SliceStream(index).matchPattern(Pattern.compile("Choreographer#doFrame")).enumerate {
+      frames++
+      SliceStream.EnumerationResult.SKIP_CHILDREN
+    }
+    assertThat(frames).isEqualTo(25000)
+  }
+
+  private fun enumerateNames(index: SliceIndex, pattern: Pattern?, min: Double, max: Double): List<String> {
+    val names = mutableListOf<String>()
+    index.enumerate(pattern, min, max) { slice ->
+      names.add(slice.name)
+      SliceStream.EnumerationResult.CONTINUE
+    }
+    return names
+  }
+
+  /**
+   * Builds three frames, from i * 3 to i * 3 + 2, each with a measure and a draw slice.
+   */
+  private fun buildSlices(): List<SliceGroup> {
+    val slices = mutableListOf<SliceGroup>()
+    for (i in 0..2) {
+      val start = i * 3.0
+      val children = mutableListOf(MutableSliceGroup(start, start + 1, false, 0.0, "Measure$i", mutableListOf()),
+                                   MutableSliceGroup(start + 1, start + 2, false, 0.0, "Draw$i", mutableListOf()))
+      slices.add(MutableSliceGroup(start, start + 2, false, 0.0, "Frame$i", children))
+    }
+    return slices
+  }
+}
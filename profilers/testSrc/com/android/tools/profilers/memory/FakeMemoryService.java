@@ -136,6 +136,7 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
   private LegacyAllocationEventsResponse.Builder myAllocationEventsBuilder = LegacyAllocationEventsResponse.newBuilder();
   private AllocationContextsResponse.Builder myAllocationContextBuilder = AllocationContextsResponse.newBuilder();
   private int myTrackAllocationCount;
+  private int myGetAllocationsCount;
   private Common.Session mySession;
   private int mySamplingRate = 1;
 
@@ -278,6 +279,7 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
   @Override
   public void getAllocations(AllocationSnapshotRequest request,
                              StreamObserver<BatchAllocationSample> responseObserver) {
+    myGetAllocationsCount++;
     boolean liveObjectsOnly = request.getLiveObjectsOnly();
     long startTime = Math.max(0, request.getStartTime());
     startTime = (long)Math.ceil(startTime / (float)US_TO_NS) * US_TO_NS;
@@ -559,6 +561,10 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
     myTrackAllocationCount = 0;
   }
 
+  public int getGetAllocationsCount() {
+    return myGetAllocationsCount;
+  }
+
   public int getSamplingRate() {
     return mySamplingRate;
   }
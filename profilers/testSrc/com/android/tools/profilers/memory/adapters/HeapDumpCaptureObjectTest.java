@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory.adapters;
 
+import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.adtui.model.FakeTimer;
 import com.android.tools.perflib.heap.SnapshotBuilder;
 import com.android.tools.profiler.proto.MemoryProfiler;
@@ -24,12 +25,15 @@ import com.android.tools.profilers.ProfilersTestData;
 import com.android.tools.profilers.StudioProfilers;
 import com.android.tools.profilers.memory.FakeCaptureObjectLoader;
 import com.android.tools.profilers.memory.FakeMemoryService;
+import com.android.tools.profilers.memory.MemoryProfilerAspect;
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -134,6 +138,124 @@ public class HeapDumpCaptureObjectTest {
     assertEquals(reference1.getReferenceInstance(), instance0);
   }
 
+  @Test
+  public void testClassSetsAreAggregatedUntilGroupingChanges() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(6, testHeap.getTotalObjectCount());
+    ClassSet class0 = (ClassSet)testHeap.getChildrenClassifierSets().stream()
+      .filter(classifier -> "Class0".equals(((ClassSet)classifier).getClassEntry().getClassName())).findFirst().orElse(null);
+    assertNotNull(class0);
+    assertEquals(1, class0.getTotalObjectCount());
+    assertEquals(1, class0.getDeltaAllocationCount());
+    // The instances of the class are created when it is expanded.
+    InstanceObject instance0 = class0.getInstancesStream().findFirst().orElse(null);
+    assertNotNull(instance0);
+    assertEquals(instance0.getShallowSize(), class0.getTotalShallowSize());
+    assertEquals(instance0.getRetainedSize(), class0.getTotalRetainedSize());
+
+    // Other groupings are populated with instances.
+    myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE);
+    assertEquals(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE, testHeap.getClassGrouping());
+    assertEquals(6, testHeap.getTotalObjectCount());
+    assertEquals(6, testHeap.getInstancesCount());
+    assertTrue(testHeap.getInstancesStream().anyMatch(instance -> instance == instance0));
+
+    myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_CLASS);
+    assertEquals(6, testHeap.getTotalObjectCount());
+    assertEquals(3, testHeap.getChildrenClassifierSets().size());
+    capture.unload();
+  }
+
+  @Test
+  public void testGroupingChangeKeepsContentsUntilRepopulated() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    List<Runnable> joinerTasks = new ArrayList<>();
+    assertTrue(capture.load(null, joinerTasks::add));
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    AspectObserver observer = new AspectObserver();
+    int[] contentsChangeCount = new int[1];
+    myStage.getAspect().addDependency(observer).onChange(MemoryProfilerAspect.CURRENT_HEAP_CONTENTS, () -> {
+      // By the time the view is told to refresh, the heap is populated for the new grouping.
+      assertFalse(testHeap.hasUnloadedInstances());
+      assertEquals(6, testHeap.getInstancesCount());
+      contentsChangeCount[0]++;
+    });
+
+    myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE);
+    // Whatever order the grouping listeners run in, the heap isn't emptied while it is being repopulated.
+    assertEquals(6, testHeap.getTotalObjectCount());
+    assertEquals(0, contentsChangeCount[0]);
+    assertTrue(testHeap.hasUnloadedInstances());
+
+    joinerTasks.forEach(Runnable::run);
+    assertEquals(1, contentsChangeCount[0]);
+    assertEquals(6, testHeap.getTotalObjectCount());
+    capture.unload();
+  }
+
+  @Test
+  public void testRetainedSizesFollowDominators() throws Exception {
+    // 1 is the root and references 2 and 3, which both reference 4. 4 is only dominated by 1.
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(4, 0, 0)
+      .addReferences(1, 2, 3)
+      .addReferences(2, 4)
+      .addReferences(3, 4)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(13).setEndTime(18).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    assertTrue(capture.load(null, null));
+
+    InstanceObject instance1 = findInstance(capture, "Class0");
+    InstanceObject instance2 = findInstance(capture, "Class1");
+    InstanceObject instance3 = findInstance(capture, "Class2");
+    InstanceObject instance4 = findInstance(capture, "Class3");
+    assertEquals(0, instance1.getDepth());
+    assertEquals(1, instance2.getDepth());
+    assertEquals(1, instance3.getDepth());
+    assertEquals(2, instance4.getDepth());
+    assertEquals(instance2.getShallowSize(), instance2.getRetainedSize());
+    assertEquals(instance3.getShallowSize(), instance3.getRetainedSize());
+    assertEquals(instance4.getShallowSize(), instance4.getRetainedSize());
+    assertEquals(instance1.getShallowSize() + instance2.getShallowSize() + instance3.getShallowSize() + instance4.getShallowSize(),
+                 instance1.getRetainedSize());
+    capture.unload();
+
+    // Loading the same dump again reuses the results.
+    HeapDumpCaptureObject reopenedCapture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    assertTrue(reopenedCapture.load(null, null));
+    assertEquals(instance1.getRetainedSize(), findInstance(reopenedCapture, "Class0").getRetainedSize());
+    assertEquals(2, findInstance(reopenedCapture, "Class3").getDepth());
+    reopenedCapture.unload();
+  }
+
   @Test
   public void testDefaultHeapShowsUpWhenItIsNonEmpty() throws Exception {
     long startTimeNs = 3;
@@ -199,6 +321,14 @@ public class HeapDumpCaptureObjectTest {
     assertEquals(0, capture.getHeapSets().size());
   }
 
+  @NotNull
+  private static InstanceObject findInstance(@NotNull HeapDumpCaptureObject capture, @NotNull String className) {
+    InstanceObject instance = capture.getInstances()
+      .filter(instanceObject -> className.equals(instanceObject.getClassEntry().getClassName())).findFirst().orElse(null);
+    assertNotNull(instance);
+    return instance;
+  }
+
   private static void verifyInstance(@NotNull InstanceObject instance,
                                      @NotNull String valueText,
                                      int depth,
@@ -37,7 +37,10 @@ import com.android.tools.profilers.memory.MemoryProfilerConfiguration;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -727,6 +730,162 @@ public class LiveAllocationCaptureObjectTest {
   }
 
 
+  public static class ClassAggregationTest extends LiveAllocationCaptureObjectTest {
+
+    @Before
+    @Override
+    public void before() {
+      super.before();
+      myService.resetLatestAllocationTime();
+    }
+
+    @Test
+    public void testAggregatesMatchInstances() throws Exception {
+      Range instanceRange = new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4);
+      LiveAllocationCaptureObject instanceCapture = createCapture();
+      instanceCapture.load(instanceRange, LOAD_JOINER);
+
+      myIdeProfilerServices.enableLiveAllocationsAggregation(true);
+      Range aggregateRange = new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4);
+      LiveAllocationCaptureObject aggregateCapture = createCapture();
+      aggregateCapture.load(aggregateRange, LOAD_JOINER);
+      verifySameClassSets(instanceCapture.getHeapSet(DEFAULT_HEAP_ID), aggregateCapture.getHeapSet(DEFAULT_HEAP_ID));
+
+      // Selection changes are applied incrementally to the aggregates.
+      instanceRange.setMin(CAPTURE_START_TIME + 2);
+      aggregateRange.setMin(CAPTURE_START_TIME + 2);
+      verifySameClassSets(instanceCapture.getHeapSet(DEFAULT_HEAP_ID), aggregateCapture.getHeapSet(DEFAULT_HEAP_ID));
+
+      instanceRange.setMax(CAPTURE_START_TIME + 2);
+      aggregateRange.setMax(CAPTURE_START_TIME + 2);
+      verifySameClassSets(instanceCapture.getHeapSet(DEFAULT_HEAP_ID), aggregateCapture.getHeapSet(DEFAULT_HEAP_ID));
+
+      instanceRange.set(CAPTURE_START_TIME, CAPTURE_START_TIME + 4);
+      aggregateRange.set(CAPTURE_START_TIME, CAPTURE_START_TIME + 4);
+      verifySameClassSets(instanceCapture.getHeapSet(DEFAULT_HEAP_ID), aggregateCapture.getHeapSet(DEFAULT_HEAP_ID));
+    }
+
+    @Test
+    public void testGroupingChangeReloadsInstances() throws Exception {
+      myIdeProfilerServices.enableLiveAllocationsAggregation(true);
+      LiveAllocationCaptureObject capture = createCapture();
+      capture.load(new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4), LOAD_JOINER);
+      HeapSet heapSet = capture.getHeapSet(DEFAULT_HEAP_ID);
+      assertThat(heapSet.getChildrenClassifierSets()).hasSize(4);
+
+      myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE);
+      assertThat(heapSet.getClassGrouping()).isEqualTo(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_PACKAGE);
+      Queue<ClassifierSetTestData> expected = new LinkedList<>();
+      expected.add(new ClassifierSetTestData(0, DEFAULT_HEAP_NAME, 4, 2, 2, 4, 2, true));
+      expected.add(new ClassifierSetTestData(1, "This", 2, 1, 1, 2, 2, true));
+      expected.add(new ClassifierSetTestData(2, "Is", 1, 1, 0, 1, 1, true));
+      expected.add(new ClassifierSetTestData(3, "Foo", 1, 1, 0, 1, 0, true));
+      expected.add(new ClassifierSetTestData(2, "Also", 1, 0, 1, 1, 1, true));
+      expected.add(new ClassifierSetTestData(3, "Foo", 1, 0, 1, 1, 0, true));
+      expected.add(new ClassifierSetTestData(1, "That", 2, 1, 1, 2, 2, true));
+      expected.add(new ClassifierSetTestData(2, "Is", 1, 1, 0, 1, 1, true));
+      expected.add(new ClassifierSetTestData(3, "Bar", 1, 1, 0, 1, 0, true));
+      expected.add(new ClassifierSetTestData(2, "Also", 1, 0, 1, 1, 1, true));
+      expected.add(new ClassifierSetTestData(3, "Bar", 1, 0, 1, 1, 0, true));
+      verifyClassifierResult(heapSet, expected, 0);
+
+      myStage.getConfiguration().setClassGrouping(MemoryProfilerConfiguration.ClassGrouping.ARRANGE_BY_CLASS);
+      assertThat(heapSet.getChildrenClassifierSets()).hasSize(4);
+      assertThat(heapSet.getTotalObjectCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSelectionChecksDoNotLoadInstances() throws Exception {
+      LiveAllocationCaptureObject instanceCapture = createCapture();
+      instanceCapture.load(new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4), LOAD_JOINER);
+      ClassSet instanceClassSet = (ClassSet)instanceCapture.getHeapSet(DEFAULT_HEAP_ID).getChildrenClassifierSets().get(0);
+      InstanceObject instance = instanceClassSet.getInstancesStream().findFirst().orElse(null);
+      assertThat(instance).isNotNull();
+
+      myIdeProfilerServices.enableLiveAllocationsAggregation(true);
+      LiveAllocationCaptureObject capture = createCapture();
+      capture.load(new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4), LOAD_JOINER);
+      HeapSet heapSet = capture.getHeapSet(DEFAULT_HEAP_ID);
+
+      // Reselecting a class or an instance is answered from the aggregates.
+      assertThat(heapSet.isSupersetOf(instanceClassSet)).isTrue();
+      ClassifierSet containingSet = heapSet.findContainingClassifierSet(instance);
+      assertThat(containingSet).isInstanceOf(ClassSet.class);
+      assertThat(((ClassSet)containingSet).getClassEntry()).isEqualTo(instanceClassSet.getClassEntry());
+      for (ClassifierSet classifierSet : heapSet.getChildrenClassifierSets()) {
+        assertThat(classifierSet.hasUnloadedInstances()).isTrue();
+      }
+
+      // Listing the instances of a class only loads that class.
+      assertThat(containingSet.getInstancesCount()).isEqualTo(instanceClassSet.getInstancesCount());
+      for (ClassifierSet classifierSet : heapSet.getChildrenClassifierSets()) {
+        assertThat(classifierSet.hasUnloadedInstances()).isEqualTo(classifierSet != containingSet);
+      }
+    }
+
+    @Test
+    public void testClassesOfARangeShareItsEvents() throws Exception {
+      myIdeProfilerServices.enableLiveAllocationsAggregation(true);
+      LiveAllocationCaptureObject capture = createCapture();
+      Range range = new Range(CAPTURE_START_TIME, CAPTURE_START_TIME + 4);
+      capture.load(range, LOAD_JOINER);
+      List<ClassifierSet> classSets = capture.getHeapSet(DEFAULT_HEAP_ID).getChildrenClassifierSets();
+      assertThat(classSets).hasSize(4);
+
+      // The events of the range are only fetched for the first class whose instances are listed.
+      int requestCount = myService.getGetAllocationsCount();
+      assertThat(classSets.get(0).getInstancesCount()).isGreaterThan(0);
+      int firstClassRequestCount = myService.getGetAllocationsCount();
+      assertThat(firstClassRequestCount).isGreaterThan(requestCount);
+      for (ClassifierSet classSet : classSets) {
+        assertThat(classSet.getInstancesCount()).isGreaterThan(0);
+      }
+      assertThat(myService.getGetAllocationsCount()).isEqualTo(firstClassRequestCount);
+
+      // A new range fetches its own events.
+      range.setMax(CAPTURE_START_TIME + 2);
+      classSets = capture.getHeapSet(DEFAULT_HEAP_ID).getChildrenClassifierSets();
+      int newRangeRequestCount = myService.getGetAllocationsCount();
+      classSets.forEach(ClassifierSet::getInstancesCount);
+      assertThat(myService.getGetAllocationsCount()).isGreaterThan(newRangeRequestCount);
+    }
+
+    @NotNull
+    private LiveAllocationCaptureObject createCapture() {
+      return new LiveAllocationCaptureObject(myGrpcChannel.getClient().getMemoryClient(),
+                                             ProfilersTestData.SESSION_DATA,
+                                             CAPTURE_START_TIME,
+                                             MoreExecutors.newDirectExecutorService(),
+                                             myStage);
+    }
+
+    private static void verifySameClassSets(@NotNull HeapSet instanceHeap, @NotNull HeapSet aggregateHeap) {
+      assertThat(aggregateHeap.getDeltaAllocationCount()).isEqualTo(instanceHeap.getDeltaAllocationCount());
+      assertThat(aggregateHeap.getDeltaDeallocationCount()).isEqualTo(instanceHeap.getDeltaDeallocationCount());
+      assertThat(aggregateHeap.getTotalObjectCount()).isEqualTo(instanceHeap.getTotalObjectCount());
+      assertThat(aggregateHeap.getTotalShallowSize()).isEqualTo(instanceHeap.getTotalShallowSize());
+
+      Map<String, ClassSet> instanceClassSets = new HashMap<>();
+      for (ClassifierSet classifierSet : instanceHeap.getChildrenClassifierSets()) {
+        instanceClassSets.put(((ClassSet)classifierSet).getClassEntry().getClassName(), (ClassSet)classifierSet);
+      }
+      List<ClassifierSet> aggregateClassSets = aggregateHeap.getChildrenClassifierSets();
+      assertThat(aggregateClassSets).hasSize(instanceClassSets.size());
+      for (ClassifierSet classifierSet : aggregateClassSets) {
+        ClassSet aggregate = (ClassSet)classifierSet;
+        ClassSet instance = instanceClassSets.get(aggregate.getClassEntry().getClassName());
+        assertThat(instance).isNotNull();
+        assertThat(aggregate.getDeltaAllocationCount()).isEqualTo(instance.getDeltaAllocationCount());
+        assertThat(aggregate.getDeltaDeallocationCount()).isEqualTo(instance.getDeltaDeallocationCount());
+        assertThat(aggregate.getTotalObjectCount()).isEqualTo(instance.getTotalObjectCount());
+        assertThat(aggregate.getTotalShallowSize()).isEqualTo(instance.getTotalShallowSize());
+        assertThat(aggregate.hasStackInfo()).isEqualTo(instance.hasStackInfo());
+        // Loads the instances of the class on demand.
+        assertThat(aggregate.getInstancesCount()).isEqualTo(instance.getInstancesCount());
+      }
+    }
+  }
+
   private static boolean verifyClassifierResult(@NotNull ClassifierSet node,
                                                 @NotNull Queue<ClassifierSetTestData> expected,
                                                 int currentDepth) {
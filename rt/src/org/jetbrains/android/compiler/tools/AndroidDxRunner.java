@@ -5,8 +5,7 @@ import com.intellij.openapi.util.io.FileUtilRt;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -30,6 +29,13 @@ public class AndroidDxRunner {
 
   @NonNls private final static String MAIN_RUN = "run";
 
+  /**
+   * When passed as the only argument, the runner stays alive and executes dex requests read from stdin
+   * (see {@link #runDaemon()}), so that JVM startup and JIT warm-up are paid once per build process.
+   */
+  @NonNls public final static String DAEMON_ARG = "--daemon";
+
+  private static String myLoadedDxPath;
   private static Method myMethod;
 
   private static Constructor<?> myConstructor;
@@ -52,6 +58,12 @@ public class AndroidDxRunner {
   private AndroidDxRunner() { }
 
   private static void loadDex(String dxPath) {
+    if (dxPath.equals(myLoadedDxPath) && myMethod != null) {
+      // Keep the already loaded (and JIT-compiled) dx classes around between daemon requests
+      return;
+    }
+    myMethod = null;
+    myLoadedDxPath = dxPath;
     try {
       File f = new File(dxPath);
       if (!f.isFile()) {
@@ -256,6 +268,72 @@ public class AndroidDxRunner {
   }
 
   public static void main(String[] args) {
+    if (args.length == 1 && DAEMON_ARG.equals(args[0])) {
+      try {
+        runDaemon();
+      }
+      catch (IOException e) {
+        reportError("I/O error", e);
+      }
+      return;
+    }
+    run(args);
+  }
+
+  /**
+   * Serves dex requests until stdin is closed. Every request is an argument count followed by the arguments,
+   * exactly as they would be passed to {@link #main(String[])}. Every response is the exit code followed by
+   * the captured stdout and stderr of the request.
+   */
+  private static void runDaemon() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+
+    while (true) {
+      int argCount;
+      try {
+        argCount = in.readInt();
+      }
+      catch (EOFException e) {
+        return;
+      }
+      String[] args = new String[argCount];
+      for (int i = 0; i < argCount; i++) {
+        args[i] = in.readUTF();
+      }
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int exitCode;
+      try {
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+        exitCode = run(args);
+      }
+      catch (Throwable t) {
+        reportError("Unable to execute DX", t);
+        exitCode = -1;
+      }
+      finally {
+        System.out.flush();
+        System.err.flush();
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+      }
+      out.writeInt(exitCode);
+      writeBytes(out, stdout.toByteArray());
+      writeBytes(out, stderr.toByteArray());
+      out.flush();
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static int run(String[] args) {
     if (args.length == 0) {
       System.err.println("Error: dx path must be passed as first argument");
     }
@@ -332,6 +410,6 @@ public class AndroidDxRunner {
     files.removeAll(Arrays.asList(excludedFiles));
     String[] filesArray = files.toArray(new String[files.size()]);
     //System.out.println("file names: " + concat(filesArray));
-    runDex(dxPath, outFilePath, filesArray, optimize, forceJumbo, coreLibrary, multiDex, mainDexList, minimalMainDex);
+    return runDex(dxPath, outFilePath, filesArray, optimize, forceJumbo, coreLibrary, multiDex, mainDexList, minimalMainDex);
   }
 }